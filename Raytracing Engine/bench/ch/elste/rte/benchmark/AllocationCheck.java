@@ -0,0 +1,128 @@
+package ch.elste.rte.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import ch.elste.math.Vector;
+import ch.elste.rte.HitRecord;
+import ch.elste.rte.Ray;
+import ch.elste.rte.scene.Scene;
+import ch.elste.rte.scene.SceneSnapshot;
+import ch.elste.rte.scene.light.PointLight;
+import ch.elste.rte.scene.shape.Sphere;
+
+/**
+ * Checks that the intersection hot path doesn't allocate. It counts the bytes
+ * the current thread allocates while testing rays against a sphere, tracing
+ * rays through the scene and testing shadow rays, also in a scene without
+ * primitives. Each of them has to allocate nothing and no ray may hit anything
+ * in the empty scene, otherwise the check fails with exit code 1.
+ * 
+ * @author Dillon Elste
+ */
+public class AllocationCheck {
+	private static final int WARMUP = 200_000;
+	private static final int ITERATIONS = 1_000_000;
+	private static final int ROUNDS = 3;
+
+	private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory
+			.getThreadMXBean();
+
+	private static double sink;
+
+	public static void main(String[] args) {
+		Random random = new Random(1);
+		Scene scene = new Scene();
+		scene.addLight(new PointLight(new Vector(5, 3, 0), 100));
+		for (int i = 0; i < 1000; i++) {
+			scene.addPrimitive(new Sphere(
+					new Vector(random.nextDouble() * 20 - 10, random.nextDouble() * 20 - 10, 5 + random.nextDouble() * 20),
+					.1 + random.nextDouble() * .4));
+		}
+		SceneSnapshot snapshot = scene.freeze();
+
+		Sphere sphere = new Sphere(new Vector(0, 0, 3), 1);
+		Ray hitRay = new Ray(snapshot, 0, 0, 0, 0, 0, 1);
+		Ray missRay = new Ray(snapshot, 0, 0, 0, 0, 1, 0);
+		Ray[] rays = new Ray[1024];
+		for (int i = 0; i < rays.length; i++) {
+			Vector d = new Vector(random.nextDouble() - .5, random.nextDouble() - .5, 1).normalize();
+			rays[i] = new Ray(snapshot, 0, 0, 0, d.x, d.y, d.z);
+		}
+		HitRecord hit = new HitRecord();
+
+		boolean passed = true;
+		passed &= check("Sphere.intersectionDistance (hit)", n -> sink += sphere.intersectionDistance(hitRay));
+		passed &= check("Sphere.intersectionDistance (miss)", n -> sink += sphere.intersectionDistance(missRay));
+		passed &= check("Ray.trace", n -> sink += rays[n & 1023].trace(hit, null) ? hit.distance : 0);
+		passed &= check("Ray.isOccluded", n -> sink += rays[n & 1023].isOccluded(30, null) ? 1 : 0);
+
+		SceneSnapshot linear = snapshot.withAccelerated(false);
+		for (Ray ray : rays) {
+			ray.scene = linear;
+		}
+		passed &= check("Ray.trace (linear)", n -> sink += rays[n & 1023].trace(hit, null) ? hit.distance : 0);
+		passed &= check("Ray.isOccluded (linear)", n -> sink += rays[n & 1023].isOccluded(30, null) ? 1 : 0);
+
+		Scene emptyScene = new Scene();
+		emptyScene.addLight(new PointLight(new Vector(5, 3, 0), 100));
+		SceneSnapshot empty = emptyScene.freeze();
+		for (Ray ray : rays) {
+			ray.scene = empty;
+		}
+		passed &= check("Ray.trace (empty)", n -> sink += rays[n & 1023].trace(hit, null) ? hit.distance : 0);
+		passed &= check("Ray.isOccluded (empty)", n -> sink += rays[n & 1023].isOccluded(30, null) ? 1 : 0);
+		for (Ray ray : rays) {
+			if (ray.trace(hit, null) || ray.isOccluded(30, null)) {
+				System.out.println("a ray hit something in the empty scene");
+				passed = false;
+				break;
+			}
+		}
+
+		System.out.println(passed ? "PASSED" : "FAILED");
+		if (!passed)
+			System.exit(1);
+	}
+
+	/**
+	 * Runs {@code test} and reports how many bytes were allocated per call.
+	 * 
+	 * @param name
+	 *            the name of the test
+	 * @param test
+	 *            the code to measure
+	 * 
+	 * @return true if nothing was allocated
+	 */
+	private static boolean check(String name, Test test) {
+		long thread = Thread.currentThread().getId();
+
+		for (int i = 0; i < WARMUP; i++) {
+			test.run(i);
+		}
+
+		// Calling getThreadAllocatedBytes may allocate itself, so it's measured first.
+		long overhead = THREADS.getThreadAllocatedBytes(thread);
+		overhead = THREADS.getThreadAllocatedBytes(thread) - overhead;
+
+		// The best of a few rounds is taken, so one time allocations of the runtime,
+		// like a recompilation, don't count.
+		long allocated = Long.MAX_VALUE;
+		for (int round = 0; round < ROUNDS; round++) {
+			long before = THREADS.getThreadAllocatedBytes(thread);
+			for (int i = 0; i < ITERATIONS; i++) {
+				test.run(i);
+			}
+			allocated = Math.min(allocated, Math.max(0, THREADS.getThreadAllocatedBytes(thread) - before - overhead));
+		}
+
+		System.out.printf("%-40s %8.3f bytes/call (%d bytes)%n", name, 1d * allocated / ITERATIONS, allocated);
+		return allocated == 0;
+	}
+
+	@FunctionalInterface
+	private interface Test {
+		void run(int iteration);
+	}
+}
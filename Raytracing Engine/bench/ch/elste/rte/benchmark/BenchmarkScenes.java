@@ -0,0 +1,45 @@
+package ch.elste.rte.benchmark;
+
+import ch.elste.math.Vector;
+import ch.elste.rte.scene.Scene;
+import ch.elste.rte.scene.light.PointLight;
+import ch.elste.rte.scene.shape.Sphere;
+
+/**
+ * Builds the scenes the benchmarks run on.
+ * 
+ * @author Dillon Elste
+ */
+class BenchmarkScenes {
+	private BenchmarkScenes() {
+	}
+
+	/**
+	 * Creates a scene with copies of the two spheres of the scene in
+	 * {@link ch.elste.rte.Main Main}, laid out on a grid in front of the camera.
+	 * Every copy adds two spheres.
+	 * 
+	 * @param copies
+	 *            the number of copies
+	 * 
+	 * @return the new scene
+	 */
+	static Scene createScaledMainScene(int copies) {
+		Scene scene = new Scene();
+		scene.addLight(new PointLight(new Vector(5, 3, 0), 100));
+
+		int side = (int) Math.ceil(Math.sqrt(copies));
+		double spacing = 2.5;
+		double scale = 16d / Math.max(1, side);
+
+		for (int i = 0; i < copies; i++) {
+			double x = ((i % side) - (side - 1) / 2d) * spacing * scale;
+			double y = ((i / side) - (side - 1) / 2d) * spacing * scale;
+
+			scene.addPrimitive(new Sphere(new Vector(x, y, 3 + 10 * scale), scale));
+			scene.addPrimitive(new Sphere(new Vector(x + scale, y, 2 + 10 * scale), .5 * scale));
+		}
+
+		return scene;
+	}
+}
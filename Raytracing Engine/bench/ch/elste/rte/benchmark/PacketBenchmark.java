@@ -0,0 +1,70 @@
+package ch.elste.rte.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import ch.elste.math.Vector;
+import ch.elste.rte.image.Camera;
+import ch.elste.rte.scene.Scene;
+
+/**
+ * Compares the rays per second of packet tracing with tracing every camera ray
+ * on its own. The scene of {@link ch.elste.rte.Main Main} is copied many times
+ * for this. Both modes have to produce the same image.
+ * <p>
+ * Arguments: number of copies of the scene (default 5000), width (default
+ * 800), height (default 450), number of frames (default 5).
+ * </p>
+ * 
+ * @author Dillon Elste
+ */
+public class PacketBenchmark {
+	public static void main(String[] args) {
+		int copies = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+		int width = args.length > 1 ? Integer.parseInt(args[1]) : 800;
+		int height = args.length > 2 ? Integer.parseInt(args[2]) : 450;
+		int frames = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+		Scene scene = BenchmarkScenes.createScaledMainScene(copies);
+		System.out.println(scene.freeze().getBoundingVolumeHierarchy());
+
+		Camera camera = new Camera(scene, new Vector(0, 0, 0), width, height, 90);
+		camera.setDirection(new Vector(0, 0, 1));
+
+		int[] single = measure(camera, 0, width, height, frames);
+		int[] packet4 = measure(camera, 4, width, height, frames);
+		int[] packet8 = measure(camera, 8, width, height, frames);
+
+		if (!Arrays.equals(single, packet4) || !Arrays.equals(single, packet8)) {
+			System.out.println("FAILED: packet tracing changed the image");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Renders a few frames with given packet size and prints the camera rays per
+	 * second.
+	 * 
+	 * @return the pixels of the last frame
+	 */
+	private static int[] measure(Camera camera, int packetSize, int width, int height, int frames) {
+		camera.setPacketSize(packetSize);
+
+		// The first frame warms up the JIT compiler.
+		camera.getImage();
+		camera.getScene().getTraversalStatistics().reset();
+
+		BufferedImage image = null;
+		long start = System.nanoTime();
+		for (int i = 0; i < frames; i++) {
+			image = camera.getImage();
+		}
+		long time = System.nanoTime() - start;
+
+		double raysPerSecond = 1d * width * height * frames / (time / 1e9);
+		System.out.printf("%-10s %12.0f camera rays/s   %s%n", packetSize == 0 ? "single" : packetSize + "x" + packetSize,
+				raysPerSecond, camera.getScene().getTraversalStatistics());
+
+		return image.getRGB(0, 0, width, height, null, 0, width);
+	}
+}
@@ -0,0 +1,24 @@
+package ch.elste.rte.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks of the raytracer with JMH. It takes the usual JMH
+ * arguments, for example a regular expression to select benchmarks or
+ * {@code -rf csv -rff file} to save the results, but always adds the gc
+ * profiler, so every result comes with the allocation rate and the bytes
+ * allocated per operation.
+ * 
+ * @author Dillon Elste
+ */
+public class Benchmarks {
+	public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+		new Runner(new OptionsBuilder().parent(new CommandLineOptions(args)).addProfiler(GCProfiler.class).build())
+				.run();
+	}
+}
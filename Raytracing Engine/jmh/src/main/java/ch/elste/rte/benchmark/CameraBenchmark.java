@@ -0,0 +1,56 @@
+package ch.elste.rte.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.elste.math.Matrix3x3;
+import ch.elste.math.Vector;
+import ch.elste.rte.Ray;
+import ch.elste.rte.image.Camera;
+import ch.elste.rte.scene.Scene;
+
+/**
+ * Generates camera rays and transformation matrices.
+ * 
+ * @author Dillon Elste
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class CameraBenchmark {
+	private static final Vector[] DIRECTIONS = { new Vector(0, 0, 1), new Vector(1, .5, 1), new Vector(-1, -.2, .3) };
+
+	private Camera camera;
+	private int next, direction;
+
+	@Setup
+	public void setUp() {
+		camera = new Camera(new Scene(), new Vector(0, 0, 0), 1600, 900, 90);
+	}
+
+	@Benchmark
+	public Ray getCameraRay() {
+		int n = next++;
+		return camera.viewplane.getCameraRay((n & 1023) / 512d - 1, ((n >> 10) & 1023) / 512d - 1);
+	}
+
+	@Benchmark
+	public Matrix3x3 setDirection() {
+		direction = (direction + 1) % DIRECTIONS.length;
+		camera.setDirection(DIRECTIONS[direction]);
+		return camera.getTransformationMatrix();
+	}
+}
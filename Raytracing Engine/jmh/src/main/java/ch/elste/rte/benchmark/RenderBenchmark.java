@@ -0,0 +1,71 @@
+package ch.elste.rte.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.elste.math.Vector;
+import ch.elste.rte.image.Camera;
+
+/**
+ * Renders the scene of {@link ch.elste.rte.Main Main} at several resolutions.
+ * Besides the images per second, the camera rays per second are reported as
+ * the secondary result {@code rays}.
+ * 
+ * @author Dillon Elste
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class RenderBenchmark {
+	@Param({ "160x90", "320x180", "640x360", "1280x720" })
+	private String resolution;
+
+	private Camera camera;
+	private int width, height;
+
+	/**
+	 * Counts the camera rays of an iteration, which JMH turns into a rate.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Rays {
+		public long rays;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			rays = 0;
+		}
+	}
+
+	@Setup
+	public void setUp() {
+		String[] size = resolution.split("x");
+		width = Integer.parseInt(size[0]);
+		height = Integer.parseInt(size[1]);
+
+		camera = new Camera(BenchmarkScenes.createScaledMainScene(1), new Vector(0, 0, 0), width, height, 90);
+		camera.setDirection(new Vector(0, 0, 1));
+	}
+
+	@Benchmark
+	public int render(Rays counter) {
+		counter.rays += width * height;
+		return camera.getImage().getRGB(width / 2, height / 2);
+	}
+}
@@ -0,0 +1,78 @@
+package ch.elste.rte.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.elste.math.Vector;
+import ch.elste.rte.Ray;
+import ch.elste.rte.scene.Scene;
+import ch.elste.rte.scene.SceneSnapshot;
+import ch.elste.rte.scene.light.PointLight;
+import ch.elste.rte.scene.shape.Sphere;
+
+/**
+ * Tests rays against a single sphere. The rays vary, so the JIT compiler can't
+ * hoist the test out of the benchmark loop.
+ * 
+ * @author Dillon Elste
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class SphereBenchmark {
+	private Sphere sphere;
+	private Ray[] hitRays, missRays;
+	private int next;
+
+	@Setup
+	public void setUp() {
+		sphere = new Sphere(new Vector(0, 0, 3), 1);
+		Scene scene = new Scene();
+		scene.addLight(new PointLight(new Vector(5, 3, 0), 100));
+		scene.addPrimitive(sphere);
+		SceneSnapshot snapshot = scene.freeze();
+
+		Random random = new Random(1);
+		hitRays = new Ray[1024];
+		missRays = new Ray[1024];
+		for (int i = 0; i < hitRays.length; i++) {
+			Vector d = new Vector(random.nextDouble() * .4 - .2, random.nextDouble() * .4 - .2, 1).normalize();
+			hitRays[i] = new Ray(snapshot, 0, 0, 0, d.x, d.y, d.z);
+			missRays[i] = new Ray(snapshot, 0, 0, 0, d.x, d.y, -d.z);
+		}
+	}
+
+	@Benchmark
+	public double intersectionDistanceHit() {
+		return sphere.intersectionDistance(hitRays[next++ & 1023]);
+	}
+
+	@Benchmark
+	public double intersectionDistanceMiss() {
+		return sphere.intersectionDistance(missRays[next++ & 1023]);
+	}
+
+	@Benchmark
+	public double intersectsHit() {
+		return sphere.intersects(hitRays[next++ & 1023]).distance;
+	}
+
+	@Benchmark
+	public double intersectsMiss() {
+		return sphere.intersects(missRays[next++ & 1023]).distance;
+	}
+}
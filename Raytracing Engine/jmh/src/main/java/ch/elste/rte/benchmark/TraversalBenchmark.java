@@ -0,0 +1,79 @@
+package ch.elste.rte.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.elste.math.Vector;
+import ch.elste.rte.HitRecord;
+import ch.elste.rte.Ray;
+import ch.elste.rte.scene.Scene;
+import ch.elste.rte.scene.SceneSnapshot;
+import ch.elste.rte.scene.light.PointLight;
+import ch.elste.rte.scene.shape.Sphere;
+
+/**
+ * Traces random rays through scenes of random spheres of growing size. The
+ * spheres fill a box of constant density, so the number of spheres a ray passes
+ * grows with the size of the scene.
+ * 
+ * @author Dillon Elste
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class TraversalBenchmark {
+	@Param({ "10", "100", "1000", "10000", "100000" })
+	private int size;
+
+	private Ray[] rays;
+	private final HitRecord hit = new HitRecord();
+	private int next;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(1);
+		Vector[] directions = new Vector[1024];
+		for (int i = 0; i < directions.length; i++) {
+			directions[i] = new Vector(random.nextDouble() - .5, random.nextDouble() - .5, 1).normalize();
+		}
+
+		Scene scene = new Scene();
+		scene.addLight(new PointLight(new Vector(5, 3, 0), 100));
+		double side = 2 * Math.cbrt(size);
+		for (int i = 0; i < size; i++) {
+			scene.addPrimitive(new Sphere(new Vector((random.nextDouble() - .5) * side,
+					(random.nextDouble() - .5) * side, 5 + random.nextDouble() * side), .1 + random.nextDouble() * .4));
+		}
+		SceneSnapshot snapshot = scene.freeze();
+
+		rays = new Ray[directions.length];
+		for (int i = 0; i < rays.length; i++) {
+			rays[i] = new Ray(snapshot, new Vector(0, 0, 0), directions[i]);
+		}
+	}
+
+	@Benchmark
+	public double trace() {
+		return rays[next++ & 1023].trace(hit, null) ? hit.distance : 0;
+	}
+
+	@Benchmark
+	public double intersects() {
+		return rays[next++ & 1023].intersects(null).distance;
+	}
+}
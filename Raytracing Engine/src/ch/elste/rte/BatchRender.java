@@ -0,0 +1,288 @@
+package ch.elste.rte;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+import ch.elste.math.Vector;
+import ch.elste.rte.distributed.RenderCoordinator;
+import ch.elste.rte.distributed.RenderJob;
+import ch.elste.rte.distributed.WorkerStatistics;
+import ch.elste.rte.image.BandRenderer;
+import ch.elste.rte.image.Camera;
+import ch.elste.rte.image.CostProfile;
+import ch.elste.rte.image.CostProfile.Cost;
+import ch.elste.rte.image.ImageSink;
+import ch.elste.rte.image.RenderMetrics;
+import ch.elste.rte.image.ToneMapper;
+import ch.elste.rte.scene.Scene;
+import ch.elste.rte.scene.SceneFile;
+
+/**
+ * Renders a {@link SceneFile scene file} to an image file without opening any
+ * window, for render nodes without a display. The image is rendered in bands
+ * and streamed to the file, so its size isn't limited by the heap.
+ * <p>
+ * The camera is taken from the scene and can be changed with options. A scene
+ * without cameras is seen from the origin along the z axis.
+ * </p>
+ * <p>
+ * With {@code --workers} the image is rendered by worker processes on this
+ * machine through a {@link RenderCoordinator}, and the throughput of every
+ * worker is printed afterwards.
+ * </p>
+ * <p>
+ * With {@code --metrics} the {@link RenderMetrics metrics} of the image are
+ * written to a JSON file after it has been rendered. With {@code --profile} a
+ * {@link CostProfile heat map} of the time every pixel took is written next to
+ * the image and the most expensive tiles are listed.
+ * </p>
+ * 
+ * @author Dillon Elste
+ */
+public final class BatchRender {
+	private static final String USAGE = String.join(System.lineSeparator(),
+			"usage: BatchRender <scene file> <image file (.png, .ppm or .pfm)> [options]",
+			"  --camera <index>         the camera of the scene to render (default 0)",
+			"  --position <x,y,z>       the position of the camera",
+			"  --direction <x,y,z>      the direction the camera looks in",
+			"  --fov <degrees>          the field of view",
+			"  --size <width>x<height>  the resolution of the image",
+			"  --tone-mapper <name>     clamp, reinhard or aces (default clamp)",
+			"  --threads <count>        the number of render threads (default all processors, 1 per worker)",
+			"  --tile <pixels>          the edge length of a tile",
+			"  --band <rows>            the height of the bands written at once (default automatic)",
+			"  --workers <count>        render on this many local worker processes",
+			"  --metrics <file>         write the rays and times of the image to a JSON file",
+			"  --profile <file>         write a heat map of the time of every pixel to an image file");
+
+	/**
+	 * The number of the most expensive tiles listed when profiling.
+	 */
+	private static final int PROFILED_TILES = 10;
+
+	private BatchRender() {
+	}
+
+	/**
+	 * Renders the image given by the arguments.
+	 * 
+	 * @param args
+	 *            the scene file, the image file and the options
+	 */
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+
+		try {
+			long start = System.nanoTime();
+			RenderJob job = render(args);
+			System.out.printf(Locale.ROOT, "rendered %dx%d in %.3f s%n", job.getWidth(), job.getHeight(),
+					(System.nanoTime() - start) / 1e9);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+		} catch (IOException e) {
+			System.err.println("the image couldn't be rendered: " + e);
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Loads the scene, sets up the camera and renders the image.
+	 * 
+	 * @return the job describing the image
+	 */
+	private static RenderJob render(String[] args) throws IOException {
+		if (args.length < 2 || args.length % 2 != 0)
+			throw new IllegalArgumentException("a scene file, an image file and pairs of options are needed");
+
+		Path scenePath = Paths.get(args[0]);
+		Path imagePath = Paths.get(args[1]);
+
+		String cameraIndex = null, position = null, direction = null, fov = null, size = null, toneMapper = null,
+				threads = null, tile = null, band = null, workers = null, metrics = null, profile = null;
+		for (int i = 2; i < args.length; i += 2) {
+			String value = args[i + 1];
+			switch (args[i]) {
+			case "--camera":
+				cameraIndex = value;
+				break;
+			case "--position":
+				position = value;
+				break;
+			case "--direction":
+				direction = value;
+				break;
+			case "--fov":
+				fov = value;
+				break;
+			case "--size":
+				size = value;
+				break;
+			case "--tone-mapper":
+				toneMapper = value;
+				break;
+			case "--threads":
+				threads = value;
+				break;
+			case "--tile":
+				tile = value;
+				break;
+			case "--band":
+				band = value;
+				break;
+			case "--workers":
+				workers = value;
+				break;
+			case "--metrics":
+				metrics = value;
+				break;
+			case "--profile":
+				profile = value;
+				break;
+			default:
+				throw new IllegalArgumentException("unknown option " + args[i]);
+			}
+		}
+
+		Scene scene = SceneFile.read(scenePath);
+
+		// Start from the camera of the scene and replace what the options give.
+		Vector cameraPosition = new Vector(0, 0, 0), cameraDirection = new Vector(0, 0, 1);
+		double fieldOfView = 90;
+		int width = 1920, height = 1080;
+
+		int index = cameraIndex == null ? 0 : parseInt(cameraIndex, "camera");
+		if (index < scene.numberOfCameras()) {
+			Camera original = scene.getCamera(index);
+			cameraPosition = original.position;
+			if (original.direction != null)
+				cameraDirection = original.direction;
+			fieldOfView = original.viewplane.getFieldOfView();
+			width = original.viewplane.getResolutionWidth();
+			height = original.viewplane.getResolutionHeight();
+		} else if (cameraIndex != null) {
+			throw new IllegalArgumentException("the scene has no camera " + index);
+		}
+
+		if (position != null)
+			cameraPosition = parseVector(position, "position");
+		if (direction != null)
+			cameraDirection = parseVector(direction, "direction");
+		if (fov != null)
+			fieldOfView = parseDouble(fov, "fov");
+		if (size != null) {
+			String[] parts = size.split("x");
+			if (parts.length != 2)
+				throw new IllegalArgumentException("the size has to be given as <width>x<height>");
+			width = parseInt(parts[0], "width");
+			height = parseInt(parts[1], "height");
+		}
+		RenderJob job = new RenderJob(args[0], cameraPosition, cameraDirection, fieldOfView, width, height);
+		ToneMapper mapper = parseToneMapper(toneMapper);
+
+		if (workers != null) {
+			if (metrics != null || profile != null)
+				throw new IllegalArgumentException("metrics are only collected without workers");
+
+			int count = parseInt(workers, "workers");
+			if (count < 1)
+				throw new IllegalArgumentException("there has to be at least one worker");
+
+			try (RenderCoordinator coordinator = new RenderCoordinator()) {
+				if (tile != null)
+					coordinator.setTileSize(parseInt(tile, "tile"));
+				coordinator.startLocalWorkers(count, threads == null ? 1 : parseInt(threads, "threads"));
+
+				try (ImageSink sink = ImageSink.open(imagePath, width, height, mapper)) {
+					coordinator.render(job, sink);
+				} finally {
+					for (WorkerStatistics statistics : coordinator.getWorkerStatistics()) {
+						System.out.println(statistics);
+					}
+				}
+			}
+			return job;
+		}
+
+		Camera camera = job.createCamera(scene);
+		camera.setRenderThreads(
+				threads == null ? Runtime.getRuntime().availableProcessors() : parseInt(threads, "threads"));
+		if (tile != null)
+			camera.setTileSize(parseInt(tile, "tile"));
+		camera.viewplane.setProfiling(profile != null);
+
+		BandRenderer renderer = new BandRenderer(camera.viewplane);
+		if (band != null)
+			renderer.setBandHeight(parseInt(band, "band"));
+
+		try (ImageSink sink = ImageSink.open(imagePath, width, height, mapper)) {
+			renderer.render(sink);
+		} finally {
+			camera.setRenderThreads(1);
+		}
+
+		RenderMetrics renderMetrics = camera.viewplane.getStatistics().snapshot();
+		if (metrics != null)
+			renderMetrics.writeJson(Paths.get(metrics));
+		if (profile != null) {
+			CostProfile costs = camera.viewplane.getCostProfile();
+			try (ImageSink sink = ImageSink.open(Paths.get(profile), width, height, ToneMapper.CLAMP)) {
+				costs.writeHeatMap(Cost.TIME, sink);
+			}
+
+			System.out.println("most expensive tiles:");
+			int tilesX = renderMetrics.getNumberOfTilesX();
+			for (int hotTile : renderMetrics.getMostExpensiveTiles(PROFILED_TILES)) {
+				int tileX = hotTile % tilesX, tileY = hotTile / tilesX;
+				System.out.printf(Locale.ROOT, "  tile %d,%d at pixel %d,%d: %.3f ms%n", tileX, tileY,
+						tileX * renderMetrics.getTileSize(), tileY * renderMetrics.getTileSize(),
+						renderMetrics.getTileTime(tileX, tileY) / 1e6);
+			}
+		}
+
+		return job;
+	}
+
+	private static ToneMapper parseToneMapper(String name) {
+		if (name == null)
+			return ToneMapper.CLAMP;
+
+		switch (name.toLowerCase(Locale.ROOT)) {
+		case "clamp":
+			return ToneMapper.CLAMP;
+		case "reinhard":
+			return ToneMapper.REINHARD;
+		case "aces":
+			return ToneMapper.ACES;
+		default:
+			throw new IllegalArgumentException("unknown tone mapper " + name);
+		}
+	}
+
+	private static Vector parseVector(String value, String name) {
+		String[] parts = value.split(",");
+		if (parts.length != 3)
+			throw new IllegalArgumentException("the " + name + " has to be given as <x>,<y>,<z>");
+
+		return new Vector(parseDouble(parts[0], name), parseDouble(parts[1], name), parseDouble(parts[2], name));
+	}
+
+	private static double parseDouble(String value, String name) {
+		try {
+			return Double.parseDouble(value.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("invalid " + name + ": " + value);
+		}
+	}
+
+	private static int parseInt(String value, String name) {
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("invalid " + name + ": " + value);
+		}
+	}
+}
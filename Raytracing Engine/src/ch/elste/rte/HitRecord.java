@@ -0,0 +1,48 @@
+package ch.elste.rte;
+
+import ch.elste.rte.scene.shape.Primitive;
+
+/**
+ * A mutable record of the nearest intersection of a ray. Unlike
+ * {@link Ray.IntersectionInfo} it holds no color, so it can be filled without
+ * shading the intersection. Each thread should own its records and reuse them
+ * for every ray.
+ * 
+ * @author Dillon Elste
+ * 
+ * @see Ray#trace(HitRecord, Primitive)
+ */
+public class HitRecord {
+	/**
+	 * The distance between the origin of the ray and the intersection or
+	 * {@link Double#POSITIVE_INFINITY} if there is no intersection.
+	 */
+	public double distance;
+
+	/**
+	 * The primitive the ray intersects or null if there is no intersection.
+	 */
+	public Primitive primitive;
+
+	/**
+	 * The element of the primitive the ray intersects, like the triangle of a
+	 * mesh. It is 0 for primitives consisting of a single element.
+	 */
+	public int element;
+
+	/**
+	 * Creates a new empty record.
+	 */
+	public HitRecord() {
+		reset();
+	}
+
+	/**
+	 * Resets this record to no intersection.
+	 */
+	public void reset() {
+		distance = Double.POSITIVE_INFINITY;
+		primitive = null;
+		element = 0;
+	}
+}
@@ -0,0 +1,535 @@
+package ch.elste.rte;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.event.FocusAdapter;
+import java.awt.event.FocusEvent;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.JComponent;
+import javax.swing.JPanel;
+
+import ch.elste.math.Matrix3x3;
+import ch.elste.math.Vector;
+import ch.elste.rte.image.Camera;
+import ch.elste.rte.image.FrameBuffer;
+import ch.elste.rte.image.RenderMetrics;
+import ch.elste.rte.image.ReprojectionRenderer;
+import ch.elste.rte.image.TripleBuffer;
+import ch.elste.rte.image.ViewPlane;
+import ch.elste.rte.scene.SceneSnapshot;
+
+/**
+ * Shows what a camera sees and lets the user move it through the scene. W, A,
+ * S and D move the camera, E and Q move it up and down, the arrow keys and
+ * dragging the mouse turn it and the mouse wheel changes the speed. The
+ * controls change the {@link Camera#position position} and the
+ * {@link Camera#setDirection(Vector) direction} of the camera.
+ * <p>
+ * The frames are rendered by a {@link ReprojectionRenderer} on a background
+ * thread, which hands them to the component through a {@link TripleBuffer}.
+ * The event dispatch thread never waits for a frame and nothing is copied. The
+ * frames are paced to a target frame time. If a frame after a move takes
+ * longer, the following frames are rendered at a lower resolution and scaled
+ * up. Once the camera has stopped and the image has settled, the resolution
+ * goes back up step by step, and when the full resolution has settled nothing
+ * is rendered until the camera moves or the scene changes.
+ * </p>
+ * <p>
+ * The frames per second, the rays traced per second of rendering and the
+ * current resolution are shown in the top left corner. Rays are only counted
+ * if {@link ch.elste.rte.scene.acceleration.TraversalStatistics#ENABLED
+ * statistics are enabled}.
+ * </p>
+ * 
+ * @author Dillon Elste
+ */
+public class InteractiveViewer {
+	/**
+	 * The default time a frame should take at most, which is 30 frames per
+	 * second.
+	 */
+	public static final long DEFAULT_FRAME_TIME = TimeUnit.SECONDS.toNanos(1) / 30;
+
+	/**
+	 * The default distance the camera moves per second.
+	 */
+	public static final double DEFAULT_SPEED = 2;
+
+	/**
+	 * The factors the resolution of the camera is divided by, from the full
+	 * resolution down to the lowest.
+	 */
+	private static final int[] SCALES = { 1, 2, 3, 4, 6, 8 };
+
+	/**
+	 * The share of the frame time a frame at the next higher resolution may be
+	 * expected to take while the camera moves, so the resolution doesn't jump
+	 * back and forth.
+	 */
+	private static final double HEADROOM = .75;
+
+	/**
+	 * How fast the arrow keys turn the camera in radians per second and how far
+	 * dragging the mouse turns it in radians per pixel.
+	 */
+	private static final double TURN_SPEED = Math.PI / 2;
+	private static final double MOUSE_SENSITIVITY = .004;
+
+	/**
+	 * How far the camera may look up or down, so it never looks straight along
+	 * the y axis.
+	 */
+	private static final double MAX_PITCH = Math.toRadians(89);
+
+	/**
+	 * How often the frames per second are updated and how often an idle viewer
+	 * checks whether the scene has changed, in nanoseconds.
+	 */
+	private static final long STATUS_INTERVAL = TimeUnit.MILLISECONDS.toNanos(500);
+	private static final long IDLE_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private final Camera camera;
+	private final ReprojectionRenderer[] renderers = new ReprojectionRenderer[SCALES.length];
+	private final TripleBuffer<Frame> frames = new TripleBuffer<>(new Frame(), new Frame(), new Frame());
+	private final ViewerPanel panel;
+
+	/**
+	 * The keys which are held down and how far the mouse has been dragged since
+	 * the last frame.
+	 */
+	private final Set<Integer> pressedKeys = ConcurrentHashMap.newKeySet();
+	private int dragX, dragY;
+
+	/**
+	 * The direction of the camera as angles around the y axis, starting at the z
+	 * axis, and above the xz plane. Only used by the render thread.
+	 */
+	private double yaw, pitch;
+
+	private volatile long frameTime = DEFAULT_FRAME_TIME;
+	private volatile double speed = DEFAULT_SPEED;
+
+	private Thread thread;
+	private volatile boolean running;
+
+	/**
+	 * Creates a new viewer of a camera. The camera should not be changed by
+	 * anything else while the viewer is running.
+	 * 
+	 * @param camera
+	 *            the camera to show and move
+	 */
+	public InteractiveViewer(Camera camera) {
+		this.camera = camera;
+		if (camera.direction == null)
+			camera.setDirection(Vector.Z);
+		renderers[0] = new ReprojectionRenderer(camera);
+
+		Vector direction = camera.direction;
+		yaw = Math.atan2(direction.x, direction.z);
+		pitch = Math.max(-MAX_PITCH, Math.min(MAX_PITCH, Math.asin(direction.y)));
+
+		panel = new ViewerPanel();
+		panel.setPreferredSize(
+				new Dimension(camera.viewplane.getResolutionWidth(), camera.viewplane.getResolutionHeight()));
+	}
+
+	/**
+	 * Starts rendering on a new background thread.
+	 * 
+	 * @throws IllegalStateException
+	 *             if this viewer is already running
+	 */
+	public synchronized void start() {
+		if (running)
+			throw new IllegalStateException("the viewer is already running");
+
+		running = true;
+		thread = new Thread(this::run, "interactive-viewer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops rendering after the current frame. The last frame stays visible.
+	 */
+	public synchronized void stop() {
+		running = false;
+		if (thread != null)
+			thread.interrupt();
+		thread = null;
+	}
+
+	/**
+	 * Renders frames until the viewer is stopped.
+	 */
+	private void run() {
+		int level = SCALES.length - 1;
+		int settlingFrames = 0;
+		boolean settled = false;
+		SceneSnapshot lastSnapshot = null;
+
+		long windowStart = System.nanoTime(), windowRays = 0, windowTime = 0;
+		int windowFrames = 0;
+		String status = "";
+
+		long last = System.nanoTime();
+		while (running) {
+			long start = System.nanoTime();
+			boolean moved = move((start - last) / 1e9);
+			last = start;
+
+			// Nothing changes until the camera moves or the scene is edited.
+			if (settled && !moved && camera.getScene().freeze().showsSameSceneAs(lastSnapshot)) {
+				pause(IDLE_INTERVAL);
+				continue;
+			}
+
+			ReprojectionRenderer renderer = getRenderer(level);
+			Camera scaled = renderer.getCamera();
+			if (scaled != camera) {
+				scaled.position = camera.position;
+				scaled.setDirection(camera.direction);
+			}
+			ViewPlane viewPlane = scaled.viewplane;
+
+			Frame frame = frames.getBack();
+			viewPlane.setFrameBuffer(frame.getBuffer(level, viewPlane));
+			frame.image = renderer.render();
+			lastSnapshot = viewPlane.getSnapshot();
+
+			RenderMetrics metrics = viewPlane.getStatistics().snapshot();
+			long elapsed = System.nanoTime() - start;
+
+			// A frame in which every pixel was traced is as slow as a still image,
+			// so only frames which reused the last one decide the resolution.
+			boolean full = renderer.getTracedPixels() == viewPlane.getResolutionWidth()
+					* viewPlane.getResolutionHeight();
+			settlingFrames = moved ? 0 : settlingFrames + 1;
+			settled = full && !moved || settlingFrames >= renderer.getRefreshPeriod();
+
+			windowRays += metrics.getPrimaryRays() + metrics.getShadowRays() + metrics.getSecondaryRays();
+			windowTime += elapsed;
+			windowFrames++;
+			// The status of the last frame before the viewer idles is always shown.
+			if (start - windowStart >= STATUS_INTERVAL || settled && level == 0) {
+				double seconds = (start - windowStart) / 1e9;
+				status = String.format(Locale.ROOT, "%.1f fps, %.2f Mrays/s, %dx%d", windowFrames / seconds,
+						windowTime == 0 ? 0 : windowRays * 1e3 / windowTime, viewPlane.getResolutionWidth(),
+						viewPlane.getResolutionHeight());
+				windowStart = start;
+				windowRays = windowTime = windowFrames = 0;
+			}
+			frame.status = status;
+			frames.publish();
+			panel.repaint();
+
+			int next = level;
+			if (moved && !full) {
+				if (elapsed > frameTime && level < SCALES.length - 1)
+					next = level + 1;
+				else if (level > 0 && elapsed * pixels(level - 1) / pixels(level) < frameTime * HEADROOM)
+					next = level - 1;
+			} else if (settled && level > 0) {
+				next = level - 1;
+			}
+
+			if (next != level) {
+				level = next;
+				getRenderer(level).invalidate();
+				settlingFrames = 0;
+				settled = false;
+			}
+
+			pause(start + frameTime - System.nanoTime());
+		}
+	}
+
+	/**
+	 * Moves and turns the camera as far as the user wants it to in the time since
+	 * the last frame.
+	 * 
+	 * @return true if the camera has moved
+	 */
+	private boolean move(double seconds) {
+		int dx, dy;
+		synchronized (this) {
+			dx = dragX;
+			dy = dragY;
+			dragX = dragY = 0;
+		}
+
+		double turn = axis(KeyEvent.VK_RIGHT, KeyEvent.VK_LEFT), tilt = axis(KeyEvent.VK_UP, KeyEvent.VK_DOWN);
+		double forward = axis(KeyEvent.VK_W, KeyEvent.VK_S), sideways = axis(KeyEvent.VK_D, KeyEvent.VK_A);
+		double up = axis(KeyEvent.VK_E, KeyEvent.VK_Q);
+		if (dx == 0 && dy == 0 && turn == 0 && tilt == 0 && forward == 0 && sideways == 0 && up == 0)
+			return false;
+
+		yaw += dx * MOUSE_SENSITIVITY + turn * TURN_SPEED * seconds;
+		pitch -= dy * MOUSE_SENSITIVITY - tilt * TURN_SPEED * seconds;
+		pitch = Math.max(-MAX_PITCH, Math.min(MAX_PITCH, pitch));
+		camera.setDirection(new Vector(Math.cos(pitch) * Math.sin(yaw), Math.sin(pitch),
+				Math.cos(pitch) * Math.cos(yaw)));
+
+		// The first column of the matrix points to the right of the image.
+		Matrix3x3 matrix = camera.getTransformationMatrix();
+		Vector direction = camera.direction, position = camera.position;
+		double distance = speed * seconds;
+		camera.position = new Vector(
+				position.x + (direction.x * forward + matrix.get(0, 0) * sideways) * distance,
+				position.y + (direction.y * forward + matrix.get(1, 0) * sideways + up) * distance,
+				position.z + (direction.z * forward + matrix.get(2, 0) * sideways) * distance);
+		return true;
+	}
+
+	/**
+	 * Returns 1 if only the positive key is held down, -1 if only the negative key
+	 * is held down and 0 otherwise.
+	 */
+	private double axis(int positive, int negative) {
+		return (pressedKeys.contains(positive) ? 1 : 0) - (pressedKeys.contains(negative) ? 1 : 0);
+	}
+
+	/**
+	 * Returns the renderer of a resolution, creating a camera with that
+	 * resolution and the settings of the camera of this viewer if necessary.
+	 */
+	private ReprojectionRenderer getRenderer(int level) {
+		if (renderers[level] == null) {
+			ViewPlane source = camera.viewplane;
+			Camera scaled = new Camera(camera.getScene(), camera.position,
+					Math.max(1, source.getResolutionWidth() / SCALES[level]),
+					Math.max(1, source.getResolutionHeight() / SCALES[level]), source.getFieldOfView());
+			scaled.setDirection(camera.direction);
+			scaled.viewplane.setRenderPool(source.getRenderPool());
+			scaled.viewplane.setToneMapper(source.getToneMapper());
+			scaled.viewplane.setAmbientLighting(source.getAmbientLighting());
+			scaled.viewplane.setTileSize(source.getTileSize());
+			scaled.viewplane.setPacketSize(source.getPacketSize());
+
+			ReprojectionRenderer renderer = new ReprojectionRenderer(scaled);
+			renderer.setRefreshPeriod(renderers[0].getRefreshPeriod());
+			renderer.setReflectanceThreshold(renderers[0].getReflectanceThreshold());
+			renderers[level] = renderer;
+		}
+		return renderers[level];
+	}
+
+	/**
+	 * Returns the number of pixels of a resolution.
+	 */
+	private long pixels(int level) {
+		ViewPlane viewPlane = camera.viewplane;
+		return (long) Math.max(1, viewPlane.getResolutionWidth() / SCALES[level])
+				* Math.max(1, viewPlane.getResolutionHeight() / SCALES[level]);
+	}
+
+	/**
+	 * Sleeps for a while unless the viewer has been stopped.
+	 */
+	private void pause(long nanos) {
+		if (nanos <= 0 || !running)
+			return;
+
+		try {
+			TimeUnit.NANOSECONDS.sleep(nanos);
+		} catch (InterruptedException e) {
+			// The viewer has been stopped.
+		}
+	}
+
+	/**
+	 * Returns the component which shows the frames and receives the controls. It
+	 * prefers the resolution of the camera.
+	 * 
+	 * @return the component
+	 */
+	public JComponent getComponent() {
+		return panel;
+	}
+
+	/**
+	 * Returns the renderer of the full resolution, which can be used to change
+	 * how often pixels are traced again.
+	 * 
+	 * @return the renderer
+	 */
+	public ReprojectionRenderer getRenderer() {
+		return renderers[0];
+	}
+
+	/**
+	 * Sets the time a frame should take at most. Longer frames lower the
+	 * resolution, and faster frames are held back to this time.
+	 * 
+	 * @param frameTime
+	 *            the time of a frame
+	 * @param unit
+	 *            the unit of {@code frameTime}
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if {@code frameTime} is not positive
+	 */
+	public void setFrameTime(long frameTime, TimeUnit unit) {
+		if (frameTime <= 0)
+			throw new IllegalArgumentException("the frame time must be positive");
+
+		this.frameTime = unit.toNanos(frameTime);
+	}
+
+	/**
+	 * Returns the time a frame should take at most.
+	 * 
+	 * @param unit
+	 *            the unit of the result
+	 * 
+	 * @return the time of a frame
+	 */
+	public long getFrameTime(TimeUnit unit) {
+		return unit.convert(frameTime, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Sets the distance the camera moves per second.
+	 * 
+	 * @param speed
+	 *            the distance per second
+	 */
+	public void setSpeed(double speed) {
+		this.speed = speed;
+	}
+
+	/**
+	 * Returns the distance the camera moves per second.
+	 * 
+	 * @return the distance per second
+	 */
+	public double getSpeed() {
+		return speed;
+	}
+
+	/**
+	 * Returns the camera this viewer shows and moves.
+	 * 
+	 * @return the camera
+	 */
+	public Camera getCamera() {
+		return camera;
+	}
+
+	/**
+	 * A buffer of the triple buffer: a frame buffer for every resolution, the
+	 * image of the frame and the status shown with it.
+	 */
+	private static final class Frame {
+		final FrameBuffer[] buffers = new FrameBuffer[SCALES.length];
+		BufferedImage image;
+		String status = "";
+
+		FrameBuffer getBuffer(int level, ViewPlane viewPlane) {
+			if (buffers[level] == null)
+				buffers[level] = new FrameBuffer(viewPlane.getResolutionWidth(), viewPlane.getResolutionHeight());
+			return buffers[level];
+		}
+	}
+
+	/**
+	 * Draws the newest frame scaled to its size and passes the controls on to the
+	 * render thread.
+	 */
+	private final class ViewerPanel extends JPanel {
+		private static final long serialVersionUID = 1L;
+
+		private int mouseX, mouseY;
+
+		ViewerPanel() {
+			setBackground(Color.BLACK);
+			setFocusable(true);
+
+			addKeyListener(new KeyAdapter() {
+				@Override
+				public void keyPressed(KeyEvent e) {
+					pressedKeys.add(e.getKeyCode());
+				}
+
+				@Override
+				public void keyReleased(KeyEvent e) {
+					pressedKeys.remove(e.getKeyCode());
+				}
+			});
+
+			// Keys released in another window would never be released here.
+			addFocusListener(new FocusAdapter() {
+				@Override
+				public void focusLost(FocusEvent e) {
+					pressedKeys.clear();
+				}
+			});
+
+			MouseAdapter mouse = new MouseAdapter() {
+				@Override
+				public void mousePressed(MouseEvent e) {
+					requestFocusInWindow();
+					mouseX = e.getX();
+					mouseY = e.getY();
+				}
+
+				@Override
+				public void mouseDragged(MouseEvent e) {
+					synchronized (InteractiveViewer.this) {
+						dragX += e.getX() - mouseX;
+						dragY += e.getY() - mouseY;
+					}
+					mouseX = e.getX();
+					mouseY = e.getY();
+				}
+
+				@Override
+				public void mouseWheelMoved(MouseWheelEvent e) {
+					speed *= Math.pow(1.25, -e.getPreciseWheelRotation());
+				}
+			};
+			addMouseListener(mouse);
+			addMouseMotionListener(mouse);
+			addMouseWheelListener(mouse);
+		}
+
+		@Override
+		protected void paintComponent(Graphics g) {
+			super.paintComponent(g);
+
+			Frame frame = frames.getFront();
+			if (frame.image == null)
+				return;
+
+			// Lower resolutions are scaled up, keeping the aspect ratio of the camera.
+			ViewPlane viewPlane = camera.viewplane;
+			double scale = Math.min((double) getWidth() / viewPlane.getResolutionWidth(),
+					(double) getHeight() / viewPlane.getResolutionHeight());
+			int width = (int) (viewPlane.getResolutionWidth() * scale);
+			int height = (int) (viewPlane.getResolutionHeight() * scale);
+
+			Graphics2D g2 = (Graphics2D) g;
+			g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g2.drawImage(frame.image, (getWidth() - width) / 2, (getHeight() - height) / 2, width, height, null);
+
+			g2.setColor(Color.BLACK);
+			g2.drawString(frame.status, 9, 19);
+			g2.setColor(Color.WHITE);
+			g2.drawString(frame.status, 8, 18);
+		}
+	}
+}
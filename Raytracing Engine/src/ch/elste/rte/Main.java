@@ -1,37 +1,42 @@
-package ch.elste.rte;
-
-import java.awt.Dimension;
-
-import javax.swing.JFrame;
-import javax.swing.JPanel;
-
-import ch.elste.math.Vector;
-import ch.elste.rte.image.Camera;
-import ch.elste.rte.scene.Scene;
-import ch.elste.rte.scene.light.PointLight;
-import ch.elste.rte.scene.shape.Sphere;
-
-public class Main {
-
-	static JPanel panel = new JPanel();
-	
-	public static void main(String[] args) {
-		Scene.addLight(new PointLight(new Vector(5, 3, 0), 100));
-		Scene.addPrimitive(new Sphere(new Vector(0, 0, 3), 1));
-		Scene.addPrimitive(new Sphere(new Vector(1, 0, 2), .5));
-		Camera c = new Camera(new Vector(0, 0, 0), 1600, 900, 90);
-		c.setDirection(new Vector(0, 0, 1));
-		
-		JFrame frame = new JFrame("boi");
-		panel.setPreferredSize(new Dimension(c.viewplane.getResolutionWidth(), c.viewplane.getResolutionHeight()));
-		frame.setContentPane(panel);
-		frame.pack();
-		frame.setLocationRelativeTo(null);
-		frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-		frame.setVisible(true);
-
-		panel.getGraphics().drawImage(c.getImage(), 0, 0, panel);
-
-		System.out.println(c.getTransformationMatrix());
-	}
-}
+package ch.elste.rte;
+
+import javax.swing.JFrame;
+import javax.swing.SwingUtilities;
+
+import ch.elste.math.Vector;
+import ch.elste.rte.image.Camera;
+import ch.elste.rte.image.Radiance;
+import ch.elste.rte.image.ToneMapper;
+import ch.elste.rte.scene.Scene;
+import ch.elste.rte.scene.light.PointLight;
+import ch.elste.rte.scene.shape.Sphere;
+import ch.elste.rte.scene.shape.material.Material;
+
+public class Main {
+
+	public static void main(String[] args) {
+		Scene scene = new Scene();
+		scene.addLight(new PointLight(new Vector(5, 3, 0), 100));
+		scene.addPrimitive(new Sphere(new Vector(0, 0, 3), 1,
+				new Material(new Radiance(.8, .2, .2), new Radiance(.04), 0, 0)));
+		Radiance gold = new Radiance(1, .78, .34);
+		scene.addPrimitive(new Sphere(new Vector(1, 0, 2), .5, new Material(gold, gold, 1, 0)));
+		Camera c = new Camera(scene, new Vector(0, 0, 0), 1600, 900, 90);
+		c.setDirection(new Vector(0, 0, 1));
+		c.setRenderThreads(Runtime.getRuntime().availableProcessors());
+		c.viewplane.setToneMapper(ToneMapper.ACES);
+
+		// Swing components may only be created and shown on the event dispatch thread.
+		SwingUtilities.invokeLater(() -> {
+			InteractiveViewer viewer = new InteractiveViewer(c);
+			JFrame frame = new JFrame("boi");
+			frame.setContentPane(viewer.getComponent());
+			frame.pack();
+			frame.setLocationRelativeTo(null);
+			frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+			frame.setVisible(true);
+			viewer.getComponent().requestFocusInWindow();
+			viewer.start();
+		});
+	}
+}
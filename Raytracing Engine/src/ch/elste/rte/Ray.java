@@ -1,110 +1,239 @@
-package ch.elste.rte;
-
-import ch.elste.math.Vector;
-import ch.elste.rte.image.Pixel;
-import ch.elste.rte.scene.Actor;
-import ch.elste.rte.scene.Scene;
-import ch.elste.rte.scene.light.Light;
-import ch.elste.rte.scene.shape.Primitive;
-
-/**
- * A ray is a beam of light with an origin and a direction.
- * 
- * @author Dillon Elste
- */
-public class Ray {
-	public Vector origin;
-	public Vector direction;
-
-	/**
-	 * Creates a new ray with given values.
-	 * 
-	 * @param origin
-	 *            the origin of the ray
-	 * @param direction
-	 *            the direction of the ray
-	 */
-	public Ray(Vector origin, Vector direction) {
-		this.origin = new Vector(origin);
-		this.direction = new Vector(direction);
-	}
-
-	/**
-	 * Checks if this ray intersects with an actor on its way through space and
-	 * returns {@link IntersectionInfo information} about the intersection.
-	 * 
-	 * @return an {@link IntersectionInfo} object.
-	 * 
-	 * @see IntersectionInfo
-	 */
-	public IntersectionInfo intersects(Primitive skip) {
-		IntersectionInfo temp = null;
-		IntersectionInfo nearestInfo = new IntersectionInfo(false, Double.POSITIVE_INFINITY, null, null);
-
-		for (int i = 0; i < Scene.numberOfPrimitives(); i++) {
-			if (Scene.getPrimitive(i) != skip) {
-				temp = Scene.getPrimitive(i).intersects(this);
-				if (temp.intersects && temp.distance < nearestInfo.distance) {
-					nearestInfo = temp;
-				}
-			}
-		}
-
-		return nearestInfo;
-	}
-
-	public IntersectionInfo intersects(Light l, Primitive skip) {
-		if (intersects(skip).intersects)
-			return new IntersectionInfo(false, Double.POSITIVE_INFINITY, null, null);
-		else
-			return new IntersectionInfo(true, l.position.minus(origin).dot(direction), l, null);
-	}
-
-	/**
-	 * An structure holding information about intersections.
-	 * 
-	 * @author Dillon Elste
-	 * 
-	 * @see #intersects
-	 * @see #distance
-	 * @see #intersectionObject
-	 * @see #pixel
-	 */
-	public static class IntersectionInfo {
-		public IntersectionInfo(boolean intersects, double distance, Actor intersectionObject, Pixel pixel) {
-			this.intersects = intersects;
-			this.distance = distance;
-			this.intersectionObject = intersectionObject;
-			this.pixel = pixel;
-		}
-
-		/**
-		 * <li>true, if the ray intersects</li>
-		 * <li>false, if the ray doesn't intersect</li>
-		 */
-		public boolean intersects;
-
-		/**
-		 * The distance between the origin and the intersection point.
-		 */
-		public double distance;
-
-		/**
-		 * <li>if {@link #intersects} is true -> the actor the ray intersects with</li>
-		 * <li>if {@link #intersects} is false -> null</li>
-		 */
-		public Actor intersectionObject;
-
-		/**
-		 * The pixel holding the color information of the intersection point or null if
-		 * there is no intersection.
-		 */
-		public Pixel pixel;
-	}
-
-	@Override
-	public String toString() {
-		return String.format("This Ray %s is defined as %n origin: %s%n direction: %s", super.toString(),
-				origin.toString(), direction.toString());
-	}
-}
+package ch.elste.rte;
+
+import ch.elste.math.Vector;
+import ch.elste.rte.image.Radiance;
+import ch.elste.rte.scene.Actor;
+import ch.elste.rte.scene.SceneSnapshot;
+import ch.elste.rte.scene.light.Light;
+import ch.elste.rte.scene.shape.Primitive;
+
+/**
+ * A ray is a beam of light with an origin and a direction. It travels through
+ * the snapshot of a scene.
+ * 
+ * @author Dillon Elste
+ */
+public class Ray {
+	/**
+	 * The queries are reused by every ray of a thread, so they don't have to be
+	 * allocated for each ray.
+	 */
+	private static final ThreadLocal<RayQuery> QUERIES = ThreadLocal.withInitial(RayQuery::new);
+
+	public SceneSnapshot scene;
+	public Vector origin;
+	public Vector direction;
+
+	/**
+	 * Creates a new ray with given values.
+	 * 
+	 * @param scene
+	 *            the scene the ray travels through
+	 * @param origin
+	 *            the origin of the ray
+	 * @param direction
+	 *            the direction of the ray
+	 */
+	public Ray(SceneSnapshot scene, Vector origin, Vector direction) {
+		this.scene = scene;
+		this.origin = new Vector(origin);
+		this.direction = new Vector(direction);
+	}
+
+	/**
+	 * Creates a new ray with given values.
+	 * 
+	 * @param scene
+	 *            the scene the ray travels through
+	 * @param ox
+	 *            the x coordinate of the origin
+	 * @param oy
+	 *            the y coordinate of the origin
+	 * @param oz
+	 *            the z coordinate of the origin
+	 * @param dx
+	 *            the x coordinate of the direction
+	 * @param dy
+	 *            the y coordinate of the direction
+	 * @param dz
+	 *            the z coordinate of the direction
+	 */
+	public Ray(SceneSnapshot scene, double ox, double oy, double oz, double dx, double dy, double dz) {
+		this.scene = scene;
+		origin = new Vector(ox, oy, oz);
+		direction = new Vector(dx, dy, dz);
+	}
+
+	/**
+	 * Sets the origin and direction of this ray. A ray can be reused this way
+	 * instead of creating a new one for every query.
+	 * 
+	 * @param ox
+	 *            the x coordinate of the origin
+	 * @param oy
+	 *            the y coordinate of the origin
+	 * @param oz
+	 *            the z coordinate of the origin
+	 * @param dx
+	 *            the x coordinate of the direction
+	 * @param dy
+	 *            the y coordinate of the direction
+	 * @param dz
+	 *            the z coordinate of the direction
+	 * 
+	 * @return this ray
+	 */
+	public Ray set(double ox, double oy, double oz, double dx, double dy, double dz) {
+		origin.x = ox;
+		origin.y = oy;
+		origin.z = oz;
+		direction.x = dx;
+		direction.y = dy;
+		direction.z = dz;
+		return this;
+	}
+
+	/**
+	 * Checks if this ray intersects with an actor on its way through space and
+	 * returns {@link IntersectionInfo information} about the intersection.
+	 * 
+	 * @param skip
+	 *            the primitive to ignore or null
+	 * 
+	 * @return an {@link IntersectionInfo} object.
+	 * 
+	 * @see IntersectionInfo
+	 * @see #trace(HitRecord, Primitive)
+	 */
+	public IntersectionInfo intersects(Primitive skip) {
+		HitRecord hit = new HitRecord();
+
+		if (trace(hit, skip))
+			return hit.primitive.getIntersectionInfo(this, hit.distance);
+		else
+			return new IntersectionInfo(false, Double.POSITIVE_INFINITY, null, null);
+	}
+
+	/**
+	 * Finds the nearest primitive this ray intersects and writes it to
+	 * {@code hit}. The intersection isn't shaded and nothing is allocated, so the
+	 * record can be reused for every ray of a thread.
+	 * 
+	 * @param hit
+	 *            the record the nearest intersection is written to
+	 * @param skip
+	 *            the primitive to ignore or null
+	 * 
+	 * @return true if this ray intersects a primitive
+	 */
+	public boolean trace(HitRecord hit, Primitive skip) {
+		hit.reset();
+
+		RayQuery query = QUERIES.get();
+		query.nearestHit(this, skip, hit);
+		if (scene.isAccelerated())
+			query.traverse(Double.POSITIVE_INFINITY);
+		else
+			query.scan(Double.POSITIVE_INFINITY);
+		query.clear();
+
+		return hit.primitive != null;
+	}
+
+	/**
+	 * Checks if the way from the origin of this ray to the light is free and
+	 * returns {@link IntersectionInfo information} about the light if it is.
+	 * 
+	 * @param l
+	 *            the light this ray points to
+	 * @param skip
+	 *            the primitive to ignore or null
+	 * 
+	 * @return an {@link IntersectionInfo} object which intersects the light if
+	 *         nothing is in between
+	 * 
+	 * @see #isOccluded(double, Primitive)
+	 */
+	public IntersectionInfo intersects(Light l, Primitive skip) {
+		double distance = l.position.minus(origin).dot(direction);
+
+		if (isOccluded(distance, skip))
+			return new IntersectionInfo(false, Double.POSITIVE_INFINITY, null, null);
+		else
+			return new IntersectionInfo(true, distance, l, null);
+	}
+
+	/**
+	 * Checks if any primitive blocks this ray closer than {@code maxDistance}. The
+	 * search stops at the first blocking primitive, because it doesn't matter which
+	 * one is the nearest. Primitives behind {@code maxDistance}, for example behind
+	 * a light, don't block the ray.
+	 * 
+	 * @param maxDistance
+	 *            the length of the segment that has to be free
+	 * @param skip
+	 *            the primitive to ignore or null
+	 * 
+	 * @return true if a primitive blocks the segment
+	 */
+	public boolean isOccluded(double maxDistance, Primitive skip) {
+		RayQuery query = QUERIES.get();
+		query.occlusion(this, skip);
+		if (scene.isAccelerated())
+			query.traverse(maxDistance);
+		else
+			query.scan(maxDistance);
+		boolean occluded = query.isOccluded();
+		query.clear();
+
+		return occluded;
+	}
+
+	/**
+	 * An structure holding information about intersections.
+	 * 
+	 * @author Dillon Elste
+	 * 
+	 * @see #intersects
+	 * @see #distance
+	 * @see #intersectionObject
+	 * @see #radiance
+	 */
+	public static class IntersectionInfo {
+		public IntersectionInfo(boolean intersects, double distance, Actor intersectionObject, Radiance radiance) {
+			this.intersects = intersects;
+			this.distance = distance;
+			this.intersectionObject = intersectionObject;
+			this.radiance = radiance;
+		}
+
+		/**
+		 * <li>true, if the ray intersects</li>
+		 * <li>false, if the ray doesn't intersect</li>
+		 */
+		public boolean intersects;
+
+		/**
+		 * The distance between the origin and the intersection point.
+		 */
+		public double distance;
+
+		/**
+		 * <li>if {@link #intersects} is true -> the actor the ray intersects with</li>
+		 * <li>if {@link #intersects} is false -> null</li>
+		 */
+		public Actor intersectionObject;
+
+		/**
+		 * The linear color of the intersection point or null if there is no
+		 * intersection.
+		 */
+		public Radiance radiance;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("This Ray %s is defined as %n origin: %s%n direction: %s", super.toString(),
+				origin.toString(), direction.toString());
+	}
+}
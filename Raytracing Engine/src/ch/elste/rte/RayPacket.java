@@ -0,0 +1,348 @@
+package ch.elste.rte;
+
+import ch.elste.math.Vector;
+import ch.elste.rte.scene.SceneSnapshot;
+import ch.elste.rte.scene.acceleration.BoundingVolumeHierarchy;
+import ch.elste.rte.scene.acceleration.SphereStore;
+import ch.elste.rte.scene.shape.Primitive;
+
+/**
+ * A packet is a rectangular bundle of rays sharing their origin, like the
+ * rays of neighbouring pixels of a camera. The rays of a packet are traced
+ * through the bounding volume hierarchy together, so each node is fetched and
+ * culled once for the whole packet instead of once per ray.
+ * <p>
+ * A packet is meant to be reused. Each thread should own its packets.
+ * </p>
+ * 
+ * @author Dillon Elste
+ */
+public class RayPacket {
+	/**
+	 * The maximal number of rays in a packet.
+	 */
+	public static final int MAX_SIZE = 64;
+
+	public double originX, originY, originZ;
+	public final double[] directionX = new double[MAX_SIZE];
+	public final double[] directionY = new double[MAX_SIZE];
+	public final double[] directionZ = new double[MAX_SIZE];
+	public final double[] inverseDirectionX = new double[MAX_SIZE];
+	public final double[] inverseDirectionY = new double[MAX_SIZE];
+	public final double[] inverseDirectionZ = new double[MAX_SIZE];
+
+	/**
+	 * The distance to the nearest intersection of each ray or
+	 * {@link Double#POSITIVE_INFINITY} if it doesn't intersect anything.
+	 */
+	public final double[] distance = new double[MAX_SIZE];
+
+	/**
+	 * The nearest primitive each ray intersects or null.
+	 */
+	public final Primitive[] primitive = new Primitive[MAX_SIZE];
+
+	/**
+	 * The element of the nearest primitive each ray intersects.
+	 * 
+	 * @see HitRecord#element
+	 */
+	public final int[] element = new int[MAX_SIZE];
+
+	private int width, height;
+
+	/**
+	 * The scene of the last call to {@link #trace(SceneSnapshot)}.
+	 */
+	private SceneSnapshot scene;
+
+	/**
+	 * The normals of the four planes through the origin enclosing all rays. Each
+	 * normal takes three consecutive values and points to the inside.
+	 */
+	private final double[] frustum = new double[12];
+
+	private final Query query = new Query();
+
+	/**
+	 * Sets the number of rays in this packet. The rays are ordered row by row.
+	 * 
+	 * @param width
+	 *            the number of rays in a row
+	 * @param height
+	 *            the number of rays in a column
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the packet would be empty or hold more than
+	 *             {@link #MAX_SIZE} rays
+	 */
+	public void setSize(int width, int height) {
+		if (width < 1 || height < 1 || width * height > MAX_SIZE)
+			throw new IllegalArgumentException("a packet has to hold between 1 and " + MAX_SIZE + " rays");
+
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Sets the origin of all rays.
+	 * 
+	 * @param origin
+	 *            the origin of the rays
+	 */
+	public void setOrigin(Vector origin) {
+		originX = origin.x;
+		originY = origin.y;
+		originZ = origin.z;
+	}
+
+	/**
+	 * Sets the direction of a ray.
+	 * 
+	 * @param lane
+	 *            the index of the ray
+	 * @param direction
+	 *            the normalized direction
+	 */
+	public void setDirection(int lane, Vector direction) {
+		setDirection(lane, direction.x, direction.y, direction.z);
+	}
+
+	/**
+	 * Sets the direction of a ray.
+	 * 
+	 * @param lane
+	 *            the index of the ray
+	 * @param dx
+	 *            the x coordinate of the normalized direction
+	 * @param dy
+	 *            the y coordinate of the normalized direction
+	 * @param dz
+	 *            the z coordinate of the normalized direction
+	 */
+	public void setDirection(int lane, double dx, double dy, double dz) {
+		directionX[lane] = dx;
+		directionY[lane] = dy;
+		directionZ[lane] = dz;
+		inverseDirectionX[lane] = 1 / dx;
+		inverseDirectionY[lane] = 1 / dy;
+		inverseDirectionZ[lane] = 1 / dz;
+	}
+
+	/**
+	 * Finds the nearest intersection of every ray in this packet. The results are
+	 * written to {@link #distance}, {@link #primitive} and {@link #element}.
+	 * 
+	 * @param scene
+	 *            the scene the rays travel through
+	 * 
+	 * @return true if at least one ray intersects a primitive
+	 */
+	public boolean trace(SceneSnapshot scene) {
+		this.scene = scene;
+		int size = size();
+		for (int lane = 0; lane < size; lane++) {
+			distance[lane] = Double.POSITIVE_INFINITY;
+			primitive[lane] = null;
+			element[lane] = 0;
+		}
+
+		query.prepare();
+		if (scene.isAccelerated()) {
+			calculateFrustum();
+			query.bvh.traversePacket(this, query, query.stack, query.lanes);
+		} else {
+			for (int lane = 0; lane < size; lane++) {
+				query.split(-1, lane);
+			}
+		}
+
+		for (int lane = 0; lane < size; lane++) {
+			if (primitive[lane] != null)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Calculates the planes enclosing the packet from the rays in its corners.
+	 * All other rays lie in between them, because they point to a regular grid.
+	 */
+	private void calculateFrustum() {
+		int[] corners = { 0, width - 1, width * height - 1, width * (height - 1) };
+		// The center lane is a corner of packets two rays wide or high, so it lies on
+		// some planes. The sum of the corners always points into the frustum.
+		double cx = 0, cy = 0, cz = 0;
+		for (int corner : corners) {
+			cx += directionX[corner];
+			cy += directionY[corner];
+			cz += directionZ[corner];
+		}
+
+		for (int i = 0; i < 4; i++) {
+			int a = corners[i], b = corners[(i + 1) % 4];
+			double nx = directionY[a] * directionZ[b] - directionZ[a] * directionY[b];
+			double ny = directionZ[a] * directionX[b] - directionX[a] * directionZ[b];
+			double nz = directionX[a] * directionY[b] - directionY[a] * directionX[b];
+
+			if (nx * cx + ny * cy + nz * cz < 0) {
+				nx = -nx;
+				ny = -ny;
+				nz = -nz;
+			}
+
+			frustum[3 * i] = nx;
+			frustum[3 * i + 1] = ny;
+			frustum[3 * i + 2] = nz;
+		}
+	}
+
+	/**
+	 * Checks if a box is at least partly inside the frustum of this packet. Only
+	 * the corner of the box farthest inside each plane has to be checked.
+	 * 
+	 * @param bounds
+	 *            the array holding the box as minX, minY, minZ, maxX, maxY, maxZ
+	 * @param offset
+	 *            the index of minX in {@code bounds}
+	 * 
+	 * @return false if the box is entirely outside the frustum
+	 */
+	public boolean frustumIntersects(double[] bounds, int offset) {
+		for (int i = 0; i < 12; i += 3) {
+			double nx = frustum[i], ny = frustum[i + 1], nz = frustum[i + 2];
+			double x = nx >= 0 ? bounds[offset + 3] : bounds[offset];
+			double y = ny >= 0 ? bounds[offset + 4] : bounds[offset + 1];
+			double z = nz >= 0 ? bounds[offset + 5] : bounds[offset + 2];
+
+			if (nx * (x - originX) + ny * (y - originY) + nz * (z - originZ) < 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns a new ray equal to the ray at {@code lane}. It travels through the
+	 * scene of the last call to {@link #trace(SceneSnapshot)}.
+	 * 
+	 * @param lane
+	 *            the index of the ray
+	 * 
+	 * @return a new ray
+	 */
+	public Ray getRay(int lane) {
+		return new Ray(scene, originX, originY, originZ, directionX[lane], directionY[lane], directionZ[lane]);
+	}
+
+	/**
+	 * Returns the index of the ray in the middle of this packet.
+	 * 
+	 * @return the index of the center ray
+	 */
+	public int getCenterLane() {
+		return (height / 2) * width + width / 2;
+	}
+
+	/**
+	 * Returns the number of rays in this packet.
+	 * 
+	 * @return the number of rays
+	 */
+	public int size() {
+		return width * height;
+	}
+
+	/**
+	 * Returns the number of rays in a row of this packet.
+	 * 
+	 * @return the number of rays in a row
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Returns the number of rays in a column of this packet.
+	 * 
+	 * @return the number of rays in a column
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Tests the rays reaching a leaf against its primitives and traces single
+	 * rays once the packet has diverged.
+	 * 
+	 * @author Dillon Elste
+	 */
+	private class Query implements BoundingVolumeHierarchy.PacketVisitor {
+		private BoundingVolumeHierarchy bvh;
+		private SphereStore spheres;
+		private int[] stack = new int[64];
+		private final boolean[] lanes = new boolean[MAX_SIZE];
+		private final double[] scratch = SphereStore.createScratch();
+
+		private final Ray ray = new Ray(null, 0, 0, 0, 0, 0, 1);
+		private final HitRecord hit = new HitRecord();
+		private final RayQuery single = new RayQuery();
+
+		private void prepare() {
+			ray.scene = scene;
+			bvh = scene.getBoundingVolumeHierarchy();
+			spheres = scene.getSphereStore();
+			if (stack.length < bvh.getStackSize())
+				stack = new int[bvh.getStackSize()];
+		}
+
+		@Override
+		public void visit(int first, int count, boolean[] lanes) {
+			if (spheres != null) {
+				spheres.nearest(RayPacket.this, first, count, lanes, scratch);
+				return;
+			}
+
+			for (int lane = 0; lane < size(); lane++) {
+				if (!lanes[lane])
+					continue;
+
+				ray.set(originX, originY, originZ, directionX[lane], directionY[lane], directionZ[lane]);
+				hit.distance = distance[lane];
+				hit.primitive = primitive[lane];
+				hit.element = element[lane];
+				for (int i = first; i < first + count; i++) {
+					scene.getLeafPrimitive(i).intersect(ray, hit);
+				}
+				distance[lane] = hit.distance;
+				primitive[lane] = hit.primitive;
+				element[lane] = hit.element;
+			}
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * <p>
+		 * A negative node traces the ray through the whole scene.
+		 * </p>
+		 */
+		@Override
+		public void split(int node, int lane) {
+			ray.set(originX, originY, originZ, directionX[lane], directionY[lane], directionZ[lane]);
+			hit.distance = distance[lane];
+			hit.primitive = primitive[lane];
+			hit.element = element[lane];
+
+			if (node < 0) {
+				ray.trace(hit, null);
+			} else {
+				single.nearestHit(ray, null, hit);
+				single.traverse(node, hit.distance);
+				single.clear();
+			}
+
+			distance[lane] = hit.distance;
+			primitive[lane] = hit.primitive;
+			element[lane] = hit.element;
+		}
+	}
+}
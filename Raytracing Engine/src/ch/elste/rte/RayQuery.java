@@ -0,0 +1,196 @@
+package ch.elste.rte;
+
+import ch.elste.rte.scene.SceneSnapshot;
+import ch.elste.rte.scene.acceleration.BoundingVolumeHierarchy;
+import ch.elste.rte.scene.acceleration.SphereStore;
+import ch.elste.rte.scene.shape.Primitive;
+
+/**
+ * Tests the primitives in the leaves of the bounding volume hierarchy against
+ * a ray. A query either looks for the nearest intersection or stops at the
+ * first primitive blocking the ray. Every thread reuses a single query, which
+ * also owns the traversal stack.
+ * 
+ * @author Dillon Elste
+ */
+class RayQuery implements BoundingVolumeHierarchy.Visitor {
+	private Ray ray;
+	private Primitive skip;
+	private SceneSnapshot scene;
+
+	/**
+	 * The record of the nearest hit or null if this query looks for occluders.
+	 */
+	private HitRecord hit;
+	private boolean occluded;
+
+	/**
+	 * The hierarchy of the scene of the ray and the spheres in the order of its
+	 * leaves or null if the scene doesn't consist of spheres only.
+	 */
+	private BoundingVolumeHierarchy bvh;
+	private SphereStore spheres;
+
+	/**
+	 * The record other primitives than spheres are tested with while looking for
+	 * occluders.
+	 */
+	private final HitRecord probe = new HitRecord();
+
+	private int[] stack = new int[64];
+	private final double[] scratch = SphereStore.createScratch();
+
+	/**
+	 * Prepares this query to find the nearest intersection.
+	 * 
+	 * @param ray
+	 *            the ray to trace
+	 * @param skip
+	 *            the primitive to ignore or null
+	 * @param hit
+	 *            the record the nearest intersection is written to
+	 */
+	void nearestHit(Ray ray, Primitive skip, HitRecord hit) {
+		prepare(ray.scene);
+		this.ray = ray;
+		this.skip = skip;
+		this.hit = hit;
+	}
+
+	/**
+	 * Prepares this query to find any primitive blocking the ray.
+	 * 
+	 * @param ray
+	 *            the ray to trace
+	 * @param skip
+	 *            the primitive to ignore or null
+	 */
+	void occlusion(Ray ray, Primitive skip) {
+		prepare(ray.scene);
+		this.ray = ray;
+		this.skip = skip;
+		hit = null;
+		occluded = false;
+	}
+
+	/**
+	 * Fetches the acceleration structures of the scene.
+	 * 
+	 * @param scene
+	 *            the scene to query
+	 */
+	void prepare(SceneSnapshot scene) {
+		this.scene = scene;
+		bvh = scene.getBoundingVolumeHierarchy();
+		spheres = scene.getSphereStore();
+		if (stack.length < bvh.getStackSize())
+			stack = new int[bvh.getStackSize()];
+	}
+
+	/**
+	 * Traverses the hierarchy of the scene with this query.
+	 * 
+	 * @param maxDistance
+	 *            the distance up to which intersections are of interest
+	 */
+	void traverse(double maxDistance) {
+		bvh.traverse(ray, maxDistance, this, stack);
+	}
+
+	/**
+	 * Traverses the subtree below {@code node} of the hierarchy of the scene with
+	 * this query.
+	 * 
+	 * @param node
+	 *            the node to start at
+	 * @param maxDistance
+	 *            the distance up to which intersections are of interest
+	 */
+	void traverse(int node, double maxDistance) {
+		bvh.traverse(node, ray, maxDistance, this, stack);
+	}
+
+	/**
+	 * Tests the ray against all primitives of the scene one after another,
+	 * without using the hierarchy.
+	 * 
+	 * @param maxDistance
+	 *            the distance up to which intersections are of interest
+	 */
+	void scan(double maxDistance) {
+		int count = scene.numberOfPrimitives();
+		if (spheres != null) {
+			// The store is in the order of the leaves, which covers every primitive.
+			visit(0, count, maxDistance);
+		} else {
+			for (int i = 0; i < count && maxDistance >= 0; i++) {
+				maxDistance = test(scene.getPrimitive(i), maxDistance);
+			}
+		}
+		scene.getTraversalStatistics().record(0, count);
+	}
+
+	/**
+	 * Returns whether a primitive blocked the ray of the last occlusion query.
+	 * 
+	 * @return true if the ray is blocked
+	 */
+	boolean isOccluded() {
+		return occluded;
+	}
+
+	/**
+	 * Drops the references to the last ray, record and scene.
+	 */
+	void clear() {
+		ray = null;
+		scene = null;
+		skip = null;
+		hit = null;
+		probe.primitive = null;
+		bvh = null;
+		spheres = null;
+	}
+
+	@Override
+	public double visit(int first, int count, double maxDistance) {
+		if (spheres != null) {
+			if (hit == null) {
+				if (spheres.occludes(ray, first, count, skip, maxDistance, scratch)) {
+					occluded = true;
+					return -1;
+				}
+				return maxDistance;
+			}
+			return spheres.nearest(ray, first, count, skip, maxDistance, hit, scratch);
+		}
+
+		for (int i = first; i < first + count && maxDistance >= 0; i++) {
+			maxDistance = test(scene.getLeafPrimitive(i), maxDistance);
+		}
+		return maxDistance;
+	}
+
+	/**
+	 * Tests the ray against a single primitive.
+	 * 
+	 * @return the new maximal distance or -1 if the primitive blocks the ray of an
+	 *         occlusion query
+	 */
+	private double test(Primitive p, double maxDistance) {
+		if (p == skip)
+			return maxDistance;
+
+		if (hit == null) {
+			probe.distance = maxDistance;
+			if (p.intersect(ray, probe)) {
+				occluded = true;
+				return -1;
+			}
+			return maxDistance;
+		}
+
+		hit.distance = maxDistance;
+		return p.intersect(ray, hit) ? hit.distance : maxDistance;
+	}
+}
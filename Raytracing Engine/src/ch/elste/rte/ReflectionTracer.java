@@ -0,0 +1,170 @@
+package ch.elste.rte;
+
+import ch.elste.rte.image.Radiance;
+import ch.elste.rte.scene.SceneSnapshot;
+import ch.elste.rte.scene.shape.Primitive;
+import ch.elste.rte.scene.shape.material.Material;
+
+/**
+ * Follows the reflections of a ray through the scene. At every intersection
+ * the diffuse part of the surface is shaded and, if its material is
+ * reflective, the ray is mirrored at the surface and traced on to the next
+ * intersection. The share of light carried by the reflection is given by the
+ * Schlick approximation of the Fresnel term.
+ * <p>
+ * The path is followed in a loop instead of recursively, so the depth of the
+ * call stack doesn't grow with the number of reflections. Each reflection uses
+ * the same nearest hit query as the camera rays. A path ends after the maximal
+ * depth of the scene at the latest. From the second reflection on, paths that
+ * carry little light are ended at random with Russian roulette, and the paths
+ * that survive are weighted up, so the expected color stays the same while the
+ * average path stays short.
+ * </p>
+ * 
+ * @author Dillon Elste
+ * 
+ * @see SceneSnapshot#getMaxDepth()
+ */
+public final class ReflectionTracer {
+	/**
+	 * The number of reflections after which Russian roulette starts.
+	 */
+	public static final int ROULETTE_DEPTH = 2;
+
+	private static final ThreadLocal<ReflectionTracer> TRACERS = ThreadLocal.withInitial(ReflectionTracer::new);
+
+	private final Ray ray = new Ray(null, 0, 0, 0, 0, 0, 1);
+	private final HitRecord hit = new HitRecord();
+	private final double[] normal = new double[3];
+
+	private ReflectionTracer() {
+	}
+
+	/**
+	 * Returns the tracer of the calling thread.
+	 * 
+	 * @return the tracer of the calling thread
+	 */
+	public static ReflectionTracer get() {
+		return TRACERS.get();
+	}
+
+	/**
+	 * Calculates the linear color seen by a ray at its nearest intersection,
+	 * including everything reflected there.
+	 * 
+	 * @param scene
+	 *            the scene the ray travels through
+	 * @param primitive
+	 *            the primitive the ray intersects
+	 * @param px
+	 *            the x coordinate of the intersection
+	 * @param py
+	 *            the y coordinate of the intersection
+	 * @param pz
+	 *            the z coordinate of the intersection
+	 * @param nx
+	 *            the x coordinate of the normal at the intersection
+	 * @param ny
+	 *            the y coordinate of the normal at the intersection
+	 * @param nz
+	 *            the z coordinate of the normal at the intersection
+	 * @param dx
+	 *            the x coordinate of the normalized direction of the ray
+	 * @param dy
+	 *            the y coordinate of the normalized direction of the ray
+	 * @param dz
+	 *            the z coordinate of the normalized direction of the ray
+	 * 
+	 * @return the linear color seen by the ray
+	 */
+	public Radiance shade(SceneSnapshot scene, Primitive primitive, double px, double py, double pz, double nx,
+			double ny, double nz, double dx, double dy, double dz) {
+		double r = 0, g = 0, b = 0;
+
+		// The share of the light at the current intersection which reaches the
+		// camera.
+		double tr = 1, tg = 1, tb = 1;
+
+		for (int depth = 0;; depth++) {
+			Material material = primitive.getMaterial();
+			Radiance diffuse = primitive.shade(scene, px, py, pz, nx, ny, nz);
+
+			if (!material.isReflective()) {
+				r += tr * diffuse.r;
+				g += tg * diffuse.g;
+				b += tb * diffuse.b;
+				break;
+			}
+
+			// Reflections are calculated with the normal facing the ray.
+			double cos = -(dx * nx + dy * ny + dz * nz);
+			if (cos < 0) {
+				nx = -nx;
+				ny = -ny;
+				nz = -nz;
+				cos = -cos;
+			}
+
+			Radiance fresnel = material.getSchlickReflectance(cos);
+			r += tr * (1 - fresnel.r) * diffuse.r;
+			g += tg * (1 - fresnel.g) * diffuse.g;
+			b += tb * (1 - fresnel.b) * diffuse.b;
+			if (depth >= scene.getMaxDepth())
+				break;
+
+			tr *= fresnel.r;
+			tg *= fresnel.g;
+			tb *= fresnel.b;
+
+			double survival = Math.max(tr, Math.max(tg, tb));
+			if (survival <= 0)
+				break;
+			if (depth + 1 >= ROULETTE_DEPTH && survival < 1) {
+				if (random(px, py, pz, depth) >= survival)
+					break;
+
+				tr /= survival;
+				tg /= survival;
+				tb /= survival;
+			}
+
+			dx += 2 * cos * nx;
+			dy += 2 * cos * ny;
+			dz += 2 * cos * nz;
+
+			ray.scene = scene;
+			ray.set(px, py, pz, dx, dy, dz);
+			scene.getTraversalStatistics().recordSecondaryRay();
+			if (!ray.trace(hit, primitive.isConvex() ? primitive : null))
+				break;
+
+			primitive = hit.primitive;
+			px += dx * hit.distance;
+			py += dy * hit.distance;
+			pz += dz * hit.distance;
+			primitive.getNormal(hit.element, px, py, pz, normal);
+			nx = normal[0];
+			ny = normal[1];
+			nz = normal[2];
+		}
+
+		return new Radiance(r, g, b);
+	}
+
+	/**
+	 * Returns a random number between 0 (inclusive) and 1 (exclusive) which only
+	 * depends on the point and the depth, so the image doesn't depend on the order
+	 * in which the pixels are rendered.
+	 */
+	private static double random(double px, double py, double pz, int depth) {
+		long z = Double.doubleToLongBits(px) * 31 + Double.doubleToLongBits(py);
+		z = (z * 31 + Double.doubleToLongBits(pz)) * 31 + depth;
+
+		// The finalizer of SplitMix64.
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		z ^= z >>> 31;
+		return (z >>> 11) * 0x1.0p-53;
+	}
+}
@@ -0,0 +1,40 @@
+package ch.elste.rte.distributed;
+
+/**
+ * The messages exchanged by the {@link RenderCoordinator coordinator} and its
+ * {@link RenderWorker workers}. Every message starts with its type as a single
+ * byte, followed by its fields in the format of {@link java.io.DataOutput}.
+ * <p>
+ * The coordinator sends:
+ * </p>
+ * <ul>
+ * <li>{@link #JOB}: magic number, version, frame, {@link RenderJob job}</li>
+ * <li>{@link #TILE}: frame, tile, minX, minY, maxX, maxY</li>
+ * <li>{@link #QUIT}</li>
+ * </ul>
+ * <p>
+ * The worker answers:
+ * </p>
+ * <ul>
+ * <li>{@link #READY}: frame, once the scene of a job is loaded</li>
+ * <li>{@link #RESULT}: frame, tile, length, the colors of the tile compressed
+ * by a {@link TileCodec}</li>
+ * <li>{@link #FAILED}: message, if a job or tile can't be rendered</li>
+ * </ul>
+ * <p>
+ * Frames number the jobs, so late results of an earlier image can be told
+ * apart. A worker handles its messages in order.
+ * </p>
+ * 
+ * @author Dillon Elste
+ */
+final class Protocol {
+	static final int MAGIC = 0x52544557;
+	static final int VERSION = 1;
+
+	static final byte JOB = 1, TILE = 2, QUIT = 3;
+	static final byte READY = 1, RESULT = 2, FAILED = 3;
+
+	private Protocol() {
+	}
+}
@@ -0,0 +1,749 @@
+package ch.elste.rte.distributed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import ch.elste.rte.image.ImageSink;
+
+/**
+ * Renders images on {@link RenderWorker worker} processes. The image is split
+ * into tiles which are handed out to the workers as they become free, and the
+ * tiles coming back are assembled into rows and streamed to an
+ * {@link ImageSink}. A worker may run on any machine the coordinator can talk
+ * to through a pair of streams, for example through {@code ssh}.
+ * <p>
+ * Each worker has a few tiles in flight, so it never waits for the next one.
+ * When no tiles are left, free workers also render the tiles which take far
+ * longer than usual on another worker, and whichever copy arrives first is
+ * used. A worker whose stream breaks or which makes no progress for the
+ * {@link #setWorkerTimeout(long) worker timeout} is killed and its tiles are
+ * handed to the others. An image only fails if every worker fails.
+ * </p>
+ * 
+ * @author Dillon Elste
+ */
+public class RenderCoordinator implements Closeable {
+	/**
+	 * The default edge length of a tile in pixels.
+	 */
+	public static final int DEFAULT_TILE_SIZE = 64;
+
+	/**
+	 * The number of tiles sent to a worker before it has answered, so it can
+	 * start the next one while the result of the last one is on its way.
+	 */
+	private static final int TILES_IN_FLIGHT = 2;
+
+	/**
+	 * How many times longer than the average a tile has to take before it is
+	 * rendered by a second worker, and the least time it has to take.
+	 */
+	private static final int STRAGGLER_FACTOR = 4;
+	private static final long MIN_STRAGGLER_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+	/**
+	 * How often stalled and slow workers are looked for.
+	 */
+	private static final long CHECK_INTERVAL_MILLIS = 20;
+
+	/**
+	 * A tile sent to a worker.
+	 */
+	private static final class Assignment {
+		final int frame, tile;
+
+		/**
+		 * The number of floats of the tile.
+		 */
+		final int count;
+		final long sent;
+
+		Assignment(int frame, int tile, int count, long sent) {
+			this.frame = frame;
+			this.tile = tile;
+			this.count = count;
+			this.sent = sent;
+		}
+	}
+
+	/**
+	 * A worker and its streams. Its state is guarded by the coordinator, its
+	 * output stream by itself.
+	 */
+	private static final class Connection {
+		final String name;
+		final Process process;
+		final DataInputStream in;
+		final DataOutputStream out;
+
+		/**
+		 * The tiles sent to the worker which haven't come back yet.
+		 */
+		final List<Assignment> inFlight = new ArrayList<>();
+		boolean alive = true;
+		String failure;
+
+		/**
+		 * The frame the worker has loaded the scene for, when the job was sent and
+		 * when the last result arrived.
+		 */
+		int readyFrame = -1;
+		long jobSent, lastResult;
+
+		int tiles, discardedTiles;
+		long pixels, renderedPixels, bytesReceived, busyNanos, loadNanos;
+
+		Connection(String name, Process process, InputStream in, OutputStream out) {
+			this.name = name;
+			this.process = process;
+			this.in = new DataInputStream(new BufferedInputStream(in));
+			this.out = new DataOutputStream(new BufferedOutputStream(out));
+		}
+
+		void sendJob(int frame, RenderJob job) throws IOException {
+			synchronized (out) {
+				out.writeByte(Protocol.JOB);
+				out.writeInt(Protocol.MAGIC);
+				out.writeInt(Protocol.VERSION);
+				out.writeInt(frame);
+				job.write(out);
+				out.flush();
+			}
+		}
+
+		void sendTiles(List<int[]> regions) throws IOException {
+			synchronized (out) {
+				for (int[] region : regions) {
+					out.writeByte(Protocol.TILE);
+					for (int value : region) {
+						out.writeInt(value);
+					}
+				}
+				out.flush();
+			}
+		}
+
+		void sendQuit() throws IOException {
+			synchronized (out) {
+				out.writeByte(Protocol.QUIT);
+				out.close();
+			}
+		}
+
+		/**
+		 * Stops the worker for good.
+		 */
+		void kill() {
+			if (process != null)
+				process.destroyForcibly();
+			try {
+				in.close();
+			} catch (IOException e) {
+				// The worker is gone either way.
+			}
+			try {
+				out.close();
+			} catch (IOException e) {
+				// The worker is gone either way.
+			}
+		}
+	}
+
+	private final List<Connection> connections = new ArrayList<>();
+	private int tileSize = DEFAULT_TILE_SIZE;
+	private long workerTimeout = TimeUnit.MINUTES.toNanos(1);
+	private boolean closed;
+
+	/*
+	 * The image being rendered. The tiles are numbered row by row and the rows of
+	 * tiles are collected in bands until they are complete.
+	 */
+	private RenderJob job;
+	private int frame;
+	private boolean rendering;
+	private int frameTileSize, tilesX;
+	private ArrayDeque<Integer> pending;
+	private boolean[] finished;
+	private int[] copies;
+	private float[][] bands;
+	private int[] tilesLeft;
+	private long totalTileNanos;
+	private int timedTiles;
+
+	/**
+	 * Starts worker processes on this machine running with the same Java
+	 * installation and class path as the coordinator.
+	 * 
+	 * @param count
+	 *            the number of workers
+	 * @param renderThreads
+	 *            the number of threads every worker renders with
+	 * 
+	 * @throws IOException
+	 *             if a process can't be started
+	 */
+	public void startLocalWorkers(int count, int renderThreads) throws IOException {
+		String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+		for (int i = 0; i < count; i++) {
+			ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+					RenderWorker.class.getName(), Integer.toString(renderThreads));
+			builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+			startWorker("worker " + (numberOfWorkers() + 1), builder);
+		}
+	}
+
+	/**
+	 * Starts a process running a {@link RenderWorker} on its standard input and
+	 * output, for example {@code ssh host java ch.elste.rte.distributed.RenderWorker}.
+	 * 
+	 * @param name
+	 *            the name of the worker in the statistics
+	 * @param builder
+	 *            the builder of the process
+	 * 
+	 * @throws IOException
+	 *             if the process can't be started
+	 */
+	public void startWorker(String name, ProcessBuilder builder) throws IOException {
+		Process process = builder.start();
+		addConnection(new Connection(name, process, process.getInputStream(), process.getOutputStream()));
+	}
+
+	/**
+	 * Adds a worker reached through a pair of streams, for example those of a
+	 * socket.
+	 * 
+	 * @param name
+	 *            the name of the worker in the statistics
+	 * @param in
+	 *            the stream of the answers of the worker
+	 * @param out
+	 *            the stream of the messages to the worker
+	 */
+	public void addWorker(String name, InputStream in, OutputStream out) {
+		addConnection(new Connection(name, null, in, out));
+	}
+
+	private void addConnection(Connection connection) {
+		RenderJob job;
+		int frame;
+		synchronized (this) {
+			if (closed)
+				throw new IllegalStateException("the coordinator is closed");
+
+			connections.add(connection);
+			job = rendering ? this.job : null;
+			frame = this.frame;
+			connection.jobSent = System.nanoTime();
+		}
+
+		Thread reader = new Thread(() -> read(connection), "render worker reader: " + connection.name);
+		reader.setDaemon(true);
+		reader.start();
+
+		// A worker added while an image is rendered helps right away.
+		if (job != null) {
+			try {
+				connection.sendJob(frame, job);
+			} catch (IOException e) {
+				died(connection, e);
+			}
+		}
+	}
+
+	/**
+	 * Renders an image on the workers and writes it to a sink, row by row. Only
+	 * the rows of tiles which aren't complete or whose previous rows aren't
+	 * complete yet are held in memory. The sink isn't closed.
+	 * 
+	 * @param job
+	 *            the image to render
+	 * @param sink
+	 *            the sink receiving the rows of the image
+	 * 
+	 * @throws IOException
+	 *             if every worker fails or the sink can't write the image
+	 * @throws IllegalStateException
+	 *             if there are no workers or another image is being rendered
+	 */
+	public void render(RenderJob job, ImageSink sink) throws IOException {
+		int width = job.getWidth(), height = job.getHeight();
+		List<Connection> workers;
+		int frame, tileSize, tilesY;
+
+		synchronized (this) {
+			if (closed)
+				throw new IllegalStateException("the coordinator is closed");
+			if (connections.isEmpty())
+				throw new IllegalStateException("there are no workers");
+			if (rendering)
+				throw new IllegalStateException("another image is being rendered");
+
+			tileSize = this.tileSize;
+			tilesX = (width + tileSize - 1) / tileSize;
+			tilesY = (height + tileSize - 1) / tileSize;
+			int tiles = tilesX * tilesY;
+
+			this.job = job;
+			frame = ++this.frame;
+			frameTileSize = tileSize;
+			rendering = true;
+			pending = new ArrayDeque<>(tiles);
+			for (int tile = 0; tile < tiles; tile++) {
+				pending.add(tile);
+			}
+			finished = new boolean[tiles];
+			copies = new int[tiles];
+			bands = new float[tilesY][];
+			tilesLeft = new int[tilesY];
+			for (int y = 0; y < tilesY; y++) {
+				tilesLeft[y] = tilesX;
+			}
+			totalTileNanos = 0;
+			timedTiles = 0;
+
+			long now = System.nanoTime();
+			for (Connection connection : connections) {
+				connection.tiles = connection.discardedTiles = 0;
+				connection.pixels = connection.renderedPixels = connection.bytesReceived = 0;
+				connection.busyNanos = 0;
+				connection.loadNanos = -1;
+				connection.jobSent = now;
+			}
+			workers = new ArrayList<>(connections);
+		}
+
+		try {
+			for (Connection connection : workers) {
+				try {
+					connection.sendJob(frame, job);
+				} catch (IOException e) {
+					died(connection, e);
+				}
+			}
+
+			for (int row = 0; row < tilesY;) {
+				float[] band = null;
+				List<Connection> stalled;
+				synchronized (this) {
+					if (tilesLeft[row] == 0) {
+						band = bands[row];
+						bands[row] = null;
+					} else {
+						if (connections.stream().noneMatch(connection -> connection.alive))
+							throw new IOException("every worker failed" + lastFailure());
+
+						try {
+							wait(CHECK_INTERVAL_MILLIS);
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							throw new InterruptedIOException("interrupted while rendering");
+						}
+					}
+					stalled = stalledConnections();
+				}
+
+				for (Connection connection : stalled) {
+					died(connection, new IOException("the worker made no progress for "
+							+ TimeUnit.NANOSECONDS.toSeconds(workerTimeout) + " s"));
+				}
+				dispatch();
+
+				if (band != null) {
+					sink.writeRows(band, Math.min(tileSize, height - row * tileSize));
+					row++;
+				}
+			}
+		} finally {
+			synchronized (this) {
+				rendering = false;
+				pending = null;
+				bands = null;
+			}
+		}
+	}
+
+	/**
+	 * Returns the workers which have work but haven't answered for longer than
+	 * the timeout.
+	 */
+	private List<Connection> stalledConnections() {
+		long now = System.nanoTime();
+		List<Connection> stalled = new ArrayList<>();
+		for (Connection connection : connections) {
+			if (!connection.alive)
+				continue;
+
+			long since;
+			if (!connection.inFlight.isEmpty())
+				since = Math.max(connection.inFlight.get(0).sent, connection.lastResult);
+			else if (rendering && connection.readyFrame != frame)
+				since = connection.jobSent;
+			else
+				continue;
+
+			if (now - since > workerTimeout)
+				stalled.add(connection);
+		}
+		return stalled;
+	}
+
+	private String lastFailure() {
+		for (int i = connections.size() - 1; i >= 0; i--) {
+			if (connections.get(i).failure != null)
+				return ", the last one because " + connections.get(i).failure;
+		}
+		return "";
+	}
+
+	/**
+	 * Sends tiles to every worker which has room for more.
+	 */
+	private void dispatch() {
+		Map<Connection, List<int[]>> messages = new LinkedHashMap<>();
+		synchronized (this) {
+			if (!rendering)
+				return;
+
+			long now = System.nanoTime();
+			for (Connection connection : connections) {
+				if (!connection.alive || connection.readyFrame != frame)
+					continue;
+
+				while (connection.inFlight.size() < TILES_IN_FLIGHT) {
+					int tile = nextTile(connection, now);
+					if (tile < 0)
+						break;
+
+					int minX = (tile % tilesX) * frameTileSize, minY = (tile / tilesX) * frameTileSize;
+					int maxX = Math.min(minX + frameTileSize, job.getWidth());
+					int maxY = Math.min(minY + frameTileSize, job.getHeight());
+
+					connection.inFlight.add(new Assignment(frame, tile, 3 * (maxX - minX) * (maxY - minY), now));
+					copies[tile]++;
+					messages.computeIfAbsent(connection, c -> new ArrayList<>())
+							.add(new int[] { frame, tile, minX, minY, maxX, maxY });
+				}
+			}
+		}
+
+		for (Map.Entry<Connection, List<int[]>> entry : messages.entrySet()) {
+			try {
+				entry.getKey().sendTiles(entry.getValue());
+			} catch (IOException e) {
+				died(entry.getKey(), e);
+			}
+		}
+	}
+
+	/**
+	 * Returns the next tile for a worker: a tile nobody has rendered yet or else
+	 * the tile which has been on another worker for the longest time, if that is
+	 * much longer than usual.
+	 * 
+	 * @return the tile or -1 if there is none
+	 */
+	private int nextTile(Connection connection, long now) {
+		if (!pending.isEmpty())
+			return pending.poll();
+		if (timedTiles == 0)
+			return -1;
+
+		long threshold = Math.max(MIN_STRAGGLER_NANOS, STRAGGLER_FACTOR * totalTileNanos / timedTiles);
+		Assignment slowest = null;
+		for (Connection other : connections) {
+			if (other == connection)
+				continue;
+
+			for (Assignment assignment : other.inFlight) {
+				if (assignment.frame == frame && !finished[assignment.tile] && copies[assignment.tile] == 1
+						&& now - assignment.sent > threshold && (slowest == null || assignment.sent < slowest.sent))
+					slowest = assignment;
+			}
+		}
+		return slowest == null ? -1 : slowest.tile;
+	}
+
+	/**
+	 * Reads the answers of a worker until its stream ends.
+	 */
+	private void read(Connection connection) {
+		TileCodec codec = new TileCodec();
+		byte[] data = new byte[0];
+		float[] rgb = new float[0];
+
+		try {
+			while (true) {
+				int type = connection.in.read();
+				if (type < 0)
+					throw new EOFException("the worker quit");
+
+				switch (type) {
+				case Protocol.READY:
+					ready(connection, connection.in.readInt());
+					break;
+				case Protocol.RESULT:
+					int resultFrame = connection.in.readInt(), tile = connection.in.readInt();
+					int length = connection.in.readInt();
+
+					Assignment assignment = received(connection, resultFrame, tile);
+					if (length < 0 || length > 4 * assignment.count + (assignment.count >> 6) + 1024)
+						throw new IOException("the worker sent a tile of " + length + " bytes");
+					if (data.length < length)
+						data = new byte[length];
+					connection.in.readFully(data, 0, length);
+
+					boolean needed;
+					synchronized (this) {
+						needed = resultFrame == frame && rendering && !finished[tile];
+						connection.bytesReceived += length;
+					}
+					if (needed) {
+						if (rgb.length < assignment.count)
+							rgb = new float[assignment.count];
+						codec.decompress(data, length, rgb, assignment.count);
+					}
+					store(connection, assignment, needed ? rgb : null);
+					break;
+				case Protocol.FAILED:
+					throw new IOException(connection.in.readUTF());
+				default:
+					throw new IOException("unknown message " + type);
+				}
+			}
+		} catch (IOException e) {
+			died(connection, e);
+		} finally {
+			codec.end();
+		}
+	}
+
+	private void ready(Connection connection, int readyFrame) {
+		synchronized (this) {
+			if (readyFrame != frame || !rendering)
+				return;
+
+			connection.readyFrame = readyFrame;
+			connection.loadNanos = System.nanoTime() - connection.jobSent;
+		}
+		dispatch();
+	}
+
+	/**
+	 * Takes a tile the worker has sent back out of the tiles in flight.
+	 */
+	private synchronized Assignment received(Connection connection, int resultFrame, int tile) throws IOException {
+		for (Iterator<Assignment> iterator = connection.inFlight.iterator(); iterator.hasNext();) {
+			Assignment assignment = iterator.next();
+			if (assignment.frame == resultFrame && assignment.tile == tile) {
+				iterator.remove();
+
+				// The worker renders one tile after another, so a tile started when it
+				// was sent or when the previous result came back.
+				long now = System.nanoTime(), nanos = now - Math.max(assignment.sent, connection.lastResult);
+				connection.busyNanos += nanos;
+				connection.lastResult = now;
+				connection.renderedPixels += assignment.count / 3;
+				if (assignment.frame == frame) {
+					totalTileNanos += nanos;
+					timedTiles++;
+				}
+				return assignment;
+			}
+		}
+		throw new IOException("the worker sent tile " + tile + " of frame " + resultFrame + " which it didn't get");
+	}
+
+	/**
+	 * Copies a tile into its band, unless another worker was faster, and hands
+	 * out more tiles.
+	 * 
+	 * @param rgb
+	 *            the colors of the tile or null if it isn't needed
+	 */
+	private void store(Connection connection, Assignment assignment, float[] rgb) {
+		synchronized (this) {
+			if (assignment.frame != frame || !rendering) {
+				connection.discardedTiles++;
+			} else {
+				int tile = assignment.tile;
+				copies[tile]--;
+
+				if (rgb == null || finished[tile]) {
+					connection.discardedTiles++;
+				} else {
+					int width = job.getWidth(), tileY = tile / tilesX;
+					int minX = (tile % tilesX) * frameTileSize;
+					int tileWidth = Math.min(frameTileSize, width - minX);
+					int tileHeight = assignment.count / (3 * tileWidth);
+
+					if (bands[tileY] == null)
+						bands[tileY] = new float[3 * width * tileHeight];
+					for (int y = 0; y < tileHeight; y++) {
+						System.arraycopy(rgb, 3 * y * tileWidth, bands[tileY], 3 * (y * width + minX), 3 * tileWidth);
+					}
+
+					finished[tile] = true;
+					tilesLeft[tileY]--;
+					connection.tiles++;
+					connection.pixels += assignment.count / 3;
+					notifyAll();
+				}
+			}
+		}
+		dispatch();
+	}
+
+	/**
+	 * Kills a worker whose stream broke or which failed and hands its tiles to
+	 * the other workers.
+	 */
+	private void died(Connection connection, IOException cause) {
+		synchronized (this) {
+			if (!connection.alive)
+				return;
+
+			connection.alive = false;
+			if (!closed)
+				connection.failure = cause.getMessage() == null ? cause.toString() : cause.getMessage();
+
+			for (Assignment assignment : connection.inFlight) {
+				if (rendering && assignment.frame == frame && --copies[assignment.tile] == 0
+						&& !finished[assignment.tile])
+					pending.addFirst(assignment.tile);
+			}
+			connection.inFlight.clear();
+			notifyAll();
+		}
+
+		connection.kill();
+		dispatch();
+	}
+
+	/**
+	 * Returns what every worker did for the last image, in the order the workers
+	 * were added.
+	 * 
+	 * @return the statistics of the workers
+	 */
+	public synchronized List<WorkerStatistics> getWorkerStatistics() {
+		List<WorkerStatistics> statistics = new ArrayList<>(connections.size());
+		for (Connection c : connections) {
+			statistics.add(new WorkerStatistics(c.name, c.tiles, c.discardedTiles, c.pixels, c.renderedPixels,
+					c.bytesReceived, c.busyNanos, c.loadNanos, c.failure));
+		}
+		return statistics;
+	}
+
+	/**
+	 * Returns the number of workers, including those which have failed.
+	 * 
+	 * @return the number of workers
+	 */
+	public synchronized int numberOfWorkers() {
+		return connections.size();
+	}
+
+	/**
+	 * Sets the edge length of the tiles handed out to the workers. Larger tiles
+	 * need fewer messages, smaller tiles spread the image more evenly among the
+	 * workers.
+	 * 
+	 * @param tileSize
+	 *            the edge length of a tile in pixels
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if {@code tileSize} is less than 1
+	 */
+	public synchronized void setTileSize(int tileSize) {
+		if (tileSize < 1)
+			throw new IllegalArgumentException("the tile size has to be at least 1");
+
+		this.tileSize = tileSize;
+	}
+
+	/**
+	 * Returns the edge length of the tiles handed out to the workers.
+	 * 
+	 * @return the edge length of a tile in pixels
+	 */
+	public synchronized int getTileSize() {
+		return tileSize;
+	}
+
+	/**
+	 * Sets how long a worker may take to load a scene or to render a tile before
+	 * it is considered dead and killed.
+	 * 
+	 * @param milliseconds
+	 *            the timeout in milliseconds
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if {@code milliseconds} is less than 1
+	 */
+	public synchronized void setWorkerTimeout(long milliseconds) {
+		if (milliseconds < 1)
+			throw new IllegalArgumentException("the timeout has to be at least 1 ms");
+
+		workerTimeout = TimeUnit.MILLISECONDS.toNanos(milliseconds);
+	}
+
+	/**
+	 * Returns how long a worker may take to load a scene or to render a tile.
+	 * 
+	 * @return the timeout in milliseconds
+	 */
+	public synchronized long getWorkerTimeout() {
+		return TimeUnit.NANOSECONDS.toMillis(workerTimeout);
+	}
+
+	/**
+	 * Tells every worker to quit and waits a few seconds for the processes to
+	 * exit before killing them.
+	 */
+	@Override
+	public void close() {
+		List<Connection> workers;
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+			workers = new ArrayList<>(connections);
+		}
+
+		for (Connection connection : workers) {
+			try {
+				connection.sendQuit();
+			} catch (IOException e) {
+				// The worker is already gone.
+			}
+		}
+
+		for (Connection connection : workers) {
+			if (connection.process != null) {
+				try {
+					connection.process.waitFor(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			connection.kill();
+		}
+	}
+}
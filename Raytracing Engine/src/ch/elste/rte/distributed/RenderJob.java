@@ -0,0 +1,163 @@
+package ch.elste.rte.distributed;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import ch.elste.math.Vector;
+import ch.elste.rte.image.Camera;
+import ch.elste.rte.scene.Scene;
+import ch.elste.rte.scene.SceneFile;
+
+/**
+ * Describes an image to be rendered by {@link RenderWorker workers}: the
+ * {@link SceneFile scene file} every worker loads and the camera looking at
+ * it. A job doesn't hold the scene itself, so it is small enough to be sent to
+ * every worker.
+ * 
+ * @author Dillon Elste
+ */
+public final class RenderJob {
+	private final String scene;
+	private final Vector position, direction;
+	private final double fieldOfView;
+	private final int width, height;
+
+	/**
+	 * Creates a new job.
+	 * 
+	 * @param scene
+	 *            the path of the scene file as seen by the workers
+	 * @param position
+	 *            the position of the camera
+	 * @param direction
+	 *            the direction the camera looks in
+	 * @param fieldOfView
+	 *            the field of view in degrees
+	 * @param width
+	 *            the width of the image
+	 * @param height
+	 *            the height of the image
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the image is smaller than 1x1
+	 */
+	public RenderJob(String scene, Vector position, Vector direction, double fieldOfView, int width, int height) {
+		if (width < 1 || height < 1)
+			throw new IllegalArgumentException("the resolution has to be at least 1x1");
+
+		this.scene = scene;
+		this.position = new Vector(position);
+		this.direction = new Vector(direction);
+		this.fieldOfView = fieldOfView;
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Creates the camera of this job looking at the scene loaded from the scene
+	 * file.
+	 * 
+	 * @param scene
+	 *            the scene of this job
+	 * 
+	 * @return the camera
+	 */
+	public Camera createCamera(Scene scene) {
+		Camera camera = new Camera(scene, new Vector(position), width, height, fieldOfView);
+		camera.setDirection(new Vector(direction));
+		return camera;
+	}
+
+	/**
+	 * Writes this job to a worker.
+	 */
+	void write(DataOutput out) throws IOException {
+		out.writeUTF(scene);
+		writeVector(out, position);
+		writeVector(out, direction);
+		out.writeDouble(fieldOfView);
+		out.writeInt(width);
+		out.writeInt(height);
+	}
+
+	/**
+	 * Reads a job written by {@link #write(DataOutput)}.
+	 */
+	static RenderJob read(DataInput in) throws IOException {
+		String scene = in.readUTF();
+		Vector position = readVector(in), direction = readVector(in);
+		double fieldOfView = in.readDouble();
+		int width = in.readInt(), height = in.readInt();
+
+		try {
+			return new RenderJob(scene, position, direction, fieldOfView, width, height);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("invalid job", e);
+		}
+	}
+
+	private static void writeVector(DataOutput out, Vector vector) throws IOException {
+		out.writeDouble(vector.x);
+		out.writeDouble(vector.y);
+		out.writeDouble(vector.z);
+	}
+
+	private static Vector readVector(DataInput in) throws IOException {
+		return new Vector(in.readDouble(), in.readDouble(), in.readDouble());
+	}
+
+	/**
+	 * Returns the path of the scene file.
+	 * 
+	 * @return the path of the scene file as seen by the workers
+	 */
+	public String getScene() {
+		return scene;
+	}
+
+	/**
+	 * Returns the position of the camera.
+	 * 
+	 * @return the position of the camera
+	 */
+	public Vector getPosition() {
+		return new Vector(position);
+	}
+
+	/**
+	 * Returns the direction the camera looks in.
+	 * 
+	 * @return the direction of the camera
+	 */
+	public Vector getDirection() {
+		return new Vector(direction);
+	}
+
+	/**
+	 * Returns the field of view.
+	 * 
+	 * @return the field of view in degrees
+	 */
+	public double getFieldOfView() {
+		return fieldOfView;
+	}
+
+	/**
+	 * Returns the width of the image.
+	 * 
+	 * @return the width of the image
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Returns the height of the image.
+	 * 
+	 * @return the height of the image
+	 */
+	public int getHeight() {
+		return height;
+	}
+}
@@ -0,0 +1,217 @@
+package ch.elste.rte.distributed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+
+import ch.elste.rte.image.Camera;
+import ch.elste.rte.image.ViewPlane;
+import ch.elste.rte.scene.Scene;
+import ch.elste.rte.scene.SceneFile;
+
+/**
+ * Renders tiles for a {@link RenderCoordinator coordinator}. A worker reads
+ * the messages of the {@link Protocol protocol} from a stream and answers on
+ * another, usually its standard input and output. It loads the scene of a job
+ * once and then renders every tile it is sent through
+ * {@link ViewPlane#render(int, int, int, int, float[])}, so its tiles are
+ * exactly the pixels a single process would have rendered.
+ * <p>
+ * A worker is started with {@code java ch.elste.rte.distributed.RenderWorker
+ * [render threads]}. It quits when the coordinator closes its input.
+ * </p>
+ * 
+ * @author Dillon Elste
+ */
+public class RenderWorker {
+	private final int renderThreads;
+
+	/**
+	 * The scene file of the last job, when it was modified and its scene, which
+	 * is reused as long as the file doesn't change.
+	 */
+	private Path scenePath;
+	private FileTime sceneModified;
+	private Scene scene;
+
+	private Camera camera;
+	private int frame;
+
+	private final TileCodec codec = new TileCodec();
+	private float[] rgb = new float[0];
+
+	/**
+	 * Creates a new worker.
+	 * 
+	 * @param renderThreads
+	 *            the number of threads a tile is rendered with
+	 */
+	public RenderWorker(int renderThreads) {
+		this.renderThreads = renderThreads;
+	}
+
+	/**
+	 * Handles the messages of a coordinator until it closes the stream or tells
+	 * the worker to quit.
+	 * 
+	 * @param in
+	 *            the stream of the messages of the coordinator
+	 * @param out
+	 *            the stream of the answers
+	 * 
+	 * @throws IOException
+	 *             if a stream fails or the coordinator doesn't follow the
+	 *             protocol
+	 */
+	public void serve(InputStream in, OutputStream out) throws IOException {
+		DataInputStream input = new DataInputStream(new BufferedInputStream(in));
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(out));
+
+		try {
+			while (true) {
+				int type = input.read();
+				if (type < 0 || type == Protocol.QUIT)
+					return;
+
+				switch (type) {
+				case Protocol.JOB:
+					readJob(input, output);
+					break;
+				case Protocol.TILE:
+					renderTile(input, output);
+					break;
+				default:
+					throw new IOException("unknown message " + type);
+				}
+				output.flush();
+			}
+		} catch (EOFException e) {
+			// The coordinator is gone, so there is no one left to work for.
+		} finally {
+			if (camera != null)
+				camera.setRenderThreads(1);
+			codec.end();
+		}
+	}
+
+	private void readJob(DataInputStream input, DataOutputStream output) throws IOException {
+		if (input.readInt() != Protocol.MAGIC)
+			throw new IOException("the coordinator doesn't speak the protocol");
+		int version = input.readInt();
+		if (version != Protocol.VERSION) {
+			fail(output, "the worker uses version " + Protocol.VERSION + " of the protocol, not " + version);
+			return;
+		}
+
+		frame = input.readInt();
+		RenderJob job = RenderJob.read(input);
+
+		if (camera != null)
+			camera.setRenderThreads(1);
+		camera = null;
+
+		try {
+			camera = job.createCamera(loadScene(Paths.get(job.getScene())));
+			camera.setRenderThreads(renderThreads);
+			camera.viewplane.freezeScene();
+		} catch (IOException | RuntimeException e) {
+			camera = null;
+			fail(output, "the scene " + job.getScene() + " couldn't be loaded: " + e);
+			return;
+		}
+
+		output.writeByte(Protocol.READY);
+		output.writeInt(frame);
+	}
+
+	private Scene loadScene(Path path) throws IOException {
+		FileTime modified = Files.getLastModifiedTime(path);
+		if (!path.equals(scenePath) || !modified.equals(sceneModified)) {
+			// The old scene may be collected while the new one is read.
+			scene = null;
+			scene = SceneFile.read(path);
+			scenePath = path;
+			sceneModified = modified;
+		}
+		return scene;
+	}
+
+	private void renderTile(DataInputStream input, DataOutputStream output) throws IOException {
+		int tileFrame = input.readInt(), tile = input.readInt();
+		int minX = input.readInt(), minY = input.readInt(), maxX = input.readInt(), maxY = input.readInt();
+
+		ViewPlane viewPlane = camera == null ? null : camera.viewplane;
+		if (viewPlane == null || tileFrame != frame || minX < 0 || minY < 0 || minX >= maxX || minY >= maxY
+				|| maxX > viewPlane.getResolutionWidth() || maxY > viewPlane.getResolutionHeight()) {
+			fail(output, "invalid tile " + tile + " of frame " + tileFrame);
+			return;
+		}
+
+		int count = 3 * (maxX - minX) * (maxY - minY);
+		if (rgb.length < count)
+			rgb = new float[count];
+
+		try {
+			viewPlane.render(minX, minY, maxX, maxY, rgb);
+		} catch (RuntimeException e) {
+			fail(output, "tile " + tile + " couldn't be rendered: " + e);
+			return;
+		}
+
+		int length = codec.compress(rgb, count);
+		output.writeByte(Protocol.RESULT);
+		output.writeInt(tileFrame);
+		output.writeInt(tile);
+		output.writeInt(length);
+		output.write(codec.getCompressed(), 0, length);
+	}
+
+	private static void fail(DataOutputStream output, String message) throws IOException {
+		output.writeByte(Protocol.FAILED);
+		output.writeUTF(message);
+	}
+
+	/**
+	 * Serves a coordinator on the standard input and output. Anything else
+	 * printed to the standard output goes to the standard error instead, so it
+	 * can't break the protocol.
+	 * 
+	 * @param args
+	 *            the number of render threads, 1 by default
+	 */
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+
+		OutputStream out = new FileOutputStream(FileDescriptor.out);
+		System.setOut(System.err);
+
+		int threads = 1;
+		if (args.length > 0) {
+			try {
+				threads = Integer.parseInt(args[0]);
+			} catch (NumberFormatException e) {
+				System.err.println("invalid number of render threads: " + args[0]);
+				System.exit(2);
+			}
+		}
+
+		try {
+			new RenderWorker(Math.max(1, threads)).serve(new FileInputStream(FileDescriptor.in), out);
+		} catch (IOException e) {
+			System.err.println("the worker failed: " + e);
+			System.exit(1);
+		}
+	}
+}
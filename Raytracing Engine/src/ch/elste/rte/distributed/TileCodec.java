@@ -0,0 +1,111 @@
+package ch.elste.rte.distributed;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses the linear colors of tiles without loss for sending them from a
+ * worker to the coordinator.
+ * <p>
+ * The floats are split into four planes, one for each of their bytes, before
+ * they are deflated. Neighbouring pixels mostly share their sign, exponent and
+ * upper mantissa bits, so the first planes become long runs which compress far
+ * better than the interleaved floats.
+ * </p>
+ * <p>
+ * A codec reuses its buffers and may only be used by one thread at a time.
+ * </p>
+ * 
+ * @author Dillon Elste
+ */
+final class TileCodec {
+	private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+	private final Inflater inflater = new Inflater();
+
+	private byte[] planes = new byte[0];
+	private byte[] compressed = new byte[1 << 12];
+
+	/**
+	 * Compresses the first {@code count} values of an array.
+	 * 
+	 * @return the length of the {@link #getCompressed() compressed data}
+	 */
+	int compress(float[] values, int count) {
+		byte[] planes = planes(4 * count);
+		for (int i = 0; i < count; i++) {
+			int bits = Float.floatToRawIntBits(values[i]);
+			planes[i] = (byte) (bits >>> 24);
+			planes[count + i] = (byte) (bits >>> 16);
+			planes[2 * count + i] = (byte) (bits >>> 8);
+			planes[3 * count + i] = (byte) bits;
+		}
+
+		deflater.reset();
+		deflater.setInput(planes, 0, 4 * count);
+		deflater.finish();
+
+		int length = 0;
+		while (!deflater.finished()) {
+			if (length == compressed.length)
+				compressed = Arrays.copyOf(compressed, 2 * compressed.length);
+			length += deflater.deflate(compressed, length, compressed.length - length);
+		}
+		return length;
+	}
+
+	/**
+	 * Returns the data compressed by the last call to
+	 * {@link #compress(float[], int)}.
+	 */
+	byte[] getCompressed() {
+		return compressed;
+	}
+
+	/**
+	 * Decompresses {@code count} values into an array.
+	 * 
+	 * @throws IOException
+	 *             if the data isn't exactly {@code count} compressed values
+	 */
+	void decompress(byte[] data, int length, float[] values, int count) throws IOException {
+		byte[] planes = planes(4 * count);
+
+		inflater.reset();
+		inflater.setInput(data, 0, length);
+		try {
+			int n = 0;
+			while (n < 4 * count && !inflater.finished()) {
+				int inflated = inflater.inflate(planes, n, 4 * count - n);
+				if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					break;
+				n += inflated;
+			}
+			if (n != 4 * count || !inflater.finished())
+				throw new IOException("the tile has the wrong size");
+		} catch (DataFormatException e) {
+			throw new IOException("the tile is corrupt", e);
+		}
+
+		for (int i = 0; i < count; i++) {
+			values[i] = Float.intBitsToFloat((planes[i] & 0xff) << 24 | (planes[count + i] & 0xff) << 16
+					| (planes[2 * count + i] & 0xff) << 8 | (planes[3 * count + i] & 0xff));
+		}
+	}
+
+	private byte[] planes(int length) {
+		if (planes.length < length)
+			planes = new byte[length];
+		return planes;
+	}
+
+	/**
+	 * Releases the native resources of the codec.
+	 */
+	void end() {
+		deflater.end();
+		inflater.end();
+	}
+}
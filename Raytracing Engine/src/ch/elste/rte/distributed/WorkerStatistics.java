@@ -0,0 +1,123 @@
+package ch.elste.rte.distributed;
+
+import java.util.Locale;
+
+/**
+ * What a worker of a {@link RenderCoordinator coordinator} did for the last
+ * image: the tiles it rendered, how long it took and whether it failed.
+ * 
+ * @author Dillon Elste
+ */
+public final class WorkerStatistics {
+	private final String name;
+	private final int tiles, discardedTiles;
+	private final long pixels, renderedPixels, bytesReceived, busyNanos, loadNanos;
+	private final String failure;
+
+	WorkerStatistics(String name, int tiles, int discardedTiles, long pixels, long renderedPixels,
+			long bytesReceived, long busyNanos, long loadNanos, String failure) {
+		this.name = name;
+		this.tiles = tiles;
+		this.discardedTiles = discardedTiles;
+		this.pixels = pixels;
+		this.renderedPixels = renderedPixels;
+		this.bytesReceived = bytesReceived;
+		this.busyNanos = busyNanos;
+		this.loadNanos = loadNanos;
+		this.failure = failure;
+	}
+
+	/**
+	 * Returns the name of the worker.
+	 * 
+	 * @return the name of the worker
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the number of tiles of the image rendered by the worker.
+	 * 
+	 * @return the number of tiles used for the image
+	 */
+	public int getTiles() {
+		return tiles;
+	}
+
+	/**
+	 * Returns the number of tiles the worker rendered in vain, because another
+	 * worker had already finished them.
+	 * 
+	 * @return the number of discarded tiles
+	 */
+	public int getDiscardedTiles() {
+		return discardedTiles;
+	}
+
+	/**
+	 * Returns the number of pixels of the image rendered by the worker.
+	 * 
+	 * @return the number of pixels used for the image
+	 */
+	public long getPixels() {
+		return pixels;
+	}
+
+	/**
+	 * Returns the number of bytes received from the worker for its tiles.
+	 * 
+	 * @return the size of the compressed tiles in bytes
+	 */
+	public long getBytesReceived() {
+		return bytesReceived;
+	}
+
+	/**
+	 * Returns the time the worker spent rendering, including the tiles which were
+	 * discarded.
+	 * 
+	 * @return the busy time in nanoseconds
+	 */
+	public long getBusyTime() {
+		return busyNanos;
+	}
+
+	/**
+	 * Returns the time the worker took to load the scene.
+	 * 
+	 * @return the load time in nanoseconds or -1 if the scene wasn't loaded
+	 */
+	public long getLoadTime() {
+		return loadNanos;
+	}
+
+	/**
+	 * Returns the number of pixels the worker rendered per second while it was
+	 * busy.
+	 * 
+	 * @return the throughput in pixels per second
+	 */
+	public double getPixelsPerSecond() {
+		return busyNanos == 0 ? 0 : renderedPixels * 1e9 / busyNanos;
+	}
+
+	/**
+	 * Returns why the worker failed.
+	 * 
+	 * @return the reason the worker failed or null if it didn't fail
+	 */
+	public String getFailure() {
+		return failure;
+	}
+
+	@Override
+	public String toString() {
+		String text = String.format(Locale.ROOT, "%s: %d tiles (%d discarded), %.3f Mpixel/s, %.1f:1 compression",
+				name, tiles, discardedTiles, getPixelsPerSecond() / 1e6,
+				bytesReceived == 0 ? 0 : 12.0 * renderedPixels / bytesReceived);
+		if (loadNanos >= 0)
+			text += String.format(Locale.ROOT, ", scene loaded in %.3f s", loadNanos / 1e9);
+		return failure == null ? text : text + ", failed: " + failure;
+	}
+}
@@ -0,0 +1,186 @@
+package ch.elste.rte.image;
+
+import java.util.Arrays;
+
+/**
+ * Accumulates linear rgb samples for every pixel of an image. Each pixel keeps
+ * the running average of its samples, so new samples can be added at any time
+ * without storing the old ones.
+ * 
+ * @author Dillon Elste
+ */
+public class AccumulationBuffer {
+	private final int width;
+	private final int height;
+
+	/**
+	 * The average of the samples of each pixel as three consecutive values: red,
+	 * green and blue.
+	 */
+	private final float[] average;
+
+	/**
+	 * The number of samples of each pixel.
+	 */
+	private final int[] samples;
+
+	/**
+	 * Creates a new empty buffer with given size.
+	 * 
+	 * @param width
+	 *              the width of the image
+	 * @param height
+	 *              the height of the image
+	 */
+	public AccumulationBuffer(int width, int height) {
+		this.width = width;
+		this.height = height;
+
+		average = new float[3 * width * height];
+		samples = new int[width * height];
+	}
+
+	/**
+	 * Adds a sample to the pixel at {@code index}.
+	 * 
+	 * @param index
+	 *              the index of the pixel, which is {@code y * width + x}
+	 * @param r
+	 *              the linear red value
+	 * @param g
+	 *              the linear green value
+	 * @param b
+	 *              the linear blue value
+	 */
+	public void addSample(int index, double r, double g, double b) {
+		int n = ++samples[index];
+		int i = 3 * index;
+
+		average[i] += (r - average[i]) / n;
+		average[i + 1] += (g - average[i + 1]) / n;
+		average[i + 2] += (b - average[i + 2]) / n;
+	}
+
+	/**
+	 * Adds a sample to the pixel at {@code index}.
+	 * 
+	 * @param index
+	 *              the index of the pixel, which is {@code y * width + x}
+	 * @param sample
+	 *              the sample to add
+	 */
+	public void addSample(int index, Radiance sample) {
+		addSample(index, sample.r, sample.g, sample.b);
+	}
+
+	/**
+	 * Replaces all samples of the pixel at {@code index} with a single sample.
+	 * 
+	 * @param index
+	 *              the index of the pixel, which is {@code y * width + x}
+	 * @param sample
+	 *              the new sample
+	 */
+	public void setSample(int index, Radiance sample) {
+		samples[index] = 0;
+		addSample(index, sample);
+	}
+
+	/**
+	 * Replaces all samples of the pixel at {@code index} with a single sample.
+	 * 
+	 * @param index
+	 *              the index of the pixel, which is {@code y * width + x}
+	 * @param r
+	 *              the linear red value
+	 * @param g
+	 *              the linear green value
+	 * @param b
+	 *              the linear blue value
+	 */
+	public void setSample(int index, double r, double g, double b) {
+		samples[index] = 0;
+		addSample(index, r, g, b);
+	}
+
+	/**
+	 * Returns the average of the samples of the pixel at {@code index}.
+	 * 
+	 * @param index
+	 *              the index of the pixel, which is {@code y * width + x}
+	 * 
+	 * @return the average of the samples or black if there are none
+	 */
+	public Radiance getAverage(int index) {
+		int i = 3 * index;
+		return new Radiance(average[i], average[i + 1], average[i + 2]);
+	}
+
+	/**
+	 * Returns the number of samples of the pixel at {@code index}.
+	 * 
+	 * @param index
+	 *              the index of the pixel, which is {@code y * width + x}
+	 * 
+	 * @return the number of samples
+	 */
+	public int getSamples(int index) {
+		return samples[index];
+	}
+
+	/**
+	 * Tone maps the average of the pixel at {@code index} to a 4 byte ARGB value.
+	 * 
+	 * @param index
+	 *                   the index of the pixel, which is {@code y * width + x}
+	 * @param toneMapper
+	 *                   the tone mapper to use
+	 * 
+	 * @return the pixel as 4 byte ARGB value
+	 */
+	public int toARGB(int index, ToneMapper toneMapper) {
+		int i = 3 * index;
+		return toneMapper.toARGB(average[i], average[i + 1], average[i + 2]);
+	}
+
+	/**
+	 * Tone maps all pixels into the frame buffer.
+	 * 
+	 * @param frameBuffer
+	 *                    the frame buffer to write to. It must have the same size
+	 *                    as this buffer.
+	 * @param toneMapper
+	 *                    the tone mapper to use
+	 */
+	public void resolve(FrameBuffer frameBuffer, ToneMapper toneMapper) {
+		for (int i = 0; i < samples.length; i++) {
+			frameBuffer.setRGB(i, toARGB(i, toneMapper));
+		}
+	}
+
+	/**
+	 * Removes all samples.
+	 */
+	public void clear() {
+		Arrays.fill(average, 0);
+		Arrays.fill(samples, 0);
+	}
+
+	/**
+	 * Returns the width of the image.
+	 * 
+	 * @return the width of the image
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Returns the height of the image.
+	 * 
+	 * @return the height of the image
+	 */
+	public int getHeight() {
+		return height;
+	}
+}
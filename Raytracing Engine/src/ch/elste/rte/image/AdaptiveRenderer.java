@@ -0,0 +1,319 @@
+package ch.elste.rte.image;
+
+import java.awt.image.BufferedImage;
+
+import ch.elste.rte.HitRecord;
+
+/**
+ * Renders the image of a {@link ViewPlane} with adaptive supersampling. Every
+ * pixel gets a few stratified base samples. Afterwards only pixels which are
+ * still noisy, or differ strongly from a neighbour, get more samples, until
+ * they settle or reach the sample budget. Flat areas of the image therefore
+ * cost little more than a single sample per pixel, while edges are smoothed.
+ * <p>
+ * The noise and contrast are measured on the tone mapped luminance, so the
+ * threshold is in steps of the final image, between 0 and 1. Each round first
+ * marks the pixels needing more samples and then samples them, so the result
+ * doesn't depend on the order in which tiles are rendered.
+ * </p>
+ * 
+ * @author Dillon Elste
+ */
+public class AdaptiveRenderer {
+	/**
+	 * The default number of base samples per pixel.
+	 */
+	public static final int DEFAULT_BASE_SAMPLES = 4;
+
+	/**
+	 * The default maximal number of samples per pixel.
+	 */
+	public static final int DEFAULT_MAX_SAMPLES = 32;
+
+	/**
+	 * The default threshold, which is about 5 steps of an 8 bit channel.
+	 */
+	public static final double DEFAULT_THRESHOLD = .02;
+
+	private final ViewPlane viewPlane;
+
+	private int baseSamples = DEFAULT_BASE_SAMPLES;
+	private int maxSamples = DEFAULT_MAX_SAMPLES;
+	private double threshold = DEFAULT_THRESHOLD;
+
+	/**
+	 * The number of base samples of the current image. It is 1 if the budget is
+	 * too small for a 2x2 grid.
+	 */
+	private int base;
+
+	/**
+	 * The sum and the sum of squares of the tone mapped luminance of the samples
+	 * of each pixel.
+	 */
+	private double[] sum, sumOfSquares;
+
+	/**
+	 * True for every pixel which gets more samples in the current round.
+	 */
+	private boolean[] active;
+
+	/**
+	 * Creates a new adaptive renderer for given view plane.
+	 * 
+	 * @param viewPlane
+	 *            the view plane to render
+	 */
+	public AdaptiveRenderer(ViewPlane viewPlane) {
+		this.viewPlane = viewPlane;
+	}
+
+	/**
+	 * Renders an image on the render pool of the view plane.
+	 * 
+	 * @return the rendered image
+	 */
+	public BufferedImage render() {
+		int pixels = viewPlane.getResolutionWidth() * viewPlane.getResolutionHeight();
+		sum = new double[pixels];
+		sumOfSquares = new double[pixels];
+		active = new boolean[pixels];
+		base = baseSamples <= maxSamples ? baseSamples : 1;
+
+		viewPlane.freezeScene();
+		viewPlane.forEachTile(this::sampleBase);
+
+		for (int samples = base; samples < maxSamples;) {
+			int step = Math.min(base, maxSamples - samples);
+			viewPlane.forEachTile(this::mark);
+
+			boolean any = false;
+			for (boolean a : active) {
+				any |= a;
+			}
+			if (!any)
+				break;
+
+			viewPlane.forEachTile((minX, minY, maxX, maxY) -> sampleActive(minX, minY, maxX, maxY, step));
+			samples += step;
+		}
+
+		active = null;
+		return viewPlane.getImage();
+	}
+
+	/**
+	 * Takes the base samples of every pixel of a tile. Four base samples lie on a
+	 * 2x2 grid inside the pixel, a single one in its center.
+	 */
+	private void sampleBase(int minX, int minY, int maxX, int maxY) {
+		AccumulationBuffer accumulationBuffer = viewPlane.getAccumulationBuffer();
+		int width = viewPlane.getResolutionWidth();
+		HitRecord hit = new HitRecord();
+
+		for (int y = minY; y < maxY; y++) {
+			for (int x = minX; x < maxX; x++) {
+				int index = y * width + x;
+				sum[index] = 0;
+				sumOfSquares[index] = 0;
+
+				for (int s = 0; s < base; s++) {
+					double offsetX = 0, offsetY = 0;
+					if (base == 4) {
+						offsetX = (s & 1) == 0 ? -.25 : .25;
+						offsetY = (s & 2) == 0 ? -.25 : .25;
+					}
+
+					Radiance radiance = viewPlane.sample(x + offsetX, y + offsetY, hit);
+					if (s == 0)
+						accumulationBuffer.setSample(index, radiance);
+					else
+						accumulationBuffer.addSample(index, radiance);
+					record(index, radiance);
+				}
+			}
+		}
+
+		viewPlane.resolve(minX, minY, maxX, maxY);
+	}
+
+	/**
+	 * Marks the pixels of a tile which need more samples, because the standard
+	 * error of their mean or the difference to a neighbour is above the threshold.
+	 * Only reads the samples, so tiles can be marked in parallel.
+	 */
+	private void mark(int minX, int minY, int maxX, int maxY) {
+		AccumulationBuffer accumulationBuffer = viewPlane.getAccumulationBuffer();
+		int width = viewPlane.getResolutionWidth(), height = viewPlane.getResolutionHeight();
+
+		for (int y = minY; y < maxY; y++) {
+			for (int x = minX; x < maxX; x++) {
+				int index = y * width + x;
+				int n = accumulationBuffer.getSamples(index);
+				if (n >= maxSamples) {
+					active[index] = false;
+					continue;
+				}
+
+				double mean = sum[index] / n;
+				double error = 0;
+				if (n > 1) {
+					double variance = Math.max(0, (sumOfSquares[index] - n * mean * mean) / (n - 1));
+					error = Math.sqrt(variance / n);
+				}
+
+				double contrast = 0;
+				if (x > 0)
+					contrast = Math.max(contrast, Math.abs(mean - mean(index - 1)));
+				if (x + 1 < width)
+					contrast = Math.max(contrast, Math.abs(mean - mean(index + 1)));
+				if (y > 0)
+					contrast = Math.max(contrast, Math.abs(mean - mean(index - width)));
+				if (y + 1 < height)
+					contrast = Math.max(contrast, Math.abs(mean - mean(index + width)));
+
+				active[index] = error > threshold || contrast > threshold;
+			}
+		}
+	}
+
+	/**
+	 * Adds {@code step} samples to every marked pixel of a tile. The samples
+	 * follow a Halton sequence, so they fill the pixel evenly.
+	 */
+	private void sampleActive(int minX, int minY, int maxX, int maxY, int step) {
+		AccumulationBuffer accumulationBuffer = viewPlane.getAccumulationBuffer();
+		int width = viewPlane.getResolutionWidth();
+		HitRecord hit = new HitRecord();
+
+		for (int y = minY; y < maxY; y++) {
+			for (int x = minX; x < maxX; x++) {
+				int index = y * width + x;
+				if (!active[index])
+					continue;
+
+				for (int s = 0; s < step; s++) {
+					int n = accumulationBuffer.getSamples(index);
+					Radiance radiance = viewPlane.sample(x + Halton.radicalInverse(n, 2) - .5,
+							y + Halton.radicalInverse(n, 3) - .5, hit);
+					accumulationBuffer.addSample(index, radiance);
+					record(index, radiance);
+				}
+			}
+		}
+
+		viewPlane.resolve(minX, minY, maxX, maxY);
+	}
+
+	/**
+	 * Adds a sample to the statistics of a pixel.
+	 */
+	private void record(int index, Radiance radiance) {
+		double luminance = viewPlane.getToneMapper().map(radiance.luminance());
+		sum[index] += luminance;
+		sumOfSquares[index] += luminance * luminance;
+	}
+
+	/**
+	 * Returns the mean tone mapped luminance of a pixel.
+	 */
+	private double mean(int index) {
+		return sum[index] / viewPlane.getAccumulationBuffer().getSamples(index);
+	}
+
+	/**
+	 * Creates a heat map of the number of samples of each pixel of the last
+	 * rendered image. Pixels with the maximal number of samples are red.
+	 * 
+	 * @return a new image
+	 */
+	public BufferedImage createHeatMap() {
+		AccumulationBuffer accumulationBuffer = viewPlane.getAccumulationBuffer();
+		return HeatMap.create(viewPlane.getResolutionWidth(), viewPlane.getResolutionHeight(),
+				accumulationBuffer::getSamples, maxSamples);
+	}
+
+	/**
+	 * Returns the average number of samples per pixel of the last rendered image.
+	 * 
+	 * @return the average number of samples per pixel
+	 */
+	public double getAverageSamples() {
+		AccumulationBuffer accumulationBuffer = viewPlane.getAccumulationBuffer();
+		int pixels = viewPlane.getResolutionWidth() * viewPlane.getResolutionHeight();
+		long samples = 0;
+		for (int i = 0; i < pixels; i++) {
+			samples += accumulationBuffer.getSamples(i);
+		}
+		return 1d * samples / pixels;
+	}
+
+	/**
+	 * Sets the number of stratified samples every pixel gets first.
+	 * 
+	 * @param baseSamples
+	 *            1 for a single sample in the center or 4 for a 2x2 grid
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if {@code baseSamples} is neither 1 nor 4
+	 */
+	public void setBaseSamples(int baseSamples) {
+		if (baseSamples != 1 && baseSamples != 4)
+			throw new IllegalArgumentException("there have to be 1 or 4 base samples");
+
+		this.baseSamples = baseSamples;
+	}
+
+	/**
+	 * Returns the number of stratified samples every pixel gets first.
+	 * 
+	 * @return the number of base samples
+	 */
+	public int getBaseSamples() {
+		return baseSamples;
+	}
+
+	/**
+	 * Sets the maximal number of samples of a pixel.
+	 * 
+	 * @param maxSamples
+	 *            the sample budget of a pixel
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if {@code maxSamples} is less than 1
+	 */
+	public void setMaxSamples(int maxSamples) {
+		if (maxSamples < 1)
+			throw new IllegalArgumentException("there has to be at least one sample per pixel");
+
+		this.maxSamples = maxSamples;
+	}
+
+	/**
+	 * Returns the maximal number of samples of a pixel.
+	 * 
+	 * @return the sample budget of a pixel
+	 */
+	public int getMaxSamples() {
+		return maxSamples;
+	}
+
+	/**
+	 * Sets the noise and contrast above which a pixel gets more samples.
+	 * 
+	 * @param threshold
+	 *            the threshold on the tone mapped luminance, between 0 and 1
+	 */
+	public void setThreshold(double threshold) {
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Returns the noise and contrast above which a pixel gets more samples.
+	 * 
+	 * @return the threshold
+	 */
+	public double getThreshold() {
+		return threshold;
+	}
+}
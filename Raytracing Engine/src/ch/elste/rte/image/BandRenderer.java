@@ -0,0 +1,164 @@
+package ch.elste.rte.image;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import ch.elste.rte.image.RenderStatistics.Phase;
+import ch.elste.rte.scene.acceleration.TraversalStatistics;
+
+/**
+ * Renders the image of a {@link ViewPlane} in horizontal bands and streams
+ * each band to an {@link ImageSink} as soon as it is done. Only two bands are
+ * held in memory at a time and the buffers of the whole image are never
+ * allocated, so the size of the image is only limited by the disk.
+ * <p>
+ * The tiles of a band are rendered on the render pool of the view plane. While
+ * a band is rendered, the previous one is written on a separate thread, so the
+ * render threads don't wait for the compression of the image. Every band shows
+ * the same snapshot of the scene.
+ * </p>
+ * 
+ * @author Dillon Elste
+ */
+public class BandRenderer {
+	/**
+	 * The number of tiles per render thread a band has at least if its height is
+	 * chosen automatically, so the threads stay busy until the end of a band.
+	 */
+	private static final int TILES_PER_THREAD = 4;
+
+	private final ViewPlane viewPlane;
+
+	/**
+	 * The height of a band or 0 to choose it from the number of tiles.
+	 */
+	private int bandHeight;
+
+	/**
+	 * Creates a new band renderer for given view plane.
+	 * 
+	 * @param viewPlane
+	 *            the view plane to render
+	 */
+	public BandRenderer(ViewPlane viewPlane) {
+		this.viewPlane = viewPlane;
+	}
+
+	/**
+	 * Renders the image and writes it to the sink band by band. The sink isn't
+	 * closed.
+	 * 
+	 * @param sink
+	 *            the sink receiving the rows of the image
+	 * 
+	 * @throws IOException
+	 *             if the sink can't write the image
+	 */
+	public void render(ImageSink sink) throws IOException {
+		int width = viewPlane.getResolutionWidth(), height = viewPlane.getResolutionHeight();
+		int band = Math.min(getEffectiveBandHeight(), height);
+		float[][] buffers = { new float[3 * width * band], new float[3 * width * band] };
+
+		ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "image writer");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		viewPlane.freezeScene();
+		Future<?> pending = null;
+		try {
+			for (int y = 0, k = 0; y < height; y += band, k++) {
+				int rows = Math.min(band, height - y);
+				float[] rgb = buffers[k & 1];
+				viewPlane.render(0, y, width, y + rows, rgb);
+
+				// The other buffer may only be reused once it has been written.
+				await(pending);
+				pending = writer.submit(() -> {
+					long start = TraversalStatistics.ENABLED ? System.nanoTime() : 0;
+					sink.writeRows(rgb, rows);
+					if (TraversalStatistics.ENABLED)
+						viewPlane.getStatistics().record(Phase.WRITE, System.nanoTime() - start);
+					return null;
+				});
+			}
+			await(pending);
+		} finally {
+			writer.shutdownNow();
+		}
+	}
+
+	/**
+	 * Waits for a task and throws what it has thrown.
+	 */
+	static void await(Future<?> future) throws IOException {
+		if (future == null)
+			return;
+
+		try {
+			future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while writing the image");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * Returns the height of the bands of the next image. If it is chosen
+	 * automatically, every band is a whole number of tile rows high and has at
+	 * least a few tiles for every render thread.
+	 * 
+	 * @return the height of a band in pixels
+	 */
+	public int getEffectiveBandHeight() {
+		if (bandHeight > 0)
+			return bandHeight;
+
+		ForkJoinPool pool = viewPlane.getRenderPool();
+		int threads = pool == null ? 1 : pool.getParallelism();
+		int tilesX = viewPlane.getNumberOfTilesX();
+		int tileRows = (TILES_PER_THREAD * threads + tilesX - 1) / tilesX;
+		return tileRows * viewPlane.getTileSize();
+	}
+
+	/**
+	 * Sets the height of the bands. Higher bands keep more render threads busy,
+	 * but need more memory.
+	 * 
+	 * @param bandHeight
+	 *            the height of a band in pixels or 0 to choose it automatically
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if {@code bandHeight} is negative
+	 */
+	public void setBandHeight(int bandHeight) {
+		if (bandHeight < 0)
+			throw new IllegalArgumentException("the band height must not be negative");
+
+		this.bandHeight = bandHeight;
+	}
+
+	/**
+	 * Returns the height of the bands.
+	 * 
+	 * @return the height of a band in pixels or 0 if it is chosen automatically
+	 */
+	public int getBandHeight() {
+		return bandHeight;
+	}
+}
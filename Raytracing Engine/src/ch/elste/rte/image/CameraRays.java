@@ -0,0 +1,172 @@
+package ch.elste.rte.image;
+
+import ch.elste.math.Matrix3x3;
+
+/**
+ * Generates the directions of the camera rays of a {@link ViewPlane} for one
+ * orientation of its camera. The axes of the camera and the coordinates of
+ * every column and row of pixels on the view plane are worked out once, so a
+ * direction only costs a square root and a few multiplications and nothing is
+ * allocated. The directions are exactly those of
+ * {@link ViewPlane#getCameraRay(double, double)}, so images don't change.
+ * <p>
+ * The directions of all pixels can also be kept in a table, which is
+ * calculated once and used for every image until the camera turns. The
+ * position of the camera doesn't matter, so a camera which only moves keeps
+ * its table too.
+ * </p>
+ * 
+ * @author Dillon Elste
+ */
+final class CameraRays {
+	/**
+	 * The transformation matrix of the camera the directions are calculated for.
+	 * Cameras replace their matrix whenever they turn.
+	 */
+	private final Matrix3x3 matrix;
+
+	/**
+	 * The rows of the transformation matrix.
+	 */
+	private final double m00, m01, m02, m10, m11, m12, m20, m21, m22;
+
+	private final int width;
+	private final double fieldOfViewFactor;
+
+	/**
+	 * The x coordinate of every column and the y coordinate of every row on the
+	 * view plane, scaled by the field of view.
+	 */
+	private final double[] columns, rows;
+
+	/**
+	 * The directions of all pixels, three values per pixel row by row, or null if
+	 * they aren't kept.
+	 */
+	private final double[] table;
+
+	/**
+	 * Creates the directions for the current orientation of a camera.
+	 * 
+	 * @param matrix
+	 *            the transformation matrix of the camera
+	 * @param width
+	 *            the width of the image
+	 * @param height
+	 *            the height of the image
+	 * @param fieldOfViewFactor
+	 *            the tangent of half the field of view
+	 * @param cached
+	 *            whether the directions of all pixels are calculated now and
+	 *            kept in a table
+	 */
+	CameraRays(Matrix3x3 matrix, int width, int height, double fieldOfViewFactor, boolean cached) {
+		this.matrix = matrix;
+		m00 = matrix.get(0, 0);
+		m01 = matrix.get(0, 1);
+		m02 = matrix.get(0, 2);
+		m10 = matrix.get(1, 0);
+		m11 = matrix.get(1, 1);
+		m12 = matrix.get(1, 2);
+		m20 = matrix.get(2, 0);
+		m21 = matrix.get(2, 1);
+		m22 = matrix.get(2, 2);
+
+		this.width = width;
+		this.fieldOfViewFactor = fieldOfViewFactor;
+
+		// The same expressions as the mapping from pixels to the view plane, so the
+		// coordinates don't differ in the last bit.
+		columns = new double[width];
+		for (int x = 0; x < width; x++) {
+			columns[x] = (2d * x / width - 1) * width / height * fieldOfViewFactor;
+		}
+		rows = new double[height];
+		for (int y = 0; y < height; y++) {
+			rows[y] = (2d * y / height - 1) * fieldOfViewFactor;
+		}
+
+		if (cached) {
+			table = new double[3 * width * height];
+			double[] direction = new double[3];
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					transform(columns[x], rows[y], direction);
+					System.arraycopy(direction, 0, table, 3 * (y * width + x), 3);
+				}
+			}
+		} else {
+			table = null;
+		}
+	}
+
+	/**
+	 * Returns whether these directions belong to a camera with given
+	 * transformation matrix.
+	 * 
+	 * @param matrix
+	 *            the transformation matrix of the camera
+	 * 
+	 * @return true if the directions can be used for the camera
+	 */
+	boolean isFor(Matrix3x3 matrix) {
+		return matrix == this.matrix;
+	}
+
+	/**
+	 * Returns whether the directions of all pixels are kept in a table.
+	 * 
+	 * @return true if there is a table
+	 */
+	boolean isCached() {
+		return table != null;
+	}
+
+	/**
+	 * Writes the direction of the camera ray through the center of a pixel to an
+	 * array.
+	 * 
+	 * @param x
+	 *            the x coordinate of the pixel
+	 * @param y
+	 *            the y coordinate of the pixel
+	 * @param direction
+	 *            the array the normalized direction is written to
+	 */
+	void getPixelDirection(int x, int y, double[] direction) {
+		if (table != null) {
+			System.arraycopy(table, 3 * (y * width + x), direction, 0, 3);
+		} else {
+			transform(columns[x], rows[y], direction);
+		}
+	}
+
+	/**
+	 * Writes the direction of the camera ray through a point on the view plane to
+	 * an array.
+	 * 
+	 * @param u
+	 *            the x coordinate on the view plane in the range of
+	 *            {@code [-imageRatio;+imageRatio]}
+	 * @param v
+	 *            the y coordinate on the view plane in the range of {@code [-1;+1]}
+	 * @param direction
+	 *            the array the normalized direction is written to
+	 */
+	void getDirection(double u, double v, double[] direction) {
+		transform(u * fieldOfViewFactor, v * fieldOfViewFactor, direction);
+	}
+
+	/**
+	 * Normalizes {@code (x, y, 1)} and transforms it into world space, in the same
+	 * order of operations as {@link ch.elste.math.Vector#normalize()} and
+	 * {@link Matrix3x3#mult(ch.elste.math.Vector)}.
+	 */
+	private void transform(double x, double y, double[] direction) {
+		double length = Math.sqrt(x * x + y * y + 1d);
+		double nx = x / length, ny = y / length, nz = 1d / length;
+		direction[0] = m00 * nx + m01 * ny + m02 * nz;
+		direction[1] = m10 * nx + m11 * ny + m12 * nz;
+		direction[2] = m20 * nx + m21 * ny + m22 * nz;
+	}
+}
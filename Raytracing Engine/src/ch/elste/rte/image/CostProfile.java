@@ -0,0 +1,320 @@
+package ch.elste.rte.image;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import ch.elste.rte.scene.acceleration.TraversalStatistics;
+import ch.elste.rte.scene.acceleration.TraversalStatistics.Tally;
+
+/**
+ * What the pixels of an image cost while it was rendered by a
+ * {@link ViewPlane#setProfiling(boolean) profiling} view plane: the time spent
+ * on them and the ray queries and primitive tests of all their rays, including
+ * shadow rays and reflections. Rays traced in packets share their cost evenly.
+ * <p>
+ * The costs are added up over all samples and kept for square cells of pixels.
+ * A cell is a single pixel unless the image has so many pixels that their
+ * costs would take more than a few megabytes, then a few pixels share a cell.
+ * The cells never cross the border of a tile.
+ * </p>
+ * <p>
+ * Timing every pixel slows rendering down a little, so the costs are only a
+ * guide to where the time of an image goes. Queries are only counted if
+ * {@link TraversalStatistics#ENABLED statistics are enabled}.
+ * </p>
+ * 
+ * @author Dillon Elste
+ */
+public final class CostProfile {
+	/**
+	 * A cost of a pixel.
+	 * 
+	 * @author Dillon Elste
+	 */
+	public enum Cost {
+		/**
+		 * The time in nanoseconds.
+		 */
+		TIME,
+
+		/**
+		 * The number of ray queries.
+		 */
+		QUERIES,
+
+		/**
+		 * The number of ray primitive tests.
+		 */
+		PRIMITIVE_TESTS
+	}
+
+	/**
+	 * The number of cells a profile has at most if its cells are bigger than a
+	 * pixel, which keeps it at a few megabytes.
+	 */
+	private static final int MAX_CELLS = 1 << 19;
+
+	private final int width, height, cellSize, cellsX;
+	private final AtomicLongArray time, queries, primitiveTests;
+
+	private final ThreadLocal<Tally> tallies = ThreadLocal.withInitial(Tally::new);
+
+	/**
+	 * Creates a new profile of an image without any costs. The cells are the
+	 * smallest ones fitting into a tile a whole number of times for which there
+	 * are no more than {@link #MAX_CELLS} of them.
+	 * 
+	 * @param width
+	 *            the width of the image
+	 * @param height
+	 *            the height of the image
+	 * @param tileSize
+	 *            the edge length of the tiles of the image
+	 */
+	CostProfile(int width, int height, int tileSize) {
+		int cellSize = 1;
+		while (cellSize < tileSize && (tileSize % cellSize != 0
+				|| (long) ((width + cellSize - 1) / cellSize) * ((height + cellSize - 1) / cellSize) > MAX_CELLS)) {
+			cellSize++;
+		}
+
+		this.width = width;
+		this.height = height;
+		this.cellSize = cellSize;
+		cellsX = (width + cellSize - 1) / cellSize;
+		int cells = cellsX * ((height + cellSize - 1) / cellSize);
+		time = new AtomicLongArray(cells);
+		queries = new AtomicLongArray(cells);
+		primitiveTests = new AtomicLongArray(cells);
+	}
+
+	/**
+	 * Starts measuring the cost of the pixels the calling thread renders next.
+	 * 
+	 * @return the time the measurement started at
+	 */
+	long start() {
+		Tally tally = tallies.get();
+		tally.reset();
+		TraversalStatistics.setTally(tally);
+		return System.nanoTime();
+	}
+
+	/**
+	 * Adds what has been measured since {@link #start()} to a pixel.
+	 * 
+	 * @param x
+	 *            the x coordinate of the pixel
+	 * @param y
+	 *            the y coordinate of the pixel
+	 * @param start
+	 *            the time returned by {@link #start()}
+	 */
+	void add(int x, int y, long start) {
+		add(x, y, 1, 1, start);
+	}
+
+	/**
+	 * Adds what has been measured since {@link #start()} to a rectangle of
+	 * pixels, which share it evenly. What can't be shared evenly goes to the
+	 * first pixels, so nothing is lost.
+	 * 
+	 * @param x
+	 *            the x coordinate of the top left pixel
+	 * @param y
+	 *            the y coordinate of the top left pixel
+	 * @param width
+	 *            the width of the rectangle
+	 * @param height
+	 *            the height of the rectangle
+	 * @param start
+	 *            the time returned by {@link #start()}
+	 */
+	void add(int x, int y, int width, int height, long start) {
+		long elapsed = System.nanoTime() - start;
+		TraversalStatistics.setTally(null);
+		Tally tally = tallies.get();
+		long queryCount = tally.getQueries(), primitiveTestCount = tally.getPrimitiveTests();
+
+		int pixels = width * height;
+		for (int k = 0; k < pixels; k++) {
+			int index = (y + k / width) / cellSize * cellsX + (x + k % width) / cellSize;
+			time.addAndGet(index, share(elapsed, pixels, k));
+			queries.addAndGet(index, share(queryCount, pixels, k));
+			primitiveTests.addAndGet(index, share(primitiveTestCount, pixels, k));
+		}
+	}
+
+	/**
+	 * Returns the part of a cost the {@code k}th of {@code n} pixels gets, so the
+	 * parts of all pixels add up to the cost.
+	 */
+	private static long share(long cost, int n, int k) {
+		return cost / n + (k < cost % n ? 1 : 0);
+	}
+
+	/**
+	 * Returns a cost of the cell containing a pixel, which is shared by all
+	 * pixels of the cell.
+	 * 
+	 * @param cost
+	 *            the cost to return
+	 * @param x
+	 *            the x coordinate of the pixel
+	 * @param y
+	 *            the y coordinate of the pixel
+	 * 
+	 * @return the cost of the cell
+	 */
+	public long get(Cost cost, int x, int y) {
+		return get(cost).get(y / cellSize * cellsX + x / cellSize);
+	}
+
+	private AtomicLongArray get(Cost cost) {
+		switch (cost) {
+		case TIME:
+			return time;
+		case QUERIES:
+			return queries;
+		default:
+			return primitiveTests;
+		}
+	}
+
+	/**
+	 * Returns the highest cost of any cell.
+	 * 
+	 * @param cost
+	 *            the cost to compare
+	 * 
+	 * @return the highest cost
+	 */
+	public long getMax(Cost cost) {
+		AtomicLongArray costs = get(cost);
+		long max = 0;
+		for (int i = 0; i < costs.length(); i++) {
+			max = Math.max(max, costs.get(i));
+		}
+		return max;
+	}
+
+	/**
+	 * Adds up a cost of the pixels of every tile of the image.
+	 * 
+	 * @param cost
+	 *            the cost to add up
+	 * @param tileSize
+	 *            the edge length of a tile, which has to be a multiple of the
+	 *            {@link #getCellSize() size of a cell}
+	 * 
+	 * @return the cost of every tile row by row
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the tiles are split by cells
+	 */
+	public long[] getTileCosts(Cost cost, int tileSize) {
+		if (tileSize % cellSize != 0)
+			throw new IllegalArgumentException("a tile has to be a multiple of " + cellSize + " pixels");
+
+		int tilesX = (width + tileSize - 1) / tileSize;
+		long[] tiles = new long[tilesX * ((height + tileSize - 1) / tileSize)];
+		for (int y = 0; y < height; y += cellSize) {
+			for (int x = 0; x < width; x += cellSize) {
+				tiles[y / tileSize * tilesX + x / tileSize] += get(cost, x, y);
+			}
+		}
+		return tiles;
+	}
+
+	/**
+	 * Returns the cost per pixel which a share of the pixels don't exceed.
+	 * 
+	 * @param cost
+	 *            the cost to compare
+	 * @param share
+	 *            the share of the pixels between 0 and 1
+	 * 
+	 * @return the cost per pixel at the percentile
+	 */
+	public long getPercentile(Cost cost, double share) {
+		// Every cell stands for its pixels, which only differs at the border.
+		long[] costs = new long[get(cost).length()];
+		for (int i = 0; i < costs.length; i++) {
+			costs[i] = getPerPixel(cost, i % cellsX * cellSize, i / cellsX * cellSize);
+		}
+		Arrays.sort(costs);
+		return costs.length == 0 ? 0 : costs[(int) Math.min(costs.length - 1, Math.max(0, share * costs.length))];
+	}
+
+	/**
+	 * Returns the cost of a pixel, the cost of its cell spread evenly over the
+	 * pixels of the cell.
+	 */
+	private long getPerPixel(Cost cost, int x, int y) {
+		int cellX = x / cellSize * cellSize, cellY = y / cellSize * cellSize;
+		int pixels = (Math.min(cellX + cellSize, width) - cellX) * (Math.min(cellY + cellSize, height) - cellY);
+		return get(cost, x, y) / pixels;
+	}
+
+	/**
+	 * Writes a heat map of a cost per pixel to a sink, which has to be as big as
+	 * the image and is best opened with the {@link ToneMapper#CLAMP clamping tone
+	 * mapper}. The most expensive percent of the pixels are red, so a few pixels
+	 * which were held up, for example by the garbage collector, don't make all
+	 * others dark. The heat map is written a row of cells at a time and never held
+	 * in memory as a whole. The sink isn't closed.
+	 * 
+	 * @param cost
+	 *            the cost to draw
+	 * @param sink
+	 *            the sink receiving the rows of the heat map
+	 * 
+	 * @throws IOException
+	 *             if the sink can't write the heat map
+	 */
+	public void writeHeatMap(Cost cost, ImageSink sink) throws IOException {
+		double max = getPercentile(cost, .99);
+		float[] rgb = new float[3 * width * cellSize];
+		for (int cellY = 0; cellY < height; cellY += cellSize) {
+			int rows = Math.min(cellSize, height - cellY);
+			for (int x = 0; x < width; x++) {
+				int color = HeatMap.color(max > 0 ? getPerPixel(cost, x, cellY) / max : 0);
+				for (int y = 0; y < rows; y++) {
+					int i = 3 * (y * width + x);
+					rgb[i] = ((color >> 16) & 0xff) / 255f;
+					rgb[i + 1] = ((color >> 8) & 0xff) / 255f;
+					rgb[i + 2] = (color & 0xff) / 255f;
+				}
+			}
+			sink.writeRows(rgb, rows);
+		}
+	}
+
+	/**
+	 * Returns the edge length of the cells the costs are kept for.
+	 * 
+	 * @return the edge length of a cell in pixels
+	 */
+	public int getCellSize() {
+		return cellSize;
+	}
+
+	/**
+	 * Returns the width of the image.
+	 * 
+	 * @return the width of the image
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Returns the height of the image.
+	 * 
+	 * @return the height of the image
+	 */
+	public int getHeight() {
+		return height;
+	}
+}
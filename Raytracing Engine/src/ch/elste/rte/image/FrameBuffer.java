@@ -0,0 +1,111 @@
+package ch.elste.rte.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * A frame buffer holds the pixels of an image as packed ARGB values in a flat
+ * array. The array is the data buffer of a {@link BufferedImage}, so the pixels
+ * are written straight into the image without copying them.
+ * 
+ * @author Dillon Elste
+ */
+public class FrameBuffer {
+	private final int width;
+	private final int height;
+
+	private final BufferedImage image;
+
+	/**
+	 * The pixels row by row starting at the top left corner.
+	 */
+	private final int[] data;
+
+	/**
+	 * Creates a new black frame buffer with given size.
+	 * 
+	 * @param width
+	 *            the width of the image
+	 * @param height
+	 *            the height of the image
+	 */
+	public FrameBuffer(int width, int height) {
+		this.width = width;
+		this.height = height;
+
+		image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+
+		clear();
+	}
+
+	/**
+	 * Sets the pixel at {@code index} to an ARGB value.
+	 * 
+	 * @param index
+	 *            the index of the pixel, which is {@code y * width + x}
+	 * @param argb
+	 *            the color as 4 byte ARGB value
+	 */
+	public void setRGB(int index, int argb) {
+		data[index] = argb;
+	}
+
+	/**
+	 * Returns the ARGB value of the pixel at {@code index}.
+	 * 
+	 * @param index
+	 *            the index of the pixel, which is {@code y * width + x}
+	 * 
+	 * @return the color as 4 byte ARGB value
+	 */
+	public int getRGB(int index) {
+		return data[index];
+	}
+
+	/**
+	 * Sets all pixels to opaque black.
+	 */
+	public void clear() {
+		Arrays.fill(data, 0xff000000);
+	}
+
+	/**
+	 * Returns the image backed by this frame buffer. The image is not a copy, so
+	 * it changes whenever the frame buffer is written to.
+	 * 
+	 * @return the image backed by this frame buffer
+	 */
+	public BufferedImage getImage() {
+		return image;
+	}
+
+	/**
+	 * Returns the array holding the pixels row by row. It is the data buffer of
+	 * the image.
+	 * 
+	 * @return the array holding the pixels
+	 */
+	public int[] getData() {
+		return data;
+	}
+
+	/**
+	 * Returns the width of the image.
+	 * 
+	 * @return the width of the image
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Returns the height of the image.
+	 * 
+	 * @return the height of the image
+	 */
+	public int getHeight() {
+		return height;
+	}
+}
@@ -0,0 +1,202 @@
+package ch.elste.rte.image;
+
+import ch.elste.rte.ReflectionTracer;
+import ch.elste.rte.scene.SceneSnapshot;
+import ch.elste.rte.scene.shape.Primitive;
+
+/**
+ * Holds the nearest intersection of the camera ray of every pixel of a tile,
+ * so shading can run as a separate pass after all intersections have been
+ * found. Every visible point is shaded exactly once, and the shading pass
+ * walks through the compact arrays in order.
+ * <p>
+ * The pixels are stored row by row. A buffer is meant to be reused for every
+ * tile a thread renders.
+ * </p>
+ * 
+ * @author Dillon Elste
+ */
+public class GBuffer {
+	/**
+	 * The distance to the nearest intersection of each pixel or
+	 * {@link Double#POSITIVE_INFINITY} if the camera ray doesn't hit anything.
+	 */
+	public final double[] distance;
+
+	/**
+	 * The nearest primitive of each pixel or null. The reference is as compact
+	 * as an index, but doesn't have to be looked up.
+	 */
+	public final Primitive[] primitive;
+
+	/**
+	 * The element of the nearest primitive of each pixel.
+	 * 
+	 * @see ch.elste.rte.HitRecord#element
+	 */
+	public final int[] element;
+
+	/**
+	 * The intersection point of each pixel.
+	 */
+	public final double[] positionX, positionY, positionZ;
+
+	/**
+	 * The normalized normal of the surface at the intersection point of each
+	 * pixel.
+	 */
+	public final double[] normalX, normalY, normalZ;
+
+	/**
+	 * The direction of the camera ray of each pixel, which is needed to reflect
+	 * it.
+	 */
+	public final double[] directionX, directionY, directionZ;
+
+	private final double[] normal = new double[3];
+	private int width, height;
+
+	/**
+	 * Creates a new buffer holding up to {@code capacity} pixels.
+	 * 
+	 * @param capacity
+	 *            the maximal number of pixels
+	 */
+	public GBuffer(int capacity) {
+		distance = new double[capacity];
+		primitive = new Primitive[capacity];
+		element = new int[capacity];
+		positionX = new double[capacity];
+		positionY = new double[capacity];
+		positionZ = new double[capacity];
+		normalX = new double[capacity];
+		normalY = new double[capacity];
+		normalZ = new double[capacity];
+		directionX = new double[capacity];
+		directionY = new double[capacity];
+		directionZ = new double[capacity];
+	}
+
+	/**
+	 * Sets the size of the tile this buffer holds.
+	 * 
+	 * @param width
+	 *            the width of the tile
+	 * @param height
+	 *            the height of the tile
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the tile doesn't fit into this buffer
+	 */
+	public void setSize(int width, int height) {
+		if (width * height > capacity())
+			throw new IllegalArgumentException("the tile doesn't fit into the buffer");
+
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Records the nearest intersection of a camera ray. The intersection point and
+	 * the normal are calculated here, so the shading pass only has to read them.
+	 * 
+	 * @param index
+	 *            the index of the pixel in the tile
+	 * @param ox
+	 *            the x coordinate of the origin of the ray
+	 * @param oy
+	 *            the y coordinate of the origin of the ray
+	 * @param oz
+	 *            the z coordinate of the origin of the ray
+	 * @param dx
+	 *            the x coordinate of the direction of the ray
+	 * @param dy
+	 *            the y coordinate of the direction of the ray
+	 * @param dz
+	 *            the z coordinate of the direction of the ray
+	 * @param primitive
+	 *            the nearest primitive or null
+	 * @param element
+	 *            the element of the nearest primitive
+	 * @param distance
+	 *            the distance to the intersection
+	 */
+	public void record(int index, double ox, double oy, double oz, double dx, double dy, double dz,
+			Primitive primitive, int element, double distance) {
+		this.primitive[index] = primitive;
+		this.element[index] = element;
+		this.distance[index] = distance;
+
+		if (primitive != null) {
+			double px = ox + dx * distance, py = oy + dy * distance, pz = oz + dz * distance;
+			positionX[index] = px;
+			positionY[index] = py;
+			positionZ[index] = pz;
+			directionX[index] = dx;
+			directionY[index] = dy;
+			directionZ[index] = dz;
+
+			primitive.getNormal(element, px, py, pz, normal);
+			normalX[index] = normal[0];
+			normalY[index] = normal[1];
+			normalZ[index] = normal[2];
+		}
+	}
+
+	/**
+	 * Shades the visible point of a pixel, including its reflections.
+	 * 
+	 * @param index
+	 *            the index of the pixel in the tile
+	 * @param scene
+	 *            the scene the point is in
+	 * 
+	 * @return the linear color of the point or null if the pixel doesn't show a
+	 *         primitive
+	 */
+	public Radiance shade(int index, SceneSnapshot scene) {
+		Primitive p = primitive[index];
+		if (p == null)
+			return null;
+
+		return ReflectionTracer.get().shade(scene, p, positionX[index], positionY[index], positionZ[index],
+				normalX[index], normalY[index], normalZ[index], directionX[index], directionY[index],
+				directionZ[index]);
+	}
+
+	/**
+	 * Returns the maximal number of pixels this buffer holds.
+	 * 
+	 * @return the capacity
+	 */
+	public int capacity() {
+		return distance.length;
+	}
+
+	/**
+	 * Returns the number of pixels of the current tile.
+	 * 
+	 * @return the number of pixels
+	 */
+	public int size() {
+		return width * height;
+	}
+
+	/**
+	 * Returns the width of the current tile.
+	 * 
+	 * @return the width
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Returns the height of the current tile.
+	 * 
+	 * @return the height
+	 */
+	public int getHeight() {
+		return height;
+	}
+}
@@ -0,0 +1,31 @@
+package ch.elste.rte.image;
+
+/**
+ * Generates the Halton sequence the renderers use to place the samples of a
+ * pixel. Its points are spread evenly, so a few samples already cover the
+ * whole pixel.
+ * 
+ * @author Dillon Elste
+ */
+final class Halton {
+	private Halton() {
+	}
+
+	/**
+	 * Mirrors the digits of {@code n} in given base at the decimal point.
+	 * 
+	 * @param n
+	 *            the index in the sequence
+	 * @param base
+	 *            the base, which has to be a prime
+	 * 
+	 * @return a number between 0 (inclusive) and 1 (exclusive)
+	 */
+	static double radicalInverse(int n, int base) {
+		double result = 0, factor = 1d / base;
+		for (; n > 0; n /= base, factor /= base) {
+			result += (n % base) * factor;
+		}
+		return result;
+	}
+}
@@ -0,0 +1,59 @@
+package ch.elste.rte.image;
+
+import java.awt.image.BufferedImage;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Draws a value per pixel as a false color image, from black over blue, cyan,
+ * green and yellow to red for the maximal value.
+ * 
+ * @author Dillon Elste
+ */
+public final class HeatMap {
+	private static final int[] COLORS = { 0x000000, 0x0000ff, 0x00ffff, 0x00ff00, 0xffff00, 0xff0000 };
+
+	private HeatMap() {
+	}
+
+	/**
+	 * Returns the color of a value on the scale of the heat map.
+	 * 
+	 * @param t
+	 *            the value between 0 and 1. Values outside are clamped.
+	 * 
+	 * @return the color as ARGB
+	 */
+	public static int color(double t) {
+		double position = Math.max(0, Math.min(1, t)) * (COLORS.length - 1);
+		int i = Math.min((int) position, COLORS.length - 2);
+		double f = position - i;
+
+		int a = COLORS[i], b = COLORS[i + 1];
+		int red = (int) Math.round(((a >> 16) & 0xff) * (1 - f) + ((b >> 16) & 0xff) * f);
+		int green = (int) Math.round(((a >> 8) & 0xff) * (1 - f) + ((b >> 8) & 0xff) * f);
+		int blue = (int) Math.round((a & 0xff) * (1 - f) + (b & 0xff) * f);
+		return 0xff000000 | red << 16 | green << 8 | blue;
+	}
+
+	/**
+	 * Creates a heat map of an image.
+	 * 
+	 * @param width
+	 *            the width of the image
+	 * @param height
+	 *            the height of the image
+	 * @param value
+	 *            returns the value of the pixel with index {@code y * width + x}
+	 * @param max
+	 *            the value drawn red
+	 * 
+	 * @return a new image
+	 */
+	public static BufferedImage create(int width, int height, IntToDoubleFunction value, double max) {
+		FrameBuffer frameBuffer = new FrameBuffer(width, height);
+		for (int i = 0; i < width * height; i++) {
+			frameBuffer.setRGB(i, color(max > 0 ? value.applyAsDouble(i) / max : 0));
+		}
+		return frameBuffer.getImage();
+	}
+}
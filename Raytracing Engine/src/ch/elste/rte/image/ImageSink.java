@@ -0,0 +1,73 @@
+package ch.elste.rte.image;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Receives an image row by row, from the top to the bottom, and writes it
+ * somewhere, usually to a file. Only the rows given to a single call have to be
+ * held in memory, so images of any size can be written.
+ * 
+ * @author Dillon Elste
+ */
+public interface ImageSink extends Closeable {
+	/**
+	 * Writes the next rows of the image.
+	 * 
+	 * @param rgb
+	 *            the linear colors of the rows, three values per pixel row by row
+	 * @param rows
+	 *            the number of rows
+	 * 
+	 * @throws IOException
+	 *             if the rows can't be written
+	 * @throws IllegalStateException
+	 *             if the image has fewer rows left
+	 */
+	void writeRows(float[] rgb, int rows) throws IOException;
+
+	/**
+	 * Finishes the image and releases all resources.
+	 * 
+	 * @throws IOException
+	 *             if the image can't be finished or not all rows have been
+	 *             written
+	 */
+	@Override
+	void close() throws IOException;
+
+	/**
+	 * Opens a sink writing to a file in the format given by its extension:
+	 * {@code .png} for {@link PngWriter PNG}, {@code .ppm} for {@link PpmWriter
+	 * PPM} or {@code .pfm} for {@link PfmWriter PFM}.
+	 * 
+	 * @param path
+	 *            the path of the file
+	 * @param width
+	 *            the width of the image
+	 * @param height
+	 *            the height of the image
+	 * @param toneMapper
+	 *            the tone mapper used by the formats with 8 bit channels
+	 * 
+	 * @return the sink
+	 * 
+	 * @throws IOException
+	 *             if the file can't be opened
+	 * @throws IllegalArgumentException
+	 *             if the extension is none of the supported ones
+	 */
+	static ImageSink open(Path path, int width, int height, ToneMapper toneMapper) throws IOException {
+		String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+		if (name.endsWith(".png"))
+			return new PngWriter(path, width, height, toneMapper);
+		if (name.endsWith(".ppm"))
+			return new PpmWriter(path, width, height, toneMapper);
+		if (name.endsWith(".pfm"))
+			return new PfmWriter(path, width, height);
+
+		throw new IllegalArgumentException("unsupported image format: " + path.getFileName());
+	}
+}
@@ -0,0 +1,100 @@
+package ch.elste.rte.image;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes PFM images, which hold the linear colors as 32 bit floats without
+ * tone mapping, so bright areas keep their full range for later grading.
+ * <p>
+ * PFM stores the rows from the bottom to the top. Every row has the same
+ * length, so each one is written straight to its place in the file and the
+ * rows can still be given from the top to the bottom.
+ * </p>
+ * 
+ * @author Dillon Elste
+ */
+public class PfmWriter implements ImageSink {
+	private final FileChannel channel;
+	private final int width, height;
+
+	/**
+	 * The length of the header, which is where the bottom row starts.
+	 */
+	private final long start;
+
+	/**
+	 * The little-endian bytes of a row.
+	 */
+	private final ByteBuffer row;
+	private int rows;
+
+	/**
+	 * Creates a new file and writes the header of the image.
+	 * 
+	 * @param path
+	 *            the path of the file
+	 * @param width
+	 *            the width of the image
+	 * @param height
+	 *            the height of the image
+	 * 
+	 * @throws IOException
+	 *             if the file can't be written
+	 */
+	public PfmWriter(Path path, int width, int height) throws IOException {
+		if (width < 1 || height < 1 || width > Integer.MAX_VALUE / (3 * Float.BYTES))
+			throw new IllegalArgumentException("invalid image size " + width + "x" + height);
+
+		this.width = width;
+		this.height = height;
+		row = ByteBuffer.allocate(3 * Float.BYTES * width).order(ByteOrder.LITTLE_ENDIAN);
+
+		// A negative scale marks little-endian data.
+		byte[] header = ("PF\n" + width + " " + height + "\n-1.0\n").getBytes(StandardCharsets.US_ASCII);
+		start = header.length;
+
+		channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			write(ByteBuffer.wrap(header), 0);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	@Override
+	public void writeRows(float[] rgb, int rows) throws IOException {
+		if (this.rows + rows > height)
+			throw new IllegalStateException("the image has only " + (height - this.rows) + " rows left");
+
+		for (int y = 0; y < rows; y++) {
+			row.clear();
+			row.asFloatBuffer().put(rgb, 3 * y * width, 3 * width);
+
+			int bottomUp = height - 1 - (this.rows + y);
+			write(row, start + (long) bottomUp * row.capacity());
+		}
+		this.rows += rows;
+	}
+
+	private void write(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+
+		if (rows < height)
+			throw new IOException("only " + rows + " of " + height + " rows have been written");
+	}
+}
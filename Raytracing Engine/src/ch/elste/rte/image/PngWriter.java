@@ -0,0 +1,255 @@
+package ch.elste.rte.image;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes 8 bit RGB PNG images row by row. Each row is filtered and handed to
+ * the deflater right away, and the compressed data is written in chunks as it
+ * comes out, so neither the image nor its compressed data are ever held in
+ * memory.
+ * <p>
+ * Every row gets the filter giving the smallest sum of absolute differences,
+ * the heuristic recommended by the PNG specification.
+ * </p>
+ * 
+ * @author Dillon Elste
+ */
+public class PngWriter implements ImageSink {
+	private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' };
+
+	/**
+	 * The size of the data of an IDAT chunk.
+	 */
+	private static final int CHUNK_SIZE = 1 << 16;
+
+	/**
+	 * The number of bytes of a pixel.
+	 */
+	private static final int BYTES_PER_PIXEL = 3;
+
+	private static final int NONE = 0, SUB = 1, UP = 2, AVERAGE = 3, PAETH = 4;
+
+	private final OutputStream out;
+	private final int width, height;
+	private final ToneMapper toneMapper;
+
+	private final Deflater deflater = new Deflater();
+	private final CRC32 crc = new CRC32();
+
+	/**
+	 * The unfiltered bytes of the current and the previous row.
+	 */
+	private byte[] row, previous;
+
+	/**
+	 * The filter type followed by the filtered row, for each filter.
+	 */
+	private final byte[][] filtered = new byte[5][];
+
+	/**
+	 * The compressed data of the next IDAT chunk and its length.
+	 */
+	private final byte[] chunk = new byte[CHUNK_SIZE];
+	private int length;
+
+	private int rows;
+
+	/**
+	 * Creates a new file and writes the header of the image.
+	 * 
+	 * @param path
+	 *            the path of the file
+	 * @param width
+	 *            the width of the image
+	 * @param height
+	 *            the height of the image
+	 * @param toneMapper
+	 *            the tone mapper converting the linear colors
+	 * 
+	 * @throws IOException
+	 *             if the file can't be written
+	 */
+	public PngWriter(Path path, int width, int height, ToneMapper toneMapper) throws IOException {
+		this(new BufferedOutputStream(Files.newOutputStream(path), CHUNK_SIZE), width, height, toneMapper);
+	}
+
+	/**
+	 * Writes the header of the image to a stream. The stream is closed with the
+	 * writer.
+	 * 
+	 * @param out
+	 *            the stream to write to
+	 * @param width
+	 *            the width of the image
+	 * @param height
+	 *            the height of the image
+	 * @param toneMapper
+	 *            the tone mapper converting the linear colors
+	 * 
+	 * @throws IOException
+	 *             if the stream can't be written
+	 */
+	public PngWriter(OutputStream out, int width, int height, ToneMapper toneMapper) throws IOException {
+		if (width < 1 || height < 1 || width > (Integer.MAX_VALUE - 1) / BYTES_PER_PIXEL)
+			throw new IllegalArgumentException("invalid image size " + width + "x" + height);
+
+		this.out = out;
+		this.width = width;
+		this.height = height;
+		this.toneMapper = toneMapper;
+
+		row = new byte[BYTES_PER_PIXEL * width];
+		previous = new byte[BYTES_PER_PIXEL * width];
+		for (int f = 0; f < filtered.length; f++) {
+			filtered[f] = new byte[1 + BYTES_PER_PIXEL * width];
+			filtered[f][0] = (byte) f;
+		}
+
+		out.write(SIGNATURE);
+
+		byte[] header = new byte[13];
+		putInt(header, 0, width);
+		putInt(header, 4, height);
+		header[8] = 8; // bits per channel
+		header[9] = 2; // RGB
+		writeChunk("IHDR", header, header.length);
+	}
+
+	@Override
+	public void writeRows(float[] rgb, int rows) throws IOException {
+		if (this.rows + rows > height)
+			throw new IllegalStateException("the image has only " + (height - this.rows) + " rows left");
+
+		for (int y = 0; y < rows; y++) {
+			for (int x = 0, i = 3 * y * width; x < width; x++, i += 3) {
+				int argb = toneMapper.toARGB(rgb[i], rgb[i + 1], rgb[i + 2]);
+				row[3 * x] = (byte) (argb >> 16);
+				row[3 * x + 1] = (byte) (argb >> 8);
+				row[3 * x + 2] = (byte) argb;
+			}
+
+			deflater.setInput(filter());
+			while (!deflater.needsInput()) {
+				deflate();
+			}
+
+			byte[] temp = previous;
+			previous = row;
+			row = temp;
+		}
+		this.rows += rows;
+	}
+
+	/**
+	 * Filters the current row with every filter and returns the best one.
+	 */
+	private byte[] filter() {
+		int n = row.length, bpp = BYTES_PER_PIXEL;
+		byte[] none = filtered[NONE], sub = filtered[SUB], up = filtered[UP], average = filtered[AVERAGE],
+				paeth = filtered[PAETH];
+
+		System.arraycopy(row, 0, none, 1, n);
+		for (int i = 0; i < n; i++) {
+			int a = i >= bpp ? row[i - bpp] & 0xff : 0;
+			int b = previous[i] & 0xff;
+			int c = i >= bpp ? previous[i - bpp] & 0xff : 0;
+
+			sub[i + 1] = (byte) (row[i] - a);
+			up[i + 1] = (byte) (row[i] - b);
+			average[i + 1] = (byte) (row[i] - ((a + b) >>> 1));
+			paeth[i + 1] = (byte) (row[i] - paeth(a, b, c));
+		}
+
+		long bestSum = Long.MAX_VALUE;
+		byte[] best = none;
+		for (byte[] candidate : filtered) {
+			long sum = 0;
+			for (int i = 1; i <= n; i++) {
+				sum += Math.abs(candidate[i]);
+			}
+			if (sum < bestSum) {
+				bestSum = sum;
+				best = candidate;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Returns whichever of the left, upper and upper left neighbour is closest to
+	 * {@code a + b - c}.
+	 */
+	private static int paeth(int a, int b, int c) {
+		int p = a + b - c;
+		int pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+		if (pa <= pb && pa <= pc)
+			return a;
+		return pb <= pc ? b : c;
+	}
+
+	/**
+	 * Compresses the pending input and writes an IDAT chunk whenever the chunk
+	 * buffer is full.
+	 */
+	private void deflate() throws IOException {
+		length += deflater.deflate(chunk, length, chunk.length - length);
+		if (length == chunk.length) {
+			writeChunk("IDAT", chunk, length);
+			length = 0;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			deflater.finish();
+			while (!deflater.finished()) {
+				deflate();
+			}
+			if (length > 0)
+				writeChunk("IDAT", chunk, length);
+			writeChunk("IEND", chunk, 0);
+		} finally {
+			deflater.end();
+			out.close();
+		}
+
+		if (rows < height)
+			throw new IOException("only " + rows + " of " + height + " rows have been written");
+	}
+
+	private void writeChunk(String type, byte[] data, int length) throws IOException {
+		byte[] header = new byte[8];
+		putInt(header, 0, length);
+		for (int i = 0; i < 4; i++) {
+			header[4 + i] = (byte) type.charAt(i);
+		}
+
+		crc.reset();
+		crc.update(header, 4, 4);
+		crc.update(data, 0, length);
+
+		byte[] checksum = new byte[4];
+		putInt(checksum, 0, (int) crc.getValue());
+
+		out.write(header);
+		out.write(data, 0, length);
+		out.write(checksum);
+	}
+
+	/**
+	 * Writes an integer in big-endian byte order, as used by PNG.
+	 */
+	private static void putInt(byte[] bytes, int offset, int value) {
+		bytes[offset] = (byte) (value >>> 24);
+		bytes[offset + 1] = (byte) (value >>> 16);
+		bytes[offset + 2] = (byte) (value >>> 8);
+		bytes[offset + 3] = (byte) value;
+	}
+}
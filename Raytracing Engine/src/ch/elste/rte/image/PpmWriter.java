@@ -0,0 +1,99 @@
+package ch.elste.rte.image;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes binary PPM images ({@code P6}) with 8 bit channels row by row. The
+ * format has no compression, so it is the fastest to write and read.
+ * 
+ * @author Dillon Elste
+ */
+public class PpmWriter implements ImageSink {
+	private final OutputStream out;
+	private final int width, height;
+	private final ToneMapper toneMapper;
+
+	/**
+	 * The bytes of a row.
+	 */
+	private final byte[] row;
+	private int rows;
+
+	/**
+	 * Creates a new file and writes the header of the image.
+	 * 
+	 * @param path
+	 *            the path of the file
+	 * @param width
+	 *            the width of the image
+	 * @param height
+	 *            the height of the image
+	 * @param toneMapper
+	 *            the tone mapper converting the linear colors
+	 * 
+	 * @throws IOException
+	 *             if the file can't be written
+	 */
+	public PpmWriter(Path path, int width, int height, ToneMapper toneMapper) throws IOException {
+		this(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16), width, height, toneMapper);
+	}
+
+	/**
+	 * Writes the header of the image to a stream. The stream is closed with the
+	 * writer.
+	 * 
+	 * @param out
+	 *            the stream to write to
+	 * @param width
+	 *            the width of the image
+	 * @param height
+	 *            the height of the image
+	 * @param toneMapper
+	 *            the tone mapper converting the linear colors
+	 * 
+	 * @throws IOException
+	 *             if the stream can't be written
+	 */
+	public PpmWriter(OutputStream out, int width, int height, ToneMapper toneMapper) throws IOException {
+		if (width < 1 || height < 1 || width > Integer.MAX_VALUE / 3)
+			throw new IllegalArgumentException("invalid image size " + width + "x" + height);
+
+		this.out = out;
+		this.width = width;
+		this.height = height;
+		this.toneMapper = toneMapper;
+		row = new byte[3 * width];
+
+		out.write(("P6\n" + width + " " + height + "\n255\n").getBytes(StandardCharsets.US_ASCII));
+	}
+
+	@Override
+	public void writeRows(float[] rgb, int rows) throws IOException {
+		if (this.rows + rows > height)
+			throw new IllegalStateException("the image has only " + (height - this.rows) + " rows left");
+
+		for (int y = 0; y < rows; y++) {
+			for (int x = 0, i = 3 * y * width; x < width; x++, i += 3) {
+				int argb = toneMapper.toARGB(rgb[i], rgb[i + 1], rgb[i + 2]);
+				row[3 * x] = (byte) (argb >> 16);
+				row[3 * x + 1] = (byte) (argb >> 8);
+				row[3 * x + 2] = (byte) argb;
+			}
+			out.write(row);
+		}
+		this.rows += rows;
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+
+		if (rows < height)
+			throw new IOException("only " + rows + " of " + height + " rows have been written");
+	}
+}
@@ -0,0 +1,344 @@
+package ch.elste.rte.image;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import ch.elste.rte.HitRecord;
+
+/**
+ * Renders the image of a {@link ViewPlane} in passes on a background thread, so
+ * a first impression is available long before the image is done.
+ * <p>
+ * The first passes render a coarse preview. Only one pixel of every block is
+ * traced and its color fills the whole block. Each following preview pass
+ * halves the edge length of the blocks and only traces the pixels which
+ * haven't been traced before, until every pixel has exactly the sample
+ * {@link ViewPlane#render()} would give it. Afterwards every refining pass adds
+ * another sample to each pixel at a slightly shifted position, which smooths
+ * the edges of objects.
+ * </p>
+ * <p>
+ * The tiles of each pass are rendered on the render pool of the view plane.
+ * Rendering stops when all passes are done, the time budget runs out or
+ * {@link #cancel()} is called.
+ * </p>
+ * 
+ * @author Dillon Elste
+ */
+public class ProgressiveRenderer {
+	/**
+	 * The default edge length of the blocks of the first preview pass.
+	 */
+	public static final int DEFAULT_PREVIEW_BLOCK_SIZE = 16;
+
+	/**
+	 * The default number of samples per pixel after the last refining pass.
+	 */
+	public static final int DEFAULT_MAX_SAMPLES = 16;
+
+	/**
+	 * The default minimal time between two updates in milliseconds.
+	 */
+	public static final long DEFAULT_UPDATE_INTERVAL = 100;
+
+	private final ViewPlane viewPlane;
+
+	private int previewBlockSize = DEFAULT_PREVIEW_BLOCK_SIZE;
+	private int maxSamples = DEFAULT_MAX_SAMPLES;
+	private long timeBudget;
+	private long updateInterval = TimeUnit.MILLISECONDS.toNanos(DEFAULT_UPDATE_INTERVAL);
+
+	private volatile boolean cancelled;
+	private long deadline;
+	private long lastUpdate;
+	private CompletableFuture<BufferedImage> result;
+
+	/**
+	 * Creates a new progressive renderer for given view plane.
+	 * 
+	 * @param viewPlane
+	 *            the view plane to render
+	 */
+	public ProgressiveRenderer(ViewPlane viewPlane) {
+		this.viewPlane = viewPlane;
+	}
+
+	/**
+	 * Starts rendering on a new background thread. The listener is notified after
+	 * each pass, but not more often than the update interval allows. The last
+	 * update is always delivered.
+	 * 
+	 * @param listener
+	 *            the listener to notify
+	 * 
+	 * @return a future completed with the image once rendering has stopped
+	 * 
+	 * @throws IllegalStateException
+	 *             if this renderer is still running
+	 */
+	public synchronized CompletableFuture<BufferedImage> start(RenderListener listener) {
+		if (isRunning())
+			throw new IllegalStateException("the renderer is still running");
+
+		cancelled = false;
+		result = new CompletableFuture<>();
+
+		CompletableFuture<BufferedImage> future = result;
+		Thread thread = new Thread(() -> {
+			try {
+				future.complete(run(listener));
+			} catch (Throwable t) {
+				future.completeExceptionally(t);
+			}
+		}, "progressive-renderer");
+		thread.setDaemon(true);
+		thread.start();
+
+		return future;
+	}
+
+	/**
+	 * Stops rendering as soon as possible. Tiles which are already being rendered
+	 * are finished, the others keep their last state.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Returns whether this renderer is currently rendering.
+	 * 
+	 * @return true if rendering has been started and not stopped yet
+	 */
+	public synchronized boolean isRunning() {
+		return result != null && !result.isDone();
+	}
+
+	/**
+	 * Runs all passes on the calling thread.
+	 * 
+	 * @param listener
+	 *            the listener to notify
+	 * 
+	 * @return the rendered image
+	 */
+	private BufferedImage run(RenderListener listener) {
+		long start = System.nanoTime();
+		deadline = timeBudget > 0 ? start + timeBudget : Long.MAX_VALUE;
+		lastUpdate = start - updateInterval;
+		viewPlane.freezeScene();
+
+		int samples = 0;
+		for (int block = previewBlockSize; block >= 1 && !isStopped(); block /= 2) {
+			int size = block;
+			boolean first = block == previewBlockSize;
+			viewPlane.forEachTile((minX, minY, maxX, maxY) -> preview(minX, minY, maxX, maxY, size, first));
+
+			if (block == 1 && !isStopped())
+				samples = 1;
+			update(listener, samples, false);
+		}
+
+		for (int sample = 2; sample <= maxSamples && !isStopped(); sample++) {
+			// The offsets follow a Halton sequence, so the samples of a pixel are spread
+			// evenly around the point of its first sample.
+			double offsetX = Halton.radicalInverse(sample - 1, 2) - .5;
+			double offsetY = Halton.radicalInverse(sample - 1, 3) - .5;
+			viewPlane.forEachTile((minX, minY, maxX, maxY) -> refine(minX, minY, maxX, maxY, offsetX, offsetY));
+
+			if (!isStopped())
+				samples = sample;
+			update(listener, samples, false);
+		}
+
+		update(listener, samples, true);
+		return viewPlane.getImage();
+	}
+
+	/**
+	 * Renders a preview pass of a tile. The blocks are aligned to the top left
+	 * corner of the tile, so they never reach into neighbouring tiles.
+	 * 
+	 * @param minX
+	 *            the smallest x coordinate (inclusive)
+	 * @param minY
+	 *            the smallest y coordinate (inclusive)
+	 * @param maxX
+	 *            the biggest x coordinate (exclusive)
+	 * @param maxY
+	 *            the biggest y coordinate (exclusive)
+	 * @param block
+	 *            the edge length of a block
+	 * @param first
+	 *            true if this is the first pass, which has to trace all blocks
+	 */
+	private void preview(int minX, int minY, int maxX, int maxY, int block, boolean first) {
+		if (isStopped())
+			return;
+
+		AccumulationBuffer accumulationBuffer = viewPlane.getAccumulationBuffer();
+		FrameBuffer frameBuffer = viewPlane.getFrameBuffer();
+		ToneMapper toneMapper = viewPlane.getToneMapper();
+		int width = viewPlane.getResolutionWidth();
+		HitRecord hit = new HitRecord();
+
+		for (int y = minY; y < maxY; y += block) {
+			for (int x = minX; x < maxX; x += block) {
+				// Pixels on the grid of the previous pass have already been traced.
+				if (!first && (x - minX) % (2 * block) == 0 && (y - minY) % (2 * block) == 0)
+					continue;
+
+				int index = y * width + x;
+				accumulationBuffer.setSample(index, viewPlane.sample(x, y, hit));
+
+				int argb = accumulationBuffer.toARGB(index, toneMapper);
+				for (int j = y; j < Math.min(y + block, maxY); j++) {
+					for (int i = x; i < Math.min(x + block, maxX); i++) {
+						frameBuffer.setRGB(j * width + i, argb);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds a sample with given offset to every pixel of a tile.
+	 * 
+	 * @param minX
+	 *            the smallest x coordinate (inclusive)
+	 * @param minY
+	 *            the smallest y coordinate (inclusive)
+	 * @param maxX
+	 *            the biggest x coordinate (exclusive)
+	 * @param maxY
+	 *            the biggest y coordinate (exclusive)
+	 * @param offsetX
+	 *            the horizontal offset of the sample in pixels
+	 * @param offsetY
+	 *            the vertical offset of the sample in pixels
+	 */
+	private void refine(int minX, int minY, int maxX, int maxY, double offsetX, double offsetY) {
+		if (isStopped())
+			return;
+
+		AccumulationBuffer accumulationBuffer = viewPlane.getAccumulationBuffer();
+		int width = viewPlane.getResolutionWidth();
+		HitRecord hit = new HitRecord();
+
+		for (int y = minY; y < maxY; y++) {
+			for (int x = minX; x < maxX; x++) {
+				accumulationBuffer.addSample(y * width + x, viewPlane.sample(x + offsetX, y + offsetY, hit));
+			}
+		}
+
+		viewPlane.resolve(minX, minY, maxX, maxY);
+	}
+
+	/**
+	 * Notifies the listener if the update interval has passed since the last
+	 * update or if this is the last update.
+	 */
+	private void update(RenderListener listener, int samples, boolean finished) {
+		long now = System.nanoTime();
+		if (finished || now - lastUpdate >= updateInterval) {
+			lastUpdate = now;
+			listener.imageUpdated(viewPlane.getImage(), samples, finished);
+		}
+	}
+
+	/**
+	 * Returns whether rendering has to stop, because it was cancelled or the time
+	 * budget ran out.
+	 * 
+	 * @return true if rendering has to stop
+	 */
+	private boolean isStopped() {
+		return cancelled || System.nanoTime() - deadline >= 0;
+	}
+
+	/**
+	 * Sets the edge length of the blocks of the first preview pass.
+	 * 
+	 * @param previewBlockSize
+	 *            the edge length in pixels, which has to be a power of two. 1
+	 *            disables the preview.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if {@code previewBlockSize} is not a power of two
+	 */
+	public void setPreviewBlockSize(int previewBlockSize) {
+		if (previewBlockSize < 1 || Integer.bitCount(previewBlockSize) != 1)
+			throw new IllegalArgumentException("preview block size must be a power of two");
+
+		this.previewBlockSize = previewBlockSize;
+	}
+
+	/**
+	 * Returns the edge length of the blocks of the first preview pass.
+	 * 
+	 * @return the edge length in pixels
+	 */
+	public int getPreviewBlockSize() {
+		return previewBlockSize;
+	}
+
+	/**
+	 * Sets the number of samples per pixel after which rendering stops.
+	 * 
+	 * @param maxSamples
+	 *            the number of samples per pixel
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if {@code maxSamples} is less than 1
+	 */
+	public void setMaxSamples(int maxSamples) {
+		if (maxSamples < 1)
+			throw new IllegalArgumentException("there has to be at least one sample per pixel");
+
+		this.maxSamples = maxSamples;
+	}
+
+	/**
+	 * Returns the number of samples per pixel after which rendering stops.
+	 * 
+	 * @return the number of samples per pixel
+	 */
+	public int getMaxSamples() {
+		return maxSamples;
+	}
+
+	/**
+	 * Sets the time after which rendering stops, even if not all passes are done.
+	 * 
+	 * @param timeBudget
+	 *            the time budget or 0 for no limit
+	 * @param unit
+	 *            the unit of {@code timeBudget}
+	 */
+	public void setTimeBudget(long timeBudget, TimeUnit unit) {
+		this.timeBudget = unit.toNanos(Math.max(0, timeBudget));
+	}
+
+	/**
+	 * Sets the minimal time between two updates of the listener, so a fast
+	 * renderer doesn't flood it with images.
+	 * 
+	 * @param updateInterval
+	 *            the minimal time between two updates
+	 * @param unit
+	 *            the unit of {@code updateInterval}
+	 */
+	public void setUpdateInterval(long updateInterval, TimeUnit unit) {
+		this.updateInterval = unit.toNanos(Math.max(0, updateInterval));
+	}
+
+	/**
+	 * Returns the view plane this renderer renders.
+	 * 
+	 * @return the view plane
+	 */
+	public ViewPlane getViewPlane() {
+		return viewPlane;
+	}
+}
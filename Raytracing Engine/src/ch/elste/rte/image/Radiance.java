@@ -0,0 +1,114 @@
+package ch.elste.rte.image;
+
+/**
+ * The light arriving at a point as linear rgb values. Unlike a {@link Pixel}
+ * the values are not rounded and may be greater than 1, so colors can be added
+ * and scaled without losing precision. They are only quantized once, when the
+ * image is written.
+ * 
+ * @author Dillon Elste
+ */
+public class Radiance {
+	public static final Radiance BLACK = new Radiance(0);
+
+	public final double r, g, b;
+
+	/**
+	 * Creates a new radiance with given rgb values.
+	 * 
+	 * @param r
+	 *          the red value
+	 * @param g
+	 *          the green value
+	 * @param b
+	 *          the blue value
+	 */
+	public Radiance(double r, double g, double b) {
+		this.r = r;
+		this.g = g;
+		this.b = b;
+	}
+
+	/**
+	 * Creates a new gray radiance.
+	 * 
+	 * @param grayScale
+	 *                  the value of all channels
+	 */
+	public Radiance(double grayScale) {
+		this(grayScale, grayScale, grayScale);
+	}
+
+	/**
+	 * Adds {@code d} to every channel.
+	 * 
+	 * @param d
+	 *          the value to add
+	 * 
+	 * @return a new radiance with the resulting values
+	 */
+	public Radiance add(double d) {
+		return new Radiance(r + d, g + d, b + d);
+	}
+
+	/**
+	 * Adds {@code l} to this radiance.
+	 * 
+	 * @param l
+	 *          the radiance to add
+	 * 
+	 * @return a new radiance with the resulting values
+	 */
+	public Radiance add(Radiance l) {
+		return new Radiance(r + l.r, g + l.g, b + l.b);
+	}
+
+	/**
+	 * Scales every channel by {@code d}.
+	 * 
+	 * @param d
+	 *          the factor to scale by
+	 * 
+	 * @return a new radiance with the resulting values
+	 */
+	public Radiance scale(double d) {
+		return new Radiance(r * d, g * d, b * d);
+	}
+
+	/**
+	 * Multiplies this radiance with {@code l} channel by channel, for example to
+	 * tint light with the color of a surface.
+	 * 
+	 * @param l
+	 *          the radiance to multiply with
+	 * 
+	 * @return a new radiance with the resulting values
+	 */
+	public Radiance multiply(Radiance l) {
+		return new Radiance(r * l.r, g * l.g, b * l.b);
+	}
+
+	/**
+	 * Returns the perceived brightness of this radiance.
+	 * 
+	 * @return the luminance
+	 */
+	public double luminance() {
+		return .2126 * r + .7152 * g + .0722 * b;
+	}
+
+	/**
+	 * Returns this radiance as a pixel. The values are clamped to the range of
+	 * {@code [0;1]}.
+	 * 
+	 * @return a new pixel
+	 */
+	public Pixel toPixel() {
+		return new Pixel(Math.max(0, Math.min(1, r)), Math.max(0, Math.min(1, g)), Math.max(0, Math.min(1, b)));
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Radiance[%.4f,%.4f,%.4f]", r, g, b);
+	}
+}
@@ -0,0 +1,28 @@
+package ch.elste.rte.image;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Is notified by a {@link ProgressiveRenderer} whenever a better version of the
+ * image is available.
+ * 
+ * @author Dillon Elste
+ */
+@FunctionalInterface
+public interface RenderListener {
+	/**
+	 * Called on the rendering thread after a pass has been finished. The image is
+	 * not copied, so the next pass may already write to it while it is being
+	 * drawn. Implementations should return quickly, for example by scheduling a
+	 * repaint.
+	 * 
+	 * @param image
+	 *            the image rendered so far
+	 * @param samples
+	 *            the number of samples every finished pixel has
+	 * @param finished
+	 *            true if this is the last update, because all passes are done,
+	 *            the time budget ran out or the rendering was cancelled
+	 */
+	void imageUpdated(BufferedImage image, int samples, boolean finished);
+}
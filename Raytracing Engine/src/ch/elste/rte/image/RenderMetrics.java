@@ -0,0 +1,278 @@
+package ch.elste.rte.image;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.stream.IntStream;
+
+import ch.elste.rte.image.RenderStatistics.Phase;
+
+/**
+ * What {@link RenderStatistics} have collected about an image at one point in
+ * time: the rays traced for it, the work of their queries and the time spent
+ * in every phase and on every tile. The metrics don't change, so they can be
+ * read and written while the next image is rendered.
+ * <p>
+ * Rays and queries are counted for the view plane the image was rendered by.
+ * Images of the same scene rendered by other view planes at the same time
+ * aren't included, even though their rays also count for the scene.
+ * </p>
+ * 
+ * @author Dillon Elste
+ */
+public final class RenderMetrics {
+	private final long primaryRays, shadowRays, secondaryRays, queries, nodeVisits, primitiveTests;
+	private final long[] phases;
+	private final int tileSize, tilesX, tilesY;
+	private final long[] tiles;
+	private final long elapsed;
+
+	RenderMetrics(long primaryRays, long shadowRays, long secondaryRays, long queries, long nodeVisits,
+			long primitiveTests, long[] phases, int tileSize, int tilesX, int tilesY, long[] tiles, long elapsed) {
+		this.primaryRays = primaryRays;
+		this.shadowRays = shadowRays;
+		this.secondaryRays = secondaryRays;
+		this.queries = queries;
+		this.nodeVisits = nodeVisits;
+		this.primitiveTests = primitiveTests;
+		this.phases = phases;
+		this.tileSize = tileSize;
+		this.tilesX = tilesX;
+		this.tilesY = tilesY;
+		this.tiles = tiles;
+		this.elapsed = elapsed;
+	}
+
+	/**
+	 * Returns the number of camera rays.
+	 * 
+	 * @return the number of camera rays
+	 */
+	public long getPrimaryRays() {
+		return primaryRays;
+	}
+
+	/**
+	 * Returns the number of shadow rays.
+	 * 
+	 * @return the number of shadow rays
+	 */
+	public long getShadowRays() {
+		return shadowRays;
+	}
+
+	/**
+	 * Returns the number of reflected rays.
+	 * 
+	 * @return the number of reflected rays
+	 */
+	public long getSecondaryRays() {
+		return secondaryRays;
+	}
+
+	/**
+	 * Returns the number of queries against the scene. A packet of camera rays
+	 * counts once per ray.
+	 * 
+	 * @return the number of queries
+	 */
+	public long getQueries() {
+		return queries;
+	}
+
+	/**
+	 * Returns the number of nodes of the hierarchy visited by all queries.
+	 * 
+	 * @return the number of visited nodes
+	 */
+	public long getNodeVisits() {
+		return nodeVisits;
+	}
+
+	/**
+	 * Returns the number of ray primitive tests of all queries.
+	 * 
+	 * @return the number of ray primitive tests
+	 */
+	public long getPrimitiveTests() {
+		return primitiveTests;
+	}
+
+	/**
+	 * Returns the average number of nodes a query visited.
+	 * 
+	 * @return the number of visited nodes per query
+	 */
+	public double getNodeVisitsPerQuery() {
+		return queries == 0 ? 0 : 1d * nodeVisits / queries;
+	}
+
+	/**
+	 * Returns the average number of primitives a ray was tested against.
+	 * 
+	 * @return the number of primitive tests per query
+	 */
+	public double getPrimitiveTestsPerQuery() {
+		return queries == 0 ? 0 : 1d * primitiveTests / queries;
+	}
+
+	/**
+	 * Returns the time spent in a phase.
+	 * 
+	 * @param phase
+	 *            the phase
+	 * 
+	 * @return the time in nanoseconds
+	 */
+	public long getTime(Phase phase) {
+		return phases[phase.ordinal()];
+	}
+
+	/**
+	 * Returns the time since the image was started.
+	 * 
+	 * @return the time in nanoseconds
+	 */
+	public long getElapsedTime() {
+		return elapsed;
+	}
+
+	/**
+	 * Returns the edge length of the tiles of the image.
+	 * 
+	 * @return the edge length of a tile in pixels
+	 */
+	public int getTileSize() {
+		return tileSize;
+	}
+
+	/**
+	 * Returns the number of tiles in a row of the image.
+	 * 
+	 * @return the number of tiles in a row
+	 */
+	public int getNumberOfTilesX() {
+		return tilesX;
+	}
+
+	/**
+	 * Returns the number of tiles in a column of the image.
+	 * 
+	 * @return the number of tiles in a column
+	 */
+	public int getNumberOfTilesY() {
+		return tilesY;
+	}
+
+	/**
+	 * Returns the time spent on a tile.
+	 * 
+	 * @param tileX
+	 *            the column of the tile
+	 * @param tileY
+	 *            the row of the tile
+	 * 
+	 * @return the time in nanoseconds
+	 */
+	public long getTileTime(int tileX, int tileY) {
+		return tiles[tileY * tilesX + tileX];
+	}
+
+	/**
+	 * Returns the time spent on the slowest tile.
+	 * 
+	 * @return the time in nanoseconds
+	 */
+	public long getMaxTileTime() {
+		long max = 0;
+		for (long tile : tiles) {
+			max = Math.max(max, tile);
+		}
+		return max;
+	}
+
+	/**
+	 * Returns the tiles which took the longest, the slowest first.
+	 * 
+	 * @param count
+	 *            the number of tiles to return at most
+	 * 
+	 * @return the indices of the tiles, {@code tileY * tilesX + tileX}
+	 */
+	public int[] getMostExpensiveTiles(int count) {
+		return IntStream.range(0, tiles.length).boxed().sorted(Comparator.comparingLong(tile -> -tiles[tile]))
+				.limit(count).mapToInt(Integer::intValue).toArray();
+	}
+
+	/**
+	 * Returns these metrics as a JSON object. Times are given in nanoseconds and
+	 * the tile times row by row, followed by the
+	 * indices of the ten most expensive tiles.
+	 * 
+	 * @return the JSON text
+	 */
+	public String toJson() {
+		StringBuilder json = new StringBuilder(64 + 12 * tiles.length);
+		json.append("{\n  \"rays\": {");
+		json.append("\"primary\": ").append(primaryRays);
+		json.append(", \"shadow\": ").append(shadowRays);
+		json.append(", \"secondary\": ").append(secondaryRays).append("},\n");
+
+		json.append("  \"queries\": {\"count\": ").append(queries);
+		json.append(", \"nodeVisits\": ").append(nodeVisits);
+		json.append(", \"primitiveTests\": ").append(primitiveTests);
+		json.append(String.format(Locale.ROOT, ", \"nodeVisitsPerQuery\": %.3f, \"primitiveTestsPerQuery\": %.3f},\n",
+				getNodeVisitsPerQuery(), getPrimitiveTestsPerQuery()));
+
+		json.append("  \"phases\": {");
+		for (Phase phase : Phase.values()) {
+			json.append(phase.ordinal() == 0 ? "\"" : ", \"").append(phase.name().toLowerCase(Locale.ROOT))
+					.append("\": ").append(getTime(phase));
+		}
+		json.append("},\n");
+		json.append("  \"elapsed\": ").append(elapsed).append(",\n");
+
+		json.append("  \"tiles\": {\"size\": ").append(tileSize);
+		json.append(", \"columns\": ").append(tilesX).append(", \"rows\": ").append(tilesY);
+		json.append(", \"times\": [");
+		for (int i = 0; i < tiles.length; i++) {
+			if (i > 0)
+				json.append(i % tilesX == 0 ? ",\n    " : ", ");
+			json.append(tiles[i]);
+		}
+		json.append("],\n    \"hottest\": [");
+		int[] hottest = getMostExpensiveTiles(10);
+		for (int i = 0; i < hottest.length; i++) {
+			json.append(i == 0 ? "" : ", ").append(hottest[i]);
+		}
+		json.append("]}\n}\n");
+		return json.toString();
+	}
+
+	/**
+	 * Writes these metrics as JSON to a file.
+	 * 
+	 * @param path
+	 *            the file to write to
+	 * 
+	 * @throws IOException
+	 *             if the file can't be written
+	 */
+	public void writeJson(Path path) throws IOException {
+		try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+			writer.write(toJson());
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.ROOT,
+				"%d primary, %d shadow, %d secondary rays, %.2f nodes/query, %.2f primitive tests/query, %.3f s",
+				primaryRays, shadowRays, secondaryRays, getNodeVisitsPerQuery(), getPrimitiveTestsPerQuery(),
+				elapsed / 1e9);
+	}
+}
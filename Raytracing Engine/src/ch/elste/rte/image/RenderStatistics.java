@@ -0,0 +1,181 @@
+package ch.elste.rte.image;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import ch.elste.rte.scene.SceneSnapshot;
+import ch.elste.rte.scene.acceleration.TraversalStatistics;
+
+/**
+ * Collects where the time of the current image of a {@link ViewPlane} goes:
+ * the time of every phase of the render pipeline and of every tile, together
+ * with the rays counted by the {@link TraversalStatistics} of the snapshot the
+ * view plane renders. Those only count the rays of this view plane, so renders
+ * of the same scene by other view planes don't show up. A new image starts
+ * whenever the view plane {@link ViewPlane#freezeScene() freezes} its scene,
+ * so {@link #snapshot()} describes a single image.
+ * <p>
+ * The times are added up by the render threads without contention, because
+ * they are striped {@link LongAdder adders} and every tile has its own slot.
+ * Nothing is collected if {@link TraversalStatistics#ENABLED} is false.
+ * </p>
+ * 
+ * @author Dillon Elste
+ */
+public class RenderStatistics {
+	/**
+	 * A phase of the render pipeline.
+	 * 
+	 * @author Dillon Elste
+	 */
+	public enum Phase {
+		/**
+		 * Taking the snapshot of the scene, including building its hierarchy.
+		 */
+		SNAPSHOT,
+
+		/**
+		 * Rendering tiles, measured on the thread waiting for them.
+		 */
+		TILES,
+
+		/**
+		 * Finding the nearest intersections of the camera rays, added up over all
+		 * render threads.
+		 */
+		INTERSECTION,
+
+		/**
+		 * Shading the visible points, including shadow rays and reflections, added
+		 * up over all render threads.
+		 */
+		SHADING,
+
+		/**
+		 * Writing the image to a sink.
+		 */
+		WRITE
+	}
+
+	private final LongAdder[] phases = new LongAdder[Phase.values().length];
+
+	/**
+	 * The time of every tile of the current image row by row or null if no image
+	 * has been started.
+	 */
+	private volatile AtomicLongArray tiles;
+	private int tileSize, tilesX, tilesY;
+
+	/**
+	 * The counters of the snapshot of the current image and their values when it
+	 * was started.
+	 */
+	private volatile TraversalStatistics traversal;
+	private long primaryRays, shadowRays, secondaryRays, rays, nodeVisits, primitiveTests;
+	private long start;
+
+	/**
+	 * Creates new statistics without an image.
+	 */
+	RenderStatistics() {
+		for (int i = 0; i < phases.length; i++) {
+			phases[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Starts a new image and forgets everything about the last one.
+	 * 
+	 * @param snapshot
+	 *            the snapshot of the scene the image shows
+	 * @param tileSize
+	 *            the edge length of a tile
+	 * @param tilesX
+	 *            the number of tiles in a row
+	 * @param tilesY
+	 *            the number of tiles in a column
+	 * @param snapshotTime
+	 *            the time it took to take the snapshot in nanoseconds
+	 */
+	synchronized void begin(SceneSnapshot snapshot, int tileSize, int tilesX, int tilesY, long snapshotTime) {
+		for (LongAdder phase : phases) {
+			phase.reset();
+		}
+		phases[Phase.SNAPSHOT.ordinal()].add(snapshotTime);
+
+		this.tileSize = tileSize;
+		this.tilesX = tilesX;
+		this.tilesY = tilesY;
+		tiles = new AtomicLongArray(tilesX * tilesY);
+
+		TraversalStatistics traversal = snapshot.getTraversalStatistics();
+		primaryRays = traversal.getPrimaryRays();
+		shadowRays = traversal.getShadowRays();
+		secondaryRays = traversal.getSecondaryRays();
+		rays = traversal.getRays();
+		nodeVisits = traversal.getNodeVisits();
+		primitiveTests = traversal.getPrimitiveTests();
+		this.traversal = traversal;
+		start = System.nanoTime() - snapshotTime;
+	}
+
+	/**
+	 * Adds time to a phase of the current image.
+	 * 
+	 * @param phase
+	 *            the phase
+	 * @param nanos
+	 *            the time in nanoseconds
+	 */
+	void record(Phase phase, long nanos) {
+		phases[phase.ordinal()].add(nanos);
+	}
+
+	/**
+	 * Adds time to the tile containing a pixel.
+	 * 
+	 * @param x
+	 *            the x coordinate of the top left pixel of the tile
+	 * @param y
+	 *            the y coordinate of the top left pixel of the tile
+	 * @param nanos
+	 *            the time in nanoseconds
+	 */
+	void recordTile(int x, int y, long nanos) {
+		AtomicLongArray tiles = this.tiles;
+		if (tiles == null)
+			return;
+
+		// The tile size may have changed since the image was started.
+		int tileX = x / tileSize, tileY = y / tileSize;
+		if (tileX < tilesX && tileY < tilesY)
+			tiles.addAndGet(tileY * tilesX + tileX, nanos);
+	}
+
+	/**
+	 * Returns what has been collected about the current image so far.
+	 * 
+	 * @return the metrics of the current image
+	 */
+	public synchronized RenderMetrics snapshot() {
+		long[] phaseTimes = new long[phases.length];
+		for (int i = 0; i < phases.length; i++) {
+			phaseTimes[i] = phases[i].sum();
+		}
+
+		AtomicLongArray tiles = this.tiles;
+		long[] tileTimes = new long[tiles == null ? 0 : tiles.length()];
+		for (int i = 0; i < tileTimes.length; i++) {
+			tileTimes[i] = tiles.get(i);
+		}
+
+		TraversalStatistics traversal = this.traversal;
+		if (traversal == null)
+			return new RenderMetrics(0, 0, 0, 0, 0, 0, phaseTimes, 0, 0, 0, tileTimes, 0);
+
+		return new RenderMetrics(traversal.getPrimaryRays() - primaryRays, traversal.getShadowRays() - shadowRays,
+				traversal.getSecondaryRays() - secondaryRays, traversal.getRays() - rays,
+				traversal.getNodeVisits() - nodeVisits, traversal.getPrimitiveTests() - primitiveTests, phaseTimes,
+				tileSize, tilesX, tilesY, tileTimes, System.nanoTime() - start);
+	}
+}
@@ -0,0 +1,352 @@
+package ch.elste.rte.image;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ch.elste.math.Matrix3x3;
+import ch.elste.math.Vector;
+import ch.elste.rte.HitRecord;
+import ch.elste.rte.scene.SceneSnapshot;
+import ch.elste.rte.scene.shape.material.Material;
+
+/**
+ * Renders the frames of a moving {@link Camera} for an interactive viewer by
+ * reusing the last frame. Every pixel remembers the direction of its camera
+ * ray, the distance to what it hit and the color it saw. When the camera has
+ * moved, these points are projected into the new view and keep their colors.
+ * Only the pixels nothing was projected to, because they were hidden or
+ * outside of the last frame, are traced again.
+ * <p>
+ * A projected point may be a little off the center of its new pixel and can
+ * miss objects which have come into view in front of it. Therefore every frame
+ * also traces an evenly spread share of the other pixels again, so after
+ * {@link #setRefreshPeriod(int) a few frames} without moving the camera every
+ * pixel has been traced from the new view. Reflections depend on the view, so
+ * pixels showing a strongly reflective surface are traced again in every
+ * frame. Faint reflections, like those of glass or plastic, are reused and
+ * corrected by the refresh.
+ * </p>
+ * <p>
+ * If the scene has changed since the last frame, the whole frame is traced
+ * again. A frame in which every pixel is traced is the same as the image of
+ * {@link ViewPlane#render()}.
+ * </p>
+ * 
+ * @author Dillon Elste
+ */
+public class ReprojectionRenderer {
+	/**
+	 * The default number of frames after which every pixel has been traced again.
+	 */
+	public static final int DEFAULT_REFRESH_PERIOD = 16;
+
+	/**
+	 * The default reflectance at normal incidence from which on surfaces are
+	 * traced again in every frame. It lies above the reflectance of common
+	 * dielectrics, which is about 0.04, and below that of metals.
+	 */
+	public static final double DEFAULT_REFLECTANCE_THRESHOLD = .1;
+
+	/**
+	 * The step between two pixels of a row which are traced again in the same
+	 * frame is the refresh period. Each row starts a few pixels further, so the
+	 * refreshed pixels don't form columns.
+	 */
+	private static final int REFRESH_ROW_OFFSET = 5;
+
+	private final Camera camera;
+	private final ViewPlane viewPlane;
+	private final int width, height;
+
+	/**
+	 * What the pixels of the last frame saw and the cache the next frame is
+	 * projected into.
+	 */
+	private Frame last, next;
+	private SceneSnapshot lastSnapshot;
+	private double lastX, lastY, lastZ;
+
+	private int refreshPeriod = DEFAULT_REFRESH_PERIOD;
+	private double reflectanceThreshold = DEFAULT_REFLECTANCE_THRESHOLD;
+	private int frame;
+	private int tracedPixels;
+
+	/**
+	 * Creates a new renderer for the view plane of a camera.
+	 * 
+	 * @param camera
+	 *            the camera to render
+	 */
+	public ReprojectionRenderer(Camera camera) {
+		this.camera = camera;
+		viewPlane = camera.viewplane;
+		width = viewPlane.getResolutionWidth();
+		height = viewPlane.getResolutionHeight();
+	}
+
+	/**
+	 * Renders the view of the camera as it is now, reusing as much of the last
+	 * frame as possible. The tiles are traced on the render pool of the view
+	 * plane.
+	 * 
+	 * @return the image of the view plane
+	 */
+	public synchronized BufferedImage render() {
+		SceneSnapshot snapshot = viewPlane.freezeScene();
+		boolean full = last == null || snapshot != lastSnapshot;
+		if (last == null) {
+			last = new Frame(width * height);
+			next = new Frame(width * height);
+		}
+
+		// The columns of the matrix are the axes of the camera in world space. Its
+		// transpose takes points back into camera space.
+		Matrix3x3 matrix = camera.getTransformationMatrix();
+		double[] axes = new double[9];
+		for (int column = 0; column < 3; column++) {
+			for (int row = 0; row < 3; row++) {
+				axes[3 * column + row] = matrix.get(row, column);
+			}
+		}
+		Vector position = camera.position;
+		double scale = Math.tan(Math.toRadians(viewPlane.getFieldOfView()) / 2);
+
+		next.clear();
+		if (!full)
+			project(position.x, position.y, position.z, axes, scale);
+
+		int refresh = frame % refreshPeriod;
+		AtomicInteger traced = new AtomicInteger();
+		viewPlane.forEachTile(
+				(minX, minY, maxX, maxY) -> traced.addAndGet(trace(minX, minY, maxX, maxY, full, refresh)));
+
+		Frame projected = next;
+		next = last;
+		last = projected;
+		lastSnapshot = snapshot;
+		lastX = position.x;
+		lastY = position.y;
+		lastZ = position.z;
+		this.frame++;
+		tracedPixels = traced.get();
+
+		return viewPlane.getImage();
+	}
+
+	/**
+	 * Projects the points seen by the last frame into the next frame. If several
+	 * points land on the same pixel, the nearest one is kept.
+	 */
+	private void project(double x, double y, double z, double[] axes, double scale) {
+		for (int i = 0; i < width * height; i++) {
+			if (last.flags[i] != Frame.SEEN)
+				continue;
+
+			// The point relative to the new position. Rays which hit nothing only
+			// keep their direction, as if they had hit something infinitely far away.
+			double distance = last.distance[i];
+			double rx = last.directionX[i], ry = last.directionY[i], rz = last.directionZ[i];
+			if (distance != Float.POSITIVE_INFINITY) {
+				rx = lastX + rx * distance - x;
+				ry = lastY + ry * distance - y;
+				rz = lastZ + rz * distance - z;
+			}
+
+			double cz = rx * axes[6] + ry * axes[7] + rz * axes[8];
+			if (cz <= 0)
+				continue;
+			double cx = rx * axes[0] + ry * axes[1] + rz * axes[2];
+			double cy = rx * axes[3] + ry * axes[4] + rz * axes[5];
+
+			// The inverse of the mapping from pixels to the view plane of ViewPlane.
+			long px = Math.round((cx / (cz * scale) * height + width) / 2);
+			long py = Math.round((cy / (cz * scale) + 1) * height / 2);
+			if (px < 0 || py < 0 || px >= width || py >= height)
+				continue;
+
+			double length = Math.sqrt(rx * rx + ry * ry + rz * rz);
+			float newDistance = distance == Float.POSITIVE_INFINITY ? Float.POSITIVE_INFINITY : (float) length;
+			int j = (int) py * width + (int) px;
+			if (next.flags[j] == Frame.SEEN && next.distance[j] <= newDistance)
+				continue;
+
+			next.flags[j] = Frame.SEEN;
+			next.directionX[j] = (float) (rx / length);
+			next.directionY[j] = (float) (ry / length);
+			next.directionZ[j] = (float) (rz / length);
+			next.distance[j] = newDistance;
+			next.r[j] = last.r[i];
+			next.g[j] = last.g[i];
+			next.b[j] = last.b[i];
+		}
+	}
+
+	/**
+	 * Traces the pixels of a tile which have no projected point, are due to be
+	 * refreshed or are all traced, and writes the tile to the buffers of the view
+	 * plane.
+	 * 
+	 * @return the number of traced pixels
+	 */
+	private int trace(int minX, int minY, int maxX, int maxY, boolean full, int refresh) {
+		AccumulationBuffer accumulationBuffer = viewPlane.getAccumulationBuffer();
+		CameraRays cameraRays = viewPlane.getCameraRays();
+		double[] direction = new double[3];
+		HitRecord hit = new HitRecord();
+		int traced = 0;
+
+		for (int y = minY; y < maxY; y++) {
+			for (int x = minX; x < maxX; x++) {
+				int i = y * width + x;
+				if (full || next.flags[i] != Frame.SEEN || (x + y * REFRESH_ROW_OFFSET) % refreshPeriod == refresh) {
+					Radiance radiance = viewPlane.sample(x, y, hit);
+					cameraRays.getPixelDirection(x, y, direction);
+
+					next.flags[i] = hit.primitive != null && isViewDependent(hit.primitive.getMaterial())
+							? Frame.VIEW_DEPENDENT
+							: Frame.SEEN;
+					next.directionX[i] = (float) direction[0];
+					next.directionY[i] = (float) direction[1];
+					next.directionZ[i] = (float) direction[2];
+					next.distance[i] = hit.primitive == null ? Float.POSITIVE_INFINITY : (float) hit.distance;
+					next.r[i] = (float) radiance.r;
+					next.g[i] = (float) radiance.g;
+					next.b[i] = (float) radiance.b;
+					traced++;
+				}
+
+				accumulationBuffer.setSample(i, next.r[i], next.g[i], next.b[i]);
+			}
+		}
+
+		viewPlane.resolve(minX, minY, maxX, maxY);
+		return traced;
+	}
+
+	/**
+	 * Returns whether a material reflects so much that its color changes
+	 * noticeably with the view.
+	 */
+	private boolean isViewDependent(Material material) {
+		Radiance reflectance = material.specularColor;
+		return material.isReflective() && Math.max(reflectance.r,
+				Math.max(reflectance.g, reflectance.b)) >= reflectanceThreshold;
+	}
+
+	/**
+	 * Forgets the last frame, so the next frame is traced completely.
+	 */
+	public synchronized void invalidate() {
+		lastSnapshot = null;
+	}
+
+	/**
+	 * Returns the number of pixels traced for the last frame. The other pixels
+	 * were projected from the frame before.
+	 * 
+	 * @return the number of traced pixels
+	 */
+	public synchronized int getTracedPixels() {
+		return tracedPixels;
+	}
+
+	/**
+	 * Sets the number of frames after which every pixel has been traced again,
+	 * even if the camera keeps moving. Every frame traces this fraction of the
+	 * pixels, so shorter periods correct errors sooner, but make every frame
+	 * slower.
+	 * 
+	 * @param refreshPeriod
+	 *            the number of frames
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if {@code refreshPeriod} is less than 1
+	 */
+	public synchronized void setRefreshPeriod(int refreshPeriod) {
+		if (refreshPeriod < 1)
+			throw new IllegalArgumentException("the refresh period must be at least one frame");
+
+		this.refreshPeriod = refreshPeriod;
+	}
+
+	/**
+	 * Returns the number of frames after which every pixel has been traced again.
+	 * 
+	 * @return the number of frames
+	 */
+	public synchronized int getRefreshPeriod() {
+		return refreshPeriod;
+	}
+
+	/**
+	 * Sets the reflectance at normal incidence from which on surfaces are traced
+	 * again in every frame instead of being reused.
+	 * 
+	 * @param reflectanceThreshold
+	 *            the reflectance between 0 and 1. 0 traces all reflective
+	 *            surfaces in every frame.
+	 */
+	public synchronized void setReflectanceThreshold(double reflectanceThreshold) {
+		this.reflectanceThreshold = reflectanceThreshold;
+	}
+
+	/**
+	 * Returns the reflectance from which on surfaces are traced in every frame.
+	 * 
+	 * @return the reflectance threshold
+	 */
+	public synchronized double getReflectanceThreshold() {
+		return reflectanceThreshold;
+	}
+
+	/**
+	 * Returns the camera whose frames are rendered.
+	 * 
+	 * @return the camera
+	 */
+	public Camera getCamera() {
+		return camera;
+	}
+
+	/**
+	 * What the pixels of a frame saw: the direction of the camera ray, the
+	 * distance to the nearest intersection and the linear color, each in an
+	 * array of its own.
+	 */
+	private static final class Frame {
+		/**
+		 * The pixel has no point.
+		 */
+		static final byte EMPTY = 0;
+
+		/**
+		 * The pixel has a point which can be projected into the next frame.
+		 */
+		static final byte SEEN = 1;
+
+		/**
+		 * The pixel shows something whose color depends on the view.
+		 */
+		static final byte VIEW_DEPENDENT = 2;
+
+		final byte[] flags;
+		final float[] directionX, directionY, directionZ, distance;
+		final float[] r, g, b;
+
+		Frame(int pixels) {
+			flags = new byte[pixels];
+			directionX = new float[pixels];
+			directionY = new float[pixels];
+			directionZ = new float[pixels];
+			distance = new float[pixels];
+			r = new float[pixels];
+			g = new float[pixels];
+			b = new float[pixels];
+		}
+
+		void clear() {
+			Arrays.fill(flags, EMPTY);
+		}
+	}
+}
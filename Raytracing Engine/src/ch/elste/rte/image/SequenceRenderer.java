@@ -0,0 +1,184 @@
+package ch.elste.rte.image;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import ch.elste.rte.scene.Animation;
+
+/**
+ * Renders a sequence of frames of an {@link Animation} in one run. Every frame
+ * is rendered by a {@link BandRenderer} and streamed to its own
+ * {@link ImageSink}.
+ * <p>
+ * Several frames are rendered at once, all of them on the same render pool.
+ * While one frame is set up or its last band is written, the render threads
+ * work on the tiles of the others, so they never run out of work between
+ * frames. Every frame renders its most expensive tiles first, judging by the
+ * {@link ViewPlane#setTileCosts(RenderMetrics) tile costs} of the last
+ * finished frame.
+ * </p>
+ * 
+ * @author Dillon Elste
+ */
+public class SequenceRenderer {
+	/**
+	 * Opens the sink a frame is written to.
+	 * 
+	 * @author Dillon Elste
+	 */
+	@FunctionalInterface
+	public interface SinkFactory {
+		/**
+		 * Opens the sink of a frame, for example a file named after the frame.
+		 * 
+		 * @param frame
+		 *            the number of the frame
+		 * @param width
+		 *            the width of the frame
+		 * @param height
+		 *            the height of the frame
+		 * 
+		 * @return the sink, which is closed after the frame is written
+		 * 
+		 * @throws IOException
+		 *             if the sink can't be opened
+		 */
+		ImageSink open(int frame, int width, int height) throws IOException;
+	}
+
+	private final Animation animation;
+	private int parallelFrames = 2;
+	private int renderThreads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * The metrics of the last finished frame or null before the first frame is
+	 * finished.
+	 */
+	private volatile RenderMetrics lastMetrics;
+
+	/**
+	 * Creates a new renderer for the frames of an animation.
+	 * 
+	 * @param animation
+	 *            the animation to render
+	 */
+	public SequenceRenderer(Animation animation) {
+		this.animation = animation;
+	}
+
+	/**
+	 * Renders the frames from {@code firstFrame} to {@code lastFrame}. Frame
+	 * {@code n} shows the animation at {@code n / framesPerSecond} seconds.
+	 * 
+	 * @param firstFrame
+	 *            the number of the first frame (inclusive)
+	 * @param lastFrame
+	 *            the number of the last frame (inclusive)
+	 * @param framesPerSecond
+	 *            the number of frames per second of animation
+	 * @param sinks
+	 *            opens the sink of every frame
+	 * 
+	 * @throws IOException
+	 *             if a frame can't be written, after which no more frames are
+	 *             started
+	 */
+	public void render(int firstFrame, int lastFrame, double framesPerSecond, SinkFactory sinks)
+			throws IOException {
+		ForkJoinPool pool = renderThreads == 1 ? null : new ForkJoinPool(renderThreads);
+		lastMetrics = null;
+		ExecutorService frames = Executors.newFixedThreadPool(parallelFrames, runnable -> {
+			Thread thread = new Thread(runnable, "frame renderer");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		try {
+			List<Future<?>> results = new ArrayList<>();
+			for (int frame = firstFrame; frame <= lastFrame; frame++) {
+				int number = frame;
+				results.add(frames.submit(() -> {
+					renderFrame(number, number / framesPerSecond, pool, sinks);
+					return null;
+				}));
+			}
+
+			for (Future<?> result : results) {
+				BandRenderer.await(result);
+			}
+		} finally {
+			frames.shutdownNow();
+			if (pool != null)
+				pool.shutdown();
+		}
+	}
+
+	private void renderFrame(int frame, double time, ForkJoinPool pool, SinkFactory sinks) throws IOException {
+		Camera camera = animation.createFrame(time);
+		camera.viewplane.setRenderPool(pool);
+		camera.viewplane.setTileCosts(lastMetrics);
+
+		BandRenderer renderer = new BandRenderer(camera.viewplane);
+		try (ImageSink sink = sinks.open(frame, animation.getWidth(), animation.getHeight())) {
+			renderer.render(sink);
+		}
+		lastMetrics = camera.viewplane.getStatistics().snapshot();
+	}
+
+	/**
+	 * Sets how many frames are rendered at the same time. More frames keep the
+	 * render threads busier, but each of them holds its bands and its copy of
+	 * the scene in memory.
+	 * 
+	 * @param parallelFrames
+	 *            the number of frames rendered at once
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if {@code parallelFrames} is less than 1
+	 */
+	public void setParallelFrames(int parallelFrames) {
+		if (parallelFrames < 1)
+			throw new IllegalArgumentException("at least one frame has to be rendered at once");
+
+		this.parallelFrames = parallelFrames;
+	}
+
+	/**
+	 * Returns how many frames are rendered at the same time.
+	 * 
+	 * @return the number of frames rendered at once
+	 */
+	public int getParallelFrames() {
+		return parallelFrames;
+	}
+
+	/**
+	 * Sets the number of threads the tiles of all frames are rendered with.
+	 * 
+	 * @param renderThreads
+	 *            the number of render threads
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if {@code renderThreads} is less than 1
+	 */
+	public void setRenderThreads(int renderThreads) {
+		if (renderThreads < 1)
+			throw new IllegalArgumentException("there has to be at least one render thread");
+
+		this.renderThreads = renderThreads;
+	}
+
+	/**
+	 * Returns the number of threads the tiles of all frames are rendered with.
+	 * 
+	 * @return the number of render threads
+	 */
+	public int getRenderThreads() {
+		return renderThreads;
+	}
+}
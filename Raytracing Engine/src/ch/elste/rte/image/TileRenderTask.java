@@ -0,0 +1,48 @@
+package ch.elste.rte.image;
+
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Runs an action for a range of tiles of a {@link ViewPlane}. The range is split in half
+ * until only a single tile is left, so idle threads can steal the remaining
+ * halves from busy ones.
+ * 
+ * @author Dillon Elste
+ */
+class TileRenderTask extends RecursiveAction {
+	private static final long serialVersionUID = 1L;
+
+	private final IntConsumer runTile;
+	private final int firstTile;
+	private final int lastTile;
+
+	/**
+	 * Creates a new task running {@code runTile} for the tiles from {@code firstTile} (inclusive) to
+	 * {@code lastTile} (exclusive).
+	 * 
+	 * @param runTile
+	 *            the action run with the index of each tile
+	 * @param firstTile
+	 *            the index of the first tile
+	 * @param lastTile
+	 *            the index after the last tile
+	 */
+	TileRenderTask(IntConsumer runTile, int firstTile, int lastTile) {
+		this.runTile = runTile;
+		this.firstTile = firstTile;
+		this.lastTile = lastTile;
+	}
+
+	@Override
+	protected void compute() {
+		if (lastTile - firstTile <= 1) {
+			for (int tile = firstTile; tile < lastTile; tile++) {
+				runTile.accept(tile);
+			}
+		} else {
+			int middle = (firstTile + lastTile) >>> 1;
+			invokeAll(new TileRenderTask(runTile, firstTile, middle), new TileRenderTask(runTile, middle, lastTile));
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package ch.elste.rte.image;
+
+/**
+ * A tone mapper maps linear radiance, which may be greater than 1, to the
+ * range of {@code [0;1]} that can be displayed.
+ * 
+ * @author Dillon Elste
+ */
+@FunctionalInterface
+public interface ToneMapper {
+	/**
+	 * Cuts off every value greater than 1.
+	 */
+	ToneMapper CLAMP = v -> v;
+
+	/**
+	 * The operator by Reinhard et al. {@code v / (1 + v)}. It never reaches 1, so
+	 * bright areas keep some detail.
+	 */
+	ToneMapper REINHARD = v -> v / (1 + v);
+
+	/**
+	 * Krzysztof Narkowicz's fit of the ACES filmic curve.
+	 */
+	ToneMapper ACES = v -> (v * (2.51 * v + .03)) / (v * (2.43 * v + .59) + .14);
+
+	/**
+	 * Maps a single linear channel value.
+	 * 
+	 * @param value
+	 *              the linear value
+	 * 
+	 * @return the mapped value. Values outside of {@code [0;1]} are clamped
+	 *         afterwards.
+	 */
+	double map(double value);
+
+	/**
+	 * Maps linear rgb values to a 4 byte ARGB value. This is the only place
+	 * where colors are quantized to 8 bits.
+	 * 
+	 * @param r
+	 *          the linear red value
+	 * @param g
+	 *          the linear green value
+	 * @param b
+	 *          the linear blue value
+	 * 
+	 * @return the 4 byte ARGB value
+	 */
+	default int toARGB(double r, double g, double b) {
+		return (255 << 24) | (quantize(map(r)) << 16) | (quantize(map(g)) << 8) | quantize(map(b));
+	}
+
+	/**
+	 * Converts a value in the range of {@code [0;1]} to an 8 bit channel. Values
+	 * outside of the range are clamped.
+	 * 
+	 * @param value
+	 *              the value to convert
+	 * 
+	 * @return the value as 8 bit channel
+	 */
+	static int quantize(double value) {
+		return (int) Math.round(Math.max(0, Math.min(1, value)) * 255);
+	}
+}
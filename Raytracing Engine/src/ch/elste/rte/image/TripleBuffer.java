@@ -0,0 +1,86 @@
+package ch.elste.rte.image;
+
+/**
+ * Hands images from the thread rendering them to the thread showing them
+ * without copying and without either thread waiting for the other. The
+ * renderer draws into the back buffer while the viewer shows the front buffer.
+ * The third buffer holds the newest finished image. Publishing the back buffer
+ * swaps it with that one, and the viewer swaps it with the front buffer when it
+ * takes the newest image, so images which were never shown are simply drawn
+ * over.
+ * <p>
+ * Only the references are swapped, under a lock which is held for no longer
+ * than that. The renderer may only touch the back buffer and the viewer only
+ * the front buffer.
+ * </p>
+ * 
+ * @author Dillon Elste
+ * 
+ * @param <T>
+ *            the type of the buffers
+ */
+public class TripleBuffer<T> {
+	private T back, ready, front;
+
+	/**
+	 * Whether the ready buffer holds an image which hasn't been shown yet.
+	 */
+	private boolean fresh;
+
+	/**
+	 * Creates a new triple buffer of three different buffers.
+	 * 
+	 * @param back
+	 *            the buffer drawn into first
+	 * @param ready
+	 *            the buffer holding the newest finished image
+	 * @param front
+	 *            the buffer shown first
+	 */
+	public TripleBuffer(T back, T ready, T front) {
+		this.back = back;
+		this.ready = ready;
+		this.front = front;
+	}
+
+	/**
+	 * Returns the buffer the renderer draws into. It stays the same until
+	 * {@link #publish()} is called.
+	 * 
+	 * @return the back buffer
+	 */
+	public synchronized T getBack() {
+		return back;
+	}
+
+	/**
+	 * Makes the back buffer the newest finished image and returns the buffer to
+	 * draw the next image into.
+	 * 
+	 * @return the new back buffer
+	 */
+	public synchronized T publish() {
+		T finished = back;
+		back = ready;
+		ready = finished;
+		fresh = true;
+		return back;
+	}
+
+	/**
+	 * Returns the buffer to show, which is the newest finished image if there is
+	 * one which hasn't been shown yet. It stays the same until this method is
+	 * called again.
+	 * 
+	 * @return the front buffer
+	 */
+	public synchronized T getFront() {
+		if (fresh) {
+			T newest = ready;
+			ready = front;
+			front = newest;
+			fresh = false;
+		}
+		return front;
+	}
+}
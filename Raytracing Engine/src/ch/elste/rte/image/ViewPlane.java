@@ -1,178 +1,1003 @@
-package ch.elste.rte.image;
-
-import java.awt.image.BufferedImage;
-
-import ch.elste.math.Vector;
-import ch.elste.rte.Ray;
-
-/**
- * Each camera has its view plane. On it the world is being projected to create
- * an image.
- * 
- * @author Dillon Elste
- */
-public class ViewPlane {
-	private static int ambientLighting;
-
-	private Camera camera;
-
-	private double field_of_view;
-	private double field_of_view_factor;
-
-	private int resolution_width;
-	private int resolution_height;
-	private int resolution;
-
-	private Pixel[] pixels;
-
-	/**
-	 * Creates a new view plane with given values.
-	 * 
-	 * @param camera
-	 *            the corresponding camera
-	 * @param resolution_width
-	 *            the width of the image
-	 * @param resolution_height
-	 *            the height of the image
-	 * @param field_of_view
-	 *            the field of view in degree
-	 */
-	public ViewPlane(Camera camera, int resolution_width, int resolution_height, double field_of_view) {
-		this.camera = camera;
-
-		this.field_of_view = Math.toRadians(field_of_view);
-		field_of_view_factor = Math.tan(this.field_of_view / 2);
-
-		this.resolution_width = resolution_width;
-		this.resolution_height = resolution_height;
-		resolution = resolution_width * resolution_height;
-
-		pixels = new Pixel[resolution];
-
-		ambientLighting = 1;
-	}
-
-	/**
-	 * Creates a new view plane with given values.
-	 * 
-	 * @param camera
-	 *            the corresponding camera
-	 * @param field_of_view
-	 *            the field of view in degree
-	 */
-	public ViewPlane(Camera camera, double fieldOfView) {
-		this(camera, 400, 400, fieldOfView);
-	}
-
-	/**
-	 * Creates a new view plane with given values.
-	 * 
-	 * @param camera
-	 *            the corresponding camera
-	 */
-	public ViewPlane(Camera camera) {
-		this(camera, 90);
-	}
-
-	/**
-	 * Renders an image and saves it to memory.
-	 * <p>
-	 * If possible {@link #getImage()} should be used, because it just uses the
-	 * saved image instead of calculating a new one.
-	 * </p>
-	 * 
-	 * @return returns the rendered image
-	 * 
-	 * @see #getImage()
-	 */
-	public BufferedImage render() {
-		Ray.IntersectionInfo temp;
-		double u, v;
-		int x, y;
-
-		for (int i = 0; i < resolution; i++) {
-			x = i - resolution_width * (i / resolution_width);
-			y = i / resolution_width;
-
-			u = (2d * x / resolution_width - 1) * resolution_width / resolution_height;
-			v = 2d * y / resolution_height - 1;
-
-			temp = getCameraRay(u, v).intersects(null);
-			if (temp.intersects) {
-				pixels[i] = temp.pixel.addBrightness(ambientLighting);
-			} else {
-				pixels[i] = new Pixel(0);
-			}
-		}
-
-		return getImage();
-	}
-
-	/**
-	 * Returns the last rendered image. If there was no image rendered the result is
-	 * a black image.
-	 * 
-	 * @return the last rendered image. If there was no image rendered the result is
-	 *         a black image
-	 */
-	public BufferedImage getImage() {
-		BufferedImage image = new BufferedImage(resolution_width, resolution_height, BufferedImage.TYPE_4BYTE_ABGR);
-
-		int x, y;
-		for (int i = 0; i < resolution; i++) {
-			x = i - resolution_width * (i / resolution_width);
-			y = i / resolution_width;
-
-			image.setRGB(x, y, pixels[i].abgr());
-		}
-
-		return image;
-	}
-
-	/**
-	 * Returns the vector/ray pointing towards the point {@code (u, v)} on the view
-	 * plane.
-	 * 
-	 * @param u
-	 *            the x coordinate on the view plane in the range of
-	 *            {@code [-imageRatio;+imageRatio]}
-	 * @param v
-	 *            the y coordinate on the view plane in the range of {@code [-1;+1]}
-	 * 
-	 * @return a normalized vector than points from {@code (0,0)} towards this point
-	 */
-	public Ray getCameraRay(double u, double v) {
-		Vector rayDirection = camera.getTransformationMatrix()
-				.mult(new Vector(u * field_of_view_factor, v * field_of_view_factor, 1d).normalize());
-		Ray ray = new Ray(camera.position, rayDirection);
-		// System.out.println(ray);
-		return ray;
-	}
-
-	/**
-	 * Returns the width of this viewPlane.
-	 * 
-	 * @return the width of this viewPlane
-	 */
-	public int getResolutionWidth() {
-		return resolution_width;
-	}
-
-	/**
-	 * Returns the height of this viewPlane.
-	 * 
-	 * @return the height of this viewPlane
-	 */
-	public int getResolutionHeight() {
-		return resolution_height;
-	}
-
-	/**
-	 * Returns the ratio of width to height.
-	 * 
-	 * @return the ratio of width to height
-	 */
-	public double getImageRatio() {
-		return 1d * resolution_width / resolution_height;
-	}
-}
+package ch.elste.rte.image;
+
+import java.awt.image.BufferedImage;
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+import ch.elste.math.Matrix3x3;
+import ch.elste.math.Vector;
+import ch.elste.rte.HitRecord;
+import ch.elste.rte.Ray;
+import ch.elste.rte.RayPacket;
+import ch.elste.rte.ReflectionTracer;
+import ch.elste.rte.image.RenderStatistics.Phase;
+import ch.elste.rte.scene.SceneSnapshot;
+import ch.elste.rte.scene.acceleration.TraversalStatistics;
+import ch.elste.rte.scene.shape.Primitive;
+
+/**
+ * Each camera has its view plane. On it the world is being projected to create
+ * an image.
+ * 
+ * @author Dillon Elste
+ */
+public class ViewPlane {
+	/**
+	 * The default edge length of a tile in pixels.
+	 */
+	public static final int DEFAULT_TILE_SIZE = 32;
+
+	/**
+	 * The linear brightness added to every intersection.
+	 */
+	private double ambientLighting;
+
+	private Camera camera;
+
+	private double field_of_view;
+	private double field_of_view_factor;
+
+	private int resolution_width;
+	private int resolution_height;
+	private int resolution;
+
+	/**
+	 * The buffers of the whole image. They are only allocated when they are
+	 * used, because images rendered {@link #render(int, int, int, int, float[])
+	 * in parts} may be too large for them.
+	 */
+	private AccumulationBuffer accumulationBuffer;
+	private FrameBuffer frameBuffer;
+	private ToneMapper toneMapper;
+
+	private int tileSize;
+
+	/**
+	 * The edge length of the packets of camera rays traced together or 0 if every
+	 * ray is traced on its own.
+	 */
+	private int packetSize;
+
+	/**
+	 * The pool the tiles are rendered on or null if the image is rendered serially
+	 * on the calling thread.
+	 */
+	private ForkJoinPool renderPool;
+
+	/**
+	 * Whether the render pool was created by this view plane and therefore has to
+	 * be shut down by it. Pools set from outside may be shared with other view
+	 * planes.
+	 */
+	private boolean ownsRenderPool;
+
+	/**
+	 * The snapshot of the scene of the camera the current image is rendered from.
+	 */
+	private volatile SceneSnapshot snapshot;
+
+	/**
+	 * The G-buffer of each rendering thread, which is reused for every tile.
+	 */
+	private final ThreadLocal<GBuffer> gBuffers = ThreadLocal.withInitial(() -> new GBuffer(tileSize * tileSize));
+
+	/**
+	 * What is known about the current image.
+	 */
+	private final RenderStatistics statistics = new RenderStatistics();
+
+	/**
+	 * Whether the cost of every pixel is measured and the profile of the current
+	 * image or null if it isn't profiled.
+	 */
+	private boolean profiling;
+	private volatile CostProfile profile;
+
+	/**
+	 * The costs of the tiles of an earlier image, which decide the order the
+	 * tiles are rendered in, or null if they are rendered row by row.
+	 */
+	private volatile RenderMetrics tileCosts;
+
+	/**
+	 * Whether the directions of all camera rays are kept in a table and the
+	 * directions of the current orientation of the camera.
+	 */
+	private boolean cachingDirections;
+	private volatile CameraRays cameraRays;
+
+	/**
+	 * Creates a new view plane with given values.
+	 * 
+	 * @param camera
+	 *            the corresponding camera
+	 * @param resolution_width
+	 *            the width of the image
+	 * @param resolution_height
+	 *            the height of the image
+	 * @param field_of_view
+	 *            the field of view in degree
+	 */
+	public ViewPlane(Camera camera, int resolution_width, int resolution_height, double field_of_view) {
+		this.camera = camera;
+
+		this.field_of_view = Math.toRadians(field_of_view);
+		field_of_view_factor = Math.tan(this.field_of_view / 2);
+
+		this.resolution_width = resolution_width;
+		this.resolution_height = resolution_height;
+		resolution = resolution_width * resolution_height;
+
+		toneMapper = ToneMapper.CLAMP;
+		tileSize = DEFAULT_TILE_SIZE;
+
+		// The same as one step of an 8 bit channel.
+		ambientLighting = 1d / 255;
+	}
+
+	/**
+	 * Creates a new view plane with given values.
+	 * 
+	 * @param camera
+	 *            the corresponding camera
+	 * @param field_of_view
+	 *            the field of view in degree
+	 */
+	public ViewPlane(Camera camera, double fieldOfView) {
+		this(camera, 400, 400, fieldOfView);
+	}
+
+	/**
+	 * Creates a new view plane with given values.
+	 * 
+	 * @param camera
+	 *            the corresponding camera
+	 */
+	public ViewPlane(Camera camera) {
+		this(camera, 90);
+	}
+
+	/**
+	 * Renders an image and saves it to memory.
+	 * <p>
+	 * If possible {@link #getImage()} should be used, because it just uses the
+	 * saved image instead of calculating a new one.
+	 * </p>
+	 * 
+	 * @return returns the rendered image
+	 * 
+	 * @see #getImage()
+	 */
+	public BufferedImage render() {
+		allocateBuffers();
+		freezeScene();
+		forEachTile(this::renderTile);
+
+		return getImage();
+	}
+
+	/**
+	 * Renders one sample for every pixel of a rectangle of the image like
+	 * {@link #render()}, but writes the linear colors to an array instead of the
+	 * buffers of this view plane. The scene isn't frozen again, so all parts of
+	 * an image show the same {@link #freezeScene() snapshot}. Images too large to
+	 * be held in memory can be rendered this way, part by part.
+	 * 
+	 * @param minX
+	 *            the smallest x coordinate (inclusive)
+	 * @param minY
+	 *            the smallest y coordinate (inclusive)
+	 * @param maxX
+	 *            the biggest x coordinate (exclusive)
+	 * @param maxY
+	 *            the biggest y coordinate (exclusive)
+	 * @param rgb
+	 *            the array the linear colors are written to, three values per
+	 *            pixel row by row starting at the top left corner of the
+	 *            rectangle
+	 */
+	public void render(int minX, int minY, int maxX, int maxY, float[] rgb) {
+		int width = maxX - minX;
+		forEachTile(minX, minY, maxX, maxY, (tileMinX, tileMinY, tileMaxX, tileMaxY) -> {
+			GBuffer gBuffer = intersectTile(tileMinX, tileMinY, tileMaxX, tileMaxY);
+			SceneSnapshot scene = getSnapshot();
+
+			CostProfile profile = this.profile;
+			long start = TraversalStatistics.ENABLED ? System.nanoTime() : 0;
+			for (int y = tileMinY; y < tileMaxY; y++) {
+				for (int x = tileMinX; x < tileMaxX; x++) {
+					long pixelStart = profile == null ? 0 : profile.start();
+					Radiance radiance = shade(gBuffer, (y - tileMinY) * gBuffer.getWidth() + x - tileMinX, scene);
+					if (profile != null)
+						profile.add(x, y, pixelStart);
+
+					int i = 3 * ((y - minY) * width + x - minX);
+					rgb[i] = (float) radiance.r;
+					rgb[i + 1] = (float) radiance.g;
+					rgb[i + 2] = (float) radiance.b;
+				}
+			}
+			if (TraversalStatistics.ENABLED)
+				statistics.record(Phase.SHADING, System.nanoTime() - start);
+		});
+	}
+
+	/**
+	 * Allocates the buffers of the whole image if they don't exist yet.
+	 */
+	private synchronized void allocateBuffers() {
+		if (accumulationBuffer == null) {
+			accumulationBuffer = new AccumulationBuffer(resolution_width, resolution_height);
+			frameBuffer = new FrameBuffer(resolution_width, resolution_height);
+		}
+	}
+
+	/**
+	 * Takes a new snapshot of the scene of the camera, which all following camera
+	 * rays travel through. Changes to the scene made after this call don't affect
+	 * the image being rendered. The {@link #getStatistics() statistics} and the
+	 * {@link #getCostProfile() profile} start a new image.
+	 * <p>
+	 * The rays are counted by statistics of their own before they are added to
+	 * those of the scene, so the statistics of this view plane only contain its
+	 * own rays, even while other view planes render the same scene. For that the
+	 * snapshot is a {@link SceneSnapshot#withStatistics view} of the snapshot of
+	 * the scene. It stays the same as long as the scene doesn't change.
+	 * </p>
+	 * 
+	 * @return the snapshot of the scene
+	 */
+	public SceneSnapshot freezeScene() {
+		long start = System.nanoTime();
+		SceneSnapshot scene = camera.getScene().freeze();
+		SceneSnapshot snapshot = this.snapshot;
+		if (!TraversalStatistics.ENABLED)
+			snapshot = scene;
+		else if (snapshot == null || !snapshot.showsSameSceneAs(scene))
+			snapshot = scene.withStatistics(new TraversalStatistics(scene.getTraversalStatistics()));
+		this.snapshot = snapshot;
+		profile = profiling ? new CostProfile(resolution_width, resolution_height, tileSize) : null;
+		if (TraversalStatistics.ENABLED)
+			statistics.begin(snapshot, tileSize, getNumberOfTilesX(), getNumberOfTilesY(), System.nanoTime() - start);
+		return snapshot;
+	}
+
+	/**
+	 * Returns the snapshot of the scene camera rays travel through. If no snapshot
+	 * has been taken yet, a new one is taken.
+	 * 
+	 * @return the snapshot of the scene
+	 */
+	public SceneSnapshot getSnapshot() {
+		SceneSnapshot snapshot = this.snapshot;
+		return snapshot == null ? freezeScene() : snapshot;
+	}
+
+	/**
+	 * Runs {@code action} once for every tile of the image. If there is a render
+	 * pool the tiles are distributed among its threads, otherwise they are
+	 * processed serially on the calling thread. Tiles don't overlap, so the action
+	 * may write to the pixels of its tile without synchronization.
+	 * 
+	 * @param action
+	 *            the action to run for every tile
+	 */
+	public void forEachTile(TileAction action) {
+		forEachTile(0, 0, resolution_width, resolution_height, action);
+	}
+
+	/**
+	 * Runs {@code action} once for every tile of a rectangle of the image, like
+	 * {@link #forEachTile(TileAction)}. The tiles start at the top left corner of
+	 * the rectangle. If {@link #setTileCosts(RenderMetrics) tile costs} are set,
+	 * the most expensive tiles are started first.
+	 * 
+	 * @param minX
+	 *            the smallest x coordinate (inclusive)
+	 * @param minY
+	 *            the smallest y coordinate (inclusive)
+	 * @param maxX
+	 *            the biggest x coordinate (exclusive)
+	 * @param maxY
+	 *            the biggest y coordinate (exclusive)
+	 * @param action
+	 *            the action to run for every tile
+	 */
+	public void forEachTile(int minX, int minY, int maxX, int maxY, TileAction action) {
+		int tileSize = this.tileSize;
+		int tilesX = (maxX - minX + tileSize - 1) / tileSize;
+		int tiles = tilesX * ((maxY - minY + tileSize - 1) / tileSize);
+		int[] order = orderTiles(minX, minY, tilesX, tiles, tileSize);
+
+		// Tiles are numbered row by row starting at the top left corner.
+		IntConsumer runTile = index -> {
+			int tile = order == null ? index : order[index];
+			int tileX = minX + (tile % tilesX) * tileSize;
+			int tileY = minY + (tile / tilesX) * tileSize;
+			long start = TraversalStatistics.ENABLED ? System.nanoTime() : 0;
+			action.run(tileX, tileY, Math.min(tileX + tileSize, maxX), Math.min(tileY + tileSize, maxY));
+			if (TraversalStatistics.ENABLED)
+				statistics.recordTile(tileX, tileY, System.nanoTime() - start);
+		};
+
+		long start = TraversalStatistics.ENABLED ? System.nanoTime() : 0;
+		if (renderPool == null) {
+			for (int tile = 0; tile < tiles; tile++) {
+				runTile.accept(tile);
+			}
+		} else {
+			renderPool.invoke(new TileRenderTask(runTile, 0, tiles));
+		}
+		if (TraversalStatistics.ENABLED)
+			statistics.record(Phase.TILES, System.nanoTime() - start);
+	}
+
+	/**
+	 * Sorts the tiles of a rectangle by their cost in the last image, the most
+	 * expensive first.
+	 * 
+	 * @return the tiles in the order they are rendered in or null if they are
+	 *         rendered row by row
+	 */
+	private int[] orderTiles(int minX, int minY, int tilesX, int tiles, int tileSize) {
+		RenderMetrics costs = tileCosts;
+		if (costs == null || costs.getTileSize() != tileSize || costs.getNumberOfTilesX() != getNumberOfTilesX()
+				|| costs.getNumberOfTilesY() != getNumberOfTilesY())
+			return null;
+
+		// The cost of a tile of the rectangle is the cost of the tile of the image
+		// its top left pixel lies in.
+		return IntStream.range(0, tiles).boxed().sorted(Comparator.comparingLong(tile -> -costs
+				.getTileTime(minX / tileSize + tile % tilesX, minY / tileSize + tile / tilesX)))
+				.mapToInt(Integer::intValue).toArray();
+	}
+
+	/**
+	 * Renders one sample for every pixel of a tile and tone maps it into the frame
+	 * buffer. The tile is rendered in two passes. The intersection pass finds the
+	 * nearest primitive of every camera ray and records it in a {@link GBuffer}.
+	 * The shading pass then shades every visible point exactly once.
+	 * 
+	 * @param minX
+	 *            the smallest x coordinate (inclusive)
+	 * @param minY
+	 *            the smallest y coordinate (inclusive)
+	 * @param maxX
+	 *            the biggest x coordinate (exclusive)
+	 * @param maxY
+	 *            the biggest y coordinate (exclusive)
+	 */
+	private void renderTile(int minX, int minY, int maxX, int maxY) {
+		GBuffer gBuffer = intersectTile(minX, minY, maxX, maxY);
+
+		SceneSnapshot scene = getSnapshot();
+		int width = maxX - minX, height = maxY - minY;
+		CostProfile profile = this.profile;
+		long start = TraversalStatistics.ENABLED ? System.nanoTime() : 0;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				long pixelStart = profile == null ? 0 : profile.start();
+				accumulationBuffer.setSample((minY + y) * resolution_width + minX + x,
+						shade(gBuffer, y * width + x, scene));
+				if (profile != null)
+					profile.add(minX + x, minY + y, pixelStart);
+			}
+		}
+		if (TraversalStatistics.ENABLED)
+			statistics.record(Phase.SHADING, System.nanoTime() - start);
+
+		resolve(minX, minY, maxX, maxY);
+	}
+
+	/**
+	 * Finds the nearest intersection of the camera ray of every pixel of a tile
+	 * and records it in the G-buffer of the calling thread.
+	 * 
+	 * @return the G-buffer holding the intersections row by row
+	 */
+	private GBuffer intersectTile(int minX, int minY, int maxX, int maxY) {
+		int width = maxX - minX, height = maxY - minY;
+		GBuffer gBuffer = gBuffers.get();
+		if (gBuffer.capacity() < width * height) {
+			gBuffer = new GBuffer(tileSize * tileSize);
+			gBuffers.set(gBuffer);
+		}
+		gBuffer.setSize(width, height);
+
+		CostProfile profile = this.profile;
+		long start = TraversalStatistics.ENABLED ? System.nanoTime() : 0;
+		if (packetSize > 0) {
+			RayPacket packet = new RayPacket();
+			for (int y = 0; y < height; y += packetSize) {
+				for (int x = 0; x < width; x += packetSize) {
+					int packetWidth = Math.min(packetSize, width - x), packetHeight = Math.min(packetSize, height - y);
+					long packetStart = profile == null ? 0 : profile.start();
+					intersectPacket(minX, minY, x, y, packetWidth, packetHeight, packet, gBuffer);
+					if (profile != null)
+						profile.add(minX + x, minY + y, packetWidth, packetHeight, packetStart);
+				}
+			}
+		} else {
+			CameraRays cameraRays = getCameraRays();
+			Vector position = camera.position;
+			Ray ray = new Ray(getSnapshot(), position.x, position.y, position.z, 0, 0, 1);
+			double[] direction = new double[3];
+			HitRecord hit = new HitRecord();
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					long pixelStart = profile == null ? 0 : profile.start();
+					cameraRays.getPixelDirection(minX + x, minY + y, direction);
+					ray.set(position.x, position.y, position.z, direction[0], direction[1], direction[2]);
+					ray.trace(hit, null);
+					gBuffer.record(y * width + x, ray.origin.x, ray.origin.y, ray.origin.z, ray.direction.x,
+							ray.direction.y, ray.direction.z, hit.primitive, hit.element, hit.distance);
+					if (profile != null)
+						profile.add(minX + x, minY + y, pixelStart);
+				}
+			}
+		}
+
+		if (TraversalStatistics.ENABLED) {
+			statistics.record(Phase.INTERSECTION, System.nanoTime() - start);
+			getSnapshot().getTraversalStatistics().recordPrimaryRays(width * height);
+		}
+		return gBuffer;
+	}
+
+	/**
+	 * Shades a pixel recorded in the G-buffer, including the ambient lighting.
+	 */
+	private Radiance shade(GBuffer gBuffer, int index, SceneSnapshot scene) {
+		Radiance radiance = gBuffer.shade(index, scene);
+		return radiance == null ? Radiance.BLACK : radiance.add(ambientLighting);
+	}
+
+	/**
+	 * Finds the nearest intersections of the pixels of a rectangle in a tile with
+	 * a packet of rays and records them in the G-buffer. The result is the same
+	 * as tracing each pixel on its own.
+	 * 
+	 * @param tileX
+	 *            the x coordinate of the top left pixel of the tile
+	 * @param tileY
+	 *            the y coordinate of the top left pixel of the tile
+	 * @param x
+	 *            the x coordinate of the rectangle in the tile
+	 * @param y
+	 *            the y coordinate of the rectangle in the tile
+	 * @param width
+	 *            the width of the rectangle
+	 * @param height
+	 *            the height of the rectangle
+	 * @param packet
+	 *            the packet owned by the rendering thread
+	 * @param gBuffer
+	 *            the G-buffer of the tile
+	 */
+	private void intersectPacket(int tileX, int tileY, int x, int y, int width, int height, RayPacket packet,
+			GBuffer gBuffer) {
+		packet.setSize(width, height);
+		packet.setOrigin(camera.position);
+
+		CameraRays cameraRays = getCameraRays();
+		double[] direction = new double[3];
+		for (int j = 0; j < height; j++) {
+			for (int i = 0; i < width; i++) {
+				cameraRays.getPixelDirection(tileX + x + i, tileY + y + j, direction);
+				packet.setDirection(j * width + i, direction[0], direction[1], direction[2]);
+			}
+		}
+
+		packet.trace(getSnapshot());
+
+		for (int j = 0; j < height; j++) {
+			for (int i = 0; i < width; i++) {
+				int lane = j * width + i;
+				gBuffer.record((y + j) * gBuffer.getWidth() + x + i, packet.originX, packet.originY, packet.originZ,
+						packet.directionX[lane], packet.directionY[lane], packet.directionZ[lane],
+						packet.primitive[lane], packet.element[lane], packet.distance[lane]);
+			}
+		}
+	}
+
+	/**
+	 * Tone maps the pixels of a rectangle from the accumulation buffer into the
+	 * frame buffer.
+	 * 
+	 * @param minX
+	 *            the smallest x coordinate (inclusive)
+	 * @param minY
+	 *            the smallest y coordinate (inclusive)
+	 * @param maxX
+	 *            the biggest x coordinate (exclusive)
+	 * @param maxY
+	 *            the biggest y coordinate (exclusive)
+	 */
+	void resolve(int minX, int minY, int maxX, int maxY) {
+		for (int y = minY; y < maxY; y++) {
+			for (int x = minX; x < maxX; x++) {
+				int index = y * resolution_width + x;
+				frameBuffer.setRGB(index, accumulationBuffer.toARGB(index, toneMapper));
+			}
+		}
+	}
+
+	/**
+	 * Traces a camera ray through the point {@code (x, y)} of the image and
+	 * returns the linear color it sees. Integer coordinates are the points the
+	 * pixels are sampled at by {@link #render()}, fractional ones lie in between.
+	 * The result only depends on the coordinates, therefore it does not depend on
+	 * the order in which samples are taken.
+	 * 
+	 * @param x
+	 *            the x coordinate in pixels
+	 * @param y
+	 *            the y coordinate in pixels
+	 * @param hit
+	 *            the record owned by the calling thread
+	 * 
+	 * @return the linear color seen through the point
+	 */
+	public Radiance sample(double x, double y, HitRecord hit) {
+		CostProfile profile = this.profile;
+		long start = profile == null ? 0 : profile.start();
+
+		double u = (2d * x / resolution_width - 1) * resolution_width / resolution_height;
+		double v = 2d * y / resolution_height - 1;
+		double[] direction = new double[3];
+		getCameraRays().getDirection(u, v, direction);
+		Vector position = camera.position;
+		Ray ray = new Ray(getSnapshot(), position.x, position.y, position.z, direction[0], direction[1],
+				direction[2]);
+		ray.scene.getTraversalStatistics().recordPrimaryRays(1);
+		ray.trace(hit, null);
+		Radiance radiance = shade(ray, hit);
+
+		if (profile != null) {
+			// The sample is charged to the pixel it is nearest to.
+			profile.add(Math.max(0, Math.min(resolution_width - 1, (int) Math.round(x))),
+					Math.max(0, Math.min(resolution_height - 1, (int) Math.round(y))), start);
+		}
+		return radiance;
+	}
+
+	/**
+	 * Shades the nearest intersection of a camera ray. Only the visible
+	 * intersection is shaded.
+	 * 
+	 * @param ray
+	 *            the camera ray
+	 * @param hit
+	 *            the nearest intersection of the ray
+	 * 
+	 * @return the linear color seen by the ray
+	 */
+	private Radiance shade(Ray ray, HitRecord hit) {
+		Primitive primitive = hit.primitive;
+		if (primitive == null)
+			return Radiance.BLACK;
+
+		double px = ray.origin.x + ray.direction.x * hit.distance;
+		double py = ray.origin.y + ray.direction.y * hit.distance;
+		double pz = ray.origin.z + ray.direction.z * hit.distance;
+		double[] normal = new double[3];
+		primitive.getNormal(hit.element, px, py, pz, normal);
+
+		return ReflectionTracer.get().shade(ray.scene, primitive, px, py, pz, normal[0], normal[1], normal[2],
+				ray.direction.x, ray.direction.y, ray.direction.z).add(ambientLighting);
+	}
+
+	/**
+	 * Returns the statistics of the current image, which start over whenever the
+	 * scene is {@link #freezeScene() frozen}.
+	 * 
+	 * @return the render statistics
+	 */
+	public RenderStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Sets whether the cost of every pixel is measured, starting with the next
+	 * image. Profiling slows rendering down a little, but doesn't change the
+	 * image.
+	 * 
+	 * @param profiling
+	 *            true to profile the following images
+	 */
+	public void setProfiling(boolean profiling) {
+		this.profiling = profiling;
+	}
+
+	/**
+	 * Returns whether the cost of every pixel is measured.
+	 * 
+	 * @return true if the images are profiled
+	 */
+	public boolean isProfiling() {
+		return profiling;
+	}
+
+	/**
+	 * Returns the cost of the pixels of the current image.
+	 * 
+	 * @return the profile of the current image or null if it isn't profiled
+	 */
+	public CostProfile getCostProfile() {
+		return profile;
+	}
+
+	/**
+	 * Sets the costs of the tiles of an earlier, similar image, like the last
+	 * frame of an animation. The tiles which were the most expensive are
+	 * rendered first, so the render threads don't wait for a single expensive
+	 * tile at the end of the image. The order of the tiles doesn't change the
+	 * image.
+	 * 
+	 * @param costs
+	 *            the metrics of the earlier image or null to render the tiles
+	 *            row by row. They are ignored if the tiles of the image have
+	 *            changed.
+	 */
+	public void setTileCosts(RenderMetrics costs) {
+		tileCosts = costs;
+	}
+
+	/**
+	 * Returns the last rendered image. If there was no image rendered the result is
+	 * a black image.
+	 * <p>
+	 * The image is not copied. It is the same object every time and is
+	 * overwritten by the next call to {@link #render()}.
+	 * </p>
+	 * 
+	 * @return the last rendered image. If there was no image rendered the result is
+	 *         a black image
+	 */
+	public BufferedImage getImage() {
+		return getFrameBuffer().getImage();
+	}
+
+	/**
+	 * Returns the buffer holding the linear colors of the last rendered image.
+	 * 
+	 * @return the accumulation buffer
+	 */
+	public AccumulationBuffer getAccumulationBuffer() {
+		allocateBuffers();
+		return accumulationBuffer;
+	}
+
+	/**
+	 * Sets the tone mapper used to convert the linear colors to the image. The
+	 * last rendered image is tone mapped again, without rendering it again.
+	 * 
+	 * @param toneMapper
+	 *            the tone mapper to use
+	 */
+	public void setToneMapper(ToneMapper toneMapper) {
+		this.toneMapper = toneMapper;
+		if (accumulationBuffer != null)
+			accumulationBuffer.resolve(frameBuffer, toneMapper);
+	}
+
+	/**
+	 * Returns the tone mapper used to convert the linear colors to the image.
+	 * 
+	 * @return the tone mapper
+	 */
+	public ToneMapper getToneMapper() {
+		return toneMapper;
+	}
+
+	/**
+	 * Sets the linear brightness added to every intersection.
+	 * 
+	 * @param ambientLighting
+	 *            the linear brightness
+	 */
+	public void setAmbientLighting(double ambientLighting) {
+		this.ambientLighting = ambientLighting;
+	}
+
+	/**
+	 * Returns the linear brightness added to every intersection.
+	 * 
+	 * @return the linear brightness
+	 */
+	public double getAmbientLighting() {
+		return ambientLighting;
+	}
+
+	/**
+	 * Returns the frame buffer the image is rendered to.
+	 * 
+	 * @return the frame buffer
+	 */
+	public FrameBuffer getFrameBuffer() {
+		allocateBuffers();
+		return frameBuffer;
+	}
+
+	/**
+	 * Sets the frame buffer the image is rendered to, so the next image can be
+	 * rendered to one buffer while another one is shown. Only pixels resolved
+	 * after this call are written to the new buffer.
+	 * 
+	 * @param frameBuffer
+	 *            the frame buffer to render to
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if {@code frameBuffer} doesn't have the resolution of this view
+	 *             plane
+	 */
+	public synchronized void setFrameBuffer(FrameBuffer frameBuffer) {
+		if (frameBuffer.getWidth() != resolution_width || frameBuffer.getHeight() != resolution_height)
+			throw new IllegalArgumentException("the frame buffer must have the resolution of the view plane");
+
+		allocateBuffers();
+		this.frameBuffer = frameBuffer;
+	}
+
+	/**
+	 * Returns the vector/ray pointing towards the point {@code (u, v)} on the view
+	 * plane.
+	 * 
+	 * @param u
+	 *            the x coordinate on the view plane in the range of
+	 *            {@code [-imageRatio;+imageRatio]}
+	 * @param v
+	 *            the y coordinate on the view plane in the range of {@code [-1;+1]}
+	 * 
+	 * @return a normalized vector than points from {@code (0,0)} towards this point
+	 */
+	public Ray getCameraRay(double u, double v) {
+		double[] direction = new double[3];
+		getCameraRays().getDirection(u, v, direction);
+		Vector position = camera.position;
+		return new Ray(getSnapshot(), position.x, position.y, position.z, direction[0], direction[1], direction[2]);
+	}
+
+	/**
+	 * Returns the directions of the camera rays for the current orientation of
+	 * the camera. They are only calculated again when the camera has turned.
+	 * 
+	 * @return the directions of the camera rays
+	 */
+	CameraRays getCameraRays() {
+		Matrix3x3 matrix = camera.getTransformationMatrix();
+		CameraRays cameraRays = this.cameraRays;
+		if (cameraRays != null && cameraRays.isFor(matrix) && cameraRays.isCached() == cachingDirections)
+			return cameraRays;
+
+		synchronized (this) {
+			cameraRays = this.cameraRays;
+			if (cameraRays == null || !cameraRays.isFor(matrix) || cameraRays.isCached() != cachingDirections) {
+				cameraRays = new CameraRays(matrix, resolution_width, resolution_height, field_of_view_factor,
+						cachingDirections);
+				this.cameraRays = cameraRays;
+			}
+			return cameraRays;
+		}
+	}
+
+	/**
+	 * Sets whether the directions of the camera rays of all pixels are kept in a
+	 * table. The table takes 24 bytes per pixel and is calculated again whenever
+	 * the camera turns, so it only pays off for cameras which keep their
+	 * direction for many images, like during progressive rendering or while only
+	 * moving. The image is the same either way.
+	 * 
+	 * @param cachingDirections
+	 *            true to keep the directions in a table
+	 */
+	public void setCachingDirections(boolean cachingDirections) {
+		this.cachingDirections = cachingDirections;
+	}
+
+	/**
+	 * Returns whether the directions of the camera rays are kept in a table.
+	 * 
+	 * @return true if the directions are kept in a table
+	 */
+	public boolean isCachingDirections() {
+		return cachingDirections;
+	}
+
+	/**
+	 * Sets the number of threads used to render an image. The image is split into
+	 * tiles which are distributed among the threads of a work-stealing
+	 * {@link ForkJoinPool}. If {@code threads} is 1 the image is rendered serially
+	 * on the calling thread. Either way the resulting image is the same.
+	 * 
+	 * @param threads
+	 *            the number of threads
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if {@code threads} is less than 1
+	 */
+	public void setRenderThreads(int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("there has to be at least one render thread");
+
+		shutdownRenderPool();
+		renderPool = threads == 1 ? null : new ForkJoinPool(threads);
+		ownsRenderPool = renderPool != null;
+	}
+
+	/**
+	 * Sets the pool the tiles are rendered on. If {@code pool} is null the image is
+	 * rendered serially on the calling thread. The pool may be shared with other
+	 * view planes, so it is never shut down by this one.
+	 * 
+	 * @param pool
+	 *            the pool to render on or null
+	 */
+	public void setRenderPool(ForkJoinPool pool) {
+		if (pool != renderPool)
+			shutdownRenderPool();
+		renderPool = pool;
+		ownsRenderPool = false;
+	}
+
+	/**
+	 * Shuts the render pool down if this view plane has created it.
+	 */
+	private void shutdownRenderPool() {
+		if (ownsRenderPool && renderPool != null)
+			renderPool.shutdown();
+		ownsRenderPool = false;
+	}
+
+	/**
+	 * Returns the pool the tiles are rendered on or null if the image is rendered
+	 * serially.
+	 * 
+	 * @return the pool the tiles are rendered on or null
+	 */
+	public ForkJoinPool getRenderPool() {
+		return renderPool;
+	}
+
+	/**
+	 * Sets the edge length of the square tiles the image is split into.
+	 * 
+	 * @param tileSize
+	 *            the edge length of a tile in pixels
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if {@code tileSize} is less than 1
+	 */
+	public void setTileSize(int tileSize) {
+		if (tileSize < 1)
+			throw new IllegalArgumentException("tile size must be greater than 0");
+
+		this.tileSize = tileSize;
+	}
+
+	/**
+	 * Returns the edge length of a tile in pixels.
+	 * 
+	 * @return the edge length of a tile in pixels
+	 */
+	public int getTileSize() {
+		return tileSize;
+	}
+
+	/**
+	 * Sets the edge length of the square packets of camera rays traced together.
+	 * Neighbouring camera rays mostly hit the same objects, so tracing them as a
+	 * packet saves work. The image is the same either way.
+	 * 
+	 * @param packetSize
+	 *            the edge length of a packet, for example 4 or 8, or 0 to trace
+	 *            every ray on its own
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if a packet would hold more than {@link RayPacket#MAX_SIZE} rays
+	 *             or {@code packetSize} is negative
+	 */
+	public void setPacketSize(int packetSize) {
+		if (packetSize < 0 || packetSize * packetSize > RayPacket.MAX_SIZE)
+			throw new IllegalArgumentException(
+					"packet size must be between 0 and " + (int) Math.sqrt(RayPacket.MAX_SIZE));
+
+		this.packetSize = packetSize;
+	}
+
+	/**
+	 * Returns the edge length of the packets of camera rays.
+	 * 
+	 * @return the edge length of a packet or 0 if packets aren't used
+	 */
+	public int getPacketSize() {
+		return packetSize;
+	}
+
+	/**
+	 * Returns the number of tiles in a row of the image.
+	 * 
+	 * @return the number of tiles in a row
+	 */
+	public int getNumberOfTilesX() {
+		return (resolution_width + tileSize - 1) / tileSize;
+	}
+
+	/**
+	 * Returns the number of tiles in a column of the image.
+	 * 
+	 * @return the number of tiles in a column
+	 */
+	public int getNumberOfTilesY() {
+		return (resolution_height + tileSize - 1) / tileSize;
+	}
+
+	/**
+	 * Returns the number of tiles the image is split into.
+	 * 
+	 * @return the number of tiles
+	 */
+	public int getNumberOfTiles() {
+		return getNumberOfTilesX() * getNumberOfTilesY();
+	}
+
+	/**
+	 * Returns the width of this viewPlane.
+	 * 
+	 * @return the width of this viewPlane
+	 */
+	public int getResolutionWidth() {
+		return resolution_width;
+	}
+
+	/**
+	 * Returns the height of this viewPlane.
+	 * 
+	 * @return the height of this viewPlane
+	 */
+	public int getResolutionHeight() {
+		return resolution_height;
+	}
+
+	/**
+	 * Returns the field of view.
+	 * 
+	 * @return the field of view in degrees
+	 */
+	public double getFieldOfView() {
+		return Math.toDegrees(field_of_view);
+	}
+
+	/**
+	 * Returns the ratio of width to height.
+	 * 
+	 * @return the ratio of width to height
+	 */
+	public double getImageRatio() {
+		return 1d * resolution_width / resolution_height;
+	}
+
+	/**
+	 * An action run for every tile of an image by {@link ViewPlane#forEachTile}.
+	 * 
+	 * @author Dillon Elste
+	 */
+	@FunctionalInterface
+	public interface TileAction {
+		/**
+		 * Processes the pixels of a tile.
+		 * 
+		 * @param minX
+		 *            the smallest x coordinate (inclusive)
+		 * @param minY
+		 *            the smallest y coordinate (inclusive)
+		 * @param maxX
+		 *            the biggest x coordinate (exclusive)
+		 * @param maxY
+		 *            the biggest y coordinate (exclusive)
+		 */
+		void run(int minX, int minY, int maxX, int maxY);
+	}
+}
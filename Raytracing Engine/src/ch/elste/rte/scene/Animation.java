@@ -0,0 +1,203 @@
+package ch.elste.rte.scene;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import ch.elste.math.Vector;
+import ch.elste.rte.image.Camera;
+import ch.elste.rte.scene.shape.Primitive;
+
+/**
+ * Moves primitives and a camera through a scene over time. Their positions are
+ * given at keyframes and interpolated linearly in between. Before the first
+ * and after the last keyframe they keep the value of that keyframe.
+ * <p>
+ * A frame is a {@link Scene#copy() copy} of the scene in which the moving
+ * primitives are replaced by {@link Primitive#translate moved copies}. The
+ * copy shares everything else with the scene, and its hierarchy is only
+ * {@link ch.elste.rte.scene.acceleration.BoundingVolumeHierarchy#refit refit}
+ * above the moved primitives. The scene itself never changes, so frames are
+ * independent of each other and can be created and rendered on several
+ * threads at once.
+ * </p>
+ * 
+ * @author Dillon Elste
+ */
+public class Animation {
+	private final Scene scene;
+	private final Vector position, direction;
+	private final int width, height;
+	private final double fieldOfView;
+
+	private final TreeMap<Double, Vector> cameraPositions = new TreeMap<>();
+	private final TreeMap<Double, Vector> cameraDirections = new TreeMap<>();
+
+	/**
+	 * The keyframes of the offsets of the moving primitives by their index.
+	 */
+	private final TreeMap<Integer, TreeMap<Double, Vector>> offsets = new TreeMap<>();
+
+	/**
+	 * Creates a new animation of the scene a camera looks at. Until keyframes are
+	 * added, every frame shows what the camera sees now.
+	 * 
+	 * @param camera
+	 *            the camera giving the scene, the resolution, the field of view
+	 *            and the view if the camera has no keyframes
+	 */
+	public Animation(Camera camera) {
+		scene = camera.getScene();
+		position = new Vector(camera.position);
+		direction = new Vector(camera.direction == null ? Vector.Z : camera.direction);
+		width = camera.viewplane.getResolutionWidth();
+		height = camera.viewplane.getResolutionHeight();
+		fieldOfView = camera.viewplane.getFieldOfView();
+	}
+
+	/**
+	 * Adds a keyframe for the camera. The directions of neighbouring keyframes
+	 * mustn't point in opposite directions, because there is no direction
+	 * between them.
+	 * 
+	 * @param time
+	 *            the time of the keyframe in seconds
+	 * @param position
+	 *            the position of the camera at that time
+	 * @param direction
+	 *            the direction the camera looks in at that time
+	 */
+	public synchronized void addCameraKeyframe(double time, Vector position, Vector direction) {
+		cameraPositions.put(time, new Vector(position));
+		cameraDirections.put(time, new Vector(direction).normalize());
+	}
+
+	/**
+	 * Adds a keyframe for a primitive of the scene.
+	 * 
+	 * @param primitive
+	 *            the index of the primitive in the scene
+	 * @param time
+	 *            the time of the keyframe in seconds
+	 * @param offset
+	 *            how far the primitive is moved from its place in the scene at
+	 *            that time
+	 * 
+	 * @throws IndexOutOfBoundsException
+	 *             if the scene has no primitive at given index
+	 */
+	public synchronized void addPrimitiveKeyframe(int primitive, double time, Vector offset) {
+		if (primitive < 0 || primitive >= scene.numberOfPrimitives())
+			throw new IndexOutOfBoundsException("the scene has no primitive " + primitive);
+
+		offsets.computeIfAbsent(primitive, index -> new TreeMap<>()).put(time, new Vector(offset));
+	}
+
+	/**
+	 * Creates the camera looking at the scene at a point in time. The camera has
+	 * its own copy of the scene, which can be rendered while other frames are
+	 * created or rendered.
+	 * 
+	 * @param time
+	 *            the time in seconds
+	 * 
+	 * @return the camera of the frame
+	 */
+	public Camera createFrame(double time) {
+		// The hierarchy of the scene is built once and shared by all frames.
+		scene.freeze();
+
+		Scene frame = scene.copy();
+		Vector framePosition, frameDirection;
+		synchronized (this) {
+			for (Map.Entry<Integer, TreeMap<Double, Vector>> entry : offsets.entrySet()) {
+				Vector offset = interpolate(entry.getValue(), time);
+				if (offset.x != 0 || offset.y != 0 || offset.z != 0) {
+					int index = entry.getKey();
+					frame.setPrimitive(index, scene.getPrimitive(index).translate(offset.x, offset.y, offset.z));
+				}
+			}
+
+			framePosition = cameraPositions.isEmpty() ? new Vector(position) : interpolate(cameraPositions, time);
+			frameDirection = cameraDirections.isEmpty() ? new Vector(direction)
+					: interpolate(cameraDirections, time);
+		}
+
+		Camera camera = new Camera(frame, framePosition, width, height, fieldOfView);
+		camera.setDirection(frameDirection);
+		return camera;
+	}
+
+	/**
+	 * Interpolates linearly between the keyframes around a point in time.
+	 */
+	private static Vector interpolate(TreeMap<Double, Vector> keyframes, double time) {
+		Map.Entry<Double, Vector> before = keyframes.floorEntry(time), after = keyframes.ceilingEntry(time);
+		if (before == null)
+			return new Vector(after.getValue());
+		if (after == null || after.getKey().equals(before.getKey()))
+			return new Vector(before.getValue());
+
+		double t = (time - before.getKey()) / (after.getKey() - before.getKey());
+		Vector a = before.getValue(), b = after.getValue();
+		return new Vector(a.x + (b.x - a.x) * t, a.y + (b.y - a.y) * t, a.z + (b.z - a.z) * t);
+	}
+
+	/**
+	 * Returns the time of the first keyframe.
+	 * 
+	 * @return the time of the first keyframe in seconds or 0 if there are no
+	 *         keyframes
+	 */
+	public synchronized double getStartTime() {
+		double start = Double.POSITIVE_INFINITY;
+		if (!cameraPositions.isEmpty())
+			start = cameraPositions.firstKey();
+		for (TreeMap<Double, Vector> keyframes : offsets.values()) {
+			start = Math.min(start, keyframes.firstKey());
+		}
+		return start == Double.POSITIVE_INFINITY ? 0 : start;
+	}
+
+	/**
+	 * Returns the time of the last keyframe.
+	 * 
+	 * @return the time of the last keyframe in seconds or 0 if there are no
+	 *         keyframes
+	 */
+	public synchronized double getEndTime() {
+		double end = Double.NEGATIVE_INFINITY;
+		if (!cameraPositions.isEmpty())
+			end = cameraPositions.lastKey();
+		for (TreeMap<Double, Vector> keyframes : offsets.values()) {
+			end = Math.max(end, keyframes.lastKey());
+		}
+		return end == Double.NEGATIVE_INFINITY ? 0 : end;
+	}
+
+	/**
+	 * Returns the scene which is animated.
+	 * 
+	 * @return the scene
+	 */
+	public Scene getScene() {
+		return scene;
+	}
+
+	/**
+	 * Returns the width of the frames.
+	 * 
+	 * @return the width of the frames
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Returns the height of the frames.
+	 * 
+	 * @return the height of the frames
+	 */
+	public int getHeight() {
+		return height;
+	}
+}
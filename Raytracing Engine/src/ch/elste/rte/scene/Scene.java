@@ -1,95 +1,443 @@
-package ch.elste.rte.scene;
-
-import java.util.ArrayList;
-
-import ch.elste.rte.scene.light.Light;
-import ch.elste.rte.scene.shape.Primitive;
-
-/**
- * The scene holds all actors, lights and cameras.
- * 
- * @author Dillon Elste
- */
-public class Scene {
-	/**
-	 * A list holding all actors in the scene.
-	 */
-	private static ArrayList<Actor> actors = new ArrayList<>();
-
-	private static ArrayList<Light> lights = new ArrayList<>();
-	private static ArrayList<Primitive> objects = new ArrayList<>();
-
-	/**
-	 * Add a new actor to the scene.
-	 * 
-	 * @param p
-	 *            the actor to add
-	 */
-	private static void addActor(Actor p) {
-		actors.add(p);
-	}
-
-	/**
-	 * Add a new primitive to the scene
-	 * 
-	 * @param p
-	 *            the primitive to add
-	 */
-	public static void addPrimitive(Primitive p) {
-		objects.add(p);
-		addActor(p);
-	}
-
-	/**
-	 * Add a new light to the scene
-	 * 
-	 * @param l
-	 *            the light to add
-	 */
-	public static void addLight(Light l) {
-		lights.add(l);
-		addActor(l);
-	}
-
-	/**
-	 * Get the amount of primitives in the scene.
-	 * 
-	 * @return the amount of primitives in the scene
-	 */
-	public static int numberOfPrimitives() {
-		return objects.size();
-	}
-	
-	/**
-	 * Get the amount of actors in the scene.
-	 * 
-	 * @return the amount of actors in the scene
-	 */
-	public static int numberOfActors() {
-		return actors.size();
-	}
-
-	/**
-	 * Get the primitive at {@code index}.
-	 * 
-	 * @param index
-	 *            index of the element to return
-	 * 
-	 * @return the primitive at given index
-	 */
-	public static Primitive getPrimitive(int index) {
-		return objects.get(index);
-	}
-	
-	/**
-	 * Get the light at {@code index}.
-	 * 
-	 * @param index
-	 *            index of the element to return
-	 * 
-	 * @return the light at given index
-	 */
-	public static Light getLight(int index) {
-		return lights.get(index);
-	}
-}
+package ch.elste.rte.scene;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+
+import ch.elste.rte.image.Camera;
+import ch.elste.rte.scene.acceleration.BoundingBox;
+import ch.elste.rte.scene.acceleration.BoundingVolumeHierarchy;
+import ch.elste.rte.scene.acceleration.TraversalStatistics;
+import ch.elste.rte.scene.light.Light;
+import ch.elste.rte.scene.light.LightSampler;
+import ch.elste.rte.scene.shape.Primitive;
+
+/**
+ * The scene holds all actors, lights and cameras.
+ * <p>
+ * A scene is edited by adding actors to it. Before it is rendered it is frozen
+ * into a {@link SceneSnapshot}, which can be traversed by many threads at
+ * once. Every scene is independent, so several scenes can be rendered at the
+ * same time.
+ * </p>
+ * <p>
+ * Primitives which are {@link #setPrimitive(int, Primitive) replaced}, for
+ * example by a moved copy, don't make the next snapshot build its hierarchy
+ * again. The hierarchy is only {@link BoundingVolumeHierarchy#refit refit}
+ * above the replaced primitives. A {@link #copy() copy} of a scene shares its
+ * primitives and its hierarchy, so the frames of an animation can be changed
+ * and rendered independently without copying the whole scene.
+ * </p>
+ * 
+ * @author Dillon Elste
+ */
+public class Scene {
+	/**
+	 * The default maximal number of reflections of a ray.
+	 */
+	public static final int DEFAULT_MAX_DEPTH = 5;
+
+	/**
+	 * A list holding all actors in the scene.
+	 */
+	private final ArrayList<Actor> actors = new ArrayList<>();
+
+	private final ArrayList<Light> lights = new ArrayList<>();
+	private final ArrayList<Primitive> objects = new ArrayList<>();
+	private final ArrayList<Camera> cameras = new ArrayList<>();
+
+	/**
+	 * The index in {@link #actors} of every primitive, so a primitive can be
+	 * replaced without searching for it.
+	 */
+	private final ArrayList<Integer> primitiveActors = new ArrayList<>();
+
+	/**
+	 * The last snapshot of the scene or null if the scene changed since.
+	 */
+	private SceneSnapshot snapshot;
+
+	/**
+	 * The bounding volume hierarchy over the primitives or null if a primitive
+	 * was added since it was built. It is reused by the next snapshot when only
+	 * the lights or the settings changed.
+	 */
+	private BoundingVolumeHierarchy hierarchy;
+
+	/**
+	 * The indices of the primitives replaced since the hierarchy was built or
+	 * refit.
+	 */
+	private final BitSet replaced = new BitSet();
+	private boolean accelerated = true;
+	private int lightSamples;
+	private double lightCutoff = LightSampler.DEFAULT_CUTOFF;
+	private int maxDepth = DEFAULT_MAX_DEPTH;
+	private final TraversalStatistics statistics;
+
+	/**
+	 * Creates a new empty scene.
+	 */
+	public Scene() {
+		this(new TraversalStatistics());
+	}
+
+	private Scene(TraversalStatistics statistics) {
+		this.statistics = statistics;
+	}
+
+	/**
+	 * Add a new actor to the scene.
+	 * 
+	 * @param p
+	 *            the actor to add
+	 */
+	private void addActor(Actor p) {
+		actors.add(p);
+		snapshot = null;
+	}
+
+	/**
+	 * Add a new primitive to the scene
+	 * 
+	 * @param p
+	 *            the primitive to add
+	 */
+	public synchronized void addPrimitive(Primitive p) {
+		objects.add(p);
+		primitiveActors.add(actors.size());
+		hierarchy = null;
+		replaced.clear();
+		addActor(p);
+	}
+
+	/**
+	 * Replaces the primitive at {@code index}, usually by a moved copy of it. The
+	 * hierarchy of the next snapshot is refit above the primitive instead of
+	 * built again.
+	 * 
+	 * @param index
+	 *            the index of the primitive to replace
+	 * @param p
+	 *            the new primitive
+	 * 
+	 * @throws IndexOutOfBoundsException
+	 *             if there is no primitive at {@code index}
+	 */
+	public synchronized void setPrimitive(int index, Primitive p) {
+		objects.set(index, p);
+		actors.set(primitiveActors.get(index), p);
+		if (hierarchy != null)
+			replaced.set(index);
+		snapshot = null;
+	}
+
+	/**
+	 * Add a new light to the scene
+	 * 
+	 * @param l
+	 *            the light to add
+	 */
+	public synchronized void addLight(Light l) {
+		lights.add(l);
+		addActor(l);
+	}
+
+	/**
+	 * Add a new camera to the scene.
+	 * 
+	 * @param c
+	 *            the camera to add
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the camera looks at another scene
+	 */
+	public synchronized void addCamera(Camera c) {
+		if (c.getScene() != this)
+			throw new IllegalArgumentException("the camera looks at another scene");
+
+		cameras.add(c);
+	}
+
+	/**
+	 * Removes all actors from the scene.
+	 */
+	public synchronized void clear() {
+		actors.clear();
+		lights.clear();
+		objects.clear();
+		primitiveActors.clear();
+		snapshot = null;
+		hierarchy = null;
+		replaced.clear();
+	}
+
+	/**
+	 * Creates a new scene with the same primitives, lights and settings. The
+	 * primitives and the hierarchy are shared, not copied, so this is cheap even
+	 * for big scenes. Adding or replacing primitives in the copy doesn't change
+	 * this scene. The cameras aren't copied, because they look at this scene. The
+	 * copy records its traversals in the statistics of this scene.
+	 * 
+	 * @return the copy
+	 */
+	public synchronized Scene copy() {
+		Scene copy = new Scene(statistics);
+		copy.actors.addAll(actors);
+		copy.lights.addAll(lights);
+		copy.objects.addAll(objects);
+		copy.primitiveActors.addAll(primitiveActors);
+		copy.hierarchy = hierarchy;
+		copy.replaced.or(replaced);
+		copy.accelerated = accelerated;
+		copy.lightSamples = lightSamples;
+		copy.lightCutoff = lightCutoff;
+		copy.maxDepth = maxDepth;
+		return copy;
+	}
+
+	/**
+	 * Get the amount of primitives in the scene.
+	 * 
+	 * @return the amount of primitives in the scene
+	 */
+	public synchronized int numberOfPrimitives() {
+		return objects.size();
+	}
+
+	/**
+	 * Get the amount of lights in the scene.
+	 * 
+	 * @return the amount of lights in the scene
+	 */
+	public synchronized int numberOfLights() {
+		return lights.size();
+	}
+
+	/**
+	 * Get the amount of cameras in the scene.
+	 * 
+	 * @return the amount of cameras in the scene
+	 */
+	public synchronized int numberOfCameras() {
+		return cameras.size();
+	}
+
+	/**
+	 * Get the amount of actors in the scene.
+	 * 
+	 * @return the amount of actors in the scene
+	 */
+	public synchronized int numberOfActors() {
+		return actors.size();
+	}
+
+	/**
+	 * Get the primitive at {@code index}.
+	 * 
+	 * @param index
+	 *            index of the element to return
+	 * 
+	 * @return the primitive at given index
+	 */
+	public synchronized Primitive getPrimitive(int index) {
+		return objects.get(index);
+	}
+
+	/**
+	 * Get the light at {@code index}.
+	 * 
+	 * @param index
+	 *            index of the element to return
+	 * 
+	 * @return the light at given index
+	 */
+	public synchronized Light getLight(int index) {
+		return lights.get(index);
+	}
+
+	/**
+	 * Get the camera at {@code index}.
+	 * 
+	 * @param index
+	 *            index of the element to return
+	 * 
+	 * @return the camera at given index
+	 */
+	public synchronized Camera getCamera(int index) {
+		return cameras.get(index);
+	}
+
+	/**
+	 * Returns an immutable snapshot of the scene for rendering. The snapshot is
+	 * only created again if the scene changed since the last call, its bounding
+	 * volume hierarchy only if a primitive was added. If primitives were only
+	 * replaced, the hierarchy is refit.
+	 * 
+	 * @return a snapshot of the current state of the scene
+	 */
+	public synchronized SceneSnapshot freeze() {
+		if (snapshot == null) {
+			if (hierarchy != null && !replaced.isEmpty()) {
+				BoundingVolumeHierarchy old = hierarchy;
+				hierarchy = old.refit(replaced.stream().toArray(), (position, box) -> {
+					BoundingBox b = objects.get(old.getItem(position)).getBoundingBox();
+					box[0] = b.minX;
+					box[1] = b.minY;
+					box[2] = b.minZ;
+					box[3] = b.maxX;
+					box[4] = b.maxY;
+					box[5] = b.maxZ;
+				});
+			}
+			replaced.clear();
+
+			snapshot = new SceneSnapshot(objects, lights, accelerated,
+					new LightSampler(lights.toArray(new Light[0]), lightSamples, lightCutoff), maxDepth, hierarchy,
+					statistics);
+			hierarchy = snapshot.getBoundingVolumeHierarchy();
+		} else {
+			snapshot = snapshot.withAccelerated(accelerated);
+		}
+
+		return snapshot;
+	}
+
+	/**
+	 * Sets a hierarchy built earlier over the current primitives, so the next
+	 * snapshot doesn't have to build it again.
+	 * 
+	 * @param hierarchy
+	 *            the hierarchy over the primitives in the order they were added
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the hierarchy doesn't have one item per primitive
+	 * 
+	 * @see SceneFile
+	 */
+	synchronized void setBoundingVolumeHierarchy(BoundingVolumeHierarchy hierarchy) {
+		if (hierarchy.getNumberOfItems() != objects.size())
+			throw new IllegalArgumentException("the hierarchy doesn't match the primitives");
+
+		this.hierarchy = hierarchy;
+		replaced.clear();
+		snapshot = null;
+	}
+
+	/**
+	 * Sets whether rays use the bounding volume hierarchy or test every primitive
+	 * in the scene. It takes effect with the next {@link #freeze() snapshot}.
+	 * 
+	 * @param accelerated
+	 *            true to use the bounding volume hierarchy
+	 */
+	public synchronized void setAccelerated(boolean accelerated) {
+		this.accelerated = accelerated;
+	}
+
+	/**
+	 * Returns whether rays use the bounding volume hierarchy.
+	 * 
+	 * @return true if rays use the bounding volume hierarchy
+	 */
+	public synchronized boolean isAccelerated() {
+		return accelerated;
+	}
+
+	/**
+	 * Sets how many lights are sampled at every shaded point. With 0 all lights
+	 * are evaluated, which is exact but costs a shadow ray per light. Otherwise
+	 * only that many lights are picked at random, in proportion to their
+	 * brightness.
+	 * 
+	 * @param lightSamples
+	 *            the number of lights to sample or 0 for all lights
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if {@code lightSamples} is negative
+	 * 
+	 * @see LightSampler
+	 */
+	public synchronized void setLightSamples(int lightSamples) {
+		if (lightSamples < 0)
+			throw new IllegalArgumentException("the number of light samples must not be negative");
+
+		this.lightSamples = lightSamples;
+		snapshot = null;
+	}
+
+	/**
+	 * Returns how many lights are sampled at every shaded point.
+	 * 
+	 * @return the number of lights sampled or 0 if all lights are evaluated
+	 */
+	public synchronized int getLightSamples() {
+		return lightSamples;
+	}
+
+	/**
+	 * Sets the most irradiance lights skipped without tracing a shadow ray may add
+	 * up to at a point. It is shared among the lights, see {@link LightSampler}.
+	 * 
+	 * @param lightCutoff
+	 *            the irradiance or 0 to never cull lights
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if {@code lightCutoff} is negative
+	 */
+	public synchronized void setLightCutoff(double lightCutoff) {
+		if (lightCutoff < 0)
+			throw new IllegalArgumentException("the light cutoff must not be negative");
+
+		this.lightCutoff = lightCutoff;
+		snapshot = null;
+	}
+
+	/**
+	 * Returns the most irradiance skipped lights may add up to at a point.
+	 * 
+	 * @return the light cutoff
+	 */
+	public synchronized double getLightCutoff() {
+		return lightCutoff;
+	}
+
+	/**
+	 * Sets the maximal number of reflections a ray follows. Paths usually end
+	 * earlier, because rays carrying little light are ended at random.
+	 * 
+	 * @param maxDepth
+	 *            the maximal number of reflections or 0 for no reflections
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if {@code maxDepth} is negative
+	 * 
+	 * @see ch.elste.rte.ReflectionTracer
+	 */
+	public synchronized void setMaxDepth(int maxDepth) {
+		if (maxDepth < 0)
+			throw new IllegalArgumentException("the maximal depth must not be negative");
+
+		this.maxDepth = maxDepth;
+		snapshot = null;
+	}
+
+	/**
+	 * Returns the maximal number of reflections a ray follows.
+	 * 
+	 * @return the maximal number of reflections
+	 */
+	public synchronized int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * Returns the statistics of all ray queries against the scene. They are
+	 * recorded with and without the bounding volume hierarchy, so both can be
+	 * compared.
+	 * 
+	 * @return the traversal statistics
+	 */
+	public TraversalStatistics getTraversalStatistics() {
+		return statistics;
+	}
+}
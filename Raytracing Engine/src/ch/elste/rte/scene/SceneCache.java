@@ -0,0 +1,165 @@
+package ch.elste.rte.scene;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Keeps the scenes loaded from source files as {@link SceneFile scene files}
+ * in a directory, so a source file is only parsed and its hierarchies only
+ * built the first time it is loaded.
+ * <p>
+ * A cached scene is found by the SHA-256 hash of the content of its source
+ * file and the version of the scene file format. Changing the source file or
+ * the format therefore never gives an outdated scene, and a scene can be
+ * shared by any number of machines loading the same file. New files are
+ * written under a temporary name and moved into place afterwards, so a reader
+ * never sees a file which is only half written.
+ * </p>
+ * 
+ * @author Dillon Elste
+ */
+public class SceneCache {
+	/**
+	 * Creates a scene from a source file.
+	 * 
+	 * @author Dillon Elste
+	 */
+	@FunctionalInterface
+	public interface Loader {
+		/**
+		 * Creates the scene described by a source file. The scene may only depend on
+		 * the content of the file, because the cache doesn't know about anything
+		 * else.
+		 * 
+		 * @param source
+		 *            the path of the source file
+		 * 
+		 * @return the scene
+		 * 
+		 * @throws IOException
+		 *             if the file can't be read
+		 */
+		Scene load(Path source) throws IOException;
+	}
+
+	/**
+	 * The size of the parts the source file is mapped in for hashing.
+	 */
+	private static final long CHUNK_SIZE = 1L << 30;
+
+	private final Path directory;
+
+	/**
+	 * Creates a new cache in given directory. The directory is created when the
+	 * first scene is written.
+	 * 
+	 * @param directory
+	 *            the directory of the scene files
+	 */
+	public SceneCache(Path directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Loads the scene of a source file. If the cache holds a scene file of the
+	 * same content it is read, otherwise the loader creates the scene and it is
+	 * written to the cache.
+	 * 
+	 * @param source
+	 *            the path of the source file
+	 * @param loader
+	 *            the loader creating the scene if it isn't cached
+	 * 
+	 * @return the scene
+	 * 
+	 * @throws IOException
+	 *             if the source file can't be read or the scene can't be
+	 *             written to the cache
+	 */
+	public Scene load(Path source, Loader loader) throws IOException {
+		Path file = getCacheFile(source);
+		if (Files.isRegularFile(file)) {
+			try {
+				return SceneFile.read(file);
+			} catch (IOException e) {
+				// The file is broken, so it is replaced below.
+			}
+		}
+
+		Scene scene = loader.load(source);
+
+		Files.createDirectories(directory);
+		Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+		try {
+			SceneFile.write(scene, temporary);
+			try {
+				Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+
+		return scene;
+	}
+
+	/**
+	 * Returns the path the scene of a source file is cached at.
+	 * 
+	 * @param source
+	 *            the path of the source file
+	 * 
+	 * @return the path of the scene file in the cache, which may not exist yet
+	 * 
+	 * @throws IOException
+	 *             if the source file can't be read
+	 */
+	public Path getCacheFile(Path source) throws IOException {
+		return directory.resolve(hash(source) + "-" + SceneFile.VERSION + ".scene");
+	}
+
+	/**
+	 * Returns the directory of the scene files.
+	 * 
+	 * @return the directory of the scene files
+	 */
+	public Path getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Calculates the SHA-256 hash of the content of a file.
+	 * 
+	 * @return the hash as hexadecimal number
+	 */
+	private static String hash(Path path) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform has to support SHA-256.
+			throw new IllegalStateException(e);
+		}
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			for (long offset = 0; offset < size; offset += CHUNK_SIZE) {
+				digest.update(channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(CHUNK_SIZE, size - offset)));
+			}
+		}
+
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest()) {
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return hex.toString();
+	}
+}
@@ -0,0 +1,427 @@
+package ch.elste.rte.scene;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ch.elste.math.Vector;
+import ch.elste.rte.image.Camera;
+import ch.elste.rte.image.Radiance;
+import ch.elste.rte.image.ViewPlane;
+import ch.elste.rte.scene.acceleration.BoundingVolumeHierarchy;
+import ch.elste.rte.scene.light.Light;
+import ch.elste.rte.scene.light.PointLight;
+import ch.elste.rte.scene.shape.Primitive;
+import ch.elste.rte.scene.shape.Sphere;
+import ch.elste.rte.scene.shape.TriangleMesh;
+import ch.elste.rte.scene.shape.material.Material;
+
+/**
+ * Reads and writes scenes in a compact binary format. Besides the primitives,
+ * materials, lights, cameras and settings of a scene, the file holds the
+ * bounding volume hierarchies of the scene and of every mesh, so a scene read
+ * from a file can be rendered right away without building anything.
+ * <p>
+ * The file starts with a header holding a magic number, the version of the
+ * format and a table of sections. Each entry of the table gives the type,
+ * offset and length of a section. The sections hold flat arrays of numbers,
+ * everything is little-endian. Sections of unknown type are skipped, so a
+ * reader isn't confused by sections added later. Files of another version
+ * aren't read at all.
+ * </p>
+ * <p>
+ * Every section is mapped into memory on its own. The big arrays, like the
+ * vertices of a mesh and the nodes of a hierarchy, are copied out of the
+ * mapping in bulk and aren't parsed value by value. A section can be at most
+ * 2 GB long.
+ * </p>
+ * 
+ * @author Dillon Elste
+ * 
+ * @see SceneCache
+ */
+public final class SceneFile {
+	/**
+	 * The version of the format. It is increased with every change files of an
+	 * older version can't be read with.
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * The bytes "RTES" read as a little-endian integer.
+	 */
+	private static final int MAGIC = 0x53455452;
+
+	/**
+	 * The magic number, the version and the number of sections.
+	 */
+	private static final int HEADER_SIZE = 3 * Integer.BYTES;
+
+	/**
+	 * The type, a reserved integer, the offset and the length of a section.
+	 */
+	private static final int ENTRY_SIZE = 2 * Integer.BYTES + 2 * Long.BYTES;
+
+	/**
+	 * The types of the sections.
+	 */
+	private static final int SETTINGS = 1, MATERIALS = 2, LIGHTS = 3, CAMERAS = 4, SPHERES = 5, MESH = 6,
+			PRIMITIVES = 7, HIERARCHY = 8;
+
+	/**
+	 * The types of the lights and primitives.
+	 */
+	private static final int POINT_LIGHT = 1, SPHERE = 1, TRIANGLE_MESH = 2;
+
+	/**
+	 * The number of bytes given to the file channel at once. The channel copies
+	 * heap buffers into a temporary direct buffer of the same size, which should
+	 * stay small.
+	 */
+	private static final int WRITE_SIZE = 1 << 20;
+
+	private SceneFile() {
+	}
+
+	/**
+	 * Reads a scene from a file.
+	 * 
+	 * @param path
+	 *            the path of the file
+	 * 
+	 * @return the scene with all its cameras
+	 * 
+	 * @throws IOException
+	 *             if the file can't be read, is of another version or is
+	 *             corrupted
+	 */
+	public static Scene read(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER_SIZE)
+				throw new IOException("not a scene file: " + path);
+
+			ByteBuffer header = map(channel, 0, HEADER_SIZE);
+			if (header.getInt() != MAGIC)
+				throw new IOException("not a scene file: " + path);
+			int version = header.getInt();
+			if (version != VERSION)
+				throw new IOException("unsupported version " + version + " of scene file " + path);
+
+			int count = header.getInt();
+			if (count < 0 || HEADER_SIZE + (long) count * ENTRY_SIZE > size)
+				throw new IOException("corrupted scene file " + path);
+
+			ByteBuffer table = map(channel, HEADER_SIZE, count * ENTRY_SIZE);
+			int[] types = new int[count];
+			ByteBuffer[] sections = new ByteBuffer[count];
+			for (int i = 0; i < count; i++) {
+				types[i] = table.getInt();
+				table.getInt();
+				long offset = table.getLong(), length = table.getLong();
+				if (offset < 0 || length < 0 || length > Integer.MAX_VALUE || offset > size - length)
+					throw new IOException("corrupted scene file " + path);
+
+				sections[i] = map(channel, offset, (int) length);
+			}
+
+			return read(types, sections);
+		} catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException
+				| NegativeArraySizeException e) {
+			throw new IOException("corrupted scene file " + path, e);
+		}
+	}
+
+	/**
+	 * Creates the scene from the sections. They are read in a fixed order,
+	 * because later sections refer to earlier ones by index.
+	 */
+	private static Scene read(int[] types, ByteBuffer[] sections) {
+		Scene scene = new Scene();
+
+		ByteBuffer settings = find(types, sections, SETTINGS);
+		scene.setAccelerated(settings.getInt() != 0);
+		scene.setMaxDepth(settings.getInt());
+		scene.setLightSamples(settings.getInt());
+		scene.setLightCutoff(settings.getDouble());
+
+		ByteBuffer section = find(types, sections, MATERIALS);
+		Material[] materials = new Material[getCount(section, Integer.BYTES + 9 * Double.BYTES)];
+		for (int i = 0; i < materials.length; i++) {
+			boolean reflective = section.getInt() != 0;
+			Radiance diffuseColor = new Radiance(section.getDouble(), section.getDouble(), section.getDouble());
+			Radiance specularColor = new Radiance(section.getDouble(), section.getDouble(), section.getDouble());
+			materials[i] = new Material(diffuseColor, reflective ? specularColor : null, 0, 0);
+			materials[i].specular = section.getDouble();
+			materials[i].metallic = section.getDouble();
+			materials[i].roughness = section.getDouble();
+		}
+
+		section = find(types, sections, LIGHTS);
+		for (int i = section.getInt(); i > 0; i--) {
+			int type = section.getInt();
+			if (type != POINT_LIGHT)
+				throw new IllegalArgumentException("unknown light type " + type);
+
+			scene.addLight(new PointLight(getVector(section), section.getDouble()));
+		}
+
+		section = find(types, sections, SPHERES);
+		Sphere[] spheres = new Sphere[getCount(section, 4 * Double.BYTES + Integer.BYTES)];
+		double[] values = new double[4 * spheres.length];
+		int[] sphereMaterials = new int[spheres.length];
+		section.asDoubleBuffer().get(values);
+		section.position(section.position() + Double.BYTES * values.length);
+		section.asIntBuffer().get(sphereMaterials);
+		for (int i = 0; i < spheres.length; i++) {
+			spheres[i] = new Sphere(new Vector(values[4 * i], values[4 * i + 1], values[4 * i + 2]),
+					values[4 * i + 3], materials[sphereMaterials[i]]);
+		}
+
+		List<TriangleMesh> meshes = new ArrayList<>();
+		for (int i = 0; i < types.length; i++) {
+			if (types[i] == MESH) {
+				Material material = materials[sections[i].getInt()];
+				meshes.add(TriangleMesh.read(sections[i], material));
+			}
+		}
+
+		section = find(types, sections, PRIMITIVES);
+		for (int i = section.getInt(); i > 0; i--) {
+			int type = section.getInt(), index = section.getInt();
+			if (type == SPHERE)
+				scene.addPrimitive(spheres[index]);
+			else if (type == TRIANGLE_MESH)
+				scene.addPrimitive(meshes.get(index));
+			else
+				throw new IllegalArgumentException("unknown primitive type " + type);
+		}
+
+		scene.setBoundingVolumeHierarchy(BoundingVolumeHierarchy.read(find(types, sections, HIERARCHY),
+				scene.getTraversalStatistics()));
+
+		section = find(types, sections, CAMERAS);
+		for (int i = section.getInt(); i > 0; i--) {
+			Vector position = getVector(section), direction = getVector(section);
+			double fieldOfView = section.getDouble();
+			int width = section.getInt(), height = section.getInt();
+			if (width < 1 || height < 1 || (long) width * height > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("invalid camera resolution " + width + "x" + height);
+			if (!(fieldOfView > 0 && fieldOfView < 180))
+				throw new IllegalArgumentException("invalid field of view " + fieldOfView);
+
+			Camera camera = new Camera(scene, position, width, height, fieldOfView);
+			camera.setDirection(direction);
+			scene.addCamera(camera);
+		}
+
+		return scene;
+	}
+
+	/**
+	 * Writes a scene to a file. An existing file is replaced.
+	 * 
+	 * @param scene
+	 *            the scene to write
+	 * @param path
+	 *            the path of the file
+	 * 
+	 * @throws IOException
+	 *             if the file can't be written
+	 * @throws IllegalArgumentException
+	 *             if the scene holds a primitive or a light which can't be
+	 *             written, or a mesh larger than 2 GB
+	 */
+	public static void write(Scene scene, Path path) throws IOException {
+		SceneSnapshot snapshot = scene.freeze();
+		Map<Material, Integer> materials = new IdentityHashMap<>();
+		List<Sphere> spheres = new ArrayList<>();
+		List<TriangleMesh> meshes = new ArrayList<>();
+
+		List<Integer> types = new ArrayList<>();
+		List<ByteBuffer> sections = new ArrayList<>();
+
+		ByteBuffer primitives = allocate(Integer.BYTES + 2L * Integer.BYTES * snapshot.numberOfPrimitives());
+		primitives.putInt(snapshot.numberOfPrimitives());
+		for (int i = 0; i < snapshot.numberOfPrimitives(); i++) {
+			Primitive primitive = snapshot.getPrimitive(i);
+			materials.putIfAbsent(primitive.getMaterial(), materials.size());
+
+			if (primitive instanceof Sphere) {
+				primitives.putInt(SPHERE).putInt(spheres.size());
+				spheres.add((Sphere) primitive);
+			} else if (primitive instanceof TriangleMesh) {
+				primitives.putInt(TRIANGLE_MESH).putInt(meshes.size());
+				meshes.add((TriangleMesh) primitive);
+			} else {
+				throw new IllegalArgumentException(primitive.getClass().getName() + " can't be written");
+			}
+		}
+
+		ByteBuffer settings = allocate(3 * Integer.BYTES + Double.BYTES);
+		settings.putInt(snapshot.isAccelerated() ? 1 : 0);
+		settings.putInt(snapshot.getMaxDepth());
+		settings.putInt(scene.getLightSamples());
+		settings.putDouble(scene.getLightCutoff());
+		add(types, sections, SETTINGS, settings);
+
+		ByteBuffer section = allocate(Integer.BYTES + (Integer.BYTES + 9L * Double.BYTES) * materials.size());
+		section.putInt(materials.size());
+		Material[] byIndex = new Material[materials.size()];
+		materials.forEach((material, index) -> byIndex[index] = material);
+		for (Material material : byIndex) {
+			Radiance specularColor = material.specularColor != null ? material.specularColor : new Radiance(0);
+			section.putInt(material.specularColor != null ? 1 : 0);
+			putRadiance(section, material.diffuseColor);
+			putRadiance(section, specularColor);
+			section.putDouble(material.specular);
+			section.putDouble(material.metallic);
+			section.putDouble(material.roughness);
+		}
+		add(types, sections, MATERIALS, section);
+
+		section = allocate(Integer.BYTES + (Integer.BYTES + 4L * Double.BYTES) * snapshot.numberOfLights());
+		section.putInt(snapshot.numberOfLights());
+		for (int i = 0; i < snapshot.numberOfLights(); i++) {
+			Light light = snapshot.getLight(i);
+			if (!(light instanceof PointLight))
+				throw new IllegalArgumentException(light.getClass().getName() + " can't be written");
+
+			section.putInt(POINT_LIGHT);
+			putVector(section, light.position);
+			section.putDouble(light.getBrightness());
+		}
+		add(types, sections, LIGHTS, section);
+
+		int numberOfCameras = scene.numberOfCameras();
+		section = allocate(Integer.BYTES + (7L * Double.BYTES + 2 * Integer.BYTES) * numberOfCameras);
+		section.putInt(numberOfCameras);
+		for (int i = 0; i < numberOfCameras; i++) {
+			Camera camera = scene.getCamera(i);
+			ViewPlane viewPlane = camera.viewplane;
+			putVector(section, camera.position);
+			putVector(section, camera.direction != null ? camera.direction : Vector.Z);
+			section.putDouble(viewPlane.getFieldOfView());
+			section.putInt(viewPlane.getResolutionWidth());
+			section.putInt(viewPlane.getResolutionHeight());
+		}
+		add(types, sections, CAMERAS, section);
+
+		section = allocate(Integer.BYTES + (4L * Double.BYTES + Integer.BYTES) * spheres.size());
+		section.putInt(spheres.size());
+		for (Sphere sphere : spheres) {
+			putVector(section, sphere.getCenter());
+			section.putDouble(sphere.getRadius());
+		}
+		for (Sphere sphere : spheres) {
+			section.putInt(materials.get(sphere.getMaterial()));
+		}
+		add(types, sections, SPHERES, section);
+
+		for (TriangleMesh mesh : meshes) {
+			section = allocate(Integer.BYTES + mesh.getSerializedSize());
+			section.putInt(materials.get(mesh.getMaterial()));
+			mesh.write(section);
+			add(types, sections, MESH, section);
+		}
+
+		add(types, sections, PRIMITIVES, primitives);
+
+		BoundingVolumeHierarchy hierarchy = snapshot.getBoundingVolumeHierarchy();
+		section = allocate(hierarchy.getSerializedSize());
+		hierarchy.write(section);
+		add(types, sections, HIERARCHY, section);
+
+		ByteBuffer header = allocate(HEADER_SIZE + (long) ENTRY_SIZE * sections.size());
+		header.putInt(MAGIC).putInt(VERSION).putInt(sections.size());
+		long offset = header.capacity();
+		for (int i = 0; i < sections.size(); i++) {
+			header.putInt(types.get(i)).putInt(0).putLong(offset).putLong(sections.get(i).capacity());
+			offset += sections.get(i).capacity();
+		}
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			write(channel, header);
+			for (ByteBuffer s : sections) {
+				write(channel, s);
+			}
+		}
+	}
+
+	private static ByteBuffer map(FileChannel channel, long offset, int length) throws IOException {
+		return channel.map(FileChannel.MapMode.READ_ONLY, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Returns the first section of given type.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if there is no such section
+	 */
+	private static ByteBuffer find(int[] types, ByteBuffer[] sections, int type) {
+		for (int i = 0; i < types.length; i++) {
+			if (types[i] == type)
+				return sections[i];
+		}
+		throw new IllegalArgumentException("section " + type + " is missing");
+	}
+
+	private static ByteBuffer allocate(long size) {
+		if (size > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("a section would be larger than 2 GB");
+
+		return ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static void add(List<Integer> types, List<ByteBuffer> sections, int type, ByteBuffer section) {
+		types.add(type);
+		sections.add(section);
+	}
+
+	/**
+	 * Writes the whole buffer in parts of {@link #WRITE_SIZE} bytes.
+	 */
+	private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+		int end = buffer.capacity();
+		buffer.position(0);
+		while (buffer.position() < end) {
+			buffer.limit(Math.min(end, buffer.position() + WRITE_SIZE));
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * Reads the number of elements in the rest of a section, so a corrupted number
+	 * can't allocate an array larger than the file.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the section is too short for that many elements
+	 */
+	private static int getCount(ByteBuffer section, int elementSize) {
+		int count = section.getInt();
+		if (count < 0 || count > section.remaining() / elementSize)
+			throw new IllegalArgumentException("invalid number of elements " + count);
+		return count;
+	}
+
+	private static Vector getVector(ByteBuffer buffer) {
+		return new Vector(buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+	}
+
+	private static void putVector(ByteBuffer buffer, Vector v) {
+		buffer.putDouble(v.x).putDouble(v.y).putDouble(v.z);
+	}
+
+	private static void putRadiance(ByteBuffer buffer, Radiance radiance) {
+		buffer.putDouble(radiance.r).putDouble(radiance.g).putDouble(radiance.b);
+	}
+}
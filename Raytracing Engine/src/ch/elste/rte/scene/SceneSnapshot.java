@@ -0,0 +1,299 @@
+package ch.elste.rte.scene;
+
+import java.util.List;
+
+import ch.elste.rte.scene.acceleration.BoundingBox;
+import ch.elste.rte.scene.acceleration.BoundingVolumeHierarchy;
+import ch.elste.rte.scene.acceleration.SphereStore;
+import ch.elste.rte.scene.acceleration.TraversalStatistics;
+import ch.elste.rte.scene.light.Light;
+import ch.elste.rte.scene.light.LightSampler;
+import ch.elste.rte.scene.shape.Primitive;
+import ch.elste.rte.scene.shape.Sphere;
+
+/**
+ * An immutable copy of a {@link Scene} prepared for rendering. It is created by
+ * {@link Scene#freeze()} and holds the primitives and lights in arrays together
+ * with the bounding volume hierarchy over the primitives.
+ * <p>
+ * Nothing in a snapshot changes after it has been created, so any number of
+ * threads can trace rays through it without locking. Changes to the scene only
+ * show up in the next snapshot.
+ * </p>
+ * 
+ * @author Dillon Elste
+ */
+public final class SceneSnapshot {
+	private final Primitive[] primitives;
+
+	/**
+	 * The primitives in the order of the leaves of the hierarchy, so a leaf can
+	 * read them without looking up their index first.
+	 */
+	private final Primitive[] leafPrimitives;
+	private final Light[] lights;
+	private final LightSampler lightSampler;
+	private final int maxDepth;
+
+	private final BoundingVolumeHierarchy hierarchy;
+
+	/**
+	 * The spheres packed in the order of the leaves of the hierarchy or null if
+	 * there are other primitives than spheres in the scene.
+	 */
+	private final SphereStore sphereStore;
+	private final boolean accelerated;
+	private final TraversalStatistics statistics;
+
+	/**
+	 * The snapshot this one is a {@link #withStatistics view} of or this snapshot
+	 * itself.
+	 */
+	private final SceneSnapshot source;
+
+	/**
+	 * Creates a new snapshot of given primitives and lights and builds the
+	 * hierarchy over the primitives unless it is given.
+	 * 
+	 * @param primitives
+	 *            the primitives of the scene
+	 * @param lights
+	 *            the lights of the scene
+	 * @param accelerated
+	 *            true if rays use the bounding volume hierarchy
+	 * @param lightSampler
+	 *            the sampler over the lights
+	 * @param maxDepth
+	 *            the maximal number of reflections of a ray
+	 * @param hierarchy
+	 *            the hierarchy over the primitives or null to build a new one
+	 * @param statistics
+	 *            the statistics the queries are recorded in
+	 */
+	SceneSnapshot(List<Primitive> primitives, List<Light> lights, boolean accelerated, LightSampler lightSampler,
+			int maxDepth, BoundingVolumeHierarchy hierarchy, TraversalStatistics statistics) {
+		this.primitives = primitives.toArray(new Primitive[0]);
+		this.lights = lights.toArray(new Light[0]);
+		this.accelerated = accelerated;
+		this.lightSampler = lightSampler;
+		this.maxDepth = maxDepth;
+		this.statistics = statistics;
+		source = this;
+
+		if (hierarchy == null) {
+			BoundingBox[] boxes = new BoundingBox[this.primitives.length];
+			for (int i = 0; i < boxes.length; i++) {
+				boxes[i] = this.primitives[i].getBoundingBox();
+			}
+			hierarchy = BoundingVolumeHierarchy.build(boxes, statistics);
+		}
+		this.hierarchy = hierarchy;
+
+		leafPrimitives = new Primitive[this.primitives.length];
+		for (int i = 0; i < leafPrimitives.length; i++) {
+			leafPrimitives[i] = this.primitives[hierarchy.getItem(i)];
+		}
+		sphereStore = createSphereStore(leafPrimitives);
+	}
+
+	/**
+	 * Creates a copy of a snapshot sharing all its arrays.
+	 * 
+	 * @param source
+	 *            the snapshot the copy is a view of or null if it is a snapshot
+	 *            of its own
+	 */
+	private SceneSnapshot(SceneSnapshot snapshot, boolean accelerated, BoundingVolumeHierarchy hierarchy,
+			TraversalStatistics statistics, SceneSnapshot source) {
+		primitives = snapshot.primitives;
+		leafPrimitives = snapshot.leafPrimitives;
+		lights = snapshot.lights;
+		lightSampler = snapshot.lightSampler;
+		maxDepth = snapshot.maxDepth;
+		this.hierarchy = hierarchy;
+		sphereStore = snapshot.sphereStore;
+		this.statistics = statistics;
+		this.accelerated = accelerated;
+		this.source = source == null ? this : source;
+	}
+
+	/**
+	 * Packs the primitives into a sphere store.
+	 * 
+	 * @param primitives
+	 *            the primitives in the order of the leaves
+	 * 
+	 * @return the packed spheres or null if not all primitives are spheres
+	 */
+	private static SphereStore createSphereStore(Primitive[] primitives) {
+		Sphere[] spheres = new Sphere[primitives.length];
+		for (int i = 0; i < spheres.length; i++) {
+			if (!(primitives[i] instanceof Sphere))
+				return null;
+			spheres[i] = (Sphere) primitives[i];
+		}
+		return new SphereStore(spheres);
+	}
+
+	/**
+	 * Returns a snapshot of the same scene which does or doesn't use the bounding
+	 * volume hierarchy. Nothing is copied or built again.
+	 * 
+	 * @param accelerated
+	 *            true to use the bounding volume hierarchy
+	 * 
+	 * @return this snapshot if it already matches, otherwise a new one
+	 */
+	public SceneSnapshot withAccelerated(boolean accelerated) {
+		return accelerated == this.accelerated ? this
+				: new SceneSnapshot(this, accelerated, hierarchy, statistics, null);
+	}
+
+	/**
+	 * Returns a view of this snapshot which records its ray queries in other
+	 * statistics. It lets a renderer count its own rays while other renderers
+	 * trace the same snapshot. Nothing is copied or built again.
+	 * 
+	 * @param statistics
+	 *            the statistics the queries are recorded in
+	 * 
+	 * @return the view
+	 * 
+	 * @see #showsSameSceneAs(SceneSnapshot)
+	 */
+	public SceneSnapshot withStatistics(TraversalStatistics statistics) {
+		return new SceneSnapshot(this, accelerated, hierarchy.withStatistics(statistics), statistics, source);
+	}
+
+	/**
+	 * Returns whether another snapshot is this one or a {@link #withStatistics
+	 * view} of the same snapshot, so both show exactly the same scene.
+	 * 
+	 * @param snapshot
+	 *            the other snapshot or null
+	 * 
+	 * @return true if both show the same scene
+	 */
+	public boolean showsSameSceneAs(SceneSnapshot snapshot) {
+		return snapshot != null && snapshot.source == source;
+	}
+
+	/**
+	 * Get the amount of primitives in the scene.
+	 * 
+	 * @return the amount of primitives in the scene
+	 */
+	public int numberOfPrimitives() {
+		return primitives.length;
+	}
+
+	/**
+	 * Get the amount of lights in the scene.
+	 * 
+	 * @return the amount of lights in the scene
+	 */
+	public int numberOfLights() {
+		return lights.length;
+	}
+
+	/**
+	 * Get the primitive at {@code index}.
+	 * 
+	 * @param index
+	 *            index of the element to return
+	 * 
+	 * @return the primitive at given index
+	 */
+	public Primitive getPrimitive(int index) {
+		return primitives[index];
+	}
+
+	/**
+	 * Get the primitive at position {@code position} of the leaves of the
+	 * {@link #getBoundingVolumeHierarchy() bounding volume hierarchy}.
+	 * 
+	 * @param position
+	 *            the position in the leaves
+	 * 
+	 * @return the primitive at given position
+	 * 
+	 * @see BoundingVolumeHierarchy#getItem(int)
+	 */
+	public Primitive getLeafPrimitive(int position) {
+		return leafPrimitives[position];
+	}
+
+	/**
+	 * Get the light at {@code index}.
+	 * 
+	 * @param index
+	 *            index of the element to return
+	 * 
+	 * @return the light at given index
+	 */
+	public Light getLight(int index) {
+		return lights[index];
+	}
+
+	/**
+	 * Returns the sampler calculating the light reaching a point from all lights
+	 * of the scene.
+	 * 
+	 * @return the light sampler
+	 */
+	public LightSampler getLightSampler() {
+		return lightSampler;
+	}
+
+	/**
+	 * Returns the maximal number of reflections a ray follows.
+	 * 
+	 * @return the maximal number of reflections
+	 * 
+	 * @see ch.elste.rte.ReflectionTracer
+	 */
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * Returns the bounding volume hierarchy over all primitives in the scene.
+	 * 
+	 * @return the bounding volume hierarchy over all primitives
+	 */
+	public BoundingVolumeHierarchy getBoundingVolumeHierarchy() {
+		return hierarchy;
+	}
+
+	/**
+	 * Returns the spheres of the scene packed into arrays. The spheres are in the
+	 * order of the leaves of the {@link #getBoundingVolumeHierarchy() bounding
+	 * volume hierarchy}.
+	 * 
+	 * @return the packed spheres or null if there are other primitives than
+	 *         spheres in the scene
+	 */
+	public SphereStore getSphereStore() {
+		return sphereStore;
+	}
+
+	/**
+	 * Returns whether rays use the bounding volume hierarchy.
+	 * 
+	 * @return true if rays use the bounding volume hierarchy
+	 */
+	public boolean isAccelerated() {
+		return accelerated;
+	}
+
+	/**
+	 * Returns the statistics the ray queries through this snapshot are recorded
+	 * in. Unless this is a {@link #withStatistics view}, they are the statistics
+	 * of the scene.
+	 * 
+	 * @return the traversal statistics
+	 */
+	public TraversalStatistics getTraversalStatistics() {
+		return statistics;
+	}
+}
@@ -0,0 +1,114 @@
+package ch.elste.rte.scene.acceleration;
+
+import ch.elste.math.Vector;
+
+/**
+ * An axis aligned box enclosing an object in the scene.
+ * 
+ * @author Dillon Elste
+ */
+public class BoundingBox {
+	public final double minX, minY, minZ;
+	public final double maxX, maxY, maxZ;
+
+	/**
+	 * Creates a new bounding box with given corners.
+	 * 
+	 * @param minX
+	 *            the smallest x coordinate
+	 * @param minY
+	 *            the smallest y coordinate
+	 * @param minZ
+	 *            the smallest z coordinate
+	 * @param maxX
+	 *            the biggest x coordinate
+	 * @param maxY
+	 *            the biggest y coordinate
+	 * @param maxZ
+	 *            the biggest z coordinate
+	 */
+	public BoundingBox(double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+		this.minX = minX;
+		this.minY = minY;
+		this.minZ = minZ;
+		this.maxX = maxX;
+		this.maxY = maxY;
+		this.maxZ = maxZ;
+	}
+
+	/**
+	 * Creates a new bounding box with given corners.
+	 * 
+	 * @param min
+	 *            the corner with the smallest coordinates
+	 * @param max
+	 *            the corner with the biggest coordinates
+	 */
+	public BoundingBox(Vector min, Vector max) {
+		this(min.x, min.y, min.z, max.x, max.y, max.z);
+	}
+
+	/**
+	 * Returns the smallest coordinate of this box along {@code axis}.
+	 * 
+	 * @param axis
+	 *            0 for x, 1 for y and 2 for z
+	 * 
+	 * @return the smallest coordinate along the axis
+	 */
+	public double getMin(int axis) {
+		return axis == 0 ? minX : axis == 1 ? minY : minZ;
+	}
+
+	/**
+	 * Returns the biggest coordinate of this box along {@code axis}.
+	 * 
+	 * @param axis
+	 *            0 for x, 1 for y and 2 for z
+	 * 
+	 * @return the biggest coordinate along the axis
+	 */
+	public double getMax(int axis) {
+		return axis == 0 ? maxX : axis == 1 ? maxY : maxZ;
+	}
+
+	/**
+	 * Returns the center of this box along {@code axis}.
+	 * 
+	 * @param axis
+	 *            0 for x, 1 for y and 2 for z
+	 * 
+	 * @return the center along the axis
+	 */
+	public double getCentroid(int axis) {
+		return (getMin(axis) + getMax(axis)) * .5;
+	}
+
+	/**
+	 * Returns the smallest box enclosing this box and {@code b}.
+	 * 
+	 * @param b
+	 *            the other box
+	 * 
+	 * @return a new box enclosing both boxes
+	 */
+	public BoundingBox union(final BoundingBox b) {
+		return new BoundingBox(Math.min(minX, b.minX), Math.min(minY, b.minY), Math.min(minZ, b.minZ),
+				Math.max(maxX, b.maxX), Math.max(maxY, b.maxY), Math.max(maxZ, b.maxZ));
+	}
+
+	/**
+	 * Returns the surface area of this box.
+	 * 
+	 * @return the surface area
+	 */
+	public double surfaceArea() {
+		double dx = maxX - minX, dy = maxY - minY, dz = maxZ - minZ;
+		return 2 * (dx * dy + dy * dz + dz * dx);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("BoundingBox[%.3f,%.3f,%.3f -> %.3f,%.3f,%.3f]", minX, minY, minZ, maxX, maxY, maxZ);
+	}
+}
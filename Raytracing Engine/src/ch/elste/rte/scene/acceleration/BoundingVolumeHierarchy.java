@@ -0,0 +1,1202 @@
+package ch.elste.rte.scene.acceleration;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import ch.elste.rte.Ray;
+import ch.elste.rte.RayPacket;
+
+/**
+ * A bounding volume hierarchy is a binary tree of bounding boxes. Each leaf
+ * holds a few items and each inner node encloses both of its children. A ray
+ * only has to be tested against the items in the leaves whose boxes it
+ * intersects.
+ * <p>
+ * The tree is built with the binned surface area heuristic and stored in flat
+ * arrays in depth first order, so the left child of a node always directly
+ * follows its parent.
+ * </p>
+ * <p>
+ * When items move, the hierarchy can be {@link #refit refit} instead of built
+ * again: the tree stays the same and only the boxes of the nodes above the
+ * moved items are recalculated. Moving items far apart makes the boxes overlap
+ * more and traversals slower, so for big changes the hierarchy should be built
+ * again.
+ * </p>
+ * 
+ * @author Dillon Elste
+ */
+public class BoundingVolumeHierarchy {
+	/**
+	 * The number of bins the centroids are sorted into along each axis while
+	 * looking for the best split. Nodes with fewer items use one bin per item,
+	 * because most nodes of a big hierarchy are small and the cost of a node
+	 * would otherwise be dominated by empty bins.
+	 */
+	private static final int BINS = 16;
+
+	/**
+	 * The cost of visiting a node relative to the cost of testing an item.
+	 */
+	private static final double TRAVERSAL_COST = 1;
+
+	/**
+	 * The number of items a leaf may hold at most.
+	 */
+	private static final int MAX_LEAF_SIZE = 8;
+
+	/**
+	 * Nodes with more items than this build their two subtrees in parallel.
+	 */
+	private static final int PARALLEL_SIZE = 1 << 14;
+
+	/**
+	 * A packet is split into single rays if less than one in this many of its rays
+	 * reach a node.
+	 */
+	private static final int SPLIT_RATIO = 4;
+
+	/**
+	 * The boxes of the nodes. Each node uses six consecutive values: minX, minY,
+	 * minZ, maxX, maxY, maxZ.
+	 */
+	private double[] nodeBounds;
+
+	/**
+	 * For leaves the index of the first item in {@link #items}, for inner nodes
+	 * the index of the right child.
+	 */
+	private int[] nodeOffset;
+
+	/**
+	 * The number of items in a leaf or 0 for inner nodes.
+	 */
+	private int[] nodeCount;
+
+	/**
+	 * The indices of the items in the order they are referenced by the leaves.
+	 */
+	private int[] items;
+
+	private int nodes;
+	private int leaves;
+	private int depth;
+	private long buildTime;
+
+	/**
+	 * The links from the items up to the root, created by the first refit and
+	 * shared by all hierarchies refit from this one.
+	 */
+	private volatile Topology topology;
+
+	private final TraversalStatistics statistics;
+
+	/**
+	 * A visitor is called for every leaf the ray reaches.
+	 * 
+	 * @author Dillon Elste
+	 */
+	@FunctionalInterface
+	public interface Visitor {
+		/**
+		 * Tests the ray against the items of a leaf. The items are given by their
+		 * position in the order of the leaves, {@link BoundingVolumeHierarchy#getItem(int)}
+		 * returns the index of the item at a position.
+		 * 
+		 * @param first
+		 *            the position of the first item in the leaf
+		 * @param count
+		 *            the number of items in the leaf
+		 * @param maxDistance
+		 *            the distance up to which an intersection is of interest
+		 * 
+		 * @return the new maximal distance, which is the distance of the nearest
+		 *         intersection if an item is hit closer than {@code maxDistance} or
+		 *         else {@code maxDistance}. A negative value stops the traversal.
+		 */
+		double visit(int first, int count, double maxDistance);
+	}
+
+	/**
+	 * A packet visitor is called for every leaf a packet of rays reaches.
+	 * 
+	 * @author Dillon Elste
+	 */
+	public interface PacketVisitor {
+		/**
+		 * Tests the rays of the packet reaching a leaf against its items. The
+		 * distances of the packet have to be updated with the intersections found.
+		 * 
+		 * @param first
+		 *            the position of the first item in the leaf
+		 * @param count
+		 *            the number of items in the leaf
+		 * @param lanes
+		 *            true for every ray of the packet reaching the leaf
+		 */
+		void visit(int first, int count, boolean[] lanes);
+
+		/**
+		 * Traces a single ray of the packet through the subtree below
+		 * {@code node}, because the packet has diverged.
+		 * 
+		 * @param node
+		 *            the node to continue at
+		 * @param lane
+		 *            the index of the ray in the packet
+		 */
+		void split(int node, int lane);
+	}
+
+	/**
+	 * Calculates the boxes of the items while a hierarchy is {@link #refit refit}.
+	 * 
+	 * @author Dillon Elste
+	 */
+	@FunctionalInterface
+	public interface ItemBounds {
+		/**
+		 * Writes the box of an item to an array.
+		 * 
+		 * @param position
+		 *            the position of the item in the order of the leaves,
+		 *            {@link BoundingVolumeHierarchy#getItem(int)} returns its index
+		 * @param box
+		 *            the array the box is written to: minX, minY, minZ, maxX, maxY,
+		 *            maxZ
+		 */
+		void get(int position, double[] box);
+	}
+
+	/**
+	 * The links of the tree needed to walk from an item up to the root.
+	 */
+	private static final class Topology {
+		/**
+		 * The parent of every node or -1 for the root and unused nodes.
+		 */
+		final int[] parent;
+
+		/**
+		 * The leaf holding the item at every position.
+		 */
+		final int[] leaf;
+
+		/**
+		 * The position of every item in the order of the leaves.
+		 */
+		final int[] position;
+
+		Topology(BoundingVolumeHierarchy bvh) {
+			parent = new int[bvh.nodeOffset.length];
+			leaf = new int[bvh.items.length];
+			position = new int[bvh.items.length];
+			Arrays.fill(parent, -1);
+
+			for (int i = 0; i < bvh.items.length; i++) {
+				position[bvh.items[i]] = i;
+			}
+
+			if (bvh.items.length == 0)
+				return;
+
+			int[] stack = new int[bvh.getStackSize()];
+			int size = 0;
+			stack[size++] = 0;
+			while (size > 0) {
+				int node = stack[--size];
+				if (bvh.nodeCount[node] > 0) {
+					for (int i = 0; i < bvh.nodeCount[node]; i++) {
+						leaf[bvh.nodeOffset[node] + i] = node;
+					}
+				} else {
+					parent[node + 1] = node;
+					parent[bvh.nodeOffset[node]] = node;
+					stack[size++] = bvh.nodeOffset[node];
+					stack[size++] = node + 1;
+				}
+			}
+		}
+	}
+
+	private BoundingVolumeHierarchy(int capacity, TraversalStatistics statistics) {
+		nodeBounds = new double[6 * capacity];
+		nodeOffset = new int[capacity];
+		nodeCount = new int[capacity];
+		this.statistics = statistics;
+	}
+
+	/**
+	 * Creates a hierarchy with the same tree as another one but different boxes
+	 * or statistics.
+	 */
+	private BoundingVolumeHierarchy(BoundingVolumeHierarchy bvh, double[] nodeBounds, Topology topology,
+			TraversalStatistics statistics) {
+		this.nodeBounds = nodeBounds;
+		nodeOffset = bvh.nodeOffset;
+		nodeCount = bvh.nodeCount;
+		items = bvh.items;
+		nodes = bvh.nodes;
+		leaves = bvh.leaves;
+		depth = bvh.depth;
+		this.topology = topology;
+		this.statistics = statistics;
+	}
+
+	/**
+	 * Builds a new hierarchy over the given boxes.
+	 * 
+	 * @param boxes
+	 *            the bounding boxes of the items. The index of a box is the index
+	 *            returned by {@link #getItem(int)}.
+	 * @param statistics
+	 *            the statistics the traversals are recorded in or null
+	 * 
+	 * @return the new hierarchy
+	 */
+	public static BoundingVolumeHierarchy build(BoundingBox[] boxes, TraversalStatistics statistics) {
+		double[] bounds = new double[6 * boxes.length];
+		for (int i = 0; i < boxes.length; i++) {
+			BoundingBox b = boxes[i];
+			bounds[6 * i] = b.minX;
+			bounds[6 * i + 1] = b.minY;
+			bounds[6 * i + 2] = b.minZ;
+			bounds[6 * i + 3] = b.maxX;
+			bounds[6 * i + 4] = b.maxY;
+			bounds[6 * i + 5] = b.maxZ;
+		}
+		return build(bounds, statistics);
+	}
+
+	/**
+	 * Builds a new hierarchy over boxes given as flat array. No object is created
+	 * per item, so this works for millions of items, like the triangles of a mesh.
+	 * <p>
+	 * The boxes are sorted along with the items while building, so every pass
+	 * over the items of a node reads the boxes in order instead of jumping around
+	 * in memory. Afterwards the array is in the order of the leaves. Big
+	 * hierarchies are built in parallel on the common fork join pool.
+	 * </p>
+	 * 
+	 * @param bounds
+	 *            the bounding boxes of the items. Each box uses six consecutive
+	 *            values: minX, minY, minZ, maxX, maxY, maxZ. The index of a box is
+	 *            the index returned by {@link #getItem(int)}. The array is
+	 *            reordered.
+	 * @param statistics
+	 *            the statistics the traversals are recorded in or null
+	 * 
+	 * @return the new hierarchy
+	 */
+	public static BoundingVolumeHierarchy build(double[] bounds, TraversalStatistics statistics) {
+		long start = System.nanoTime();
+
+		int count = bounds.length / 6;
+		BoundingVolumeHierarchy bvh = new BoundingVolumeHierarchy(Math.max(1, 2 * count - 1), statistics);
+		bvh.items = new int[count];
+		for (int i = 0; i < count; i++) {
+			bvh.items[i] = i;
+		}
+
+		if (count == 0) {
+			// An empty box. It is never tested, because the traversals return right
+			// away if there are no items.
+			bvh.setBounds(0, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+					Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY);
+			bvh.nodes = 1;
+			bvh.leaves = 1;
+		} else {
+			Builder builder = new Builder(bvh, bounds, 0, count, 1, 0);
+			if (count > PARALLEL_SIZE)
+				ForkJoinPool.commonPool().invoke(builder);
+			else
+				builder.compute();
+
+			bvh.nodes = builder.nodes;
+			bvh.leaves = builder.leaves;
+			bvh.depth = builder.depth;
+		}
+
+		bvh.buildTime = System.nanoTime() - start;
+		return bvh;
+	}
+
+	/**
+	 * Reads a hierarchy written by {@link #write(ByteBuffer)}. The arrays are
+	 * copied out of the buffer in bulk, nothing is built again. The tree is
+	 * checked, so a corrupted buffer can't make a traversal fail or loop later.
+	 * 
+	 * @param buffer
+	 *            the buffer to read from, in the byte order it was written in
+	 * @param statistics
+	 *            the statistics the traversals are recorded in or null
+	 * 
+	 * @return the hierarchy
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the buffer doesn't hold a valid hierarchy
+	 * @throws java.nio.BufferUnderflowException
+	 *             if the buffer ends before the hierarchy
+	 */
+	public static BoundingVolumeHierarchy read(ByteBuffer buffer, TraversalStatistics statistics) {
+		long start = System.nanoTime();
+
+		int capacity = buffer.getInt();
+		int count = buffer.getInt();
+		if (count < 0 || capacity < Math.max(1, 2L * count - 1)
+				|| 3L * Integer.BYTES + (6L * Double.BYTES + 2L * Integer.BYTES) * capacity
+						+ (long) Integer.BYTES * count > buffer.remaining())
+			throw new IllegalArgumentException("invalid hierarchy size");
+
+		BoundingVolumeHierarchy bvh = new BoundingVolumeHierarchy(capacity, statistics);
+		bvh.items = new int[count];
+		bvh.nodes = buffer.getInt();
+		bvh.leaves = buffer.getInt();
+		bvh.depth = buffer.getInt();
+		if (bvh.nodes < 1 || bvh.nodes > capacity || bvh.depth < 0 || bvh.depth >= capacity)
+			throw new IllegalArgumentException("invalid hierarchy size");
+
+		buffer.asDoubleBuffer().get(bvh.nodeBounds);
+		buffer.position(buffer.position() + Double.BYTES * bvh.nodeBounds.length);
+		getInts(buffer, bvh.nodeOffset);
+		getInts(buffer, bvh.nodeCount);
+		getInts(buffer, bvh.items);
+		bvh.validate();
+
+		bvh.buildTime = System.nanoTime() - start;
+		return bvh;
+	}
+
+	/**
+	 * Checks that the tree of a {@link #read read} hierarchy is one a build could
+	 * have created. The nodes are walked from the root like a traversal: children
+	 * have to lie after their parent within the arrays and no deeper than the
+	 * depth, and the leaves have to reference the positions in {@link #items} in
+	 * order, each exactly once. The items have to be a permutation of their
+	 * indices.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the tree is invalid
+	 */
+	private void validate() {
+		int count = items.length, capacity = nodeOffset.length;
+
+		boolean[] seen = new boolean[count];
+		for (int item : items) {
+			if (item < 0 || item >= count || seen[item])
+				throw new IllegalArgumentException("the items of the hierarchy aren't a permutation");
+			seen[item] = true;
+		}
+
+		if (count == 0) {
+			if (nodes != 1 || leaves != 1)
+				throw new IllegalArgumentException("invalid empty hierarchy");
+			return;
+		}
+
+		// The right children waiting to be visited. A node pushes at most one child
+		// per level, so the stack of a valid tree never holds more than its depth.
+		int[] stack = new int[depth], stackLevel = new int[depth];
+		int stackSize = 0;
+		int node = 0, level = 1, visitedNodes = 0, visitedLeaves = 0, referenced = 0;
+		while (true) {
+			if (level > depth)
+				throw new IllegalArgumentException("the hierarchy is deeper than its depth");
+			visitedNodes++;
+
+			if (nodeCount[node] > 0) {
+				if (nodeOffset[node] < 0 || nodeOffset[node] != referenced || nodeCount[node] > count - referenced)
+					throw new IllegalArgumentException("leaf " + node + " references invalid items");
+				referenced += nodeCount[node];
+				visitedLeaves++;
+
+				if (stackSize == 0)
+					break;
+				stackSize--;
+				node = stack[stackSize];
+				level = stackLevel[stackSize];
+			} else {
+				int right = nodeOffset[node];
+				if (nodeCount[node] < 0 || node + 1 >= capacity || right <= node + 1 || right >= capacity)
+					throw new IllegalArgumentException("node " + node + " has invalid children");
+
+				// Both children lie after the node, so every path ends. A node reached
+				// twice would reference its items a second time, so the walk stops there.
+				stack[stackSize] = right;
+				stackLevel[stackSize] = level + 1;
+				stackSize++;
+				node++;
+				level++;
+			}
+		}
+
+		if (referenced != count || visitedNodes != nodes || visitedLeaves != leaves)
+			throw new IllegalArgumentException("the hierarchy doesn't match its size");
+	}
+
+	/**
+	 * Writes this hierarchy to a buffer, so it can be {@link #read read} again
+	 * without building it. The arrays are written as they are.
+	 * 
+	 * @param buffer
+	 *            the buffer to write to, with at least {@link #getSerializedSize()}
+	 *            bytes remaining
+	 */
+	public void write(ByteBuffer buffer) {
+		buffer.putInt(nodeOffset.length);
+		buffer.putInt(items.length);
+		buffer.putInt(nodes);
+		buffer.putInt(leaves);
+		buffer.putInt(depth);
+
+		buffer.asDoubleBuffer().put(nodeBounds);
+		buffer.position(buffer.position() + Double.BYTES * nodeBounds.length);
+		putInts(buffer, nodeOffset);
+		putInts(buffer, nodeCount);
+		putInts(buffer, items);
+	}
+
+	/**
+	 * Returns the number of bytes {@link #write(ByteBuffer)} writes.
+	 * 
+	 * @return the size of this hierarchy in bytes
+	 */
+	public long getSerializedSize() {
+		return 5L * Integer.BYTES + (6L * Double.BYTES + 2 * Integer.BYTES) * nodeOffset.length
+				+ (long) Integer.BYTES * items.length;
+	}
+
+	/**
+	 * Creates a hierarchy for items of which some have moved. The tree and the
+	 * order of the items stay the same, only the leaves holding a moved item and
+	 * the nodes above them get new boxes. Everything else is shared with this
+	 * hierarchy, which doesn't change.
+	 * 
+	 * @param moved
+	 *            the indices of the items which have moved
+	 * @param bounds
+	 *            calculates the current boxes of the items in the leaves of the
+	 *            moved items
+	 * 
+	 * @return the refit hierarchy
+	 */
+	public BoundingVolumeHierarchy refit(int[] moved, ItemBounds bounds) {
+		long start = System.nanoTime();
+		Topology topology = getTopology();
+
+		// Children always come after their parents, so going through the nodes
+		// backwards refits both children of a node before the node itself.
+		BitSet changed = new BitSet(nodeOffset.length);
+		for (int item : moved) {
+			for (int node = topology.leaf[topology.position[item]]; node >= 0 && !changed.get(node);) {
+				changed.set(node);
+				node = topology.parent[node];
+			}
+		}
+
+		double[] refit = nodeBounds.clone();
+		double[] box = new double[6];
+		for (int node = changed.length() - 1; node >= 0; node = changed.previousSetBit(node - 1)) {
+			refitNode(refit, node, bounds, box);
+		}
+
+		BoundingVolumeHierarchy bvh = new BoundingVolumeHierarchy(this, refit, topology, statistics);
+		bvh.buildTime = System.nanoTime() - start;
+		return bvh;
+	}
+
+	/**
+	 * Creates a hierarchy for items of which all may have moved, like the
+	 * triangles of a deformed mesh. The tree stays the same and every box is
+	 * calculated again, which is much faster than building a new hierarchy.
+	 * 
+	 * @param bounds
+	 *            calculates the current boxes of the items
+	 * 
+	 * @return the refit hierarchy
+	 */
+	public BoundingVolumeHierarchy refit(ItemBounds bounds) {
+		long start = System.nanoTime();
+		Topology topology = getTopology();
+
+		double[] refit = nodeBounds.clone();
+		double[] box = new double[6];
+		if (items.length > 0) {
+			// Unused nodes have no parent, only the root and the nodes of the tree
+			// are refit.
+			for (int node = nodeOffset.length - 1; node >= 0; node--) {
+				if (node == 0 || topology.parent[node] >= 0)
+					refitNode(refit, node, bounds, box);
+			}
+		}
+
+		BoundingVolumeHierarchy bvh = new BoundingVolumeHierarchy(this, refit, topology, statistics);
+		bvh.buildTime = System.nanoTime() - start;
+		return bvh;
+	}
+
+	/**
+	 * Calculates the box of a node from its items or its children.
+	 */
+	private void refitNode(double[] refit, int node, ItemBounds bounds, double[] box) {
+		resetBounds(refit, node);
+		if (nodeCount[node] > 0) {
+			for (int position = nodeOffset[node]; position < nodeOffset[node] + nodeCount[node]; position++) {
+				bounds.get(position, box);
+				growBounds(refit, node, box, 0);
+			}
+		} else {
+			growBounds(refit, node, refit, 6 * (node + 1));
+			growBounds(refit, node, refit, 6 * nodeOffset[node]);
+		}
+	}
+
+	private Topology getTopology() {
+		Topology topology = this.topology;
+		if (topology == null) {
+			// Two threads may both create it, which does no harm.
+			topology = new Topology(this);
+			this.topology = topology;
+		}
+		return topology;
+	}
+
+	private static void getInts(ByteBuffer buffer, int[] array) {
+		buffer.asIntBuffer().get(array);
+		buffer.position(buffer.position() + Integer.BYTES * array.length);
+	}
+
+	private static void putInts(ByteBuffer buffer, int[] array) {
+		buffer.asIntBuffer().put(array);
+		buffer.position(buffer.position() + Integer.BYTES * array.length);
+	}
+
+	/**
+	 * Builds the subtree over a range of items. A subtree over {@code n} items has
+	 * at most {@code 2n - 1} nodes, so the left child of a node gets the nodes
+	 * right after it and the right child the nodes after those. The subtrees of
+	 * big nodes are built by separate tasks, each in the nodes reserved for it,
+	 * so the tree is the same however the tasks are scheduled. Reserved nodes a
+	 * subtree doesn't need stay unused.
+	 * 
+	 * @author Dillon Elste
+	 */
+	private static final class Builder extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final BoundingVolumeHierarchy bvh;
+		private final double[] bounds;
+		private final int start, end, level;
+
+		/**
+		 * The index of the root of the subtree.
+		 */
+		private final int first;
+
+		/**
+		 * The scratch arrays. A node is done with them before its children are
+		 * built, so they are shared by all nodes of a task.
+		 */
+		private final double[] centroidMin = new double[3], centroidMax = new double[3];
+		private final int[] binCount = new int[BINS];
+		private final double[] binBounds = new double[6 * BINS], rightArea = new double[BINS], sweep = new double[6];
+
+		private int next;
+		private int nodes, leaves, depth;
+
+		Builder(BoundingVolumeHierarchy bvh, double[] bounds, int start, int end, int level, int first) {
+			this.bvh = bvh;
+			this.bounds = bounds;
+			this.start = start;
+			this.end = end;
+			this.level = level;
+			this.first = first;
+		}
+
+		@Override
+		protected void compute() {
+			next = first;
+			buildNode(start, end, level);
+		}
+
+		/**
+		 * Builds the node enclosing the items from {@code start} (inclusive) to
+		 * {@code end} (exclusive) and all its children.
+		 * 
+		 * @return the index of the node
+		 */
+		private int buildNode(int start, int end, int level) {
+			int node = next++;
+			nodes++;
+			depth = Math.max(depth, level);
+
+			double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY, minZ = Double.POSITIVE_INFINITY;
+			double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY, maxZ = Double.NEGATIVE_INFINITY;
+			double[] bounds = this.bounds, centroidMin = this.centroidMin, centroidMax = this.centroidMax;
+			Arrays.fill(centroidMin, Double.POSITIVE_INFINITY);
+			Arrays.fill(centroidMax, Double.NEGATIVE_INFINITY);
+
+			for (int i = start; i < end; i++) {
+				int b = 6 * i;
+				minX = Math.min(minX, bounds[b]);
+				minY = Math.min(minY, bounds[b + 1]);
+				minZ = Math.min(minZ, bounds[b + 2]);
+				maxX = Math.max(maxX, bounds[b + 3]);
+				maxY = Math.max(maxY, bounds[b + 4]);
+				maxZ = Math.max(maxZ, bounds[b + 5]);
+
+				for (int axis = 0; axis < 3; axis++) {
+					double centroid = centroid(bounds, b, axis);
+					centroidMin[axis] = Math.min(centroidMin[axis], centroid);
+					centroidMax[axis] = Math.max(centroidMax[axis], centroid);
+				}
+			}
+			bvh.setBounds(node, minX, minY, minZ, maxX, maxY, maxZ);
+
+			int count = end - start;
+			if (count == 1) {
+				makeLeaf(node, start, count);
+				return node;
+			}
+
+			// Find the cheapest split among the bin borders of all three axes.
+			double area = surfaceArea(minX, minY, minZ, maxX, maxY, maxZ);
+			double bestCost = Double.POSITIVE_INFINITY;
+			int bestAxis = -1, bestBin = -1;
+
+			int[] binCount = this.binCount;
+			double[] binBounds = this.binBounds, rightArea = this.rightArea, sweep = this.sweep;
+			int bins = Math.min(BINS, count);
+
+			for (int axis = 0; axis < 3; axis++) {
+				double extent = centroidMax[axis] - centroidMin[axis];
+				if (extent <= 0)
+					continue;
+
+				double scale = bins / extent;
+				Arrays.fill(binCount, 0, bins, 0);
+				for (int b = 0; b < bins; b++) {
+					resetBounds(binBounds, b);
+				}
+
+				for (int i = start; i < end; i++) {
+					int box = 6 * i;
+					int b = bin(centroid(bounds, box, axis), centroidMin[axis], scale, bins);
+					binCount[b]++;
+					growBounds(binBounds, b, bounds, box);
+				}
+
+				// Sweep from the right to get the area of everything right of each border.
+				resetBounds(sweep, 0);
+				for (int b = bins - 1; b > 0; b--) {
+					growBounds(sweep, binBounds, b);
+					rightArea[b] = surfaceArea(sweep);
+				}
+
+				// Sweep from the left and evaluate the cost of splitting in front of bin b.
+				resetBounds(sweep, 0);
+				int leftCount = 0;
+				for (int b = 1; b < bins; b++) {
+					growBounds(sweep, binBounds, b - 1);
+					leftCount += binCount[b - 1];
+
+					int rightCount = count - leftCount;
+					if (leftCount == 0 || rightCount == 0)
+						continue;
+
+					double cost = TRAVERSAL_COST + (surfaceArea(sweep) * leftCount + rightArea[b] * rightCount) / area;
+					if (cost < bestCost) {
+						bestCost = cost;
+						bestAxis = axis;
+						bestBin = b;
+					}
+				}
+			}
+
+			int middle;
+			if (bestAxis == -1) {
+				// All centroids are in the same spot, so no split separates them.
+				if (count <= MAX_LEAF_SIZE) {
+					makeLeaf(node, start, count);
+					return node;
+				}
+				middle = (start + end) >>> 1;
+			} else {
+				if (bestCost >= count && count <= MAX_LEAF_SIZE) {
+					makeLeaf(node, start, count);
+					return node;
+				}
+
+				double scale = bins / (centroidMax[bestAxis] - centroidMin[bestAxis]);
+				middle = start;
+				for (int i = start; i < end; i++) {
+					if (bin(centroid(bounds, 6 * i, bestAxis), centroidMin[bestAxis], scale, bins) < bestBin) {
+						int temp = bvh.items[i];
+						bvh.items[i] = bvh.items[middle];
+						bvh.items[middle] = temp;
+						for (int k = 0; k < 6; k++) {
+							double bound = bounds[6 * i + k];
+							bounds[6 * i + k] = bounds[6 * middle + k];
+							bounds[6 * middle + k] = bound;
+						}
+						middle++;
+					}
+				}
+			}
+
+			if (count > PARALLEL_SIZE) {
+				// The left subtree has at most 2 * (middle - start) - 1 nodes.
+				Builder left = new Builder(bvh, bounds, start, middle, level + 1, node + 1);
+				Builder right = new Builder(bvh, bounds, middle, end, level + 1, node + 2 * (middle - start));
+				invokeAll(left, right);
+
+				nodes += left.nodes + right.nodes;
+				leaves += left.leaves + right.leaves;
+				depth = Math.max(depth, Math.max(left.depth, right.depth));
+				next = node + 2 * count - 1;
+				bvh.nodeOffset[node] = right.first;
+			} else {
+				buildNode(start, middle, level + 1);
+				bvh.nodeOffset[node] = buildNode(middle, end, level + 1);
+			}
+			bvh.nodeCount[node] = 0;
+
+			return node;
+		}
+
+		private void makeLeaf(int node, int first, int count) {
+			bvh.nodeOffset[node] = first;
+			bvh.nodeCount[node] = count;
+			leaves++;
+		}
+	}
+
+	/**
+	 * Returns the center along {@code axis} of the box starting at
+	 * {@code offset}, like {@link BoundingBox#getCentroid(int)}.
+	 */
+	private static double centroid(double[] bounds, int offset, int axis) {
+		return (bounds[offset + axis] + bounds[offset + 3 + axis]) * .5;
+	}
+
+	private static int bin(double centroid, double min, double scale, int bins) {
+		return Math.min(bins - 1, (int) ((centroid - min) * scale));
+	}
+
+	private void setBounds(int node, double minX, double minY, double minZ, double maxX, double maxY,
+			double maxZ) {
+		int i = 6 * node;
+		nodeBounds[i] = minX;
+		nodeBounds[i + 1] = minY;
+		nodeBounds[i + 2] = minZ;
+		nodeBounds[i + 3] = maxX;
+		nodeBounds[i + 4] = maxY;
+		nodeBounds[i + 5] = maxZ;
+	}
+
+	private static void resetBounds(double[] bounds, int index) {
+		for (int k = 0; k < 3; k++) {
+			bounds[6 * index + k] = Double.POSITIVE_INFINITY;
+			bounds[6 * index + 3 + k] = Double.NEGATIVE_INFINITY;
+		}
+	}
+
+	private static void growBounds(double[] bounds, int index, double[] box, int offset) {
+		int i = 6 * index;
+		for (int k = 0; k < 3; k++) {
+			bounds[i + k] = Math.min(bounds[i + k], box[offset + k]);
+			bounds[i + 3 + k] = Math.max(bounds[i + 3 + k], box[offset + 3 + k]);
+		}
+	}
+
+	private static void growBounds(double[] bounds, double[] other, int index) {
+		int i = 6 * index;
+		for (int k = 0; k < 3; k++) {
+			bounds[k] = Math.min(bounds[k], other[i + k]);
+			bounds[3 + k] = Math.max(bounds[3 + k], other[i + 3 + k]);
+		}
+	}
+
+	private static double surfaceArea(double[] b) {
+		return surfaceArea(b[0], b[1], b[2], b[3], b[4], b[5]);
+	}
+
+	private static double surfaceArea(double minX, double minY, double minZ, double maxX, double maxY,
+			double maxZ) {
+		if (minX > maxX)
+			return 0;
+
+		double dx = maxX - minX, dy = maxY - minY, dz = maxZ - minZ;
+		return 2 * (dx * dy + dy * dz + dz * dx);
+	}
+
+	/**
+	 * Walks through the hierarchy and calls the visitor for every leaf the ray
+	 * intersects closer than the current maximal distance. Closer
+	 * children are visited first, so a nearest hit search can skip most of the
+	 * farther nodes.
+	 * 
+	 * @param ray
+	 *            the ray to trace
+	 * @param maxDistance
+	 *            the distance up to which intersections are of interest
+	 * @param visitor
+	 *            the visitor testing the items
+	 */
+	public void traverse(Ray ray, double maxDistance, Visitor visitor) {
+		traverse(ray, maxDistance, visitor, new int[getStackSize()]);
+	}
+
+	/**
+	 * Walks through the hierarchy like {@link #traverse(Ray, double, Visitor)},
+	 * but uses the given stack instead of allocating a new one.
+	 * 
+	 * @param ray
+	 *            the ray to trace
+	 * @param maxDistance
+	 *            the distance up to which intersections are of interest
+	 * @param visitor
+	 *            the visitor testing the items
+	 * @param stack
+	 *            the stack holding the nodes still to visit. It has to hold at
+	 *            least {@link #getStackSize()} elements.
+	 */
+	public void traverse(Ray ray, double maxDistance, Visitor visitor, int[] stack) {
+		traverse(0, ray, maxDistance, visitor, stack, 1);
+	}
+
+	/**
+	 * Walks through the subtree below {@code root} like
+	 * {@link #traverse(Ray, double, Visitor)}. It continues the query of a ray
+	 * which has already been counted, usually as part of a diverged
+	 * {@link #traversePacket packet}, so only the node visits and primitive
+	 * tests are recorded, not another query.
+	 * 
+	 * @param root
+	 *            the node to start at
+	 * @param ray
+	 *            the ray to trace
+	 * @param maxDistance
+	 *            the distance up to which intersections are of interest
+	 * @param visitor
+	 *            the visitor testing the items
+	 * @param stack
+	 *            the stack holding the nodes still to visit. It has to hold at
+	 *            least {@link #getStackSize()} elements.
+	 */
+	public void traverse(int root, Ray ray, double maxDistance, Visitor visitor, int[] stack) {
+		traverse(root, ray, maxDistance, visitor, stack, 0);
+	}
+
+	/**
+	 * Walks through the subtree below {@code root} and records it as the given
+	 * number of queries.
+	 */
+	private void traverse(int root, Ray ray, double maxDistance, Visitor visitor, int[] stack, long queries) {
+		// The root of an empty hierarchy is neither a leaf nor an inner node.
+		if (items.length == 0) {
+			record(queries, 1, 0);
+			return;
+		}
+
+		double ox = ray.origin.x, oy = ray.origin.y, oz = ray.origin.z;
+		double invX = 1 / ray.direction.x, invY = 1 / ray.direction.y, invZ = 1 / ray.direction.z;
+
+		int stackSize = 0;
+		long visitedNodes = 1, testedItems = 0;
+
+		int node = root;
+		if (intersectBox(node, ox, oy, oz, invX, invY, invZ, maxDistance) == Double.POSITIVE_INFINITY) {
+			record(queries, visitedNodes, testedItems);
+			return;
+		}
+
+		while (true) {
+			if (nodeCount[node] > 0) {
+				testedItems += nodeCount[node];
+				maxDistance = visitor.visit(nodeOffset[node], nodeCount[node], maxDistance);
+				if (maxDistance < 0) {
+					record(queries, visitedNodes, testedItems);
+					return;
+				}
+			} else {
+				int left = node + 1;
+				int right = nodeOffset[node];
+				double leftDistance = intersectBox(left, ox, oy, oz, invX, invY, invZ, maxDistance);
+				double rightDistance = intersectBox(right, ox, oy, oz, invX, invY, invZ, maxDistance);
+				visitedNodes += 2;
+
+				if (leftDistance != Double.POSITIVE_INFINITY) {
+					if (rightDistance != Double.POSITIVE_INFINITY) {
+						if (leftDistance <= rightDistance) {
+							stack[stackSize++] = right;
+							node = left;
+						} else {
+							stack[stackSize++] = left;
+							node = right;
+						}
+					} else {
+						node = left;
+					}
+					continue;
+				} else if (rightDistance != Double.POSITIVE_INFINITY) {
+					node = right;
+					continue;
+				}
+			}
+
+			// Nodes on the stack may have become too far away since they were pushed.
+			do {
+				if (stackSize == 0) {
+					record(queries, visitedNodes, testedItems);
+					return;
+				}
+				node = stack[--stackSize];
+			} while (intersectBox(node, ox, oy, oz, invX, invY, invZ, maxDistance) == Double.POSITIVE_INFINITY);
+		}
+	}
+
+	/**
+	 * Walks through the hierarchy with a whole packet of rays sharing their
+	 * origin. A node is skipped if its box is outside of the frustum of the packet
+	 * or if no ray of the packet reaches it. If only a few rays reach a node, the
+	 * packet has diverged and those rays continue on their own through
+	 * {@link PacketVisitor#split(int, int)}.
+	 * 
+	 * @param packet
+	 *            the packet to trace
+	 * @param visitor
+	 *            the visitor testing the items
+	 * @param stack
+	 *            the stack holding the nodes still to visit. It has to hold at
+	 *            least {@link #getStackSize()} elements.
+	 * @param lanes
+	 *            a buffer holding at least {@link RayPacket#MAX_SIZE} elements,
+	 *            which is filled with the rays reaching a node
+	 */
+	public void traversePacket(RayPacket packet, PacketVisitor visitor, int[] stack, boolean[] lanes) {
+		int size = packet.size();
+		if (items.length == 0) {
+			if (statistics != null)
+				statistics.record(size, 1, 0);
+			return;
+		}
+
+		int stackSize = 0;
+		long visitedNodes = 0, testedItems = 0;
+		stack[stackSize++] = 0;
+
+		while (stackSize > 0) {
+			int node = stack[--stackSize];
+			visitedNodes++;
+
+			if (!packet.frustumIntersects(nodeBounds, 6 * node))
+				continue;
+
+			int reaching = 0;
+			for (int lane = 0; lane < size; lane++) {
+				lanes[lane] = intersectBox(node, packet.originX, packet.originY, packet.originZ,
+						packet.inverseDirectionX[lane], packet.inverseDirectionY[lane], packet.inverseDirectionZ[lane],
+						packet.distance[lane]) != Double.POSITIVE_INFINITY;
+				if (lanes[lane])
+					reaching++;
+			}
+
+			if (reaching == 0)
+				continue;
+
+			if (reaching * SPLIT_RATIO < size) {
+				for (int lane = 0; lane < size; lane++) {
+					if (lanes[lane])
+						visitor.split(node, lane);
+				}
+			} else if (nodeCount[node] > 0) {
+				testedItems += reaching * nodeCount[node];
+				visitor.visit(nodeOffset[node], nodeCount[node], lanes);
+			} else {
+				int left = node + 1;
+				int right = nodeOffset[node];
+
+				// The child nearer to the center of the packet is visited first.
+				int center = packet.getCenterLane();
+				double leftDistance = intersectBox(left, packet.originX, packet.originY, packet.originZ,
+						packet.inverseDirectionX[center], packet.inverseDirectionY[center],
+						packet.inverseDirectionZ[center], Double.POSITIVE_INFINITY);
+				double rightDistance = intersectBox(right, packet.originX, packet.originY, packet.originZ,
+						packet.inverseDirectionX[center], packet.inverseDirectionY[center],
+						packet.inverseDirectionZ[center], Double.POSITIVE_INFINITY);
+
+				if (leftDistance <= rightDistance) {
+					stack[stackSize++] = right;
+					stack[stackSize++] = left;
+				} else {
+					stack[stackSize++] = left;
+					stack[stackSize++] = right;
+				}
+			}
+		}
+
+		if (statistics != null)
+			statistics.record(size, visitedNodes, testedItems);
+	}
+
+	private void record(long queries, long visitedNodes, long testedItems) {
+		if (statistics != null)
+			statistics.record(queries, visitedNodes, testedItems);
+	}
+
+	/**
+	 * Returns the distance at which the ray enters the box of {@code node} or
+	 * positive infinity if it misses the box or enters it farther away than
+	 * {@code maxDistance}.
+	 */
+	private double intersectBox(int node, double ox, double oy, double oz, double invX, double invY, double invZ,
+			double maxDistance) {
+		int i = 6 * node;
+		double near = 0, far = maxDistance;
+
+		double t0 = (nodeBounds[i] - ox) * invX, t1 = (nodeBounds[i + 3] - ox) * invX;
+		if (t0 > t1) {
+			double temp = t0;
+			t0 = t1;
+			t1 = temp;
+		}
+		// The comparisons are written so NaN, caused by 0 * infinity, is ignored.
+		near = t0 > near ? t0 : near;
+		far = t1 < far ? t1 : far;
+
+		t0 = (nodeBounds[i + 1] - oy) * invY;
+		t1 = (nodeBounds[i + 4] - oy) * invY;
+		if (t0 > t1) {
+			double temp = t0;
+			t0 = t1;
+			t1 = temp;
+		}
+		near = t0 > near ? t0 : near;
+		far = t1 < far ? t1 : far;
+
+		t0 = (nodeBounds[i + 2] - oz) * invZ;
+		t1 = (nodeBounds[i + 5] - oz) * invZ;
+		if (t0 > t1) {
+			double temp = t0;
+			t0 = t1;
+			t1 = temp;
+		}
+		near = t0 > near ? t0 : near;
+		far = t1 < far ? t1 : far;
+
+		return near <= far ? near : Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Returns the index of the item at {@code position} in the order of the
+	 * leaves.
+	 * 
+	 * @param position
+	 *            the position in the order of the leaves
+	 * 
+	 * @return the index of the item as given to
+	 *         {@link #build(BoundingBox[], TraversalStatistics) build}
+	 */
+	public int getItem(int position) {
+		return items[position];
+	}
+
+	/**
+	 * Returns the number of items in this hierarchy.
+	 * 
+	 * @return the number of items
+	 */
+	public int getNumberOfItems() {
+		return items.length;
+	}
+
+	/**
+	 * Returns the box enclosing all items.
+	 * 
+	 * @return the box enclosing all items
+	 */
+	public BoundingBox getBounds() {
+		return new BoundingBox(nodeBounds[0], nodeBounds[1], nodeBounds[2], nodeBounds[3], nodeBounds[4],
+				nodeBounds[5]);
+	}
+
+	/**
+	 * Returns the number of nodes in this hierarchy.
+	 * 
+	 * @return the number of nodes
+	 */
+	public int getNumberOfNodes() {
+		return nodes;
+	}
+
+	/**
+	 * Returns the number of leaves in this hierarchy.
+	 * 
+	 * @return the number of leaves
+	 */
+	public int getNumberOfLeaves() {
+		return leaves;
+	}
+
+	/**
+	 * Returns the number of levels of this hierarchy.
+	 * 
+	 * @return the depth of this hierarchy
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Returns the number of elements a traversal stack needs at most.
+	 * 
+	 * @return the size of a traversal stack
+	 */
+	public int getStackSize() {
+		return depth + 1;
+	}
+
+	/**
+	 * Returns the time it took to build, {@link #read read} or {@link #refit
+	 * refit} this hierarchy in nanoseconds.
+	 * 
+	 * @return the build time in nanoseconds
+	 */
+	public long getBuildTime() {
+		return buildTime;
+	}
+
+	/**
+	 * Returns the statistics the traversals are recorded in.
+	 * 
+	 * @return the traversal statistics or null if they aren't recorded
+	 */
+	public TraversalStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Returns a hierarchy with the same tree and boxes which records its
+	 * traversals in other statistics. Nothing is copied.
+	 * 
+	 * @param statistics
+	 *            the statistics the traversals are recorded in or null
+	 * 
+	 * @return the new hierarchy
+	 */
+	public BoundingVolumeHierarchy withStatistics(TraversalStatistics statistics) {
+		BoundingVolumeHierarchy bvh = new BoundingVolumeHierarchy(this, nodeBounds, topology, statistics);
+		bvh.buildTime = buildTime;
+		return bvh;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("BoundingVolumeHierarchy: %d items, %d nodes, %d leaves, depth %d, built in %.3f ms",
+				items.length, nodes, leaves, depth, buildTime / 1e6);
+	}
+}
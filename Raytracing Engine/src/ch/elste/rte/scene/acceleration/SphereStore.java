@@ -0,0 +1,258 @@
+package ch.elste.rte.scene.acceleration;
+
+import ch.elste.rte.HitRecord;
+import ch.elste.rte.Ray;
+import ch.elste.rte.RayPacket;
+import ch.elste.rte.scene.shape.Primitive;
+import ch.elste.rte.scene.shape.Sphere;
+
+/**
+ * Holds spheres packed into parallel arrays, so a ray can be tested against
+ * many of them without following a pointer or calling a virtual method for
+ * each one.
+ * <p>
+ * The tests run in two loops. The first one only does arithmetic on the
+ * arrays, without any branches, so the JIT compiler can vectorize it. The
+ * second one picks the nearest intersection from the results.
+ * </p>
+ * 
+ * @author Dillon Elste
+ */
+public class SphereStore {
+	/**
+	 * The number of spheres tested by one run of the arithmetic loop. The scratch
+	 * buffer also has to hold the results of a whole {@link RayPacket}.
+	 */
+	public static final int BATCH_SIZE = Math.max(64, RayPacket.MAX_SIZE);
+
+	private final double[] centerX, centerY, centerZ;
+	private final double[] radiusSquared;
+	private final Sphere[] spheres;
+
+	/**
+	 * Creates a new store holding the given spheres in the given order.
+	 * 
+	 * @param spheres
+	 *            the spheres to store
+	 */
+	public SphereStore(Sphere[] spheres) {
+		this.spheres = spheres.clone();
+		centerX = new double[spheres.length];
+		centerY = new double[spheres.length];
+		centerZ = new double[spheres.length];
+		radiusSquared = new double[spheres.length];
+
+		for (int i = 0; i < spheres.length; i++) {
+			centerX[i] = spheres[i].getCenter().x;
+			centerY[i] = spheres[i].getCenter().y;
+			centerZ[i] = spheres[i].getCenter().z;
+			radiusSquared[i] = spheres[i].getRadius() * spheres[i].getRadius();
+		}
+	}
+
+	/**
+	 * Creates a scratch buffer for the batch tests. Each thread should own one
+	 * and reuse it.
+	 * 
+	 * @return a new scratch buffer
+	 */
+	public static double[] createScratch() {
+		return new double[2 * BATCH_SIZE];
+	}
+
+	/**
+	 * Finds the nearest sphere from {@code first} (inclusive) to
+	 * {@code first + count} (exclusive) the ray intersects closer than
+	 * {@code maxDistance} and writes it to {@code hit}.
+	 * 
+	 * @param ray
+	 *            the ray to test
+	 * @param first
+	 *            the index of the first sphere to test
+	 * @param count
+	 *            the number of spheres to test
+	 * @param skip
+	 *            the primitive to ignore or null
+	 * @param maxDistance
+	 *            the distance up to which intersections are of interest
+	 * @param hit
+	 *            the record the nearest intersection is written to
+	 * @param scratch
+	 *            a buffer created by {@link #createScratch()}
+	 * 
+	 * @return the distance of the nearest intersection or {@code maxDistance} if
+	 *         no sphere is hit closer
+	 */
+	public double nearest(Ray ray, int first, int count, Primitive skip, double maxDistance, HitRecord hit,
+			double[] scratch) {
+		int end = first + count;
+
+		for (int start = first; start < end; start += BATCH_SIZE) {
+			int length = Math.min(BATCH_SIZE, end - start);
+			intersect(ray, start, length, scratch);
+
+			for (int i = 0; i < length; i++) {
+				double distance = pick(scratch[i], scratch[BATCH_SIZE + i]);
+				if (distance < maxDistance && spheres[start + i] != skip) {
+					maxDistance = distance;
+					hit.distance = distance;
+					hit.primitive = spheres[start + i];
+				}
+			}
+		}
+
+		return maxDistance;
+	}
+
+	/**
+	 * Finds the nearest intersections of the rays of a packet with the spheres
+	 * from {@code first} (inclusive) to {@code first + count} (exclusive). The
+	 * rays share their origin, so the vector to the center of a sphere only has to
+	 * be calculated once for all of them.
+	 * 
+	 * @param packet
+	 *            the packet to test. Its distances and primitives are updated.
+	 * @param first
+	 *            the index of the first sphere to test
+	 * @param count
+	 *            the number of spheres to test
+	 * @param lanes
+	 *            true for every ray of the packet to test
+	 * @param scratch
+	 *            a buffer created by {@link #createScratch()}
+	 */
+	public void nearest(RayPacket packet, int first, int count, boolean[] lanes, double[] scratch) {
+		int size = packet.size();
+		double[] dx = packet.directionX, dy = packet.directionY, dz = packet.directionZ;
+
+		for (int s = first; s < first + count; s++) {
+			double rOtoCx = centerX[s] - packet.originX;
+			double rOtoCy = centerY[s] - packet.originY;
+			double rOtoCz = centerZ[s] - packet.originZ;
+			double rOtoCSquared = rOtoCx * rOtoCx + rOtoCy * rOtoCy + rOtoCz * rOtoCz;
+			double r = radiusSquared[s];
+
+			for (int lane = 0; lane < size; lane++) {
+				double dco = rOtoCx * dx[lane] + rOtoCy * dy[lane] + rOtoCz * dz[lane];
+				scratch[lane] = dco;
+				scratch[BATCH_SIZE + lane] = Math.sqrt(r - (rOtoCSquared - dco * dco));
+			}
+
+			for (int lane = 0; lane < size; lane++) {
+				if (lanes[lane]) {
+					double distance = pick(scratch[lane], scratch[BATCH_SIZE + lane]);
+					if (distance < packet.distance[lane]) {
+						packet.distance[lane] = distance;
+						packet.primitive[lane] = spheres[s];
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks if any sphere from {@code first} (inclusive) to
+	 * {@code first + count} (exclusive) blocks the ray closer than
+	 * {@code maxDistance}.
+	 * 
+	 * @param ray
+	 *            the ray to test
+	 * @param first
+	 *            the index of the first sphere to test
+	 * @param count
+	 *            the number of spheres to test
+	 * @param skip
+	 *            the primitive to ignore or null
+	 * @param maxDistance
+	 *            the length of the segment that has to be free
+	 * @param scratch
+	 *            a buffer created by {@link #createScratch()}
+	 * 
+	 * @return true if a sphere blocks the segment
+	 */
+	public boolean occludes(Ray ray, int first, int count, Primitive skip, double maxDistance, double[] scratch) {
+		int end = first + count;
+
+		for (int start = first; start < end; start += BATCH_SIZE) {
+			int length = Math.min(BATCH_SIZE, end - start);
+			intersect(ray, start, length, scratch);
+
+			for (int i = 0; i < length; i++) {
+				if (pick(scratch[i], scratch[BATCH_SIZE + i]) < maxDistance && spheres[start + i] != skip)
+					return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Tests the ray against {@code length} spheres starting at {@code start}. For
+	 * each sphere the distance to the point on the ray nearest to the center and
+	 * the distance from there to the surface are written to {@code scratch}. The
+	 * latter is NaN if the ray misses the sphere.
+	 * <p>
+	 * The math is the same as in {@link Sphere#intersectionDistance(Ray)}, so
+	 * both give exactly the same results.
+	 * </p>
+	 */
+	private void intersect(Ray ray, int start, int length, double[] scratch) {
+		double ox = ray.origin.x, oy = ray.origin.y, oz = ray.origin.z;
+		double dx = ray.direction.x, dy = ray.direction.y, dz = ray.direction.z;
+
+		for (int i = 0; i < length; i++) {
+			double rOtoCx = centerX[start + i] - ox;
+			double rOtoCy = centerY[start + i] - oy;
+			double rOtoCz = centerZ[start + i] - oz;
+			double dco = rOtoCx * dx + rOtoCy * dy + rOtoCz * dz;
+			double dSquared = rOtoCx * rOtoCx + rOtoCy * rOtoCy + rOtoCz * rOtoCz - dco * dco;
+
+			scratch[i] = dco;
+			scratch[BATCH_SIZE + i] = Math.sqrt(radiusSquared[start + i] - dSquared);
+		}
+	}
+
+	/**
+	 * Returns the nearest intersection in front of the origin.
+	 * 
+	 * @param dco
+	 *            the distance to the point on the ray nearest to the center
+	 * @param dcs
+	 *            the distance from there to the surface or NaN for a miss
+	 * 
+	 * @return the distance to the intersection or positive infinity
+	 */
+	private static double pick(double dco, double dcs) {
+		double firstIntersection = dco - dcs;
+		if (firstIntersection >= 0)
+			return firstIntersection;
+
+		double secondIntersection = dco + dcs;
+		if (secondIntersection >= 0)
+			return secondIntersection;
+
+		// Either both intersections are behind the origin or they are NaN.
+		return Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Returns the sphere at {@code index}.
+	 * 
+	 * @param index
+	 *            the index of the sphere
+	 * 
+	 * @return the sphere at given index
+	 */
+	public Sphere getSphere(int index) {
+		return spheres[index];
+	}
+
+	/**
+	 * Returns the number of spheres in this store.
+	 * 
+	 * @return the number of spheres
+	 */
+	public int size() {
+		return spheres.length;
+	}
+}
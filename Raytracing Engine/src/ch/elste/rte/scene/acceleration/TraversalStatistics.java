@@ -0,0 +1,303 @@
+package ch.elste.rte.scene.acceleration;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts how much work the ray queries against the scene cost. The counters
+ * can be updated by many render threads at the same time. They are striped
+ * {@link LongAdder adders}, so the threads don't contend for them.
+ * <p>
+ * Counting can be switched off with the system property
+ * {@code -Drte.statistics=false}. The flag is a constant, so the compiler
+ * removes the counting altogether and it costs nothing.
+ * </p>
+ * <p>
+ * A thread can also {@link #setTally(Tally) tally} its own queries, for
+ * example to find out what a single pixel costs.
+ * </p>
+ * <p>
+ * Statistics can have a parent which counts everything they count, so the
+ * rays of a single view of a scene can be counted apart from those of other
+ * views while the scene still counts all of them.
+ * </p>
+ * 
+ * @author Dillon Elste
+ */
+public class TraversalStatistics {
+	/**
+	 * Whether statistics are collected. It is false if the system property
+	 * {@code rte.statistics} is {@code false}.
+	 */
+	public static final boolean ENABLED = !"false".equalsIgnoreCase(System.getProperty("rte.statistics"));
+
+	/**
+	 * The tally of each thread or null if the thread doesn't tally its queries.
+	 */
+	private static final ThreadLocal<Tally> TALLIES = new ThreadLocal<>();
+
+	/**
+	 * Whether a thread has ever tallied its queries. Until then no thread has to
+	 * look up its tally.
+	 */
+	private static volatile boolean tallied;
+
+	private final LongAdder primaryRays = new LongAdder();
+	private final LongAdder shadowRays = new LongAdder();
+	private final LongAdder secondaryRays = new LongAdder();
+	private final LongAdder rays = new LongAdder();
+	private final LongAdder nodeVisits = new LongAdder();
+	private final LongAdder primitiveTests = new LongAdder();
+
+	/**
+	 * The statistics everything is also added to or null.
+	 */
+	private final TraversalStatistics parent;
+
+	/**
+	 * Creates new statistics without a parent.
+	 */
+	public TraversalStatistics() {
+		this(null);
+	}
+
+	/**
+	 * Creates new statistics which add everything they count to a parent as well.
+	 * 
+	 * @param parent
+	 *            the statistics everything is also added to or null
+	 */
+	public TraversalStatistics(TraversalStatistics parent) {
+		this.parent = parent;
+	}
+
+	/**
+	 * Records a single ray query.
+	 * 
+	 * @param nodeVisits
+	 *            the number of nodes of the hierarchy the ray visited
+	 * @param primitiveTests
+	 *            the number of primitives the ray was tested against
+	 */
+	public void record(long nodeVisits, long primitiveTests) {
+		if (!ENABLED)
+			return;
+
+		add(1, nodeVisits, primitiveTests);
+		tally(1, nodeVisits, primitiveTests);
+	}
+
+	/**
+	 * Records a query of several rays at once.
+	 * 
+	 * @param rays
+	 *            the number of rays or 0 if the query continues one recorded
+	 *            before
+	 * @param nodeVisits
+	 *            the number of nodes of the hierarchy the rays visited together
+	 * @param primitiveTests
+	 *            the number of ray primitive tests
+	 */
+	public void record(long rays, long nodeVisits, long primitiveTests) {
+		if (!ENABLED)
+			return;
+
+		add(rays, nodeVisits, primitiveTests);
+		tally(rays, nodeVisits, primitiveTests);
+	}
+
+	/**
+	 * Adds queries to these statistics and their parents, but not to the tally of
+	 * the thread, which counts every query once.
+	 */
+	private void add(long rays, long nodeVisits, long primitiveTests) {
+		for (TraversalStatistics s = this; s != null; s = s.parent) {
+			s.rays.add(rays);
+			s.nodeVisits.add(nodeVisits);
+			s.primitiveTests.add(primitiveTests);
+		}
+	}
+
+	private static void tally(long rays, long nodeVisits, long primitiveTests) {
+		if (tallied) {
+			Tally tally = TALLIES.get();
+			if (tally != null) {
+				tally.queries += rays;
+				tally.nodeVisits += nodeVisits;
+				tally.primitiveTests += primitiveTests;
+			}
+		}
+	}
+
+	/**
+	 * Sets the tally the queries of the calling thread are added to, in addition
+	 * to the statistics of their scene.
+	 * 
+	 * @param tally
+	 *            the tally of the calling thread or null to stop tallying
+	 */
+	public static void setTally(Tally tally) {
+		if (tally != null)
+			tallied = true;
+		TALLIES.set(tally);
+	}
+
+	/**
+	 * Records camera rays.
+	 * 
+	 * @param rays
+	 *            the number of camera rays
+	 */
+	public void recordPrimaryRays(long rays) {
+		if (!ENABLED)
+			return;
+
+		for (TraversalStatistics s = this; s != null; s = s.parent) {
+			s.primaryRays.add(rays);
+		}
+	}
+
+	/**
+	 * Records a shadow ray traced towards a light.
+	 */
+	public void recordShadowRay() {
+		if (!ENABLED)
+			return;
+
+		for (TraversalStatistics s = this; s != null; s = s.parent) {
+			s.shadowRays.increment();
+		}
+	}
+
+	/**
+	 * Records a reflected ray.
+	 */
+	public void recordSecondaryRay() {
+		if (!ENABLED)
+			return;
+
+		for (TraversalStatistics s = this; s != null; s = s.parent) {
+			s.secondaryRays.increment();
+		}
+	}
+
+	/**
+	 * Resets all counters to zero. The parent keeps its counts.
+	 */
+	public void reset() {
+		primaryRays.reset();
+		shadowRays.reset();
+		secondaryRays.reset();
+		rays.reset();
+		nodeVisits.reset();
+		primitiveTests.reset();
+	}
+
+	/**
+	 * Returns the number of camera rays.
+	 * 
+	 * @return the number of camera rays
+	 */
+	public long getPrimaryRays() {
+		return primaryRays.sum();
+	}
+
+	/**
+	 * Returns the number of shadow rays.
+	 * 
+	 * @return the number of shadow rays
+	 */
+	public long getShadowRays() {
+		return shadowRays.sum();
+	}
+
+	/**
+	 * Returns the number of reflected rays.
+	 * 
+	 * @return the number of reflected rays
+	 */
+	public long getSecondaryRays() {
+		return secondaryRays.sum();
+	}
+
+	/**
+	 * Returns the number of ray queries.
+	 * 
+	 * @return the number of ray queries
+	 */
+	public long getRays() {
+		return rays.sum();
+	}
+
+	/**
+	 * Returns the number of visited nodes.
+	 * 
+	 * @return the number of visited nodes
+	 */
+	public long getNodeVisits() {
+		return nodeVisits.sum();
+	}
+
+	/**
+	 * Returns the number of ray primitive tests.
+	 * 
+	 * @return the number of ray primitive tests
+	 */
+	public long getPrimitiveTests() {
+		return primitiveTests.sum();
+	}
+
+	@Override
+	public String toString() {
+		long r = Math.max(1, getRays());
+		return String.format("%d rays, %.2f nodes/ray, %.2f primitive tests/ray", getRays(),
+				1d * getNodeVisits() / r, 1d * getPrimitiveTests() / r);
+	}
+
+	/**
+	 * Counts the queries of a single thread. It isn't thread-safe, so it
+	 * mustn't be shared by threads.
+	 * 
+	 * @author Dillon Elste
+	 * 
+	 * @see TraversalStatistics#setTally(Tally)
+	 */
+	public static final class Tally {
+		private long queries, nodeVisits, primitiveTests;
+
+		/**
+		 * Resets all counters to zero.
+		 */
+		public void reset() {
+			queries = 0;
+			nodeVisits = 0;
+			primitiveTests = 0;
+		}
+
+		/**
+		 * Returns the number of ray queries.
+		 * 
+		 * @return the number of ray queries
+		 */
+		public long getQueries() {
+			return queries;
+		}
+
+		/**
+		 * Returns the number of visited nodes.
+		 * 
+		 * @return the number of visited nodes
+		 */
+		public long getNodeVisits() {
+			return nodeVisits;
+		}
+
+		/**
+		 * Returns the number of ray primitive tests.
+		 * 
+		 * @return the number of ray primitive tests
+		 */
+		public long getPrimitiveTests() {
+			return primitiveTests;
+		}
+	}
+}
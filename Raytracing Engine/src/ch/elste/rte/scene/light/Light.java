@@ -1,8 +1,21 @@
-package ch.elste.rte.scene.light;
-
-import ch.elste.math.Vector;
-import ch.elste.rte.scene.Actor;
-
-public abstract class Light extends Actor {
-	public Vector position;
-}
+package ch.elste.rte.scene.light;
+
+import ch.elste.math.Vector;
+import ch.elste.rte.scene.Actor;
+
+/**
+ * A source of light in the scene.
+ * 
+ * @author Dillon Elste
+ */
+public abstract class Light extends Actor {
+	public Vector position;
+
+	/**
+	 * Returns the brightness of this light. A surface at distance {@code d} facing
+	 * the light receives an irradiance of {@code brightness / d^2}.
+	 * 
+	 * @return the brightness of this light
+	 */
+	public abstract double getBrightness();
+}
@@ -0,0 +1,282 @@
+package ch.elste.rte.scene.light;
+
+import ch.elste.rte.Ray;
+import ch.elste.rte.scene.SceneSnapshot;
+import ch.elste.rte.scene.shape.Primitive;
+
+/**
+ * Calculates how much light from all lights of a scene reaches a point. A
+ * light with brightness {@code b} at distance {@code d} adds
+ * {@code b * cos(angle) / d^2} to the irradiance of a surface, if nothing is in
+ * between.
+ * <p>
+ * Every light which reaches the surface costs a shadow ray, so lights are culled
+ * first. Lights behind the surface and lights too far away to matter are
+ * skipped without tracing a ray. The cutoff limits the irradiance culling may
+ * lose at a point in total, so it is shared among the lights: a light is only
+ * culled if it adds less than the cutoff divided by the number of lights. Many
+ * dim lights therefore still add up as they should.
+ * </p>
+ * <p>
+ * With many lights even that is too expensive. If a number of samples is set,
+ * only that many lights are picked at random, in proportion to their
+ * brightness, using an alias table. Their contributions are weighted by the
+ * inverse of their probability, so the expected irradiance stays the same and
+ * the noise averages out over the samples of a pixel.
+ * </p>
+ * 
+ * @author Dillon Elste
+ */
+public class LightSampler {
+	/**
+	 * The default limit of the irradiance culling may lose at a point. It is half
+	 * a step of an 8 bit channel.
+	 */
+	public static final double DEFAULT_CUTOFF = .5 / 255;
+
+	private final double[] positionX, positionY, positionZ;
+	private final double[] brightness;
+
+	/**
+	 * The squared distance from each light beyond which it adds less than the
+	 * cutoff of a single light.
+	 */
+	private final double[] rangeSquared;
+	private final double cutoff;
+
+	/**
+	 * The irradiance below which a single light is culled, which is the cutoff
+	 * divided by the number of lights.
+	 */
+	private final double lightCutoff;
+
+	/**
+	 * The number of lights sampled per point or 0 if all lights are evaluated.
+	 */
+	private final int samples;
+
+	/**
+	 * The alias table. Slot {@code i} picks light {@code i} with probability
+	 * {@code probability[i]}, otherwise it picks {@code alias[i]}.
+	 */
+	private final double[] probability;
+	private final int[] alias;
+	private final double totalBrightness;
+
+	/**
+	 * Creates a new sampler for given lights.
+	 * 
+	 * @param lights
+	 *            the lights of the scene
+	 * @param samples
+	 *            the number of lights sampled per point or 0 to evaluate all
+	 *            lights
+	 * @param cutoff
+	 *            the most irradiance culling may lose at a point
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if {@code samples} or {@code cutoff} is negative
+	 */
+	public LightSampler(Light[] lights, int samples, double cutoff) {
+		if (samples < 0)
+			throw new IllegalArgumentException("the number of samples must not be negative");
+		if (cutoff < 0)
+			throw new IllegalArgumentException("the cutoff must not be negative");
+
+		this.samples = samples;
+		this.cutoff = cutoff;
+
+		int n = lights.length;
+		lightCutoff = cutoff / Math.max(1, n);
+		positionX = new double[n];
+		positionY = new double[n];
+		positionZ = new double[n];
+		brightness = new double[n];
+		rangeSquared = new double[n];
+
+		double total = 0;
+		for (int i = 0; i < n; i++) {
+			positionX[i] = lights[i].position.x;
+			positionY[i] = lights[i].position.y;
+			positionZ[i] = lights[i].position.z;
+			brightness[i] = Math.max(0, lights[i].getBrightness());
+			rangeSquared[i] = lightCutoff > 0 ? brightness[i] / lightCutoff : Double.POSITIVE_INFINITY;
+			total += brightness[i];
+		}
+		totalBrightness = total;
+
+		probability = new double[n];
+		alias = new int[n];
+		buildAliasTable();
+	}
+
+	/**
+	 * Builds the alias table with Vose's method. Each slot is filled with the
+	 * rest of a light below the average and topped up by a light above it. Lights
+	 * without brightness get a probability of 0, so they are never picked.
+	 */
+	private void buildAliasTable() {
+		int n = brightness.length;
+		if (n == 0 || totalBrightness == 0)
+			return;
+
+		int[] small = new int[n], large = new int[n];
+		int smallCount = 0, largeCount = 0;
+		double[] scaled = new double[n];
+		int brightest = 0;
+
+		for (int i = 0; i < n; i++) {
+			if (brightness[i] > brightness[brightest])
+				brightest = i;
+			scaled[i] = brightness[i] * n / totalBrightness;
+			if (scaled[i] < 1)
+				small[smallCount++] = i;
+			else
+				large[largeCount++] = i;
+		}
+
+		while (smallCount > 0 && largeCount > 0) {
+			int s = small[--smallCount], l = large[--largeCount];
+			probability[s] = scaled[s];
+			alias[s] = l;
+
+			scaled[l] = scaled[l] + scaled[s] - 1;
+			if (scaled[l] < 1)
+				small[smallCount++] = l;
+			else
+				large[largeCount++] = l;
+		}
+
+		// What is left is 1 up to rounding errors, unless the light has no brightness
+		// at all. Picking such a light would divide 0 by its probability of 0.
+		while (largeCount > 0) {
+			probability[large[--largeCount]] = 1;
+		}
+		while (smallCount > 0) {
+			int s = small[--smallCount];
+			if (brightness[s] > 0) {
+				probability[s] = 1;
+			} else {
+				probability[s] = 0;
+				alias[s] = brightest;
+			}
+		}
+	}
+
+	/**
+	 * Calculates the irradiance of the lights at a point on a surface.
+	 * 
+	 * @param scene
+	 *            the scene the shadow rays are traced through
+	 * @param px
+	 *            the x coordinate of the point
+	 * @param py
+	 *            the y coordinate of the point
+	 * @param pz
+	 *            the z coordinate of the point
+	 * @param nx
+	 *            the x coordinate of the normalized normal of the surface
+	 * @param ny
+	 *            the y coordinate of the normalized normal of the surface
+	 * @param nz
+	 *            the z coordinate of the normalized normal of the surface
+	 * @param skip
+	 *            the primitive the point lies on, which can't block the light
+	 * 
+	 * @return the irradiance at the point
+	 */
+	public double irradiance(SceneSnapshot scene, double px, double py, double pz, double nx, double ny, double nz,
+			Primitive skip) {
+		Ray shadowRay = new Ray(scene, px, py, pz, 0, 0, 1);
+
+		if (samples == 0) {
+			double sum = 0;
+			for (int i = 0; i < brightness.length; i++) {
+				sum += contribution(i, shadowRay, nx, ny, nz, skip);
+			}
+			return sum;
+		}
+
+		if (totalBrightness == 0)
+			return 0;
+
+		// The random numbers only depend on the point, so the image doesn't depend on
+		// the order in which the pixels are rendered.
+		long seed = mix(Double.doubleToLongBits(px)
+				^ mix(Double.doubleToLongBits(py) ^ mix(Double.doubleToLongBits(pz))));
+		double sum = 0;
+		for (int s = 0; s < samples; s++) {
+			seed = mix(seed + s);
+			int light = pick((seed >>> 11) * 0x1.0p-53);
+
+			// The probability of the light is its share of the total brightness.
+			sum += contribution(light, shadowRay, nx, ny, nz, skip) * totalBrightness / brightness[light];
+		}
+		return sum / samples;
+	}
+
+	/**
+	 * Returns the irradiance one light adds to the point at the origin of the
+	 * shadow ray or 0 if it is culled or blocked.
+	 */
+	private double contribution(int light, Ray shadowRay, double nx, double ny, double nz, Primitive skip) {
+		double dx = positionX[light] - shadowRay.origin.x;
+		double dy = positionY[light] - shadowRay.origin.y;
+		double dz = positionZ[light] - shadowRay.origin.z;
+		double distanceSquared = dx * dx + dy * dy + dz * dz;
+		if (distanceSquared > rangeSquared[light])
+			return 0;
+
+		double distance = Math.sqrt(distanceSquared);
+		double cos = (dx * nx + dy * ny + dz * nz) / distance;
+		double irradiance = brightness[light] * cos / distanceSquared;
+		if (cos <= 0 || irradiance < lightCutoff)
+			return 0;
+
+		shadowRay.set(shadowRay.origin.x, shadowRay.origin.y, shadowRay.origin.z, dx / distance, dy / distance,
+				dz / distance);
+		shadowRay.scene.getTraversalStatistics().recordShadowRay();
+		return shadowRay.isOccluded(distance, skip) ? 0 : irradiance;
+	}
+
+	/**
+	 * Picks a light from the alias table.
+	 * 
+	 * @param u
+	 *            a random number between 0 (inclusive) and 1 (exclusive)
+	 * 
+	 * @return the index of the light
+	 */
+	private int pick(double u) {
+		double slot = u * brightness.length;
+		int i = (int) slot;
+		return slot - i < probability[i] ? i : alias[i];
+	}
+
+	/**
+	 * Scrambles the bits of {@code z}, like the finalizer of SplitMix64.
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Returns the number of lights sampled per point.
+	 * 
+	 * @return the number of samples or 0 if all lights are evaluated
+	 */
+	public int getSamples() {
+		return samples;
+	}
+
+	/**
+	 * Returns the most irradiance culling may lose at a point.
+	 * 
+	 * @return the cutoff
+	 */
+	public double getCutoff() {
+		return cutoff;
+	}
+}
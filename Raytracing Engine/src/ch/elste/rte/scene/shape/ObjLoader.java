@@ -0,0 +1,318 @@
+package ch.elste.rte.scene.shape;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import ch.elste.rte.image.Radiance;
+import ch.elste.rte.scene.shape.material.Material;
+
+/**
+ * Loads {@link TriangleMesh triangle meshes} from Wavefront OBJ files. Only
+ * the vertices ({@code v}) and the faces ({@code f}) are read, faces with more
+ * than three vertices are split into triangles. Everything else, like normals,
+ * texture coordinates and groups, is skipped.
+ * <p>
+ * The file is mapped into memory and parsed byte by byte in a single pass.
+ * Numbers are parsed straight from the bytes into growing primitive arrays, no
+ * strings or boxed numbers are created, so even files of several gigabytes
+ * load in seconds.
+ * </p>
+ * 
+ * @author Dillon Elste
+ */
+public final class ObjLoader {
+	/**
+	 * The size of the parts the file is mapped in. A single mapping can't be
+	 * larger than 2 GB.
+	 */
+	private static final long CHUNK_SIZE = 1L << 30;
+
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	private MappedByteBuffer buffer;
+
+	/**
+	 * The position of the mapped part in the file, to report where an error is.
+	 */
+	private long offset;
+	private int position, end;
+
+	private float[] vertices = new float[3 * 1024];
+	private int vertexCount;
+	private int[] triangles = new int[3 * 1024];
+	private int triangleCount;
+
+	/**
+	 * The vertices of the face being read.
+	 */
+	private int[] face = new int[16];
+
+	private ObjLoader() {
+	}
+
+	/**
+	 * Loads a mesh with a white diffuse material.
+	 * 
+	 * @param path
+	 *            the path of the OBJ file
+	 * 
+	 * @return the mesh
+	 * 
+	 * @throws IOException
+	 *             if the file can't be read or isn't a valid OBJ file
+	 */
+	public static TriangleMesh load(Path path) throws IOException {
+		return load(path, new Material(new Radiance(1)));
+	}
+
+	/**
+	 * Loads a mesh with given material.
+	 * 
+	 * @param path
+	 *            the path of the OBJ file
+	 * @param material
+	 *            the material of the surface of the mesh
+	 * 
+	 * @return the mesh
+	 * 
+	 * @throws IOException
+	 *             if the file can't be read or isn't a valid OBJ file
+	 */
+	public static TriangleMesh load(Path path, Material material) throws IOException {
+		ObjLoader loader = new ObjLoader();
+		loader.read(path);
+		// The trimmed arrays aren't used by anything else, so the mesh can keep them.
+		return TriangleMesh.wrap(loader.getVertices(), loader.getTriangles(), material);
+	}
+
+	/**
+	 * Reads the file in chunks. Each chunk ends after the last complete line in
+	 * it, the next chunk starts right after that line.
+	 */
+	private void read(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			offset = 0;
+
+			while (offset < size) {
+				long length = Math.min(CHUNK_SIZE, size - offset);
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+				end = (int) length;
+
+				if (offset + length < size) {
+					while (end > 0 && buffer.get(end - 1) != '\n') {
+						end--;
+					}
+					if (end == 0)
+						throw new IOException("line longer than " + CHUNK_SIZE + " bytes at byte " + offset);
+				}
+
+				position = 0;
+				while (position < end) {
+					readLine();
+				}
+				offset += end;
+			}
+			buffer = null;
+		}
+
+		for (int i = 0; i < 3 * triangleCount; i++) {
+			if (triangles[i] >= vertexCount)
+				throw new IOException("a face references the missing vertex " + (triangles[i] + 1));
+		}
+	}
+
+	private void readLine() throws IOException {
+		skipSpaces();
+		if (position + 1 < end && isSpace(buffer.get(position + 1))) {
+			byte type = buffer.get(position);
+			if (type == 'v') {
+				position++;
+				readVertex();
+			} else if (type == 'f') {
+				position++;
+				readFace();
+			}
+		}
+		skipLine();
+	}
+
+	private void readVertex() throws IOException {
+		if (3 * vertexCount + 3 > vertices.length)
+			vertices = Arrays.copyOf(vertices, grow(vertices.length));
+
+		for (int k = 0; k < 3; k++) {
+			skipSpaces();
+			vertices[3 * vertexCount + k] = (float) readNumber();
+		}
+		vertexCount++;
+	}
+
+	/**
+	 * Reads the vertices of a face and splits it into a fan of triangles around
+	 * its first vertex.
+	 */
+	private void readFace() throws IOException {
+		int count = 0;
+		while (true) {
+			skipSpaces();
+			if (position >= end || isEndOfLine(buffer.get(position)))
+				break;
+
+			// Positive indices start at 1, negative ones count back from the last vertex.
+			long index = readInteger();
+			if (index == 0)
+				throw error("vertex indices start at 1");
+			index = index > 0 ? index - 1 : vertexCount + index;
+			if (index < 0 || index >= Integer.MAX_VALUE)
+				throw error("invalid vertex index");
+
+			if (count == face.length)
+				face = Arrays.copyOf(face, 2 * count);
+			face[count++] = (int) index;
+
+			// Skips the indices of the texture coordinate and the normal.
+			while (position < end && !isSpace(buffer.get(position)) && !isEndOfLine(buffer.get(position))) {
+				position++;
+			}
+		}
+
+		if (count < 3)
+			throw error("a face needs at least three vertices");
+
+		if (3 * (triangleCount + count - 2) > triangles.length)
+			triangles = Arrays.copyOf(triangles, Math.max(grow(triangles.length), 3 * (triangleCount + count - 2)));
+
+		for (int i = 1; i + 1 < count; i++) {
+			triangles[3 * triangleCount] = face[0];
+			triangles[3 * triangleCount + 1] = face[i];
+			triangles[3 * triangleCount + 2] = face[i + 1];
+			triangleCount++;
+		}
+	}
+
+	/**
+	 * Reads a signed integer.
+	 */
+	private long readInteger() throws IOException {
+		boolean negative = false;
+		if (position < end && (buffer.get(position) == '-' || buffer.get(position) == '+'))
+			negative = buffer.get(position++) == '-';
+
+		long value = 0;
+		int digits = 0;
+		for (; position < end && isDigit(buffer.get(position)); position++, digits++) {
+			if (value > Integer.MAX_VALUE)
+				throw error("vertex index too large");
+			value = 10 * value + (buffer.get(position) - '0');
+		}
+
+		if (digits == 0)
+			throw error("number expected");
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Reads a decimal number with an optional fraction and exponent. Digits after
+	 * the 18th significant one are dropped, which is far more than a float can
+	 * hold.
+	 */
+	private double readNumber() throws IOException {
+		boolean negative = false;
+		if (position < end && (buffer.get(position) == '-' || buffer.get(position) == '+'))
+			negative = buffer.get(position++) == '-';
+
+		long mantissa = 0;
+		int exponent = 0, digits = 0, significant = 0;
+		for (; position < end && isDigit(buffer.get(position)); position++, digits++) {
+			if (significant < 18) {
+				mantissa = 10 * mantissa + (buffer.get(position) - '0');
+				if (mantissa > 0)
+					significant++;
+			} else {
+				exponent++;
+			}
+		}
+
+		if (position < end && buffer.get(position) == '.') {
+			for (position++; position < end && isDigit(buffer.get(position)); position++, digits++) {
+				if (significant < 18) {
+					mantissa = 10 * mantissa + (buffer.get(position) - '0');
+					exponent--;
+					if (mantissa > 0)
+						significant++;
+				}
+			}
+		}
+
+		if (digits == 0)
+			throw error("number expected");
+
+		if (position < end && (buffer.get(position) == 'e' || buffer.get(position) == 'E')) {
+			position++;
+			boolean negativeExponent = false;
+			if (position < end && (buffer.get(position) == '-' || buffer.get(position) == '+'))
+				negativeExponent = buffer.get(position++) == '-';
+
+			int value = 0, exponentDigits = 0;
+			for (; position < end && isDigit(buffer.get(position)); position++, exponentDigits++) {
+				value = Math.min(10 * value + (buffer.get(position) - '0'), 1000);
+			}
+			if (exponentDigits == 0)
+				throw error("exponent expected");
+			exponent += negativeExponent ? -value : value;
+		}
+
+		double value = mantissa;
+		if (exponent != 0) {
+			int e = Math.abs(exponent);
+			double scale = e < POWERS_OF_TEN.length ? POWERS_OF_TEN[e] : Math.pow(10, e);
+			value = exponent < 0 ? value / scale : value * scale;
+		}
+		return negative ? -value : value;
+	}
+
+	private void skipSpaces() {
+		while (position < end && isSpace(buffer.get(position))) {
+			position++;
+		}
+	}
+
+	private void skipLine() {
+		while (position < end && buffer.get(position++) != '\n') {
+		}
+	}
+
+	private IOException error(String message) {
+		return new IOException(message + " at byte " + (offset + position));
+	}
+
+	private float[] getVertices() {
+		return Arrays.copyOf(vertices, 3 * vertexCount);
+	}
+
+	private int[] getTriangles() {
+		return Arrays.copyOf(triangles, 3 * triangleCount);
+	}
+
+	private static int grow(int length) {
+		return (int) Math.min(Integer.MAX_VALUE - 8, length + (length >> 1) + 3L);
+	}
+
+	private static boolean isSpace(byte b) {
+		return b == ' ' || b == '\t' || b == '\r';
+	}
+
+	private static boolean isEndOfLine(byte b) {
+		return b == '\n' || b == '#';
+	}
+
+	private static boolean isDigit(byte b) {
+		return b >= '0' && b <= '9';
+	}
+}
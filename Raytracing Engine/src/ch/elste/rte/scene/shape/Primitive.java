@@ -1,12 +1,174 @@
-package ch.elste.rte.scene.shape;
-
-import ch.elste.rte.scene.Actor;
-
-/**
- * The Primitive is an abstract class which is used as a blueprint for all
- * shapes.
- * 
- * @author Dillon Elste
- */
-public abstract class Primitive extends Actor {
-}
+package ch.elste.rte.scene.shape;
+
+import ch.elste.rte.HitRecord;
+import ch.elste.rte.Ray;
+import ch.elste.rte.image.Radiance;
+import ch.elste.rte.scene.Actor;
+import ch.elste.rte.scene.SceneSnapshot;
+import ch.elste.rte.scene.acceleration.BoundingBox;
+import ch.elste.rte.scene.shape.material.Material;
+
+/**
+ * The Primitive is an abstract class which is used as a blueprint for all
+ * shapes.
+ * 
+ * @author Dillon Elste
+ */
+public abstract class Primitive extends Actor {
+	private final Material material;
+
+	/**
+	 * Creates a new primitive with a white diffuse material.
+	 */
+	protected Primitive() {
+		this(new Material(new Radiance(1)));
+	}
+
+	/**
+	 * Creates a new primitive with given material.
+	 * 
+	 * @param material
+	 *            the material of the surface
+	 */
+	protected Primitive(Material material) {
+		this.material = material;
+	}
+
+	/**
+	 * Returns the distance between the origin of the ray and the nearest
+	 * intersection in front of it. Unlike {@link #intersects(Ray)} the
+	 * intersection isn't shaded.
+	 * 
+	 * @param ray
+	 *            the ray to be checked
+	 * 
+	 * @return the distance to the nearest intersection or
+	 *         {@link Double#POSITIVE_INFINITY} if the ray misses this primitive
+	 */
+	public abstract double intersectionDistance(Ray ray);
+
+	/**
+	 * Checks whether the ray intersects this primitive closer than the
+	 * intersection already in {@code hit} and replaces it if it does. Primitives
+	 * consisting of several elements, like the triangles of a mesh, also record
+	 * which element is hit.
+	 * 
+	 * @param ray
+	 *            the ray to be checked
+	 * @param hit
+	 *            the nearest intersection found so far
+	 * 
+	 * @return true if {@code hit} has been replaced
+	 */
+	public boolean intersect(Ray ray, HitRecord hit) {
+		double distance = intersectionDistance(ray);
+		if (distance >= hit.distance)
+			return false;
+
+		hit.distance = distance;
+		hit.primitive = this;
+		hit.element = 0;
+		return true;
+	}
+
+	/**
+	 * Shades the intersection of the ray with this primitive at given distance.
+	 * 
+	 * @param ray
+	 *            the ray intersecting this primitive
+	 * @param distance
+	 *            the distance between the origin of the ray and the intersection
+	 * 
+	 * @return an {@link Ray.IntersectionInfo} object holding the color of the
+	 *         intersection
+	 */
+	public abstract Ray.IntersectionInfo getIntersectionInfo(Ray ray, double distance);
+
+	/**
+	 * Calculates the normal of the surface of this primitive at a point on it.
+	 * 
+	 * @param element
+	 *            the element of this primitive the point lies on
+	 * @param x
+	 *            the x coordinate of the point
+	 * @param y
+	 *            the y coordinate of the point
+	 * @param z
+	 *            the z coordinate of the point
+	 * @param normal
+	 *            the array the normalized normal is written to as x, y and z
+	 */
+	public abstract void getNormal(int element, double x, double y, double z, double[] normal);
+
+	/**
+	 * Returns whether this primitive is convex. A ray leaving the surface of a
+	 * convex primitive can't hit it again, so it skips the primitive instead of
+	 * testing it. Other primitives have to ignore intersections right at the
+	 * origin of a ray themselves.
+	 * 
+	 * @return true if this primitive is convex
+	 */
+	public boolean isConvex() {
+		return false;
+	}
+
+	/**
+	 * Calculates the linear color of a point on the surface of this primitive lit
+	 * by the lights of the scene. Only the diffuse part of the material is
+	 * shaded, reflections are added by the {@link ch.elste.rte.ReflectionTracer}.
+	 * 
+	 * @param scene
+	 *            the scene the point is in
+	 * @param px
+	 *            the x coordinate of the point
+	 * @param py
+	 *            the y coordinate of the point
+	 * @param pz
+	 *            the z coordinate of the point
+	 * @param nx
+	 *            the x coordinate of the normal at the point
+	 * @param ny
+	 *            the y coordinate of the normal at the point
+	 * @param nz
+	 *            the z coordinate of the normal at the point
+	 * 
+	 * @return the linear color of the point
+	 */
+	public Radiance shade(SceneSnapshot scene, double px, double py, double pz, double nx, double ny, double nz) {
+		double irradiance = scene.getLightSampler().irradiance(scene, px, py, pz, nx, ny, nz,
+				isConvex() ? this : null);
+		return material.diffuseColor.scale(irradiance * (1 - material.metallic));
+	}
+
+	/**
+	 * Returns the material of the surface of this primitive.
+	 * 
+	 * @return the material
+	 */
+	public Material getMaterial() {
+		return material;
+	}
+
+	/**
+	 * Returns the smallest axis aligned box enclosing this primitive.
+	 * 
+	 * @return the bounding box of this primitive
+	 */
+	public abstract BoundingBox getBoundingBox();
+
+	/**
+	 * Returns a copy of this primitive moved by an offset, with the same
+	 * material. This primitive doesn't change, so both can be in different
+	 * snapshots of a scene at the same time.
+	 * 
+	 * @param dx
+	 *            the offset along the x axis
+	 * @param dy
+	 *            the offset along the y axis
+	 * @param dz
+	 *            the offset along the z axis
+	 * 
+	 * @return the moved copy
+	 */
+	public abstract Primitive translate(double dx, double dy, double dz);
+}
@@ -1,96 +1,176 @@
-package ch.elste.rte.scene.shape;
-
-import ch.elste.math.Vector;
-import ch.elste.rte.Ray;
-import ch.elste.rte.Ray.IntersectionInfo;
-import ch.elste.rte.image.Pixel;
-import ch.elste.rte.scene.Scene;
-
-/**
- * A simple sphere.
- * 
- * @author Dillon Elste
- */
-public class Sphere extends Primitive {
-	private Vector center;
-	private double radius;
-	private double radiusSquared;
-
-	/**
-	 * Creates a new sphere object with given values.
-	 * 
-	 * @param center
-	 *            the center of the sphere
-	 * @param radius
-	 *            the radius of the sphere
-	 */
-	public Sphere(Vector center, double radius) {
-		super();
-
-		this.center = center;
-		this.radius = radius;
-		radiusSquared = radius * radius;
-	}
-
-	@Override
-	public IntersectionInfo intersects(Ray ray) {
-		// This web site has a good explanation of what's happening here.
-		// https://www.scratchapixel.com/lessons/3d-basic-rendering/minimal-ray-tracer-rendering-simple-shapes/ray-sphere-intersection
-
-		// The vector from the origin of the ray to the center of the sphere.
-		Vector rOtoC = center.minus(ray.origin);
-
-		// The distance between the origin of the ray and the point nearest to the
-		// center of the sphere, but still on the ray.
-		double dco = rOtoC.dot(ray.direction);
-
-		// The distance squared between the center of the sphere and the ray. It is
-		// calculated using the pythagorean theorem.
-		double dSquared = rOtoC.dot(rOtoC) - dco * dco;
-
-		// if the distance between the center of the sphere and the ray is greater than
-		// the radius of the sphere, there is no intersection.
-		if (dSquared > radiusSquared)
-			return new IntersectionInfo(false, Double.POSITIVE_INFINITY, null, null);
-
-		// the distance between the surface of the sphere and the nearest point to the
-		// center of the sphere, but still on the ray.
-		double dcs = Math.sqrt(radiusSquared - dSquared);
-
-		double firstIntersection = dco - dcs;
-		double secondIntersection = dco + dcs;
-
-		if (firstIntersection < 0) {
-			if (secondIntersection < 0)
-				return new IntersectionInfo(false, Double.POSITIVE_INFINITY, null, null);
-			else
-				return getIntersectionInfo(ray, secondIntersection);
-		} else {
-			return getIntersectionInfo(ray, firstIntersection);
-		}
-	}
-
-	private IntersectionInfo getIntersectionInfo(final Ray ray, final double distance) {
-		Vector intersectionPoint = ray.origin.plus(ray.direction.scale(distance));
-		Ray toLight = new Ray(intersectionPoint, Scene.getLight(0).position.minus(intersectionPoint).normalize());
-		IntersectionInfo lightRayInfo = toLight.intersects(Scene.getLight(0), this);
-		if (lightRayInfo.intersects) {
-			return new IntersectionInfo(true, distance, this,
-					new Pixel(Math.max(0, toLight.direction.dot(getNormal(intersectionPoint)))));
-		} else {
-			return new IntersectionInfo(true, distance, this, new Pixel(0));
-		}
-	}
-
-	/**
-	 * Returns the normal vector at the specified point on the surface.
-	 * 
-	 * @param pointOnSurface
-	 *            the point on the surface
-	 * 
-	 * @return the normal vector
-	 */
-	public Vector getNormal(final Vector pointOnSurface) {
-		return pointOnSurface.minus(center).scale(1d / radius);
-	}
-}
+package ch.elste.rte.scene.shape;
+
+import ch.elste.math.Vector;
+import ch.elste.rte.Ray;
+import ch.elste.rte.Ray.IntersectionInfo;
+import ch.elste.rte.ReflectionTracer;
+import ch.elste.rte.scene.acceleration.BoundingBox;
+import ch.elste.rte.scene.shape.material.Material;
+
+/**
+ * A simple sphere.
+ * 
+ * @author Dillon Elste
+ */
+public class Sphere extends Primitive {
+	private Vector center;
+	/**
+	 * The coordinates of the center. They are kept separately so an intersection
+	 * test doesn't have to allocate any vectors.
+	 */
+	private double cx, cy, cz;
+	private double radius;
+	private double radiusSquared;
+
+	/**
+	 * Creates a new sphere object with given values.
+	 * 
+	 * @param center
+	 *            the center of the sphere
+	 * @param radius
+	 *            the radius of the sphere
+	 */
+	public Sphere(Vector center, double radius) {
+		super();
+
+		init(center, radius);
+	}
+
+	/**
+	 * Creates a new sphere object with given values.
+	 * 
+	 * @param center
+	 *            the center of the sphere
+	 * @param radius
+	 *            the radius of the sphere
+	 * @param material
+	 *            the material of the surface
+	 */
+	public Sphere(Vector center, double radius, Material material) {
+		super(material);
+
+		init(center, radius);
+	}
+
+	private void init(Vector center, double radius) {
+		this.center = center;
+		cx = center.x;
+		cy = center.y;
+		cz = center.z;
+		this.radius = radius;
+		radiusSquared = radius * radius;
+	}
+
+	@Override
+	public IntersectionInfo intersects(Ray ray) {
+		double distance = intersectionDistance(ray);
+
+		if (distance == Double.POSITIVE_INFINITY)
+			return new IntersectionInfo(false, Double.POSITIVE_INFINITY, null, null);
+		else
+			return getIntersectionInfo(ray, distance);
+	}
+
+	@Override
+	public double intersectionDistance(Ray ray) {
+		// This web site has a good explanation of what's happening here.
+		// https://www.scratchapixel.com/lessons/3d-basic-rendering/minimal-ray-tracer-rendering-simple-shapes/ray-sphere-intersection
+
+		// The vector from the origin of the ray to the center of the sphere.
+		double rOtoCx = cx - ray.origin.x;
+		double rOtoCy = cy - ray.origin.y;
+		double rOtoCz = cz - ray.origin.z;
+
+		// The distance between the origin of the ray and the point nearest to the
+		// center of the sphere, but still on the ray.
+		double dco = rOtoCx * ray.direction.x + rOtoCy * ray.direction.y + rOtoCz * ray.direction.z;
+
+		// The distance squared between the center of the sphere and the ray. It is
+		// calculated using the pythagorean theorem.
+		double dSquared = rOtoCx * rOtoCx + rOtoCy * rOtoCy + rOtoCz * rOtoCz - dco * dco;
+
+		// if the distance between the center of the sphere and the ray is greater than
+		// the radius of the sphere, there is no intersection.
+		if (dSquared > radiusSquared)
+			return Double.POSITIVE_INFINITY;
+
+		// the distance between the surface of the sphere and the nearest point to the
+		// center of the sphere, but still on the ray.
+		double dcs = Math.sqrt(radiusSquared - dSquared);
+
+		double firstIntersection = dco - dcs;
+		double secondIntersection = dco + dcs;
+
+		if (firstIntersection < 0) {
+			if (secondIntersection < 0)
+				return Double.POSITIVE_INFINITY;
+			else
+				return secondIntersection;
+		} else {
+			return firstIntersection;
+		}
+	}
+
+	@Override
+	public IntersectionInfo getIntersectionInfo(final Ray ray, final double distance) {
+		double px = ray.origin.x + ray.direction.x * distance;
+		double py = ray.origin.y + ray.direction.y * distance;
+		double pz = ray.origin.z + ray.direction.z * distance;
+
+		return new IntersectionInfo(true, distance, this, ReflectionTracer.get().shade(ray.scene, this, px, py, pz,
+				(px - cx) / radius, (py - cy) / radius, (pz - cz) / radius, ray.direction.x, ray.direction.y,
+				ray.direction.z));
+	}
+
+	@Override
+	public BoundingBox getBoundingBox() {
+		return new BoundingBox(cx - radius, cy - radius, cz - radius, cx + radius, cy + radius, cz + radius);
+	}
+
+	@Override
+	public Sphere translate(double dx, double dy, double dz) {
+		return new Sphere(new Vector(cx + dx, cy + dy, cz + dz), radius, getMaterial());
+	}
+
+	/**
+	 * Returns the center of this sphere.
+	 * 
+	 * @return the center of this sphere
+	 */
+	public Vector getCenter() {
+		return new Vector(cx, cy, cz);
+	}
+
+	/**
+	 * Returns the radius of this sphere.
+	 * 
+	 * @return the radius of this sphere
+	 */
+	public double getRadius() {
+		return radius;
+	}
+
+	@Override
+	public void getNormal(int element, double x, double y, double z, double[] normal) {
+		normal[0] = (x - cx) / radius;
+		normal[1] = (y - cy) / radius;
+		normal[2] = (z - cz) / radius;
+	}
+
+	@Override
+	public boolean isConvex() {
+		return true;
+	}
+
+	/**
+	 * Returns the normal vector at the specified point on the surface.
+	 * 
+	 * @param pointOnSurface
+	 *            the point on the surface
+	 * 
+	 * @return the normal vector
+	 */
+	public Vector getNormal(final Vector pointOnSurface) {
+		return pointOnSurface.minus(center).scale(1d / radius);
+	}
+}
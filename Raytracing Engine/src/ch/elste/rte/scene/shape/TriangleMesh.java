@@ -0,0 +1,499 @@
+package ch.elste.rte.scene.shape;
+
+import java.nio.ByteBuffer;
+
+import ch.elste.rte.HitRecord;
+import ch.elste.rte.Ray;
+import ch.elste.rte.Ray.IntersectionInfo;
+import ch.elste.rte.ReflectionTracer;
+import ch.elste.rte.image.Radiance;
+import ch.elste.rte.scene.acceleration.BoundingBox;
+import ch.elste.rte.scene.acceleration.BoundingVolumeHierarchy;
+import ch.elste.rte.scene.shape.material.Material;
+
+/**
+ * A mesh of triangles. The vertices and the triangles are stored in flat
+ * arrays instead of one object per triangle, so meshes with millions of
+ * triangles fit into memory. The triangles are the elements of the mesh, a
+ * {@link HitRecord} holds the index of the triangle a ray hits.
+ * <p>
+ * In the scene the mesh is a single primitive with the box around all of its
+ * triangles. Inside, the mesh has its own bounding volume hierarchy over the
+ * triangles, so a ray only tests the few triangles near its path. The
+ * triangles are stored in the order of the leaves of that hierarchy.
+ * </p>
+ * <p>
+ * The intersection test is the watertight test by Woop, Benthin and Wald. A
+ * ray hitting an edge or a vertex shared by several triangles hits at least one
+ * of them, so there are no holes along the edges of the mesh.
+ * </p>
+ * 
+ * @author Dillon Elste
+ */
+public class TriangleMesh extends Primitive {
+	/**
+	 * The queries are reused by every ray of a thread, so they don't have to be
+	 * allocated for each ray.
+	 */
+	private static final ThreadLocal<Query> QUERIES = ThreadLocal.withInitial(Query::new);
+
+	/**
+	 * The coordinates of the vertices. Each vertex uses three consecutive values:
+	 * x, y and z.
+	 */
+	private final float[] vertices;
+
+	/**
+	 * The indices of the vertices of the triangles. Each triangle uses three
+	 * consecutive values. The triangles are in the order of the leaves of the
+	 * hierarchy.
+	 */
+	private final int[] triangles;
+
+	private final BoundingVolumeHierarchy hierarchy;
+	private final BoundingBox bounds;
+
+	/**
+	 * The distance from its origin below which a ray doesn't hit the mesh. It
+	 * keeps rays leaving the surface of the mesh from hitting it right away.
+	 */
+	private final double minDistance;
+
+	/**
+	 * Creates a new mesh with a white diffuse material.
+	 * 
+	 * @param vertices
+	 *            the coordinates of the vertices, three per vertex
+	 * @param triangles
+	 *            the indices of the vertices of the triangles, three per
+	 *            triangle, counter-clockwise seen from the front
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if an array isn't a multiple of three long or a triangle
+	 *             references a vertex which doesn't exist
+	 */
+	public TriangleMesh(float[] vertices, int[] triangles) {
+		this(vertices, triangles, new Material(new Radiance(1)));
+	}
+
+	/**
+	 * Creates a new mesh with given material.
+	 * 
+	 * @param vertices
+	 *            the coordinates of the vertices, three per vertex
+	 * @param triangles
+	 *            the indices of the vertices of the triangles, three per
+	 *            triangle, counter-clockwise seen from the front
+	 * @param material
+	 *            the material of the surface
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if an array isn't a multiple of three long or a triangle
+	 *             references a vertex which doesn't exist
+	 */
+	public TriangleMesh(float[] vertices, int[] triangles, Material material) {
+		// The mesh keeps copies, so changing the arrays afterwards can't break it.
+		this(vertices.clone(), triangles.clone(), null, material);
+	}
+
+	/**
+	 * Creates a mesh which takes over the arrays instead of copying them, for
+	 * callers like the {@link ObjLoader} which don't use them afterwards.
+	 * 
+	 * @param vertices
+	 *            the coordinates of the vertices, three per vertex
+	 * @param triangles
+	 *            the indices of the vertices of the triangles, three per
+	 *            triangle, counter-clockwise seen from the front. They are
+	 *            sorted in place.
+	 * @param material
+	 *            the material of the surface
+	 * 
+	 * @return the mesh
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if an array isn't a multiple of three long or a triangle
+	 *             references a vertex which doesn't exist
+	 */
+	static TriangleMesh wrap(float[] vertices, int[] triangles, Material material) {
+		return new TriangleMesh(vertices, triangles, null, material);
+	}
+
+	/**
+	 * Creates a mesh from arrays which belong to it. If there is no hierarchy, it
+	 * is built and the triangles are checked and sorted into the order of its
+	 * leaves. Otherwise they already have to be.
+	 */
+	private TriangleMesh(float[] vertices, int[] triangles, BoundingVolumeHierarchy hierarchy, Material material) {
+		super(material);
+
+		this.vertices = vertices;
+		this.triangles = triangles;
+		this.hierarchy = hierarchy != null ? hierarchy : build(vertices, triangles);
+		bounds = this.hierarchy.getBounds();
+		minDistance = minDistance(bounds);
+	}
+
+	/**
+	 * Reads a mesh written by {@link #write(ByteBuffer)}. The triangles are
+	 * already in the order of the leaves of the hierarchy, so the arrays are only
+	 * copied out of the buffer and checked.
+	 * 
+	 * @param buffer
+	 *            the buffer to read from, in the byte order it was written in
+	 * @param material
+	 *            the material of the surface
+	 * 
+	 * @return the mesh
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the buffer doesn't hold a valid mesh
+	 * @throws java.nio.BufferUnderflowException
+	 *             if the buffer ends before the mesh
+	 */
+	public static TriangleMesh read(ByteBuffer buffer, Material material) {
+		int numberOfVertices = buffer.getInt();
+		int count = buffer.getInt();
+		if (numberOfVertices < 0 || count < 0
+				|| 3L * Float.BYTES * numberOfVertices + 3L * Integer.BYTES * count > buffer.remaining())
+			throw new IllegalArgumentException("invalid mesh size");
+
+		float[] vertices = new float[3 * numberOfVertices];
+		buffer.asFloatBuffer().get(vertices);
+		buffer.position(buffer.position() + Float.BYTES * vertices.length);
+
+		int[] triangles = new int[3 * count];
+		buffer.asIntBuffer().get(triangles);
+		buffer.position(buffer.position() + Integer.BYTES * triangles.length);
+		for (int v : triangles) {
+			if (v < 0 || v >= numberOfVertices)
+				throw new IllegalArgumentException("a triangle references the missing vertex " + v);
+		}
+
+		BoundingVolumeHierarchy hierarchy = BoundingVolumeHierarchy.read(buffer, null);
+		if (hierarchy.getNumberOfItems() != count)
+			throw new IllegalArgumentException("the hierarchy doesn't match the triangles");
+
+		return new TriangleMesh(vertices, triangles, hierarchy, material);
+	}
+
+	/**
+	 * Writes the vertices, the triangles and the hierarchy of this mesh to a
+	 * buffer, so it can be {@link #read read} again without building the
+	 * hierarchy. The material isn't written.
+	 * 
+	 * @param buffer
+	 *            the buffer to write to, with at least {@link #getSerializedSize()}
+	 *            bytes remaining
+	 */
+	public void write(ByteBuffer buffer) {
+		buffer.putInt(vertices.length / 3);
+		buffer.putInt(triangles.length / 3);
+
+		buffer.asFloatBuffer().put(vertices);
+		buffer.position(buffer.position() + Float.BYTES * vertices.length);
+		buffer.asIntBuffer().put(triangles);
+		buffer.position(buffer.position() + Integer.BYTES * triangles.length);
+
+		hierarchy.write(buffer);
+	}
+
+	/**
+	 * Returns the number of bytes {@link #write(ByteBuffer)} writes.
+	 * 
+	 * @return the size of this mesh in bytes
+	 */
+	public long getSerializedSize() {
+		return 2L * Integer.BYTES + (long) Float.BYTES * vertices.length + (long) Integer.BYTES * triangles.length
+				+ hierarchy.getSerializedSize();
+	}
+
+	/**
+	 * Builds the hierarchy over the triangles and sorts them into the order of
+	 * its leaves.
+	 */
+	private static BoundingVolumeHierarchy build(float[] vertices, int[] triangles) {
+		if (vertices.length % 3 != 0)
+			throw new IllegalArgumentException("every vertex needs three coordinates");
+		if (triangles.length % 3 != 0)
+			throw new IllegalArgumentException("every triangle needs three vertices");
+
+		int numberOfVertices = vertices.length / 3;
+		int count = triangles.length / 3;
+		double[] boxes = new double[6 * count];
+		for (int t = 0; t < count; t++) {
+			for (int corner = 0; corner < 3; corner++) {
+				int v = triangles[3 * t + corner];
+				if (v < 0 || v >= numberOfVertices)
+					throw new IllegalArgumentException("triangle " + t + " references the missing vertex " + v);
+			}
+			triangleBounds(vertices, triangles, t, boxes, 6 * t);
+		}
+
+		BoundingVolumeHierarchy hierarchy = BoundingVolumeHierarchy.build(boxes, null);
+
+		int[] original = triangles.clone();
+		for (int position = 0; position < count; position++) {
+			System.arraycopy(original, 3 * hierarchy.getItem(position), triangles, 3 * position, 3);
+		}
+		return hierarchy;
+	}
+
+	/**
+	 * Writes the box around a triangle to six consecutive values of an array.
+	 */
+	private static void triangleBounds(float[] vertices, int[] triangles, int t, double[] box, int offset) {
+		for (int k = 0; k < 3; k++) {
+			box[offset + k] = Double.POSITIVE_INFINITY;
+			box[offset + 3 + k] = Double.NEGATIVE_INFINITY;
+		}
+
+		for (int corner = 0; corner < 3; corner++) {
+			int v = triangles[3 * t + corner];
+			for (int k = 0; k < 3; k++) {
+				box[offset + k] = Math.min(box[offset + k], vertices[3 * v + k]);
+				box[offset + 3 + k] = Math.max(box[offset + 3 + k], vertices[3 * v + k]);
+			}
+		}
+	}
+
+	/**
+	 * Returns a distance well above the rounding errors of points on the surface
+	 * of a mesh with given bounds, but far below the size of the mesh.
+	 */
+	private static double minDistance(BoundingBox bounds) {
+		double extent = 0;
+		for (int axis = 0; axis < 3; axis++) {
+			extent = Math.max(extent, Math.abs(bounds.getMin(axis)));
+			extent = Math.max(extent, Math.abs(bounds.getMax(axis)));
+		}
+		return extent * 1e-9;
+	}
+
+	@Override
+	public IntersectionInfo intersects(Ray ray) {
+		double distance = intersectionDistance(ray);
+
+		if (distance == Double.POSITIVE_INFINITY)
+			return new IntersectionInfo(false, Double.POSITIVE_INFINITY, null, null);
+		else
+			return getIntersectionInfo(ray, distance);
+	}
+
+	@Override
+	public double intersectionDistance(Ray ray) {
+		Query query = QUERIES.get();
+		query.find(this, ray, Double.POSITIVE_INFINITY);
+		return query.distance;
+	}
+
+	@Override
+	public boolean intersect(Ray ray, HitRecord hit) {
+		Query query = QUERIES.get();
+		if (!query.find(this, ray, hit.distance))
+			return false;
+
+		hit.distance = query.distance;
+		hit.primitive = this;
+		hit.element = query.triangle;
+		return true;
+	}
+
+	@Override
+	public IntersectionInfo getIntersectionInfo(Ray ray, double distance) {
+		// Only the distance is given, so the triangle has to be found again.
+		Query query = QUERIES.get();
+		query.find(this, ray, Double.POSITIVE_INFINITY);
+
+		double px = ray.origin.x + ray.direction.x * distance;
+		double py = ray.origin.y + ray.direction.y * distance;
+		double pz = ray.origin.z + ray.direction.z * distance;
+		double[] normal = new double[3];
+		getNormal(query.triangle, px, py, pz, normal);
+
+		return new IntersectionInfo(true, distance, this, ReflectionTracer.get().shade(ray.scene, this, px, py, pz,
+				normal[0], normal[1], normal[2], ray.direction.x, ray.direction.y, ray.direction.z));
+	}
+
+	@Override
+	public void getNormal(int element, double x, double y, double z, double[] normal) {
+		int a = 3 * triangles[3 * element], b = 3 * triangles[3 * element + 1], c = 3 * triangles[3 * element + 2];
+
+		double ax = vertices[a], ay = vertices[a + 1], az = vertices[a + 2];
+		double e1x = vertices[b] - ax, e1y = vertices[b + 1] - ay, e1z = vertices[b + 2] - az;
+		double e2x = vertices[c] - ax, e2y = vertices[c + 1] - ay, e2z = vertices[c + 2] - az;
+
+		double nx = e1y * e2z - e1z * e2y, ny = e1z * e2x - e1x * e2z, nz = e1x * e2y - e1y * e2x;
+		double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+		normal[0] = nx / length;
+		normal[1] = ny / length;
+		normal[2] = nz / length;
+	}
+
+	@Override
+	public BoundingBox getBoundingBox() {
+		return bounds;
+	}
+
+	/**
+	 * Returns a copy of this mesh with every vertex moved by the offset. The
+	 * triangles keep their order, so the hierarchy of the copy is only refit, not
+	 * built again, and the triangles are shared with this mesh.
+	 */
+	@Override
+	public TriangleMesh translate(double dx, double dy, double dz) {
+		float[] moved = new float[vertices.length];
+		for (int i = 0; i < moved.length; i += 3) {
+			moved[i] = (float) (vertices[i] + dx);
+			moved[i + 1] = (float) (vertices[i + 1] + dy);
+			moved[i + 2] = (float) (vertices[i + 2] + dz);
+		}
+
+		// The triangles are in the order of the leaves, so a position is a triangle.
+		BoundingVolumeHierarchy refit = hierarchy
+				.refit((position, box) -> triangleBounds(moved, triangles, position, box, 0));
+		return new TriangleMesh(moved, triangles, refit, getMaterial());
+	}
+
+	/**
+	 * Returns the number of triangles of this mesh.
+	 * 
+	 * @return the number of triangles
+	 */
+	public int getNumberOfTriangles() {
+		return triangles.length / 3;
+	}
+
+	/**
+	 * Returns the number of vertices of this mesh.
+	 * 
+	 * @return the number of vertices
+	 */
+	public int getNumberOfVertices() {
+		return vertices.length / 3;
+	}
+
+	/**
+	 * Returns the bounding volume hierarchy over the triangles of this mesh.
+	 * 
+	 * @return the bounding volume hierarchy over the triangles
+	 */
+	public BoundingVolumeHierarchy getBoundingVolumeHierarchy() {
+		return hierarchy;
+	}
+
+	/**
+	 * Finds the nearest triangle of a mesh a ray intersects. The ray is
+	 * transformed once per query into a space where it points along the z axis,
+	 * so each triangle only needs a few 2D edge tests.
+	 * 
+	 * @author Dillon Elste
+	 */
+	private static final class Query implements BoundingVolumeHierarchy.Visitor {
+		private TriangleMesh mesh;
+		private int[] stack = new int[64];
+
+		private final double[] origin = new double[3];
+		private final double[] direction = new double[3];
+
+		/**
+		 * The axis the ray mostly points along and the two other axes.
+		 */
+		private int kx, ky, kz;
+
+		/**
+		 * The shear turning the direction of the ray into the z axis.
+		 */
+		private double sx, sy, sz;
+
+		private double distance;
+		private int triangle;
+
+		/**
+		 * Finds the nearest triangle the ray intersects closer than
+		 * {@code maxDistance}.
+		 * 
+		 * @return true if a triangle is hit
+		 */
+		boolean find(TriangleMesh mesh, Ray ray, double maxDistance) {
+			this.mesh = mesh;
+			origin[0] = ray.origin.x;
+			origin[1] = ray.origin.y;
+			origin[2] = ray.origin.z;
+
+			direction[0] = ray.direction.x;
+			direction[1] = ray.direction.y;
+			direction[2] = ray.direction.z;
+
+			double ax = Math.abs(direction[0]), ay = Math.abs(direction[1]), az = Math.abs(direction[2]);
+			kz = ax > ay ? (ax > az ? 0 : 2) : (ay > az ? 1 : 2);
+			kx = (kz + 1) % 3;
+			ky = (kx + 1) % 3;
+
+			if (direction[kz] < 0) {
+				// Swapping the axes keeps the winding of the triangles.
+				int temp = kx;
+				kx = ky;
+				ky = temp;
+			}
+			sx = direction[kx] / direction[kz];
+			sy = direction[ky] / direction[kz];
+			sz = 1 / direction[kz];
+
+			BoundingVolumeHierarchy hierarchy = mesh.hierarchy;
+			if (stack.length < hierarchy.getStackSize())
+				stack = new int[hierarchy.getStackSize()];
+
+			distance = Double.POSITIVE_INFINITY;
+			triangle = -1;
+			hierarchy.traverse(ray, maxDistance, this, stack);
+			this.mesh = null;
+
+			return triangle >= 0;
+		}
+
+		@Override
+		public double visit(int first, int count, double maxDistance) {
+			float[] vertices = mesh.vertices;
+			int[] triangles = mesh.triangles;
+			double ox = origin[kx], oy = origin[ky], oz = origin[kz];
+
+			for (int t = first; t < first + count; t++) {
+				int a = 3 * triangles[3 * t], b = 3 * triangles[3 * t + 1], c = 3 * triangles[3 * t + 2];
+
+				// The vertices relative to the origin of the ray.
+				double az = vertices[a + kz] - oz, bz = vertices[b + kz] - oz, cz = vertices[c + kz] - oz;
+				double ax = vertices[a + kx] - ox - sx * az, ay = vertices[a + ky] - oy - sy * az;
+				double bx = vertices[b + kx] - ox - sx * bz, by = vertices[b + ky] - oy - sy * bz;
+				double cx = vertices[c + kx] - ox - sx * cz, cy = vertices[c + ky] - oy - sy * cz;
+
+				// Scaled barycentric coordinates, which all have the same sign if the ray
+				// passes through the triangle.
+				double u = cx * by - cy * bx;
+				double v = ax * cy - ay * cx;
+				double w = bx * ay - by * ax;
+				if ((u < 0 || v < 0 || w < 0) && (u > 0 || v > 0 || w > 0))
+					continue;
+
+				double determinant = u + v + w;
+				if (determinant == 0)
+					continue;
+
+				double scaledDistance = (u * az + v * bz + w * cz) * sz;
+				if (determinant < 0) {
+					scaledDistance = -scaledDistance;
+					determinant = -determinant;
+				}
+
+				if (scaledDistance <= mesh.minDistance * determinant || scaledDistance >= maxDistance * determinant)
+					continue;
+
+				maxDistance = scaledDistance / determinant;
+				distance = maxDistance;
+				triangle = t;
+			}
+
+			return maxDistance;
+		}
+	}
+}
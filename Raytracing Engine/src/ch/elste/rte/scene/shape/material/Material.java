@@ -1,42 +1,109 @@
-package ch.elste.rte.scene.shape.material;
-
-import ch.elste.math.Vector;
-import ch.elste.rte.image.Pixel;
-
-public abstract class Material {
-	public Pixel diffuseColor;
-	public double specular;
-
-	/**
-	 * The specular color is the tint given to reflections. In metals this is the
-	 * same as the diffuse or base color.
-	 */
-	public Pixel specularColor;
-	public double metallic;
-	public double roughness;
-
-	/**
-	 * The Schlick reflectance is an approximaton for the fresnel equation. It
-	 * returns the specular color of a material at a specific angle between the
-	 * light ray and the normal of the surface. It is defined as
-	 * <p>
-	 * {@code F(l,n)=F0+(1-F0)(1-(l*n))^5}
-	 * </p>
-	 * <p>
-	 * With
-	 * <li>F0=specularColor</li>
-	 * <li>l =direction of incoming light</li>
-	 * <li>n =normal of the surface</li>
-	 * </p>
-	 * 
-	 * @param lightDirection
-	 *                       the direction of the light hitting the surface
-	 * @param normal
-	 *                       the normal of the surface being hit by the ray of light
-	 * 
-	 * @return the resulting color
-	 */
-	public Pixel getSchlickReflectance(Vector lightDirection, Vector normal) {
-		return specularColor.add(specularColor.scale(-1).add(1).scale(Math.pow(1 - normal.dot(lightDirection), 5)));
-	}
-}
+package ch.elste.rte.scene.shape.material;
+
+import ch.elste.math.Vector;
+import ch.elste.rte.image.Radiance;
+
+/**
+ * The material describes how the surface of a primitive reflects light. The
+ * diffuse part scatters the light of the lights in all directions, the
+ * specular part mirrors the scene. How much is mirrored depends on the angle
+ * the surface is seen at, as given by {@link #getSchlickReflectance(double)}.
+ * 
+ * @author Dillon Elste
+ */
+public class Material {
+	public Radiance diffuseColor;
+	public double specular;
+
+	/**
+	 * The specular color is the tint given to reflections. In metals this is the
+	 * same as the diffuse or base color. A material without specular color
+	 * doesn't reflect at all.
+	 */
+	public Radiance specularColor;
+
+	/**
+	 * How much of a metal the material is, between 0 and 1. Metals have no
+	 * diffuse part, so the diffuse color is scaled by {@code 1 - metallic}.
+	 */
+	public double metallic;
+	public double roughness;
+
+	/**
+	 * Creates a new diffuse material, which doesn't reflect.
+	 * 
+	 * @param diffuseColor
+	 *            the diffuse color
+	 */
+	public Material(Radiance diffuseColor) {
+		this(diffuseColor, null, 0, 0);
+	}
+
+	/**
+	 * Creates a new material with given values.
+	 * 
+	 * @param diffuseColor
+	 *            the diffuse color
+	 * @param specularColor
+	 *            the tint of reflections or null if the material doesn't reflect
+	 * @param metallic
+	 *            how much of a metal the material is, between 0 and 1
+	 * @param roughness
+	 *            the roughness of the surface
+	 */
+	public Material(Radiance diffuseColor, Radiance specularColor, double metallic, double roughness) {
+		this.diffuseColor = diffuseColor;
+		this.specularColor = specularColor;
+		this.metallic = metallic;
+		this.roughness = roughness;
+	}
+
+	/**
+	 * Returns whether the material mirrors the scene.
+	 * 
+	 * @return true if the material has a specular color other than black
+	 */
+	public boolean isReflective() {
+		return specularColor != null && (specularColor.r > 0 || specularColor.g > 0 || specularColor.b > 0);
+	}
+
+	/**
+	 * The Schlick reflectance is an approximaton for the fresnel equation. It
+	 * returns the specular color of a material at a specific angle between the
+	 * light ray and the normal of the surface. It is defined as
+	 * <p>
+	 * {@code F(l,n)=F0+(1-F0)(1-(l*n))^5}
+	 * </p>
+	 * <p>
+	 * With
+	 * <li>F0=specularColor</li>
+	 * <li>l =direction of incoming light</li>
+	 * <li>n =normal of the surface</li>
+	 * </p>
+	 * 
+	 * @param lightDirection
+	 *                       the direction of the light hitting the surface
+	 * @param normal
+	 *                       the normal of the surface being hit by the ray of light
+	 * 
+	 * @return the resulting color
+	 */
+	public Radiance getSchlickReflectance(Vector lightDirection, Vector normal) {
+		return getSchlickReflectance(normal.dot(lightDirection));
+	}
+
+	/**
+	 * Returns the Schlick reflectance for the cosine of the angle between the
+	 * light and the normal of the surface, without creating any vectors.
+	 * 
+	 * @param cosine
+	 *            the cosine of the angle between the light and the normal
+	 * 
+	 * @return the resulting color
+	 * 
+	 * @see #getSchlickReflectance(Vector, Vector)
+	 */
+	public Radiance getSchlickReflectance(double cosine) {
+		return specularColor.add(specularColor.scale(-1).add(1).scale(Math.pow(1 - cosine, 5)));
+	}
+}